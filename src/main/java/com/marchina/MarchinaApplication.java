@@ -9,7 +9,11 @@ import org.springframework.context.annotation.ComponentScan;
     "com.marchina.agent",
     "com.marchina.controller",
     "com.marchina.model",
-    "com.marchina.config"
+    "com.marchina.config",
+    "com.marchina.deadline",
+    "com.marchina.llm",
+    "com.marchina.service",
+    "com.marchina.speech"
 })
 public class MarchinaApplication {
 
@@ -1,24 +1,31 @@
 package com.marchina.agent;
 
 // import com.marchina.model.AgentResponse;
+import com.marchina.agent.mermaid.MermaidDiagramType;
+import com.marchina.agent.mermaid.MermaidValidationResult;
 import com.marchina.model.Diagram;
+import com.marchina.deadline.Deadline;
+import com.marchina.deadline.DeadlineExceededException;
+import com.marchina.llm.ChatModelProvider;
+import com.marchina.llm.ModelTask;
+import com.marchina.llm.LlmCapacityException;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Component;
 
-// Added for JSON parsing
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.JsonProcessingException;
-
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map; // For parsing JSON
 import java.util.Optional; // Import Optional
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.marchina.model.Project;
 import com.marchina.model.DiagramGenerationResult;
@@ -29,9 +36,14 @@ public class ClassDiagramAgent {
     private static final int MAX_RETRIES = 3;
 
     private final ChatLanguageModel chatModel;
+    private final ChatLanguageModel generationModel;
+    private final ChatModelProvider chatModelProvider;
+    private final StreamingChatLanguageModel streamingChatModel;
     private final DiagramValidator diagramValidator;
     private final JdbcTemplate jdbcTemplate;
-    private final ObjectMapper objectMapper; // For JSON parsing
+    private final DiagramResponseExtractor responseExtractor;
+    private final SpeculativeGenerator speculativeGenerator;
+    private final DiagramRepairer diagramRepairer;
 
     private final RowMapper<Diagram> diagramRowMapper = (rs, rowNum) -> {
         Diagram diagram = new Diagram();
@@ -43,12 +55,18 @@ public class ClassDiagramAgent {
         return diagram;
     };
 
-    // Added objectMapper
-    public ClassDiagramAgent(ChatLanguageModel chatModel, DiagramValidator diagramValidator, JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) { 
-        this.chatModel = chatModel;
+    public ClassDiagramAgent(ChatModelProvider chatModelProvider, DiagramValidator diagramValidator, JdbcTemplate jdbcTemplate, DiagramResponseExtractor responseExtractor,
+                             SpeculativeGenerator speculativeGenerator, DiagramRepairer diagramRepairer) {
+        this.chatModel = chatModelProvider.forAgent("class", ModelTask.GENERATION);
+        // Generation bypasses the response cache, diagrams are cached only once they pass validation
+        this.generationModel = chatModelProvider.uncachedForAgent("class");
+        this.chatModelProvider = chatModelProvider;
+        this.streamingChatModel = chatModelProvider.streamingForAgent("class", ModelTask.EXPLANATION);
         this.diagramValidator = diagramValidator;
         this.jdbcTemplate = jdbcTemplate;
-        this.objectMapper = objectMapper; // Inject ObjectMapper
+        this.responseExtractor = responseExtractor;
+        this.speculativeGenerator = speculativeGenerator;
+        this.diagramRepairer = diagramRepairer;
     }
 
     /**
@@ -56,12 +74,16 @@ public class ClassDiagramAgent {
      * @return The created Diagram object, or empty Optional if failed.
      */
     // Changed signature to return Optional<Diagram>
-    public Optional<Diagram> generateAndSaveClassDiagram(Project project, String requirements) { 
+    public Optional<Diagram> generateAndSaveClassDiagram(Project project, String requirements) {
+        return generateAndSaveClassDiagram(project, requirements, ProgressListener.NONE);
+    }
+
+    public Optional<Diagram> generateAndSaveClassDiagram(Project project, String requirements, ProgressListener progressListener) {
         try {
             Long projectId = project.getId();
             logger.info("Attempting to generate class diagram for project {} ('{}')", projectId, project.getName());
 
-            DiagramGenerationResult result = generateClassDiagram(project, requirements);
+            DiagramGenerationResult result = generateClassDiagram(project, requirements, progressListener);
             if (!result.success()) {
                 logger.error("Failed to generate class diagram content: {}", result.errorMessage());
                 throw new RuntimeException("Failed to generate class diagram content: " + result.errorMessage());
@@ -96,6 +118,8 @@ public class ClassDiagramAgent {
             }
 
             logger.info("Saved class diagram '{}' (ID: {}) for project {}", diagramName, createdDiagram.getId(), projectId);
+            progressListener.onProgress(GenerationStage.PERSISTED, Map.of(
+                    "diagramId", createdDiagram.getId(), "type", "Class Diagram", "name", diagramName));
             return Optional.of(createdDiagram); // Return the created diagram
 
         } catch (Exception e) {
@@ -106,6 +130,14 @@ public class ClassDiagramAgent {
 
     // Updated to accept Project and return DiagramGenerationResult
     public DiagramGenerationResult generateClassDiagram(Project project, String requirements) {
+        return generateClassDiagram(project, requirements, ProgressListener.NONE);
+    }
+
+    public DiagramGenerationResult generateClassDiagram(Project project, String requirements, ProgressListener progressListener) {
+        return speculativeGenerator.timed("class", () -> generateClassDiagramAttempts(project, requirements, progressListener));
+    }
+
+    private DiagramGenerationResult generateClassDiagramAttempts(Project project, String requirements, ProgressListener progressListener) {
         try {
             logger.info("Generating class diagram for project: {}, requirements: {}", project.getId(), requirements);
 
@@ -114,9 +146,30 @@ public class ClassDiagramAgent {
             String projectName = project.getName();
             String projectDescription = project.getDescription(); // Assuming Project has description
 
+            AtomicReference<DiagramCandidate> lastInvalid = new AtomicReference<>();
+
             while (retryCount < MAX_RETRIES) {
+                Deadline.checkCurrent("class.attempt"); // No retries once the request's budget is spent
+                if (retryCount > 0) {
+                    speculativeGenerator.recordValidationRetry("class");
+                }
                 logger.info("Attempt {} of {} to generate class diagram", retryCount + 1, MAX_RETRIES);
 
+                // Repair the previous attempt's output instead of regenerating the whole diagram
+                DiagramCandidate invalid = lastInvalid.getAndSet(null);
+                if (invalid != null && diagramRepairer.isEnabled()) {
+                    DiagramCandidate repaired = diagramRepairer.repair(invalid, MermaidDiagramType.CLASS, retryCount + 1, progressListener);
+                    if (repaired.isValid()) {
+                        logger.info("Repaired class diagram passed validation. Name: '{}'", repaired.name());
+                        return repaired.toResult();
+                    }
+                    if (!repaired.mermaidCode().equals(invalid.mermaidCode())) {
+                        lastInvalid.set(repaired); // Made progress, keep repairing
+                    }
+                    retryCount++;
+                    continue;
+                }
+
                 // Update prompt to include project context and ask for JSON
                 String classDiagramPrompt = String.format("""
                     Project Context:
@@ -146,47 +199,93 @@ public class ClassDiagramAgent {
                     Do not include any other text or markdown formatting outside the JSON object.
                     """, projectName, projectDescription, currentRequirements);
 
-                String llmResponse = chatModel.generate(classDiagramPrompt);
-
-                try {
-                    // Parse the JSON response
-                    Map<String, String> parsedResponse = objectMapper.readValue(llmResponse, Map.class);
-                    String diagramName = parsedResponse.get("name");
-                    String mermaidCode = parsedResponse.get("diagram");
-
-                    if (diagramName == null || diagramName.trim().isEmpty() || mermaidCode == null || mermaidCode.trim().isEmpty()) {
-                         throw new JsonProcessingException("Missing 'name' or 'diagram' in LLM JSON response") {};
+                if (retryCount == 0 && speculativeGenerator.isEnabled()) {
+                    Optional<DiagramGenerationResult> candidate = speculativeGenerator.firstValid(
+                            "class", classDiagramPrompt, (response, attempt) -> parseCandidate(response, attempt, progressListener, lastInvalid), progressListener);
+                    if (candidate.isPresent()) {
+                        return candidate.get();
                     }
+                    logger.warn("No speculative class diagram candidate passed validation, falling back to sequential retries");
+                    retryCount++;
+                    continue;
+                }
 
-                    // Validate the generated class diagram code (using generic syntax validator)
-                    String validationResult = diagramValidator.validateMermaidSyntax(mermaidCode);
-                    if (validationResult.contains("valid")) {
-                        logger.info("Successfully generated and validated class diagram. Name: '{}'", diagramName);
-                        return DiagramGenerationResult.success(diagramName, mermaidCode);
-                    } else {
-                         logger.warn("Generated class diagram failed validation (Attempt {}). Feedback: {}", retryCount + 1, validationResult);
-                         currentRequirements = requirements; // Reset/refine requirements for retry
-                         retryCount++;
-                    }
+                // Only the first attempt may be served from the cache, a retry needs a fresh response
+                Optional<String> cached = retryCount == 0 ? chatModelProvider.cachedResponse("class", classDiagramPrompt) : Optional.empty();
+                String llmResponse = cached.orElseGet(() -> generationModel.generate(classDiagramPrompt));
+                progressListener.onProgress(GenerationStage.ATTEMPT_GENERATED, Map.of(
+                        "attempt", retryCount + 1, "maxAttempts", MAX_RETRIES));
 
-                } catch (JsonProcessingException e) {
-                    logger.error("Failed to parse JSON response from LLM (Attempt {}): {}. Response: '{}'", retryCount + 1, e.getMessage(), llmResponse);
-                    retryCount++; // Retry on parse failure
+                Optional<DiagramGenerationResult> candidate = parseCandidate(llmResponse, retryCount + 1, progressListener, lastInvalid);
+                if (candidate.isPresent()) {
+                    if (cached.isEmpty()) {
+                        chatModelProvider.cacheResponse("class", classDiagramPrompt, llmResponse);
+                    }
+                    return candidate.get();
                 }
+                if (cached.isPresent()) {
+                    chatModelProvider.evictResponse("class", classDiagramPrompt);
+                }
+                retryCount++;
             }
 
             logger.error("Failed to generate valid class diagram after {} attempts for project {}", MAX_RETRIES, project.getId());
             return DiagramGenerationResult.failure("Failed to generate valid class diagram after " + MAX_RETRIES + " attempts");
 
+        } catch (LlmCapacityException | DeadlineExceededException e) {
+            // Let callers answer 503/504 instead of reporting a generation failure
+            throw e;
         } catch (Exception e) {
             logger.error("Error generating class diagram for project {}: {}", project.getId(), e.getMessage(), e);
             return DiagramGenerationResult.failure("Error generating class diagram: " + e.getMessage());
         }
     }
 
+    /**
+     * Parses the LLM's JSON response and validates the class diagram it contains.
+     *
+     * Candidates that parse but fail validation are kept in lastInvalid so the next attempt can repair them.
+     *
+     * @return The successful result, or empty if the response was unusable or failed validation
+     */
+    private Optional<DiagramGenerationResult> parseCandidate(String llmResponse, int attempt, ProgressListener progressListener,
+                                                             AtomicReference<DiagramCandidate> lastInvalid) {
+        // Extract name and diagram, tolerating markdown fences, surrounding prose and bad escapes
+        DiagramGenerationResult parsed = responseExtractor.extract("class", llmResponse);
+        if (!parsed.success()) {
+            logger.error("Failed to parse JSON response from LLM (Attempt {}): {}. Response: '{}'", attempt, parsed.errorMessage(), llmResponse);
+            return Optional.empty();
+        }
+        String diagramName = parsed.name();
+        String mermaidCode = parsed.diagramCode();
+
+        // Validate the generated class diagram code with the local Mermaid parser
+        MermaidValidationResult validationResult = diagramValidator.validate(mermaidCode, MermaidDiagramType.CLASS);
+        progressListener.onProgress(GenerationStage.VALIDATION_RESULT, Map.of(
+                "attempt", attempt, "valid", validationResult.valid(), "feedback", String.valueOf(validationResult.describe())));
+        if (validationResult.valid()) {
+            logger.info("Successfully generated and validated class diagram. Name: '{}'", diagramName);
+            return Optional.of(DiagramGenerationResult.success(diagramName, mermaidCode));
+        }
+        logger.warn("Generated class diagram failed validation (Attempt {}). Feedback: {}", attempt, validationResult.describe());
+        lastInvalid.set(new DiagramCandidate(diagramName, mermaidCode, validationResult));
+        return Optional.empty();
+    }
+
     // explainClassDiagram method remains the same
     public String explainClassDiagram(String mermaidCode) {
-        String prompt = String.format("""
+        return chatModel.generate(explainPrompt(mermaidCode));
+    }
+
+    /**
+     * Streams the explanation of the given class diagram token by token.
+     */
+    public void explainClassDiagram(String mermaidCode, StreamingResponseHandler<AiMessage> handler) {
+        streamingChatModel.generate(explainPrompt(mermaidCode), handler);
+    }
+
+    private String explainPrompt(String mermaidCode) {
+        return String.format("""
             Explain the following Mermaid class diagram code in simple terms:
             %s
 
@@ -199,7 +298,5 @@ public class ClassDiagramAgent {
 
             Provide a clear and comprehensive explanation.
             """, mermaidCode);
-
-        return chatModel.generate(prompt);
     }
 } 
\ No newline at end of file
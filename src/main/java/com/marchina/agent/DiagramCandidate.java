@@ -0,0 +1,23 @@
+package com.marchina.agent;
+
+import com.marchina.agent.mermaid.MermaidValidationResult;
+import com.marchina.model.DiagramGenerationResult;
+
+/**
+ * A generated diagram together with its validation outcome.
+ * Invalid candidates are kept so the next attempt can repair them instead of starting over.
+ */
+public record DiagramCandidate(
+    String name,                       // The LLM-generated diagram name
+    String mermaidCode,                // The Mermaid code as generated or repaired
+    MermaidValidationResult validation // Result of validating mermaidCode
+) {
+
+    public boolean isValid() {
+        return validation.valid();
+    }
+
+    public DiagramGenerationResult toResult() {
+        return DiagramGenerationResult.success(name, mermaidCode);
+    }
+}
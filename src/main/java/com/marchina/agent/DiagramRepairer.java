@@ -0,0 +1,148 @@
+package com.marchina.agent;
+
+import com.marchina.agent.mermaid.MermaidAutoFixer;
+import com.marchina.agent.mermaid.MermaidDiagramType;
+import com.marchina.agent.mermaid.MermaidValidationResult;
+import com.marchina.llm.ChatModelProvider;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Repairs diagrams that failed validation instead of regenerating them from scratch.
+ *
+ * The local {@link MermaidAutoFixer} is tried first. If errors remain and DIAGRAM_REPAIR_MODE is
+ * "llm" (the default), the diagram and its positioned errors are sent in a short "fix only these
+ * lines" prompt, which is far cheaper than another full generation and keeps everything that was
+ * already correct. "local" disables the repair prompt, "off" restores full regeneration.
+ */
+@Component
+public class DiagramRepairer {
+    private static final Logger logger = LoggerFactory.getLogger(DiagramRepairer.class);
+    private static final Pattern LINE_NUMBER = Pattern.compile("^\\s*\\d+\\s*[|:] ?");
+
+    private final ChatLanguageModel chatModel;
+    private final ChatModelProvider chatModelProvider;
+    private final MermaidAutoFixer autoFixer;
+    private final DiagramValidator diagramValidator;
+    private final MeterRegistry meterRegistry;
+    private final String mode;
+
+    public DiagramRepairer(ChatModelProvider chatModelProvider, MermaidAutoFixer autoFixer,
+                           DiagramValidator diagramValidator, MeterRegistry meterRegistry, Dotenv dotenv) {
+        // Repairs are cached only once they pass validation, a failed one must not be replayed
+        this.chatModel = chatModelProvider.uncachedForAgent("repair");
+        this.chatModelProvider = chatModelProvider;
+        this.autoFixer = autoFixer;
+        this.diagramValidator = diagramValidator;
+        this.meterRegistry = meterRegistry;
+        this.mode = dotenv.get("DIAGRAM_REPAIR_MODE", "llm").trim().toLowerCase();
+        logger.info("DiagramRepairer initialized with mode: {}", mode);
+    }
+
+    /**
+     * @return false if DIAGRAM_REPAIR_MODE is "off" and failed diagrams should be regenerated
+     */
+    public boolean isEnabled() {
+        return !"off".equals(mode);
+    }
+
+    /**
+     * Repairs an invalid candidate, locally first and with a short LLM prompt if that is not enough.
+     *
+     * @param invalid The candidate that failed validation
+     * @param type    The diagram type the agent was asked to produce
+     * @param attempt The attempt number reported to the progress listener
+     * @return The repaired candidate with its new validation result; still invalid if the repair failed
+     */
+    public DiagramCandidate repair(DiagramCandidate invalid, MermaidDiagramType type, int attempt,
+                                   ProgressListener progressListener) {
+        DiagramCandidate local = validated(invalid.name(), autoFixer.fix(invalid.mermaidCode(), type), type);
+        progressListener.onProgress(GenerationStage.VALIDATION_RESULT, Map.of(
+                "attempt", attempt, "valid", local.isValid(), "repair", "local",
+                "feedback", String.valueOf(local.validation().describe())));
+        record(type, "local", local.isValid());
+        if (local.isValid() || !"llm".equals(mode)) {
+            logger.info("Local repair of {} diagram {}", type, local.isValid() ? "succeeded" : "did not fix all errors");
+            return local;
+        }
+
+        String prompt = repairPrompt(local, type);
+        Optional<String> cached = chatModelProvider.cachedResponse("repair", prompt);
+        String llmResponse = cached.orElseGet(() -> chatModel.generate(prompt));
+        progressListener.onProgress(GenerationStage.ATTEMPT_GENERATED, Map.of("attempt", attempt, "repair", "llm"));
+
+        DiagramCandidate repaired = validated(invalid.name(), autoFixer.fix(stripLineNumbers(llmResponse), type), type);
+        if (repaired.isValid() && cached.isEmpty()) {
+            chatModelProvider.cacheResponse("repair", prompt, llmResponse);
+        } else if (!repaired.isValid() && cached.isPresent()) {
+            chatModelProvider.evictResponse("repair", prompt);
+        }
+        progressListener.onProgress(GenerationStage.VALIDATION_RESULT, Map.of(
+                "attempt", attempt, "valid", repaired.isValid(), "repair", "llm",
+                "feedback", String.valueOf(repaired.validation().describe())));
+        record(type, "llm", repaired.isValid());
+        if (!repaired.isValid()) {
+            logger.warn("LLM repair of {} diagram failed validation (Attempt {}). Feedback: {}",
+                    type, attempt, repaired.validation().describe());
+        }
+        return repaired;
+    }
+
+    private DiagramCandidate validated(String name, String mermaidCode, MermaidDiagramType type) {
+        MermaidValidationResult validation = diagramValidator.validate(mermaidCode, type);
+        return new DiagramCandidate(name, mermaidCode, validation);
+    }
+
+    private String repairPrompt(DiagramCandidate candidate, MermaidDiagramType type) {
+        StringBuilder numbered = new StringBuilder();
+        String[] lines = candidate.mermaidCode().split("\\R", -1);
+        for (int i = 0; i < lines.length; i++) {
+            numbered.append(i + 1).append(" | ").append(lines[i]).append('\n');
+        }
+
+        return String.format("""
+            The following Mermaid %s diagram failed validation. Line numbers are shown for reference only.
+
+            %s
+            Errors:
+            %s
+
+            Fix only the lines with errors and keep every other line exactly as it is.
+            Respond ONLY with the corrected Mermaid code, without line numbers, markdown fences or explanation.
+            """, type.getKeyword(), numbered, candidate.validation().describe());
+    }
+
+    /** Removes "12 | " prefixes in case the model echoed the numbered listing back. */
+    private String stripLineNumbers(String response) {
+        String[] lines = response.strip().split("\\R");
+        for (String line : lines) {
+            if (!line.isBlank() && !line.trim().startsWith("```") && !LINE_NUMBER.matcher(line).find()) {
+                return response;
+            }
+        }
+        StringBuilder stripped = new StringBuilder();
+        for (String line : lines) {
+            stripped.append(LINE_NUMBER.matcher(line).replaceFirst("")).append('\n');
+        }
+        return stripped.toString();
+    }
+
+    private void record(MermaidDiagramType type, String method, boolean fixed) {
+        Counter.builder("marchina.diagram.repairs")
+                .description("Repairs of diagrams that failed validation, by method and outcome")
+                .tag("type", type.name())
+                .tag("method", method)
+                .tag("outcome", fixed ? "fixed" : "failed")
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,162 @@
+package com.marchina.agent;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marchina.model.DiagramGenerationResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the {"name", "diagram"} object from a diagram agent's LLM response.
+ *
+ * Models regularly wrap the JSON in ```json fences, surround it with prose, put raw line breaks
+ * or Mermaid backslashes into the string, or leave the quotes of Mermaid labels unescaped. Strict
+ * parsing rejects all of these and costs a full regeneration. The extractor tries, in order:
+ * strict parsing, the first balanced JSON object in the text (as is, then with string escapes
+ * repaired), and finally a field-by-field scan that tolerates unescaped quotes. Every response
+ * recovered by the later steps is counted as a retry avoided.
+ */
+@Component
+public class DiagramResponseExtractor {
+    private static final Logger logger = LoggerFactory.getLogger(DiagramResponseExtractor.class);
+    private static final Pattern NAME_FIELD = Pattern.compile("\"name\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+    private static final Pattern DIAGRAM_FIELD = Pattern.compile("\"diagram\"\\s*:\\s*\"");
+    private static final Pattern VALUE_END = Pattern.compile("^\"\\s*(?:,\\s*\"[A-Za-z_]+\"\\s*:|}[^\"]*$)");
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    public DiagramResponseExtractor(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Binds the LLM response to a generation result.
+     *
+     * @param agent       Agent name, used for metrics
+     * @param llmResponse The raw model output
+     * @return A successful result with name and Mermaid code, or a failure describing why nothing usable was found
+     */
+    public DiagramGenerationResult extract(String agent, String llmResponse) {
+        if (llmResponse == null || llmResponse.isBlank()) {
+            return unparseable(agent, "LLM response is empty");
+        }
+
+        DiagramGenerationResult strict = bind(llmResponse.strip());
+        if (strict != null) {
+            return strict;
+        }
+
+        for (String candidate : JsonObjects.embedded(llmResponse)) {
+            DiagramGenerationResult result = bind(candidate);
+            if (result != null) {
+                return recovered(agent, "embedded", result);
+            }
+            result = bind(JsonObjects.repairEscapes(candidate));
+            if (result != null) {
+                return recovered(agent, "escapes", result);
+            }
+        }
+
+        DiagramGenerationResult scanned = scanFields(llmResponse);
+        if (scanned != null) {
+            return recovered(agent, "fields", scanned);
+        }
+        return unparseable(agent, "No JSON object with 'name' and 'diagram' found in LLM response");
+    }
+
+    private DiagramGenerationResult bind(String json) {
+        try {
+            JsonNode node = objectMapper.readTree(json);
+            if (node == null || !node.isObject()) {
+                return null;
+            }
+            return result(node.path("name").asText(null), node.path("diagram").asText(null));
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private DiagramGenerationResult result(String name, String diagram) {
+        if (name == null || name.isBlank() || diagram == null || diagram.isBlank()) {
+            return null;
+        }
+        return DiagramGenerationResult.success(name.trim(), diagram.strip());
+    }
+
+    /**
+     * Last resort for diagrams whose label quotes were not escaped: the diagram string is taken to
+     * end at the first quote that is followed by another key or by the closing brace.
+     */
+    private DiagramGenerationResult scanFields(String text) {
+        Matcher name = NAME_FIELD.matcher(text);
+        Matcher diagram = DIAGRAM_FIELD.matcher(text);
+        if (!name.find() || !diagram.find()) {
+            return null;
+        }
+        int start = diagram.end();
+        for (int i = start; i < text.length(); i++) {
+            if (text.charAt(i) == '"' && text.charAt(i - 1) != '\\' && VALUE_END.matcher(text.substring(i)).find()) {
+                return result(unescape(name.group(1)), unescape(text.substring(start, i)));
+            }
+        }
+        return null;
+    }
+
+    /** Lenient JSON string unescaping; unknown escapes keep the escaped character. */
+    private String unescape(String value) {
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                unescaped.append(c);
+                continue;
+            }
+            char next = value.charAt(++i);
+            switch (next) {
+                case 'n' -> unescaped.append('\n');
+                case 't' -> unescaped.append('\t');
+                case 'r' -> { }
+                case 'b', 'f' -> { }
+                case 'u' -> {
+                    if (JsonObjects.isUnicodeEscape(value, i + 1)) {
+                        unescaped.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    } else {
+                        unescaped.append(next);
+                    }
+                }
+                default -> unescaped.append(next);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    private DiagramGenerationResult recovered(String agent, String method, DiagramGenerationResult result) {
+        logger.debug("Recovered {} response via {} extraction", agent, method);
+        Counter.builder("marchina.diagram.response.recovered")
+                .description("LLM responses strict JSON parsing would have rejected, i.e. retries avoided")
+                .tag("agent", agent)
+                .tag("method", method)
+                .register(meterRegistry)
+                .increment();
+        return result;
+    }
+
+    private DiagramGenerationResult unparseable(String agent, String reason) {
+        Counter.builder("marchina.diagram.response.unparseable")
+                .description("LLM responses no extraction step could use")
+                .tag("agent", agent)
+                .register(meterRegistry)
+                .increment();
+        return DiagramGenerationResult.failure(reason);
+    }
+}
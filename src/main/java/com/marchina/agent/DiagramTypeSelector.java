@@ -0,0 +1,90 @@
+package com.marchina.agent;
+
+import com.marchina.agent.intent.HashedNgramClassifier;
+import com.marchina.agent.intent.IntentClassifier;
+import com.marchina.agent.intent.IntentTask;
+import com.marchina.llm.ChatModelProvider;
+import com.marchina.llm.ModelTask;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Picks the single most suitable diagram type for a set of project requirements.
+ * The local intent classifier answers when it is confident; otherwise the LLM is asked.
+ */
+@Component
+public class DiagramTypeSelector {
+    private static final Logger logger = LoggerFactory.getLogger(DiagramTypeSelector.class);
+    private static final List<String> VALID_TYPES = List.of("ERD", "Flowchart", "Sequence Diagram", "Class Diagram");
+    private static final String DEFAULT_TYPE = "Flowchart";
+
+    private final ChatLanguageModel chatModel;
+    private final IntentClassifier intentClassifier;
+
+    public DiagramTypeSelector(ChatModelProvider chatModelProvider, IntentClassifier intentClassifier) {
+        this.chatModel = chatModelProvider.forAgent("project", ModelTask.ROUTING);
+        this.intentClassifier = intentClassifier;
+    }
+
+    /**
+     * Determines the optimal diagram type for the requirements.
+     *
+     * @param detailedRequirements The extracted project requirements
+     * @return One of ERD, Flowchart, Sequence Diagram or Class Diagram
+     */
+    public String selectDiagramType(String detailedRequirements) {
+        Optional<HashedNgramClassifier.Prediction> local = intentClassifier.classify(IntentTask.DIAGRAM_TYPE, detailedRequirements);
+        if (local.isPresent()) {
+            logger.info("Selected diagram type {} locally (confidence {})",
+                    local.get().label(), String.format("%.2f", local.get().confidence()));
+            return local.get().label();
+        }
+
+        String analysisPrompt = String.format("""
+            Analyze these detailed project requirements and determine the single most appropriate diagram type to visualize them.
+            Available types: ERD, Flowchart, Sequence Diagram, Class Diagram.
+            Consider the focus of the requirements (data structure, process flow, interactions, object structure).
+            
+            Requirements:
+            %s
+            
+            Respond ONLY with the name of the single most appropriate diagram type (e.g., Flowchart, ERD, Sequence Diagram, Class Diagram).
+            """, detailedRequirements);
+
+        String llmResponse = chatModel.generate(analysisPrompt);
+        String optimalDiagramType = matchType(llmResponse);
+        if (optimalDiagramType == null) {
+            logger.warn("LLM returned invalid diagram type '{}'. Defaulting to {}.", llmResponse, DEFAULT_TYPE);
+            optimalDiagramType = DEFAULT_TYPE;
+        }
+        return optimalDiagramType;
+    }
+
+    /**
+     * Finds the diagram type in the LLM's answer, ignoring case, punctuation and surrounding text.
+     */
+    private String matchType(String llmResponse) {
+        String answer = llmResponse == null ? "" : llmResponse.toLowerCase(Locale.ROOT);
+        for (String type : VALID_TYPES) {
+            if (answer.contains(type.toLowerCase(Locale.ROOT))) {
+                return type;
+            }
+        }
+        if (answer.contains("entity relationship")) {
+            return "ERD";
+        }
+        if (answer.contains("sequence")) {
+            return "Sequence Diagram";
+        }
+        if (answer.contains("class")) {
+            return "Class Diagram";
+        }
+        return null;
+    }
+}
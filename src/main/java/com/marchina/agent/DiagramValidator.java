@@ -1,17 +1,75 @@
 package com.marchina.agent;
 
+import com.marchina.agent.mermaid.MermaidDiagramType;
+import com.marchina.agent.mermaid.MermaidParseResult;
+import com.marchina.agent.mermaid.MermaidParser;
+import com.marchina.agent.mermaid.MermaidValidationResult;
+import com.marchina.deadline.Deadline;
+import com.marchina.llm.ChatModelProvider;
+import com.marchina.llm.ModelTask;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import io.github.cdimascio.dotenv.Dotenv;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+/**
+ * Validates generated Mermaid diagrams.
+ * Syntax is always checked with the local {@link MermaidParser}. When DIAGRAM_VALIDATION_MODE
+ * is "semantic", diagrams that parse cleanly are additionally reviewed by the LLM.
+ */
 @Component
 public class DiagramValidator {
     private static final Logger logger = LoggerFactory.getLogger(DiagramValidator.class);
     private final ChatLanguageModel chatModel;
+    private final MermaidParser mermaidParser;
+    private final boolean semanticReview;
 
-    public DiagramValidator(ChatLanguageModel chatModel) {
-        this.chatModel = chatModel;
+    public DiagramValidator(ChatModelProvider chatModelProvider, MermaidParser mermaidParser, Dotenv dotenv) {
+        this.chatModel = chatModelProvider.forAgent("validator", ModelTask.VALIDATION);
+        this.mermaidParser = mermaidParser;
+        this.semanticReview = "semantic".equalsIgnoreCase(dotenv.get("DIAGRAM_VALIDATION_MODE", "local"));
+        logger.info("DiagramValidator initialized with {} validation", semanticReview ? "local + semantic" : "local");
+    }
+
+    /**
+     * Validates a diagram of the given type.
+     *
+     * @param mermaidCode The generated Mermaid code
+     * @param type        The diagram type the agent was asked to produce
+     * @return The validation result with positioned syntax errors or review feedback
+     */
+    public MermaidValidationResult validate(String mermaidCode, MermaidDiagramType type) {
+        long start = System.nanoTime();
+        MermaidParseResult parsed = mermaidParser.parse(mermaidCode, type);
+        logger.debug("Parsed {} diagram in {} us with {} errors", type, (System.nanoTime() - start) / 1000, parsed.errors().size());
+
+        if (!parsed.isValid()) {
+            return MermaidValidationResult.syntaxErrors(parsed.errors());
+        }
+        if (!semanticReview) {
+            return MermaidValidationResult.success();
+        }
+
+        Deadline.checkCurrent("validator.review");
+        String review = switch (type) {
+            case ERD -> validateERD(mermaidCode);
+            case FLOWCHART -> validateFlowChart(mermaidCode);
+            default -> validateMermaidSyntax(mermaidCode);
+        };
+        return isValidVerdict(review) ? MermaidValidationResult.success() : MermaidValidationResult.rejected(review);
+    }
+
+    /**
+     * The review prompts ask for the single word 'valid'; anything else (including "invalid")
+     * is treated as a rejection.
+     */
+    static boolean isValidVerdict(String review) {
+        if (review == null) {
+            return false;
+        }
+        String verdict = review.trim().toLowerCase().replaceAll("^[\\s'\"`*]+|[\\s'\".!`*]+$", "");
+        return verdict.equals("valid");
     }
 
     public String validateMermaidSyntax(String mermaidCode) {
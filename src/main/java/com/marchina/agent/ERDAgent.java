@@ -1,24 +1,31 @@
 package com.marchina.agent;
 
 // import com.marchina.model.AgentResponse;
+import com.marchina.agent.mermaid.MermaidDiagramType;
+import com.marchina.agent.mermaid.MermaidValidationResult;
 import com.marchina.model.Diagram;
+import com.marchina.deadline.Deadline;
+import com.marchina.deadline.DeadlineExceededException;
+import com.marchina.llm.ChatModelProvider;
+import com.marchina.llm.ModelTask;
+import com.marchina.llm.LlmCapacityException;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Component;
 
-// Added for JSON parsing
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.JsonProcessingException;
-
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map; // For parsing JSON
 import java.util.Optional; // Import Optional
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.marchina.model.Project;
 import com.marchina.model.DiagramGenerationResult;
@@ -32,9 +39,14 @@ public class ERDAgent {
     private static final int MAX_RETRIES = 3;
 
     private final ChatLanguageModel chatModel;
+    private final ChatLanguageModel generationModel;
+    private final ChatModelProvider chatModelProvider;
+    private final StreamingChatLanguageModel streamingChatModel;
     private final DiagramValidator diagramValidator;
     private final JdbcTemplate jdbcTemplate;
-    private final ObjectMapper objectMapper; // For JSON parsing
+    private final DiagramResponseExtractor responseExtractor;
+    private final SpeculativeGenerator speculativeGenerator;
+    private final DiagramRepairer diagramRepairer;
 
     private final RowMapper<Diagram> diagramRowMapper = (rs, rowNum) -> {
         Diagram diagram = new Diagram();
@@ -46,12 +58,18 @@ public class ERDAgent {
         return diagram;
     };
 
-    // Added objectMapper
-    public ERDAgent(ChatLanguageModel chatModel, DiagramValidator diagramValidator, JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) { 
-        this.chatModel = chatModel;
+    public ERDAgent(ChatModelProvider chatModelProvider, DiagramValidator diagramValidator, JdbcTemplate jdbcTemplate, DiagramResponseExtractor responseExtractor,
+                    SpeculativeGenerator speculativeGenerator, DiagramRepairer diagramRepairer) {
+        this.chatModel = chatModelProvider.forAgent("erd", ModelTask.GENERATION);
+        // Generation bypasses the response cache, diagrams are cached only once they pass validation
+        this.generationModel = chatModelProvider.uncachedForAgent("erd");
+        this.chatModelProvider = chatModelProvider;
+        this.streamingChatModel = chatModelProvider.streamingForAgent("erd", ModelTask.EXPLANATION);
         this.diagramValidator = diagramValidator;
         this.jdbcTemplate = jdbcTemplate;
-        this.objectMapper = objectMapper; // Inject ObjectMapper
+        this.responseExtractor = responseExtractor;
+        this.speculativeGenerator = speculativeGenerator;
+        this.diagramRepairer = diagramRepairer;
     }
 
     /**
@@ -59,12 +77,16 @@ public class ERDAgent {
      * @return The created Diagram object, or empty Optional if failed.
      */
     // Changed signature to return Optional<Diagram>
-    public Optional<Diagram> generateAndSaveERD(Project project, String requirements) { 
+    public Optional<Diagram> generateAndSaveERD(Project project, String requirements) {
+        return generateAndSaveERD(project, requirements, ProgressListener.NONE);
+    }
+
+    public Optional<Diagram> generateAndSaveERD(Project project, String requirements, ProgressListener progressListener) {
         try {
             Long projectId = project.getId();
             logger.info("Attempting to generate ERD for project {} ('{}')", projectId, project.getName());
 
-            DiagramGenerationResult result = generateERD(project, requirements);
+            DiagramGenerationResult result = generateERD(project, requirements, progressListener);
             if (!result.success()) {
                 logger.error("Failed to generate ERD content: {}", result.errorMessage());
                 throw new RuntimeException("Failed to generate ERD content: " + result.errorMessage());
@@ -99,6 +121,8 @@ public class ERDAgent {
             }
 
             logger.info("Saved ERD '{}' (ID: {}) for project {}", diagramName, createdDiagram.getId(), projectId);
+            progressListener.onProgress(GenerationStage.PERSISTED, Map.of(
+                    "diagramId", createdDiagram.getId(), "type", "ERD", "name", diagramName));
             return Optional.of(createdDiagram); // Return the created diagram
 
         } catch (Exception e) {
@@ -116,6 +140,14 @@ public class ERDAgent {
      */
     // Updated to accept Project and return DiagramGenerationResult
     public DiagramGenerationResult generateERD(Project project, String requirements) {
+        return generateERD(project, requirements, ProgressListener.NONE);
+    }
+
+    public DiagramGenerationResult generateERD(Project project, String requirements, ProgressListener progressListener) {
+        return speculativeGenerator.timed("erd", () -> generateERDAttempts(project, requirements, progressListener));
+    }
+
+    private DiagramGenerationResult generateERDAttempts(Project project, String requirements, ProgressListener progressListener) {
         try {
             logger.info("Generating ERD for project: {}, requirements: {}", project.getId(), requirements);
 
@@ -124,9 +156,30 @@ public class ERDAgent {
             String projectName = project.getName();
             String projectDescription = project.getDescription(); // Assuming Project has description
 
+            AtomicReference<DiagramCandidate> lastInvalid = new AtomicReference<>();
+
             while (retryCount < MAX_RETRIES) {
+                Deadline.checkCurrent("erd.attempt"); // No retries once the request's budget is spent
+                if (retryCount > 0) {
+                    speculativeGenerator.recordValidationRetry("erd");
+                }
                 logger.info("Attempt {} of {} to generate ERD", retryCount + 1, MAX_RETRIES);
 
+                // Repair the previous attempt's output instead of regenerating the whole diagram
+                DiagramCandidate invalid = lastInvalid.getAndSet(null);
+                if (invalid != null && diagramRepairer.isEnabled()) {
+                    DiagramCandidate repaired = diagramRepairer.repair(invalid, MermaidDiagramType.ERD, retryCount + 1, progressListener);
+                    if (repaired.isValid()) {
+                        logger.info("Repaired ERD passed validation. Name: '{}'", repaired.name());
+                        return repaired.toResult();
+                    }
+                    if (!repaired.mermaidCode().equals(invalid.mermaidCode())) {
+                        lastInvalid.set(repaired); // Made progress, keep repairing
+                    }
+                    retryCount++;
+                    continue;
+                }
+
                 // Update prompt to include project context and ask for JSON
                 String erdPrompt = String.format("""
                     Project Context:
@@ -157,47 +210,93 @@ public class ERDAgent {
                     Do not include any other text or markdown formatting outside the JSON object.
                     """, projectName, projectDescription, currentRequirements);
 
-                String llmResponse = chatModel.generate(erdPrompt);
-
-                try {
-                    // Parse the JSON response
-                    Map<String, String> parsedResponse = objectMapper.readValue(llmResponse, Map.class);
-                    String diagramName = parsedResponse.get("name");
-                    String mermaidCode = parsedResponse.get("diagram");
-
-                    if (diagramName == null || diagramName.trim().isEmpty() || mermaidCode == null || mermaidCode.trim().isEmpty()) {
-                         throw new JsonProcessingException("Missing 'name' or 'diagram' in LLM JSON response") {};
+                if (retryCount == 0 && speculativeGenerator.isEnabled()) {
+                    Optional<DiagramGenerationResult> candidate = speculativeGenerator.firstValid(
+                            "erd", erdPrompt, (response, attempt) -> parseCandidate(response, attempt, progressListener, lastInvalid), progressListener);
+                    if (candidate.isPresent()) {
+                        return candidate.get();
                     }
+                    logger.warn("No speculative ERD candidate passed validation, falling back to sequential retries");
+                    retryCount++;
+                    continue;
+                }
 
-                    // Validate the generated ERD code (using specific ERD validator)
-                    String validationResult = diagramValidator.validateERD(mermaidCode);
-                    if (validationResult.contains("valid")) {
-                        logger.info("Successfully generated and validated ERD. Name: '{}'", diagramName);
-                        return DiagramGenerationResult.success(diagramName, mermaidCode);
-                    } else {
-                         logger.warn("Generated ERD failed validation (Attempt {}). Feedback: {}", retryCount + 1, validationResult);
-                         currentRequirements = requirements; // Reset/refine requirements for retry
-                         retryCount++;
-                    }
+                // Only the first attempt may be served from the cache, a retry needs a fresh response
+                Optional<String> cached = retryCount == 0 ? chatModelProvider.cachedResponse("erd", erdPrompt) : Optional.empty();
+                String llmResponse = cached.orElseGet(() -> generationModel.generate(erdPrompt));
+                progressListener.onProgress(GenerationStage.ATTEMPT_GENERATED, Map.of(
+                        "attempt", retryCount + 1, "maxAttempts", MAX_RETRIES));
 
-                } catch (JsonProcessingException e) {
-                    logger.error("Failed to parse JSON response from LLM (Attempt {}): {}. Response: '{}'", retryCount + 1, e.getMessage(), llmResponse);
-                    retryCount++; // Retry on parse failure
+                Optional<DiagramGenerationResult> candidate = parseCandidate(llmResponse, retryCount + 1, progressListener, lastInvalid);
+                if (candidate.isPresent()) {
+                    if (cached.isEmpty()) {
+                        chatModelProvider.cacheResponse("erd", erdPrompt, llmResponse);
+                    }
+                    return candidate.get();
                 }
+                if (cached.isPresent()) {
+                    chatModelProvider.evictResponse("erd", erdPrompt);
+                }
+                retryCount++;
             }
 
             logger.error("Failed to generate valid ERD after {} attempts for project {}", MAX_RETRIES, project.getId());
             return DiagramGenerationResult.failure("Failed to generate valid ERD after " + MAX_RETRIES + " attempts");
 
+        } catch (LlmCapacityException | DeadlineExceededException e) {
+            // Let callers answer 503/504 instead of reporting a generation failure
+            throw e;
         } catch (Exception e) {
             logger.error("Error generating ERD for project {}: {}", project.getId(), e.getMessage(), e);
             return DiagramGenerationResult.failure("Error generating ERD: " + e.getMessage());
         }
     }
 
+    /**
+     * Parses the LLM's JSON response and validates the ERD it contains.
+     *
+     * Candidates that parse but fail validation are kept in lastInvalid so the next attempt can repair them.
+     *
+     * @return The successful result, or empty if the response was unusable or failed validation
+     */
+    private Optional<DiagramGenerationResult> parseCandidate(String llmResponse, int attempt, ProgressListener progressListener,
+                                                             AtomicReference<DiagramCandidate> lastInvalid) {
+        // Extract name and diagram, tolerating markdown fences, surrounding prose and bad escapes
+        DiagramGenerationResult parsed = responseExtractor.extract("erd", llmResponse);
+        if (!parsed.success()) {
+            logger.error("Failed to parse JSON response from LLM (Attempt {}): {}. Response: '{}'", attempt, parsed.errorMessage(), llmResponse);
+            return Optional.empty();
+        }
+        String diagramName = parsed.name();
+        String mermaidCode = parsed.diagramCode();
+
+        // Validate the generated ERD code with the local Mermaid parser
+        MermaidValidationResult validationResult = diagramValidator.validate(mermaidCode, MermaidDiagramType.ERD);
+        progressListener.onProgress(GenerationStage.VALIDATION_RESULT, Map.of(
+                "attempt", attempt, "valid", validationResult.valid(), "feedback", String.valueOf(validationResult.describe())));
+        if (validationResult.valid()) {
+            logger.info("Successfully generated and validated ERD. Name: '{}'", diagramName);
+            return Optional.of(DiagramGenerationResult.success(diagramName, mermaidCode));
+        }
+        logger.warn("Generated ERD failed validation (Attempt {}). Feedback: {}", attempt, validationResult.describe());
+        lastInvalid.set(new DiagramCandidate(diagramName, mermaidCode, validationResult));
+        return Optional.empty();
+    }
+
     // explainERD and generateSQL methods remain the same
     public String explainERD(String mermaidCode) {
-        String prompt = String.format("""
+        return chatModel.generate(explainPrompt(mermaidCode));
+    }
+
+    /**
+     * Streams the explanation of the given ERD token by token.
+     */
+    public void explainERD(String mermaidCode, StreamingResponseHandler<AiMessage> handler) {
+        streamingChatModel.generate(explainPrompt(mermaidCode), handler);
+    }
+
+    private String explainPrompt(String mermaidCode) {
+        return String.format("""
             Explain the following Mermaid ERD code in simple terms:
             %s
 
@@ -210,8 +309,6 @@ public class ERDAgent {
 
             Provide a clear and comprehensive explanation.
             """, mermaidCode);
-
-        return chatModel.generate(prompt);
     }
 
     public String generateSQL(String mermaidCode) {
@@ -2,25 +2,31 @@ package com.marchina.agent;
 
 // Remove AgentResponse import if no longer needed directly
 // import com.marchina.model.AgentResponse;
+import com.marchina.agent.mermaid.MermaidDiagramType;
+import com.marchina.agent.mermaid.MermaidValidationResult;
 import com.marchina.model.Diagram;
+import com.marchina.deadline.Deadline;
+import com.marchina.deadline.DeadlineExceededException;
+import com.marchina.llm.ChatModelProvider;
+import com.marchina.llm.ModelTask;
+import com.marchina.llm.LlmCapacityException;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Component;
 
-// Added for JSON parsing
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.JsonProcessingException;
-
-
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map; // For parsing JSON
 import java.util.Optional; // Import Optional
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.marchina.model.Project; // Import Project model
 import com.marchina.model.DiagramGenerationResult; // Import DiagramGenerationResult
@@ -31,9 +37,14 @@ public class FlowchartAgent {
     private static final int MAX_RETRIES = 3;
 
     private final ChatLanguageModel chatModel;
+    private final ChatLanguageModel generationModel;
+    private final ChatModelProvider chatModelProvider;
+    private final StreamingChatLanguageModel streamingChatModel;
     private final DiagramValidator diagramValidator;
     private final JdbcTemplate jdbcTemplate;
-    private final ObjectMapper objectMapper; // For JSON parsing
+    private final DiagramResponseExtractor responseExtractor;
+    private final SpeculativeGenerator speculativeGenerator;
+    private final DiagramRepairer diagramRepairer;
 
     private final RowMapper<Diagram> diagramRowMapper = (rs, rowNum) -> {
         Diagram diagram = new Diagram();
@@ -46,11 +57,18 @@ public class FlowchartAgent {
     };
 
     // Add ObjectMapper to constructor
-    public FlowchartAgent(ChatLanguageModel chatModel, DiagramValidator diagramValidator, JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
-        this.chatModel = chatModel;
+    public FlowchartAgent(ChatModelProvider chatModelProvider, DiagramValidator diagramValidator, JdbcTemplate jdbcTemplate, DiagramResponseExtractor responseExtractor,
+                          SpeculativeGenerator speculativeGenerator, DiagramRepairer diagramRepairer) {
+        this.chatModel = chatModelProvider.forAgent("flowchart", ModelTask.GENERATION);
+        // Generation bypasses the response cache, diagrams are cached only once they pass validation
+        this.generationModel = chatModelProvider.uncachedForAgent("flowchart");
+        this.chatModelProvider = chatModelProvider;
+        this.streamingChatModel = chatModelProvider.streamingForAgent("flowchart", ModelTask.EXPLANATION);
         this.diagramValidator = diagramValidator;
         this.jdbcTemplate = jdbcTemplate;
-        this.objectMapper = objectMapper; // Inject ObjectMapper
+        this.responseExtractor = responseExtractor;
+        this.speculativeGenerator = speculativeGenerator;
+        this.diagramRepairer = diagramRepairer;
     }
 
     /**
@@ -59,11 +77,15 @@ public class FlowchartAgent {
      */
     // Changed return type to Optional<Diagram>
     public Optional<Diagram> generateAndSaveFlowchart(Project project, String requirements) {
+        return generateAndSaveFlowchart(project, requirements, ProgressListener.NONE);
+    }
+
+    public Optional<Diagram> generateAndSaveFlowchart(Project project, String requirements, ProgressListener progressListener) {
         try {
             Long projectId = project.getId();
             logger.info("Attempting to generate flowchart for project {} ('{}')", projectId, project.getName());
 
-            DiagramGenerationResult result = generateFlowchart(project, requirements);
+            DiagramGenerationResult result = generateFlowchart(project, requirements, progressListener);
             if (!result.success()) {
                  logger.error("Failed to generate flowchart content: {}", result.errorMessage());
                 // Throw exception or return empty to indicate failure
@@ -102,6 +124,8 @@ public class FlowchartAgent {
             }
 
             logger.info("Saved flowchart '{}' (ID: {}) for project {}", diagramName, createdDiagram.getId(), projectId);
+            progressListener.onProgress(GenerationStage.PERSISTED, Map.of(
+                    "diagramId", createdDiagram.getId(), "type", "Flowchart", "name", diagramName));
             return Optional.of(createdDiagram); // Return the created diagram
 
         } catch (Exception e) {
@@ -115,6 +139,14 @@ public class FlowchartAgent {
 
     // Updated to accept Project and return DiagramGenerationResult
     public DiagramGenerationResult generateFlowchart(Project project, String requirements) {
+        return generateFlowchart(project, requirements, ProgressListener.NONE);
+    }
+
+    public DiagramGenerationResult generateFlowchart(Project project, String requirements, ProgressListener progressListener) {
+        return speculativeGenerator.timed("flowchart", () -> generateFlowchartAttempts(project, requirements, progressListener));
+    }
+
+    private DiagramGenerationResult generateFlowchartAttempts(Project project, String requirements, ProgressListener progressListener) {
         try {
             logger.info("Generating flowchart for project: {}, requirements: {}", project.getId(), requirements);
 
@@ -123,9 +155,30 @@ public class FlowchartAgent {
             String projectName = project.getName();
             String projectDescription = project.getDescription(); // Assuming Project has description
 
+            AtomicReference<DiagramCandidate> lastInvalid = new AtomicReference<>();
+
             while (retryCount < MAX_RETRIES) {
+                Deadline.checkCurrent("flowchart.attempt"); // No retries once the request's budget is spent
+                if (retryCount > 0) {
+                    speculativeGenerator.recordValidationRetry("flowchart");
+                }
                 logger.info("Attempt {} of {} to generate flowchart", retryCount + 1, MAX_RETRIES);
 
+                // Repair the previous attempt's output instead of regenerating the whole diagram
+                DiagramCandidate invalid = lastInvalid.getAndSet(null);
+                if (invalid != null && diagramRepairer.isEnabled()) {
+                    DiagramCandidate repaired = diagramRepairer.repair(invalid, MermaidDiagramType.FLOWCHART, retryCount + 1, progressListener);
+                    if (repaired.isValid()) {
+                        logger.info("Repaired flowchart passed validation. Name: '{}'", repaired.name());
+                        return repaired.toResult();
+                    }
+                    if (!repaired.mermaidCode().equals(invalid.mermaidCode())) {
+                        lastInvalid.set(repaired); // Made progress, keep repairing
+                    }
+                    retryCount++;
+                    continue;
+                }
+
                 // Update prompt to include project context and ask for JSON
                 String flowchartPrompt = String.format("""
                     Project Context:
@@ -155,40 +208,42 @@ public class FlowchartAgent {
                     Do not include any other text or markdown formatting outside the JSON object.
                     """, projectName, projectDescription, currentRequirements);
 
-                String llmResponse = chatModel.generate(flowchartPrompt);
-
-                try {
-                    // Parse the JSON response
-                    Map<String, String> parsedResponse = objectMapper.readValue(llmResponse, Map.class);
-                    String diagramName = parsedResponse.get("name");
-                    String mermaidCode = parsedResponse.get("diagram");
-
-                    if (diagramName == null || diagramName.trim().isEmpty() || mermaidCode == null || mermaidCode.trim().isEmpty()) {
-                         throw new JsonProcessingException("Missing 'name' or 'diagram' in LLM JSON response") {};
+                if (retryCount == 0 && speculativeGenerator.isEnabled()) {
+                    Optional<DiagramGenerationResult> candidate = speculativeGenerator.firstValid(
+                            "flowchart", flowchartPrompt, (response, attempt) -> parseCandidate(response, attempt, progressListener, lastInvalid), progressListener);
+                    if (candidate.isPresent()) {
+                        return candidate.get();
                     }
+                    logger.warn("No speculative flowchart candidate passed validation, falling back to sequential retries");
+                    retryCount++;
+                    continue;
+                }
 
-                    // Validate the generated flowchart code
-                    String validationResult = diagramValidator.validateFlowChart(mermaidCode);
-                    if (validationResult.contains("valid")) {
-                        logger.info("Successfully generated and validated flowchart. Name: '{}'", diagramName);
-                        return DiagramGenerationResult.success(diagramName, mermaidCode);
-                    } else {
-                         // If validation fails, log it and prepare for retry (or fail after max retries)
-                         logger.warn("Generated flowchart failed validation (Attempt {}). Feedback: {}", retryCount + 1, validationResult);
-                         // Potentially use validationResult to improve requirements for retry, omitted for brevity
-                         currentRequirements = requirements; // Reset/refine requirements for retry
-                         retryCount++;
-                    }
+                // Only the first attempt may be served from the cache, a retry needs a fresh response
+                Optional<String> cached = retryCount == 0 ? chatModelProvider.cachedResponse("flowchart", flowchartPrompt) : Optional.empty();
+                String llmResponse = cached.orElseGet(() -> generationModel.generate(flowchartPrompt));
+                progressListener.onProgress(GenerationStage.ATTEMPT_GENERATED, Map.of(
+                        "attempt", retryCount + 1, "maxAttempts", MAX_RETRIES));
 
-                } catch (JsonProcessingException e) {
-                    logger.error("Failed to parse JSON response from LLM (Attempt {}): {}. Response: '{}'", retryCount + 1, e.getMessage(), llmResponse);
-                    retryCount++; // Retry even on parse failure, maybe LLM corrects itself
+                Optional<DiagramGenerationResult> candidate = parseCandidate(llmResponse, retryCount + 1, progressListener, lastInvalid);
+                if (candidate.isPresent()) {
+                    if (cached.isEmpty()) {
+                        chatModelProvider.cacheResponse("flowchart", flowchartPrompt, llmResponse);
+                    }
+                    return candidate.get();
+                }
+                if (cached.isPresent()) {
+                    chatModelProvider.evictResponse("flowchart", flowchartPrompt);
                 }
+                retryCount++;
             }
 
             logger.error("Failed to generate valid flowchart after {} attempts for project {}", MAX_RETRIES, project.getId());
             return DiagramGenerationResult.failure("Failed to generate valid flowchart after " + MAX_RETRIES + " attempts");
 
+        } catch (LlmCapacityException | DeadlineExceededException e) {
+            // Let callers answer 503/504 instead of reporting a generation failure
+            throw e;
         } catch (Exception e) {
             logger.error("Error generating flowchart for project {}: {}", project.getId(), e.getMessage(), e);
             return DiagramGenerationResult.failure("Error generating flowchart: " + e.getMessage());
@@ -196,9 +251,52 @@ public class FlowchartAgent {
     }
 
 
+
+    /**
+     * Parses the LLM's JSON response and validates the flowchart it contains.
+     *
+     * Candidates that parse but fail validation are kept in lastInvalid so the next attempt can repair them.
+     *
+     * @return The successful result, or empty if the response was unusable or failed validation
+     */
+    private Optional<DiagramGenerationResult> parseCandidate(String llmResponse, int attempt, ProgressListener progressListener,
+                                                             AtomicReference<DiagramCandidate> lastInvalid) {
+        // Extract name and diagram, tolerating markdown fences, surrounding prose and bad escapes
+        DiagramGenerationResult parsed = responseExtractor.extract("flowchart", llmResponse);
+        if (!parsed.success()) {
+            logger.error("Failed to parse JSON response from LLM (Attempt {}): {}. Response: '{}'", attempt, parsed.errorMessage(), llmResponse);
+            return Optional.empty();
+        }
+        String diagramName = parsed.name();
+        String mermaidCode = parsed.diagramCode();
+
+        // Validate the generated flowchart code with the local Mermaid parser
+        MermaidValidationResult validationResult = diagramValidator.validate(mermaidCode, MermaidDiagramType.FLOWCHART);
+        progressListener.onProgress(GenerationStage.VALIDATION_RESULT, Map.of(
+                "attempt", attempt, "valid", validationResult.valid(), "feedback", String.valueOf(validationResult.describe())));
+        if (validationResult.valid()) {
+            logger.info("Successfully generated and validated flowchart. Name: '{}'", diagramName);
+            return Optional.of(DiagramGenerationResult.success(diagramName, mermaidCode));
+        }
+        logger.warn("Generated flowchart failed validation (Attempt {}). Feedback: {}", attempt, validationResult.describe());
+        lastInvalid.set(new DiagramCandidate(diagramName, mermaidCode, validationResult));
+        return Optional.empty();
+    }
+
     // explainFlowChart method remains the same
     public String explainFlowChart(String mermaidCode) {
-        String prompt = String.format("""
+        return chatModel.generate(explainPrompt(mermaidCode));
+    }
+
+    /**
+     * Streams the explanation of the given flowchart token by token.
+     */
+    public void explainFlowChart(String mermaidCode, StreamingResponseHandler<AiMessage> handler) {
+        streamingChatModel.generate(explainPrompt(mermaidCode), handler);
+    }
+
+    private String explainPrompt(String mermaidCode) {
+        return String.format("""
             Explain the following Mermaid flowchart code in simple terms:
             %s
 
@@ -210,7 +308,5 @@ public class FlowchartAgent {
 
             Provide a clear and concise explanation.
             """, mermaidCode);
-
-        return chatModel.generate(prompt);
     }
 } 
\ No newline at end of file
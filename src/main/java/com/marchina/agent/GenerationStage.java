@@ -0,0 +1,33 @@
+package com.marchina.agent;
+
+/**
+ * Stages reported while a project or diagram is being generated.
+ * Each stage carries the overall progress percentage reached once it is emitted.
+ */
+public enum GenerationStage {
+    QUEUED(0),
+    EXTRACTING_REQUIREMENTS(10),
+    REQUIREMENTS_EXTRACTED(30),
+    SELECTING_DIAGRAM_TYPE(35),
+    DIAGRAM_TYPE_SELECTED(40),
+    GENERATING_DIAGRAM(50),
+    ATTEMPT_GENERATED(60),
+    VALIDATION_RESULT(75),
+    PERSISTED(95),
+    COMPLETED(100),
+    FAILED(100);
+
+    private final int progress;
+
+    GenerationStage(int progress) {
+        this.progress = progress;
+    }
+
+    public int getProgress() {
+        return progress;
+    }
+
+    public boolean isTerminal() {
+        return this == COMPLETED || this == FAILED;
+    }
+}
@@ -0,0 +1,102 @@
+package com.marchina.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds JSON objects embedded in LLM output and repairs the string escapes models get wrong.
+ * Shared by the agents that ask the model for JSON, so prose, fences and braces inside string
+ * values are handled the same way everywhere.
+ */
+final class JsonObjects {
+
+    private JsonObjects() {
+    }
+
+    /**
+     * @return Every balanced {...} in the text, ordered by the position of its opening brace, so an
+     *         enclosing object comes before the objects nested in it. Braces inside strings are ignored.
+     */
+    static List<String> embedded(String text) {
+        List<String> objects = new ArrayList<>();
+        int from = 0;
+        while ((from = text.indexOf('{', from)) >= 0) {
+            int end = balancedEnd(text, from);
+            if (end < 0) {
+                break;
+            }
+            objects.add(text.substring(from, end + 1));
+            from++;
+        }
+        return objects;
+    }
+
+    /**
+     * @return Index of the brace closing the object opened at start, or -1 if it never closes
+     */
+    static int balancedEnd(String text, int start) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Escapes raw control characters inside strings, doubles backslashes that do not start a
+     * valid JSON escape (Mermaid uses them freely) and drops trailing commas.
+     */
+    static String repairEscapes(String json) {
+        StringBuilder repaired = new StringBuilder(json.length() + 16);
+        boolean inString = false;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (!inString) {
+                if (c == ',' && json.substring(i + 1).stripLeading().startsWith("}")) {
+                    continue;
+                }
+                inString = c == '"';
+                repaired.append(c);
+                continue;
+            }
+            switch (c) {
+                case '"' -> {
+                    inString = false;
+                    repaired.append(c);
+                }
+                case '\n' -> repaired.append("\\n");
+                case '\r' -> { }
+                case '\t' -> repaired.append("\\t");
+                case '\\' -> {
+                    char next = i + 1 < json.length() ? json.charAt(i + 1) : ' ';
+                    if ("\"\\/bfnrt".indexOf(next) >= 0 || (next == 'u' && isUnicodeEscape(json, i + 2))) {
+                        repaired.append(c).append(next);
+                        i++;
+                    } else {
+                        repaired.append("\\\\");
+                    }
+                }
+                default -> repaired.append(c);
+            }
+        }
+        return repaired.toString();
+    }
+
+    static boolean isUnicodeEscape(String text, int start) {
+        return start + 4 <= text.length() && text.substring(start, start + 4).matches("[0-9a-fA-F]{4}");
+    }
+}
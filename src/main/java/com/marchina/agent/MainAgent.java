@@ -1,20 +1,42 @@
 package com.marchina.agent;
 
+import com.marchina.agent.intent.HashedNgramClassifier;
+import com.marchina.agent.intent.IntentClassifier;
+import com.marchina.agent.intent.IntentTask;
+import com.marchina.agent.mermaid.MermaidDiagramType;
+import com.marchina.deadline.Deadline;
+import com.marchina.deadline.DeadlineExceededException;
 import com.marchina.model.AgentResponse;
+import com.marchina.llm.ChatModelProvider;
+import com.marchina.llm.LlmWorkload;
+import com.marchina.llm.ModelTask;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import com.marchina.model.Project;
+import com.marchina.model.RequirementSet;
 import com.marchina.model.Diagram;
+import com.marchina.model.DiagramGenerationResult;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map; // Needed for string-based processRequest
 import java.util.Optional; // Import Optional
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Main agent that intelligently coordinates between specialized agents.
@@ -23,6 +45,9 @@ import java.util.Optional; // Import Optional
 public class MainAgent {
     private static final Logger logger = LoggerFactory.getLogger(MainAgent.class);
     private static final int MAX_RETRIES = 3;
+    // Tolerates surrounding text and whitespace around the AGENT|ACTION answer
+    private static final Pattern ROUTE_PATTERN = Pattern.compile(
+            "\\b(ERD|FLOWCHART|SEQUENCE|CLASS|OTHER)\\s*\\|\\s*(GENERATE|VALIDATE|EXPLAIN|OTHER)\\b", Pattern.CASE_INSENSITIVE);
 
     private final ChatLanguageModel chatModel;
     private final ERDAgent erdAgent;
@@ -31,32 +56,49 @@ public class MainAgent {
     private final SequenceDiagramAgent sequenceDiagramAgent;
     private final DiagramValidator diagramValidator;
     private final JdbcTemplate jdbcTemplate;
+    private final ThreadPoolExecutor generationExecutor;
+    private final IntentClassifier intentClassifier;
+
+    private final RowMapper<Diagram> diagramRowMapper = (rs, rowNum) -> {
+        Diagram diagram = new Diagram();
+        diagram.setId(rs.getLong("id"));
+        diagram.setProjectId(rs.getLong("project_id"));
+        diagram.setName(rs.getString("name"));
+        diagram.setType(rs.getString("type"));
+        diagram.setContent(rs.getString("content"));
+        return diagram;
+    };
     // Needs ObjectMapper if we implement validation retries with JSON parsing here
     // private final ObjectMapper objectMapper; 
 
 
     // Ensure ObjectMapper is included if needed, esp. if restoring delegateToAgent logic
-    public MainAgent(ChatLanguageModel chatModel,
+    public MainAgent(ChatModelProvider chatModelProvider,
                     ERDAgent erdAgent,
                     FlowchartAgent flowchartAgent,
                     ClassDiagramAgent classDiagramAgent,
                     SequenceDiagramAgent sequenceDiagramAgent,
                     DiagramValidator diagramValidator,
-                    JdbcTemplate jdbcTemplate /*, ObjectMapper objectMapper */ ) {
-        this.chatModel = chatModel;
+                    JdbcTemplate jdbcTemplate,
+                    @Qualifier("generationExecutor") ThreadPoolExecutor generationExecutor,
+                    IntentClassifier intentClassifier /*, ObjectMapper objectMapper */ ) {
+        this.chatModel = chatModelProvider.forAgent("main", ModelTask.ROUTING);
         this.erdAgent = erdAgent;
         this.flowchartAgent = flowchartAgent;
         this.classDiagramAgent = classDiagramAgent;
         this.sequenceDiagramAgent = sequenceDiagramAgent;
         this.diagramValidator = diagramValidator;
         this.jdbcTemplate = jdbcTemplate;
+        this.generationExecutor = generationExecutor;
+        this.intentClassifier = intentClassifier;
         // this.objectMapper = objectMapper;
         logger.info("MainAgent initialized");
     }
 
     /**
      * Processes a user request by intelligently mapping it to the appropriate agent.
-     * This version takes a general string request and uses an LLM to determine the agent/action.
+     * This version takes a general string request; the agent/action comes from the local intent
+     * classifier, or from the LLM when the classifier is not confident.
      *
      * @param request The user's general request string
      * @return AgentResponse containing the result or error
@@ -79,18 +121,28 @@ public class MainAgent {
             // Note: Added SEQUENCE, CLASS, OTHER options based on available agents.
             // The original only had ERD, SQL, FLOWCHART.
 
-            String llmResponse = chatModel.generate(analysisPrompt);
-            String[] parts = llmResponse.split("\\|");
-            if (parts.length != 2) {
-                 logger.warn("Could not determine agent/action from LLM response: {}", llmResponse);
-                // Default or error handling needed here - perhaps pass to a general conversational agent?
-                 return new AgentResponse(false, "Could not determine appropriate agent and action from request.");
+            String agentType;
+            String action;
+            Optional<HashedNgramClassifier.Prediction> localAgent = intentClassifier.classify(IntentTask.AGENT, request);
+            Optional<HashedNgramClassifier.Prediction> localAction = intentClassifier.classify(IntentTask.ACTION, request);
+            if (localAgent.isPresent() && localAction.isPresent()) {
+                agentType = localAgent.get().label();
+                action = localAction.get().label();
+                logger.info("Classified agent: {}, action: {} locally (confidence {}/{})", agentType, action,
+                        String.format("%.2f", localAgent.get().confidence()), String.format("%.2f", localAction.get().confidence()));
+            } else {
+                String llmResponse = chatModel.generate(analysisPrompt);
+                Matcher route = ROUTE_PATTERN.matcher(llmResponse);
+                if (!route.find()) {
+                     logger.warn("Could not determine agent/action from LLM response: {}", llmResponse);
+                    // Default or error handling needed here - perhaps pass to a general conversational agent?
+                     return new AgentResponse(false, "Could not determine appropriate agent and action from request.");
+                }
+                agentType = route.group(1).toUpperCase();
+                action = route.group(2).toUpperCase();
+                logger.info("Determined agent: {}, action: {}", agentType, action);
             }
 
-            String agentType = parts[0].trim().toUpperCase();
-            String action = parts[1].trim().toUpperCase();
-            logger.info("Determined agent: {}, action: {}", agentType, action);
-
             // Delegate to appropriate agent based on analysis
             // This part needs refinement based on what actions each agent supports beyond generate/save
             // For now, let's handle basic generation calls if requested.
@@ -143,6 +195,8 @@ public class MainAgent {
             }
              return new AgentResponse(false, "Action '" + action + "' not fully implemented for agent '" + agentType + "' in this context.");
 
+        } catch (DeadlineExceededException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error processing general agent request: {}", e.getMessage(), e);
             return new AgentResponse(false, "Error processing request: " + e.getMessage());
@@ -155,9 +209,28 @@ public class MainAgent {
      * @return An Optional containing the created Diagram object, or empty if generation failed.
      */
     public Optional<Diagram> processRequest(Project project, String diagramType, String requirements) {
+        return processRequest(project, diagramType, requirements, ProgressListener.NONE);
+    }
+
+    /**
+     * Same as {@link #processRequest(Project, String, String, ProgressListener)}, prompting the agent
+     * with only the requirements for the diagram type.
+     */
+    public Optional<Diagram> processRequest(Project project, String diagramType, RequirementSet requirements,
+                                            ProgressListener progressListener) {
+        return processRequest(project, diagramType, requirements.forDiagramType(diagramType), progressListener);
+    }
+
+    /**
+     * Same as {@link #processRequest(Project, String, String)} but reports each stage of the
+     * generate/validate/persist loop to the given listener.
+     */
+    public Optional<Diagram> processRequest(Project project, String diagramType, String requirements,
+                                            ProgressListener progressListener) {
         try {
             Long projectId = project.getId();
             logger.info("Processing {} request for project {} and waiting for result...", diagramType, projectId);
+            progressListener.onProgress(GenerationStage.GENERATING_DIAGRAM, Map.of("diagramType", diagramType));
 
             Optional<Diagram> createdDiagram = Optional.empty(); // Initialize
 
@@ -165,20 +238,20 @@ public class MainAgent {
             switch (diagramType.toLowerCase()) {
                 case "erd":
                 case "entity relationship diagram":
-                    createdDiagram = erdAgent.generateAndSaveERD(project, requirements); 
+                    createdDiagram = erdAgent.generateAndSaveERD(project, requirements, progressListener); 
                     break;
 
                 case "flowchart":
                 case "flow chart":
-                    createdDiagram = flowchartAgent.generateAndSaveFlowchart(project, requirements); 
+                    createdDiagram = flowchartAgent.generateAndSaveFlowchart(project, requirements, progressListener); 
                     break;
 
                 case "sequence diagram":
-                    createdDiagram = sequenceDiagramAgent.generateAndSaveSequenceDiagram(project, requirements); 
+                    createdDiagram = sequenceDiagramAgent.generateAndSaveSequenceDiagram(project, requirements, progressListener); 
                     break;
 
                 case "class diagram":
-                    createdDiagram = classDiagramAgent.generateAndSaveClassDiagram(project, requirements); 
+                    createdDiagram = classDiagramAgent.generateAndSaveClassDiagram(project, requirements, progressListener); 
                     break;
 
                 default:
@@ -204,6 +277,103 @@ public class MainAgent {
         }
     }
 
+    /**
+     * Generates ERD, flowchart, class and sequence diagrams for a project concurrently.
+     * Each agent runs its own generate/validate retry loop on the generation executor; the diagrams
+     * that succeed are then saved with a single multi-row insert.
+     *
+     * @return The saved diagrams, in ERD, flowchart, class, sequence order
+     * @throws RuntimeException if none of the diagrams could be generated
+     */
+    public List<Diagram> generateAllDiagrams(Project project, String requirements, ProgressListener progressListener) {
+        return generateAllDiagrams(project, RequirementSet.unstructured(requirements), progressListener);
+    }
+
+    /**
+     * Same as {@link #generateAllDiagrams(Project, String, ProgressListener)}, prompting each agent with
+     * only the requirements for its diagram type.
+     */
+    public List<Diagram> generateAllDiagrams(Project project, RequirementSet requirements, ProgressListener progressListener) {
+        Long projectId = project.getId();
+        logger.info("Generating all diagram types in parallel for project {}", projectId);
+
+        Map<String, Supplier<DiagramGenerationResult>> generators = new LinkedHashMap<>();
+        generators.put("ERD", () -> erdAgent.generateERD(project, requirements.forDiagramType("ERD"), tagged(progressListener, "ERD")));
+        generators.put("Flowchart", () -> flowchartAgent.generateFlowchart(project, requirements.forDiagramType("Flowchart"), tagged(progressListener, "Flowchart")));
+        generators.put("Class Diagram", () -> classDiagramAgent.generateClassDiagram(project, requirements.forDiagramType("Class Diagram"), tagged(progressListener, "Class Diagram")));
+        generators.put("Sequence Diagram", () -> sequenceDiagramAgent.generateSequenceDiagram(project, requirements.forDiagramType("Sequence Diagram"), tagged(progressListener, "Sequence Diagram")));
+
+        progressListener.onProgress(GenerationStage.GENERATING_DIAGRAM, Map.of("diagramTypes", List.copyOf(generators.keySet())));
+
+        Map<String, CompletableFuture<DiagramGenerationResult>> futures = new LinkedHashMap<>();
+        generators.forEach((type, generator) -> futures.put(type, CompletableFuture.supplyAsync(Deadline.propagate(LlmWorkload.propagate(generator)), generationExecutor)));
+        CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+
+        Map<String, DiagramGenerationResult> successful = new LinkedHashMap<>();
+        futures.forEach((type, future) -> {
+            DiagramGenerationResult result = future.join();
+            if (result.success()) {
+                successful.put(type, result);
+            } else {
+                logger.warn("Parallel {} generation failed for project {}: {}", type, projectId, result.errorMessage());
+            }
+        });
+
+        if (successful.isEmpty()) {
+            throw new RuntimeException("Failed to generate any diagram for project " + projectId);
+        }
+
+        List<Diagram> createdDiagrams = saveDiagrams(projectId, successful);
+        for (Diagram diagram : createdDiagrams) {
+            progressListener.onProgress(GenerationStage.PERSISTED, Map.of(
+                    "diagramId", diagram.getId(), "type", diagram.getType(), "name", diagram.getName()));
+        }
+        logger.info("Saved {} of {} diagrams for project {}", createdDiagrams.size(), generators.size(), projectId);
+        return createdDiagrams;
+    }
+
+    private List<Diagram> saveDiagrams(Long projectId, Map<String, DiagramGenerationResult> results) {
+        StringBuilder sql = new StringBuilder("INSERT INTO \"Diagrams\" (project_id, name, type, content) VALUES ");
+        List<Object> args = new ArrayList<>();
+        results.forEach((type, result) -> {
+            if (!args.isEmpty()) {
+                sql.append(", ");
+            }
+            sql.append("(?, ?, ?, ?)");
+            args.add(projectId);
+            args.add(result.name());
+            args.add(type);
+            args.add(result.diagramCode());
+        });
+        sql.append(" RETURNING id, project_id, name, type, content");
+
+        return jdbcTemplate.query(sql.toString(), diagramRowMapper, args.toArray());
+    }
+
+    /**
+     * Adds the diagram type to every event so interleaved events from parallel agents can be told apart.
+     */
+    private ProgressListener tagged(ProgressListener progressListener, String diagramType) {
+        return (stage, details) -> {
+            Map<String, Object> tagged = new HashMap<>(details);
+            tagged.put("diagramType", diagramType);
+            progressListener.onProgress(stage, tagged);
+        };
+    }
+
+    /**
+     * Streams an explanation of the given Mermaid code from the agent that owns the diagram type.
+     */
+    public void explainDiagram(MermaidDiagramType diagramType, String mermaidCode, StreamingResponseHandler<AiMessage> handler) {
+        logger.info("Streaming explanation for {} diagram", diagramType);
+        switch (diagramType) {
+            case ERD -> erdAgent.explainERD(mermaidCode, handler);
+            case FLOWCHART -> flowchartAgent.explainFlowChart(mermaidCode, handler);
+            case CLASS -> classDiagramAgent.explainClassDiagram(mermaidCode, handler);
+            case SEQUENCE -> sequenceDiagramAgent.explainSequenceDiagram(mermaidCode, handler);
+        }
+    }
+
     private String generateDiagramName(String diagramType) {
         return diagramType.replaceAll("\\s+", "_").toLowerCase();
     }
@@ -0,0 +1,24 @@
+package com.marchina.agent;
+
+import java.util.Map;
+
+/**
+ * Receives stage events from the generation pipeline (requirement extraction, type selection,
+ * the per-agent generate/validate retry loop and persistence).
+ * Implementations must be thread-safe and must not throw.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    ProgressListener NONE = (stage, details) -> {};
+
+    /**
+     * @param stage The stage that was just reached
+     * @param details Stage specific details such as the attempt number or validation feedback
+     */
+    void onProgress(GenerationStage stage, Map<String, Object> details);
+
+    default void onProgress(GenerationStage stage) {
+        onProgress(stage, Map.of());
+    }
+}
@@ -1,5 +1,11 @@
 package com.marchina.agent;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marchina.deadline.DeadlineExceededException;
+import com.marchina.llm.ChatModelProvider;
+import com.marchina.llm.ModelTask;
+import com.marchina.model.RequirementSet;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,42 +16,106 @@ import org.springframework.stereotype.Service;
 public class RequirementExtractorAgent {
     private static final Logger logger = LoggerFactory.getLogger(RequirementExtractorAgent.class);
     private final ChatLanguageModel chatModel;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public RequirementExtractorAgent(ChatLanguageModel chatModel) {
-        this.chatModel = chatModel;
+    public RequirementExtractorAgent(ChatModelProvider chatModelProvider, ObjectMapper objectMapper) {
+        this.chatModel = chatModelProvider.forAgent("requirements", ModelTask.GENERATION);
+        this.objectMapper = objectMapper;
         logger.info("RequirementExtractorAgent initialized");
     }
 
-    public String extractDetailedRequirements(String name, String description) {
+    /**
+     * Extracts the requirements split by diagram type in a single LLM call, so each diagram agent
+     * can later be prompted with only its slice.
+     *
+     * @return The structured requirements; if the response is not the expected JSON, a set holding
+     * the whole response as its overview, and an empty set if extraction failed
+     */
+    public RequirementSet extractRequirementSet(String name, String description) {
         try {
-            logger.info("Extracting detailed requirements for project: {}", name);
+            logger.info("Extracting structured requirements for project: {}", name);
 
             String prompt = String.format("""
                 Analyze the following project details:
                 Name: %s
                 Description: %s
 
-                Generate a single, consolidated, and highly detailed set of functional and technical requirements suitable for creating a technical diagram (like a flowchart).
-                Include:
-                - Core purpose and goals.
-                - Key actors/users and their interactions.
-                - Step-by-step process flows, including decisions, inputs, outputs, and loops.
-                - Data entities involved and their key attributes/relationships (if applicable).
-                - System components or classes involved (if applicable).
-                - Any specific constraints or non-functional requirements mentioned.
-                
-                Present the requirements clearly and logically. Do not section by diagram type. Aim for maximum detail to enable accurate diagram generation.
+                Write detailed functional and technical requirements for generating technical diagrams, split by diagram type.
+                Respond ONLY with a JSON object with these string fields:
+                - "overview": core purpose, goals, key actors/users and any constraints or non-functional requirements. Keep it short; it is shared by every diagram.
+                - "erdRequirements": data entities, their key attributes and relationships with cardinality.
+                - "flowchartRequirements": step-by-step process flows, including decisions, inputs, outputs and loops.
+                - "sequenceDiagramRequirements": interactions between actors and system components, in order, including requests and responses.
+                - "classDiagramRequirements": classes or components with their attributes, methods and relationships.
+
+                Do not repeat the overview in the other fields. Use an empty string for a field that does not apply.
                 """, name, description);
 
-            String detailedRequirements = chatModel.generate(prompt);
-            logger.info("Generated detailed requirements string from LLM.");
+            String response = chatModel.generate(prompt);
+            RequirementSet requirementSet = parseRequirementSet(response);
+            if (requirementSet == null) {
+                logger.warn("Requirement extraction did not return the expected JSON, keeping it as unstructured text");
+                return RequirementSet.unstructured(response);
+            }
+            logger.info("Generated structured requirements from LLM.");
+            return requirementSet;
+
+        } catch (DeadlineExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error extracting structured requirements: {}", e.getMessage(), e);
+            return RequirementSet.unstructured("");
+        }
+    }
 
-            return detailedRequirements;
+    /**
+     * @return The first JSON object in the response that holds any requirements, repairing raw
+     *         line breaks and stray backslashes in its strings if needed, or null if there is none
+     */
+    private RequirementSet parseRequirementSet(String response) {
+        if (response == null) {
+            return null;
+        }
+        for (String candidate : JsonObjects.embedded(response)) {
+            RequirementSet requirementSet = bind(candidate);
+            if (requirementSet == null) {
+                requirementSet = bind(JsonObjects.repairEscapes(candidate));
+            }
+            if (requirementSet != null) {
+                return requirementSet;
+            }
+        }
+        return null;
+    }
 
+    private RequirementSet bind(String json) {
+        try {
+            JsonNode node = objectMapper.readTree(json);
+            if (node == null || !node.isObject()) {
+                return null;
+            }
+            RequirementSet requirementSet = new RequirementSet();
+            requirementSet.setOverview(text(node.path("overview")));
+            requirementSet.setErdRequirements(text(node.path("erdRequirements")));
+            requirementSet.setFlowchartRequirements(text(node.path("flowchartRequirements")));
+            requirementSet.setSequenceDiagramRequirements(text(node.path("sequenceDiagramRequirements")));
+            requirementSet.setClassDiagramRequirements(text(node.path("classDiagramRequirements")));
+            return requirementSet.toDetailedRequirements().isBlank() ? null : requirementSet;
         } catch (Exception e) {
-            logger.error("Error extracting detailed requirements: {}", e.getMessage(), e);
-            return "";
+            return null;
+        }
+    }
+
+    /**
+     * Models sometimes answer with a list of bullet strings instead of one string; both are accepted.
+     */
+    private String text(JsonNode node) {
+        if (node.isArray()) {
+            StringBuilder text = new StringBuilder();
+            node.forEach(item -> text.append(text.length() > 0 ? "\n" : "").append("- ").append(item.asText()));
+            return text.toString();
         }
+        return node.isMissingNode() || node.isNull() ? null : node.asText();
     }
-} 
\ No newline at end of file
+}
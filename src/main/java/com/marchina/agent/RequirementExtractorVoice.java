@@ -1,18 +1,40 @@
 package com.marchina.agent;
 import com.marchina.model.Project;
 import com.marchina.model.ChatResponse;
+import com.marchina.deadline.Deadline;
+import com.marchina.deadline.DeadlineExceededException;
+import com.marchina.llm.ChatModelProvider;
+import com.marchina.llm.LlmPriority;
+import com.marchina.llm.LlmWorkload;
+import com.marchina.llm.ModelTask;
+import com.marchina.speech.AudioClipStore;
+import com.marchina.speech.AudioMode;
+import com.marchina.speech.SpeechChunkListener;
+import com.marchina.speech.SpeechPipeline;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 // Add these imports at the top
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.marchina.config.JwtConfig.JwtService;
 import com.marchina.controller.ProjectController;
@@ -24,8 +46,20 @@ import java.util.HashMap;
 @Service
 public class RequirementExtractorVoice {
     private static final Logger logger = LoggerFactory.getLogger(RequirementExtractorVoice.class);
+    // Upper bound for a streamed reply or its speech when the request carries no deadline
+    private static final long STREAM_TIMEOUT_MILLIS = 120_000;
+
+    // Fixed replies, pre-synthesized at startup so speaking them needs no Speech round trip
+    private static final String FORCED_PROCEED_REPLY = "I've gathered enough information to proceed. I'll create your project and generate the technical diagrams now.";
+    private static final String PROJECT_READY_REPLY = "Perfect! I've created your project and generated the technical diagrams. You can view them now.";
+    private static final String TIMEOUT_REPLY = "Sorry, that took longer than expected. Please try again.";
+    private static final String ERROR_REPLY = "Sorry, I encountered an error processing your request.";
     private final ChatLanguageModel chatModel;
+    private final ChatLanguageModel namingModel;
     private final TTSAgent ttsAgent;
+    private final StreamingChatLanguageModel streamingChatModel;
+    private final SpeechPipeline speechPipeline;
+    private final AudioClipStore audioClipStore;
     private final MainAgent mainAgent;
     private final JdbcTemplate jdbcTemplate;
     private final JwtService jwtService;
@@ -58,36 +92,236 @@ public class RequirementExtractorVoice {
 
 
     public RequirementExtractorVoice(
-            ChatLanguageModel chatModel, 
+            ChatModelProvider chatModelProvider, 
             TTSAgent ttsAgent, 
+            SpeechPipeline speechPipeline,
+            AudioClipStore audioClipStore,
             MainAgent mainAgent,
             JdbcTemplate jdbcTemplate,
             JwtService jwtService,
             ProjectController projectController) {
-        this.chatModel = chatModel;
+        this.chatModel = chatModelProvider.forAgent("voice", ModelTask.CONVERSATION);
+        this.namingModel = chatModelProvider.forAgent("naming", ModelTask.NAMING);
         this.ttsAgent = ttsAgent;
+        this.streamingChatModel = chatModelProvider.streamingForAgent("voice", ModelTask.CONVERSATION);
+        this.speechPipeline = speechPipeline;
+        this.audioClipStore = audioClipStore;
         this.mainAgent = mainAgent;
         this.jdbcTemplate = jdbcTemplate;
         this.jwtService = jwtService;
         this.projectController = projectController;
     }
 
+    /**
+     * What the assistant says next: a prompt for the conversation model, or a fixed text.
+     */
+    private record Reply(String prompt, String text) {
+        static Reply generated(String prompt) {
+            return new Reply(prompt, null);
+        }
+
+        static Reply fixed(String text) {
+            return new Reply(null, text);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void preSynthesizeFixedReplies() {
+        ttsAgent.preSynthesize(List.of(FORCED_PROCEED_REPLY, PROJECT_READY_REPLY, TIMEOUT_REPLY, ERROR_REPLY));
+    }
+
     public ChatResponse processMessage(String userMessage, String authHeader) {
+        return processMessage(userMessage, authHeader, AudioMode.INLINE);
+    }
+
+    /**
+     * @param audioMode How the reply's speech is delivered; with {@link AudioMode#NONE} or
+     *                  {@link AudioMode#DEFERRED} the response does not wait for synthesis
+     */
+    public ChatResponse processMessage(String userMessage, String authHeader, AudioMode audioMode) {
+        // A chat turn has a user waiting on it, so its LLM calls go ahead of background generation
+        try (LlmWorkload.Scope ignored = LlmWorkload.current().withPriority(LlmPriority.INTERACTIVE).attach()) {
+            return converse(userMessage, authHeader, audioMode);
+        }
+    }
+
+    /**
+     * Same as {@link #processMessage(String, String)}, but streams the reply to the listener: its text
+     * as the model writes it and the audio of each sentence as soon as that sentence is synthesized.
+     * Returns once all audio has been delivered; the returned response carries no audio of its own.
+     */
+    public ChatResponse processMessage(String userMessage, String authHeader, SpeechChunkListener listener) {
+        try (LlmWorkload.Scope ignored = LlmWorkload.current().withPriority(LlmPriority.INTERACTIVE).attach()) {
+            return converse(userMessage, authHeader, listener);
+        }
+    }
+
+    private ChatResponse converse(String userMessage, String authHeader, AudioMode audioMode) {
         String userId = null; // Initialize userId
         ConversationState state = null; // Initialize state
         try {
-            String token = authHeader.replace("Bearer ", "");
-            Map<String, Object> claims = jwtService.extractAllClaims(token);
-            userId = claims.get("userId").toString(); // Assign userId
-
-            // Get or create conversation state for this user
-            state = userSessions.computeIfAbsent(userId, k -> new ConversationState()); // Assign state
+            userId = userIdFrom(authHeader);
+            state = startTurn(userId, userMessage, authHeader);
 
-            state.currentToken = authHeader;
-            state.conversationHistory.add("User: " + userMessage);
+            Reply reply = nextReply(state, userMessage);
+            String aiResponse = reply.prompt() != null ? chatModel.generate(reply.prompt()) : reply.text();
+            state.conversationHistory.add("AI: " + aiResponse);
             
-            String prompt;
+            // Use state object for the response
+            return withAudio(new ChatResponse(aiResponse, null, state.requirementsGathered, getProjectId(state)), audioMode);
+
+        } catch (Exception e) {
+            logger.error("Error processing message for user {}: {}", userId, e.getMessage(), e);
+            // Handle error, potentially returning an error response
+            boolean timedOut = DeadlineExceededException.in(e).isPresent();
+            String errorMsg = errorMessage(timedOut);
+             // Return error response using state if available, otherwise use defaults
+             boolean reqGathered = (state != null) ? state.requirementsGathered : false;
+             Long projId = (state != null) ? getProjectId(state) : null;
+             ChatResponse errorResponse = new ChatResponse(errorMsg, audioMode == AudioMode.INLINE ? "" : null, reqGathered, projId);
+            if (!timedOut) { // Out of time, don't spend more of it on speech
+                try {
+                     withAudio(errorResponse, audioMode);
+                } catch (Exception ttsEx) {
+                     logger.error("TTS agent failed during error handling: {}", ttsEx.getMessage());
+                }
+            }
+             return errorResponse;
+            // Or rethrow: throw new RuntimeException("Failed to process message", e);
+        }
+    }
+
+    private ChatResponse converse(String userMessage, String authHeader, SpeechChunkListener listener) {
+        String userId = null;
+        ConversationState state = null;
+        SpeechPipeline.Stream speech = speechPipeline.open(listener);
+        try {
+            userId = userIdFrom(authHeader);
+            state = startTurn(userId, userMessage, authHeader);
+
+            Reply reply = nextReply(state, userMessage);
             String aiResponse;
+            if (reply.prompt() != null) {
+                aiResponse = streamReply(reply.prompt(), speech);
+            } else {
+                aiResponse = reply.text();
+                speech.append(aiResponse);
+            }
+            state.conversationHistory.add("AI: " + aiResponse);
+            await(speech.finish(), "tts");
+            logger.info("Spoke reply in {} sentences, first audio after {} ms", speech.getSentences(), speech.getFirstAudioMillis());
+
+            return new ChatResponse(aiResponse, null, state.requirementsGathered, getProjectId(state));
+
+        } catch (Exception e) {
+            logger.error("Error processing message for user {}: {}", userId, e.getMessage(), e);
+            speech.abort();
+            boolean timedOut = DeadlineExceededException.in(e).isPresent();
+            String errorMsg = errorMessage(timedOut);
+            if (!timedOut) { // Out of time, don't spend more of it on speech
+                try {
+                    SpeechPipeline.Stream errorSpeech = speechPipeline.open(listener);
+                    errorSpeech.append(errorMsg);
+                    await(errorSpeech.finish(), "tts");
+                } catch (Exception ttsEx) {
+                    logger.error("TTS pipeline failed during error handling: {}", ttsEx.getMessage());
+                }
+            }
+            boolean reqGathered = (state != null) ? state.requirementsGathered : false;
+            Long projId = (state != null) ? getProjectId(state) : null;
+            return new ChatResponse(errorMsg, null, reqGathered, projId);
+        }
+    }
+
+    private ChatResponse withAudio(ChatResponse response, AudioMode audioMode) throws IOException {
+        String text = response.getResponse();
+        switch (audioMode) {
+            case NONE -> { }
+            case DEFERRED -> linkAudio(response, ttsAgent.synthesizeDeferred(text));
+            case LINK -> linkAudio(response, audioClipStore.put(ttsAgent.synthesize(text)));
+            default -> response.setAudioData(ttsAgent.generateSpeech(text));
+        }
+        return response;
+    }
+
+    private void linkAudio(ChatResponse response, String audioId) {
+        response.setAudioId(audioId);
+        response.setAudioUrl(AudioClipStore.urlFor(audioId));
+    }
+
+    /**
+     * Streams the model's reply into the speech pipeline.
+     *
+     * @return The full reply text
+     */
+    private String streamReply(String prompt, SpeechPipeline.Stream speech) throws Exception {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        AtomicBoolean streamed = new AtomicBoolean();
+        streamingChatModel.generate(prompt, new StreamingResponseHandler<AiMessage>() {
+            @Override
+            public void onNext(String token) {
+                streamed.set(true);
+                speech.append(token);
+            }
+
+            @Override
+            public void onComplete(Response<AiMessage> response) {
+                String text = response != null && response.content() != null ? response.content().text() : "";
+                if (!streamed.get()) {
+                    speech.append(text);
+                }
+                reply.complete(text);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                reply.completeExceptionally(error);
+            }
+        });
+        return await(reply, "voice");
+    }
+
+    private <T> T await(CompletableFuture<T> future, String operation) throws Exception {
+        try {
+            return future.get(Deadline.remainingMillis(STREAM_TIMEOUT_MILLIS), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            Deadline deadline = Deadline.current().orElse(null);
+            if (deadline != null && deadline.isExpired()) {
+                throw deadline.exceeded(operation);
+            }
+            throw new IOException(operation + " stream timed out after " + STREAM_TIMEOUT_MILLIS + " ms", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private String userIdFrom(String authHeader) {
+        String token = authHeader.replace("Bearer ", "");
+        Map<String, Object> claims = jwtService.extractAllClaims(token);
+        return claims.get("userId").toString();
+    }
+
+    private ConversationState startTurn(String userId, String userMessage, String authHeader) {
+        // Get or create conversation state for this user
+        ConversationState state = userSessions.computeIfAbsent(userId, k -> new ConversationState());
+        state.currentToken = authHeader;
+        state.conversationHistory.add("User: " + userMessage);
+        return state;
+    }
+
+    private String errorMessage(boolean timedOut) {
+        return timedOut
+                ? TIMEOUT_REPLY
+                : ERROR_REPLY;
+    }
+
+    /**
+     * Advances the conversation (naming the project, assessing the gathered requirements, creating
+     * the project) and decides what to answer.
+     */
+    private Reply nextReply(ConversationState state, String userMessage) {
+            String prompt;
             
             if (state.projectName == null) {
                 // First analyze the user message to extract project name
@@ -106,7 +340,7 @@ public class RequirementExtractorVoice {
                     Return only the project name, nothing else.
                     """, userMessage);
                     
-                state.projectName = chatModel.generate(prompt);
+                state.projectName = namingModel.generate(prompt).trim();
                 
                 // Then generate engaging response
                 prompt = String.format("""
@@ -125,7 +359,7 @@ public class RequirementExtractorVoice {
                     Provide only the response text.
                     """, state.projectName, userMessage);
                     
-                aiResponse = chatModel.generate(prompt);
+                return Reply.generated(prompt);
                 
             } else if (!state.requirementsGathered) {
                 // Check if we have enough information to generate requirements
@@ -191,7 +425,7 @@ public class RequirementExtractorVoice {
                         Provide only the response text.
                         """, state.projectName, state.projectDescription);
                     
-                    aiResponse = chatModel.generate(prompt);
+                    return Reply.generated(prompt);
                 } else {
                     // We need more information
                     state.insufficientCounter++;
@@ -223,7 +457,7 @@ public class RequirementExtractorVoice {
                         // Create the project
                         createProject(state);
                         
-                        aiResponse = "I've gathered enough information to proceed. I'll create your project and generate the technical diagrams now.";
+                        return Reply.fixed(FORCED_PROCEED_REPLY);
                     } else {
                         prompt = String.format("""
                             You are an AI assistant helping gather project requirements.
@@ -241,36 +475,12 @@ public class RequirementExtractorVoice {
                             Provide only the response text.
                             """, state.projectName, fullConversation);
                         
-                        aiResponse = chatModel.generate(prompt);
+                        return Reply.generated(prompt);
                 }
                 }
             } else {
-                aiResponse = "Perfect! I've created your project and generated the technical diagrams. You can view them now.";
-            }
-            
-            state.conversationHistory.add("AI: " + aiResponse);
-            
-            String audioData = ttsAgent.generateSpeech(aiResponse);
-            
-            // Use state object for the response
-            return new ChatResponse(aiResponse, audioData, state.requirementsGathered, getProjectId(state)); 
-
-        } catch (Exception e) {
-            logger.error("Error processing message for user {}: {}", userId, e.getMessage(), e);
-            // Handle error, potentially returning an error response
-            String errorMsg = "Sorry, I encountered an error processing your request.";
-            String errorAudio = ""; // Avoid TTS call on error potentially
-            try {
-                 errorAudio = ttsAgent.generateSpeech(errorMsg);
-            } catch (Exception ttsEx) {
-                 logger.error("TTS agent failed during error handling: {}", ttsEx.getMessage());
+                return Reply.fixed(PROJECT_READY_REPLY);
             }
-             // Return error response using state if available, otherwise use defaults
-             boolean reqGathered = (state != null) ? state.requirementsGathered : false;
-             Long projId = (state != null) ? getProjectId(state) : null;
-             return new ChatResponse(errorMsg, errorAudio, reqGathered, projId);
-            // Or rethrow: throw new RuntimeException("Failed to process message", e);
-        }
     }
     
     // Accepts ConversationState, stores Project in state.project
@@ -281,7 +491,10 @@ public class RequirementExtractorVoice {
             payload.put("description", state.projectDescription);
             logger.info("Creating project with payload: {}", payload);
 
-            ResponseEntity<?> response = projectController.createProject(payload, state.currentToken);
+            ResponseEntity<?> response;
+            try (LlmWorkload.Scope ignored = LlmWorkload.current().withPriority(LlmPriority.STANDARD).attach()) {
+                response = projectController.createProject(payload, state.currentToken);
+            }
             
             if (response.getStatusCode() == HttpStatus.OK && response.getBody() instanceof Map) {
                 @SuppressWarnings("unchecked") // Suppress warning for cast known to be safe here
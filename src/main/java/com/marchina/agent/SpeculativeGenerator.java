@@ -0,0 +1,267 @@
+package com.marchina.agent;
+
+import com.marchina.deadline.Deadline;
+import com.marchina.deadline.DeadlineExceededException;
+import com.marchina.llm.ChatModelProvider;
+import com.marchina.llm.LlmWorkload;
+import com.marchina.model.DiagramGenerationResult;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.output.Response;
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Speculative candidate generation for the diagram agents.
+ *
+ * Instead of trying one prompt at a time, K candidates are requested concurrently at different
+ * temperatures. Each response is validated as it arrives; the first valid one wins and the rest
+ * are cancelled. Candidates beyond the first are charged against a per-minute token budget so the
+ * extra spend stays bounded. Only the winning response is written to the response cache.
+ */
+@Component
+public class SpeculativeGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(SpeculativeGenerator.class);
+    private static final int EXPECTED_COMPLETION_TOKENS = 800;
+    private static final long BUDGET_WINDOW_MILLIS = 60_000;
+
+    private final ChatModelProvider chatModelProvider;
+    private final ThreadPoolExecutor speculativeExecutor;
+    private final MeterRegistry meterRegistry;
+
+    private final int candidates;
+    private final List<Double> temperatures;
+    private final long extraTokensPerMinute;
+
+    private long budgetWindowStart = System.currentTimeMillis();
+    private long budgetWindowTokens;
+
+    private record Candidate(int index, double temperature, String text) {}
+
+    public SpeculativeGenerator(ChatModelProvider chatModelProvider,
+                                @Qualifier("speculativeExecutor") ThreadPoolExecutor speculativeExecutor,
+                                MeterRegistry meterRegistry,
+                                Dotenv dotenv) {
+        this.chatModelProvider = chatModelProvider;
+        this.speculativeExecutor = speculativeExecutor;
+        this.meterRegistry = meterRegistry;
+        List<Double> configuredTemperatures = Arrays.stream(dotenv.get("SPECULATIVE_TEMPERATURES", "0.7,0.3,1.0").split(","))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .map(Double::parseDouble)
+                .distinct()
+                .toList();
+        this.temperatures = configuredTemperatures.isEmpty() ? List.of(0.7) : configuredTemperatures;
+        int configuredCandidates = Integer.parseInt(dotenv.get("SPECULATIVE_CANDIDATES", "1"));
+        // Candidates at the same temperature send identical prompts, which the coalescer merges into one call
+        this.candidates = Math.min(configuredCandidates, temperatures.size());
+        if (candidates < configuredCandidates) {
+            logger.warn("SPECULATIVE_CANDIDATES is {} but only {} distinct temperatures are configured, using {} candidates",
+                    configuredCandidates, temperatures.size(), candidates);
+        }
+        this.extraTokensPerMinute = Long.parseLong(dotenv.get("SPECULATIVE_EXTRA_TOKENS_PER_MINUTE", "20000"));
+        logger.info("Speculative generation candidates: {}, temperatures: {}, extra token budget/min: {}",
+                candidates, temperatures, extraTokensPerMinute);
+    }
+
+    /**
+     * @return true if more than one candidate is configured (SPECULATIVE_CANDIDATES)
+     */
+    public boolean isEnabled() {
+        return candidates > 1;
+    }
+
+    /**
+     * Requests candidates for the prompt concurrently and returns the first one the acceptor accepts.
+     *
+     * @param agent Agent name used for the models, cache and metrics
+     * @param prompt The generation prompt
+     * @param acceptor Parses and validates a raw response; called with the response and its attempt number
+     * @return The first accepted candidate, or empty if none was valid
+     */
+    public <T> Optional<T> firstValid(String agent, String prompt,
+                                      BiFunction<String, Integer, Optional<T>> acceptor,
+                                      ProgressListener progressListener) {
+        Optional<String> cached = chatModelProvider.cachedResponse(agent, prompt);
+        if (cached.isPresent()) {
+            Optional<T> accepted = acceptor.apply(cached.get(), 1);
+            if (accepted.isPresent()) {
+                return accepted;
+            }
+            chatModelProvider.evictResponse(agent, prompt);
+        }
+
+        int estimatedTokens = prompt.length() / 4 + EXPECTED_COMPLETION_TOKENS;
+        ExecutorCompletionService<Candidate> completionService = new ExecutorCompletionService<>(speculativeExecutor);
+        List<Future<Candidate>> futures = new ArrayList<>();
+
+        for (int i = 0; i < candidates; i++) {
+            if (i > 0 && !reserveBudget(estimatedTokens)) {
+                recordCandidate(agent, "skipped", candidates - i);
+                logger.debug("Speculative budget exhausted, launching {} of {} candidates for {}", i, candidates, agent);
+                break;
+            }
+            try {
+                futures.add(completionService.submit(Deadline.propagate(LlmWorkload.propagate(candidateTask(agent, prompt, i, estimatedTokens)))));
+            } catch (RejectedExecutionException e) {
+                if (i > 0) {
+                    releaseBudget(estimatedTokens);
+                }
+                recordCandidate(agent, "skipped", candidates - i);
+                logger.debug("No idle speculative worker, launching {} of {} candidates for {}", i, candidates, agent);
+                break;
+            }
+        }
+
+        if (futures.isEmpty()) {
+            // No capacity at all, fall back to a single call on the caller's thread
+            String response = chatModelProvider.uncachedForAgent(agent).generate(prompt);
+            progressListener.onProgress(GenerationStage.ATTEMPT_GENERATED, Map.of("attempt", 1, "speculative", false));
+            Optional<T> accepted = acceptor.apply(response, 1);
+            if (accepted.isPresent()) {
+                chatModelProvider.cacheResponse(agent, prompt, response);
+            }
+            return accepted;
+        }
+
+        try {
+            for (int received = 0; received < futures.size(); received++) {
+                Candidate candidate;
+                try {
+                    candidate = completionService.take().get();
+                } catch (ExecutionException e) {
+                    Optional<DeadlineExceededException> exceeded = DeadlineExceededException.in(e);
+                    if (exceeded.isPresent()) {
+                        // The other candidates share the deadline, stop waiting for them
+                        recordCandidate(agent, "cancelled", futures.size() - received);
+                        throw exceeded.get();
+                    }
+                    recordCandidate(agent, "failed", 1);
+                    logger.warn("Speculative candidate for {} failed: {}", agent, e.getCause() == null ? e.getMessage() : e.getCause().getMessage());
+                    continue;
+                }
+
+                progressListener.onProgress(GenerationStage.ATTEMPT_GENERATED, Map.of(
+                        "attempt", candidate.index() + 1,
+                        "maxAttempts", futures.size(),
+                        "temperature", candidate.temperature(),
+                        "speculative", true));
+
+                Optional<T> accepted = acceptor.apply(candidate.text(), candidate.index() + 1);
+                if (accepted.isPresent()) {
+                    recordCandidate(agent, "won", 1);
+                    recordCandidate(agent, "cancelled", futures.size() - received - 1);
+                    Counter.builder("marchina.llm.speculative.wins")
+                            .description("Winning speculative candidates by launch index")
+                            .tag("agent", agent)
+                            .tag("candidate", String.valueOf(candidate.index()))
+                            .register(meterRegistry)
+                            .increment();
+                    chatModelProvider.cacheResponse(agent, prompt, candidate.text());
+                    return accepted;
+                }
+                recordCandidate(agent, "invalid", 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for speculative candidates for {}", agent);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Runs a diagram generation and records its latency, tagged with the generation mode, so
+     * speculative and sequential tail latencies can be compared.
+     */
+    public DiagramGenerationResult timed(String agent, Supplier<DiagramGenerationResult> generation) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        DiagramGenerationResult result = generation.get();
+        sample.stop(Timer.builder("marchina.diagram.generation.latency")
+                .description("End-to-end diagram generation latency including retries")
+                .tag("agent", agent)
+                .tag("mode", isEnabled() ? "speculative" : "sequential")
+                .tag("outcome", result.success() ? "success" : "failure")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry));
+        return result;
+    }
+
+    /**
+     * Counts an attempt repeated because the previous diagram failed validation. Transport
+     * failures are retried below the agents and counted in marchina.llm.retry instead.
+     */
+    public void recordValidationRetry(String agent) {
+        Counter.builder("marchina.diagram.validation.retries")
+                .description("Diagram attempts repeated because the previous one failed validation")
+                .tag("agent", agent)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private Callable<Candidate> candidateTask(String agent, String prompt, int index, int estimatedTokens) {
+        double temperature = temperatures.get(index);
+        return () -> {
+            Response<AiMessage> response = chatModelProvider.forAgent(agent, temperature)
+                    .generate(List.of(UserMessage.from(prompt)));
+            if (index > 0 && response.tokenUsage() != null && response.tokenUsage().totalTokenCount() != null) {
+                adjustBudget(response.tokenUsage().totalTokenCount() - estimatedTokens);
+            }
+            return new Candidate(index, temperature, response.content().text());
+        };
+    }
+
+    private synchronized boolean reserveBudget(long tokens) {
+        long now = System.currentTimeMillis();
+        if (now - budgetWindowStart >= BUDGET_WINDOW_MILLIS) {
+            budgetWindowStart = now;
+            budgetWindowTokens = 0;
+        }
+        if (budgetWindowTokens + tokens > extraTokensPerMinute) {
+            return false;
+        }
+        budgetWindowTokens += tokens;
+        return true;
+    }
+
+    private synchronized void releaseBudget(long tokens) {
+        budgetWindowTokens = Math.max(0, budgetWindowTokens - tokens);
+    }
+
+    private synchronized void adjustBudget(long delta) {
+        budgetWindowTokens = Math.max(0, budgetWindowTokens + delta);
+    }
+
+    private void recordCandidate(String agent, String outcome, int count) {
+        if (count <= 0) {
+            return;
+        }
+        Counter.builder("marchina.llm.speculative.candidates")
+                .description("Speculative candidates by outcome (won, invalid, failed, cancelled, skipped)")
+                .tag("agent", agent)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment(count);
+    }
+}
@@ -1,47 +1,137 @@
 package com.marchina.agent;
 
+import com.marchina.deadline.Deadline;
+import com.marchina.deadline.DeadlineExceededException;
+import com.marchina.speech.AudioClipStore;
+import com.marchina.speech.SpeechAudioCache;
+import com.marchina.speech.SpeechSynthesizerPool;
 import com.microsoft.cognitiveservices.speech.*;
 import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 @Component
 public class TTSAgent {
     private static final Logger logger = LoggerFactory.getLogger(TTSAgent.class);
     
-    private final String speechKey;
-    private final String speechRegion;
+    private final SpeechSynthesizerPool synthesizerPool;
+    private final SpeechAudioCache audioCache;
+    private final AudioClipStore audioClipStore;
+    private final ThreadPoolExecutor ttsExecutor;
+    private final MeterRegistry meterRegistry;
+    private final long synthesisTimeoutMillis;
     
-    public TTSAgent(Dotenv dotenv) {
+    public TTSAgent(Dotenv dotenv,
+                    SpeechSynthesizerPool synthesizerPool,
+                    SpeechAudioCache audioCache,
+                    AudioClipStore audioClipStore,
+                    @Qualifier("ttsExecutor") ThreadPoolExecutor ttsExecutor,
+                    MeterRegistry meterRegistry) {
         logger.debug("Initializing TTSAgent");
-        this.speechKey = dotenv.get("AZURE_SPEECH_KEY");
-        this.speechRegion = dotenv.get("AZURE_SPEECH_REGION");
-        
-        logger.debug("Speech key present: {}", (speechKey != null && !speechKey.isEmpty()));
-        logger.debug("Speech region: {}", speechRegion);
-        
-        if (speechKey == null || speechRegion == null) {
-            String message = "Missing required Azure Speech configuration. Please check your .env file.";
-            logger.error(message);
-            throw new IllegalStateException(message);
-        }
-        
-        logger.info("TTSAgent initialized successfully with region: {}", speechRegion);
+        this.synthesizerPool = synthesizerPool;
+        this.audioCache = audioCache;
+        this.audioClipStore = audioClipStore;
+        this.ttsExecutor = ttsExecutor;
+        this.meterRegistry = meterRegistry;
+        this.synthesisTimeoutMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(dotenv.get("SPEECH_TIMEOUT_SECONDS", "30")));
+        logger.info("TTSAgent initialized with voice: {}", synthesizerPool.getDefaultKey().voice());
     }
     
     /**
-     * Converts text to speech using Azure Speech Service and returns the audio data as a Base64 encoded string
+     * Converts text to speech using Azure Speech Service and returns the audio data as a Base64 encoded string.
      *
      * @param text The text to convert to speech
      * @return Base64 encoded audio data
      * @throws IOException if there's an error generating the speech
+     * @see #synthesize(String)
      */
     public String generateSpeech(String text) throws IOException {
+        byte[] audioData = synthesize(text);
+        String base64Audio = Base64.getEncoder().encodeToString(audioData);
+        logger.debug("Base64 encoded audio length: {}", base64Audio.length());
+        return base64Audio;
+    }
+
+    /**
+     * Starts synthesizing on the TTS executor and returns at once, so the caller can respond with
+     * the text before the audio exists. The synthesis gets SPEECH_TIMEOUT_SECONDS of its own rather
+     * than the caller's request deadline, which ends with the response.
+     *
+     * @param text The text to convert to speech
+     * @return Id of the clip in the {@link AudioClipStore}; fetching it waits for the synthesis
+     */
+    public String synthesizeDeferred(String text) {
+        Supplier<byte[]> task = () -> {
+            try {
+                return synthesize(text);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        CompletableFuture<byte[]> audio;
+        try {
+            audio = CompletableFuture.supplyAsync(task, ttsExecutor);
+        } catch (RejectedExecutionException e) {
+            logger.warn("TTS executor is full, deferred speech will not be available");
+            audio = CompletableFuture.failedFuture(e);
+        }
+        return audioClipStore.putPending(audio);
+    }
+
+    /**
+     * Synthesizes texts that are not cached yet, on a background thread, so the first request
+     * speaking them is served from the cache. Failures are logged and skipped.
+     *
+     * @param texts Fixed replies, e.g. confirmations and error messages
+     */
+    public void preSynthesize(Collection<String> texts) {
+        Thread warmUp = new Thread(() -> {
+            SpeechSynthesizerPool.Key key = synthesizerPool.getDefaultKey();
+            int synthesized = 0;
+            for (String text : texts) {
+                if (!audioCache.isCacheable(text) || audioCache.get(key, text).isPresent()) {
+                    continue;
+                }
+                try {
+                    synthesize(text);
+                    synthesized++;
+                } catch (Exception e) {
+                    logger.warn("Pre-synthesis failed for \"{}\": {}", text, e.getMessage());
+                }
+            }
+            logger.info("Pre-synthesized {} of {} fixed replies", synthesized, texts.size());
+        }, "tts-cache-warmup");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    /**
+     * Converts text to speech using a pooled synthesizer, or returns the cached audio for texts
+     * spoken before. Waits at most SPEECH_TIMEOUT_SECONDS, or the remaining request deadline if shorter.
+     *
+     * @param text The text to convert to speech
+     * @return The audio in the pool's output format (MP3 by default)
+     * @throws IOException if there's an error generating the speech
+     */
+    public byte[] synthesize(String text) throws IOException {
         logger.info("Starting speech generation for text: {}", text);
         
         if (text == null || text.trim().isEmpty()) {
@@ -49,62 +139,78 @@ public class TTSAgent {
             throw new IllegalArgumentException("Text cannot be empty");
         }
         
-        SpeechConfig speechConfig = null;
-        SpeechSynthesizer synthesizer = null;
-        
-        try {
-            logger.debug("Creating speech config with key and region");
-            speechConfig = SpeechConfig.fromSubscription(speechKey, speechRegion);
-            
-            logger.debug("Setting voice name to en-US-JennyNeural");
-            speechConfig.setSpeechSynthesisVoiceName("en-US-JennyNeural");
-            
-            logger.debug("Setting output format to MP3");
-            speechConfig.setSpeechSynthesisOutputFormat(SpeechSynthesisOutputFormat.Audio16Khz32KBitRateMonoMp3);
-            
-            logger.debug("Creating speech synthesizer");
-            synthesizer = new SpeechSynthesizer(speechConfig);
-            
-            logger.info("Calling Azure Speech Service to synthesize text");
-            SpeechSynthesisResult result = synthesizer.SpeakTextAsync(text).get();
-            
-            logger.debug("Speech synthesis completed with reason: {}", result.getReason());
-            
-            if (result.getReason() == ResultReason.SynthesizingAudioCompleted) {
-                byte[] audioData = result.getAudioData();
-                logger.debug("Received audio data of size: {} bytes", audioData.length);
+        SpeechSynthesizerPool.Key key = synthesizerPool.getDefaultKey();
+        Optional<byte[]> cached = audioCache.get(key, text);
+        if (cached.isPresent()) {
+            logger.info("Serving cached speech ({} bytes)", cached.get().length);
+            return cached.get();
+        }
+
+        Deadline.checkCurrent("tts");
+        long start = System.nanoTime();
+        try (SpeechSynthesizerPool.Lease lease = synthesizerPool.acquire(key)) {
+            String outcome = "error";
+            try {
+                logger.info("Calling Azure Speech Service to synthesize text ({} synthesizer)", lease.isWarm() ? "warm" : "cold");
+                Future<SpeechSynthesisResult> synthesis = lease.synthesizer().SpeakTextAsync(text);
+                SpeechSynthesisResult result;
+                try {
+                    result = synthesis.get(Deadline.remainingMillis(synthesisTimeoutMillis), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    synthesis.cancel(true);
+                    // The synthesizer may still be busy with this text; do not hand it to the next caller
+                    lease.discard();
+                    outcome = "timeout";
+                    Deadline deadline = Deadline.current().orElse(null);
+                    if (deadline != null && deadline.isExpired()) {
+                        throw deadline.exceeded("tts");
+                    }
+                    throw new IOException("Speech synthesis timed out after " + synthesisTimeoutMillis + " ms", e);
+                }
                 
-                String base64Audio = Base64.getEncoder().encodeToString(audioData);
-                logger.debug("Base64 encoded audio length: {}", base64Audio.length());
+                logger.debug("Speech synthesis completed with reason: {}", result.getReason());
                 
-                logger.info("Speech synthesis succeeded");
-                return base64Audio;
-            } else {
-                String errorDetails = result.getProperties().getProperty(PropertyId.SpeechServiceResponse_JsonErrorDetails);
-                logger.error("Speech synthesis failed with reason: {}", result.getReason());
-                logger.error("Error details: {}", errorDetails);
-                throw new IOException("Speech synthesis failed: " + result.getReason());
-            }
-        } catch (InterruptedException e) {
-            logger.error("Speech synthesis was interrupted: {}", e.getMessage(), e);
-            Thread.currentThread().interrupt();
-            throw new IOException("Speech synthesis was interrupted", e);
-        } catch (ExecutionException e) {
-            logger.error("Speech synthesis execution failed: {}", e.getMessage(), e);
-            logger.error("Cause: {}", e.getCause() != null ? e.getCause().getMessage() : "Unknown");
-            throw new IOException("Speech synthesis execution failed: " + e.getMessage(), e);
-        } catch (Exception e) {
-            logger.error("Unexpected error during speech synthesis: {}", e.getMessage(), e);
-            throw new IOException("Unexpected error during speech synthesis: " + e.getMessage(), e);
-        } finally {
-            logger.debug("Cleaning up resources");
-            if (synthesizer != null) {
-                logger.debug("Closing synthesizer");
-                synthesizer.close();
-            }
-            if (speechConfig != null) {
-                logger.debug("Closing speech config");
-                speechConfig.close();
+                try (result) {
+                    if (result.getReason() == ResultReason.SynthesizingAudioCompleted) {
+                        byte[] audioData = result.getAudioData();
+                        logger.debug("Received audio data of size: {} bytes", audioData.length);
+                        
+                        outcome = "success";
+                        logger.info("Speech synthesis succeeded");
+                        audioCache.put(key, text, audioData);
+                        return audioData;
+                    } else {
+                        String errorDetails = result.getProperties().getProperty(PropertyId.SpeechServiceResponse_JsonErrorDetails);
+                        logger.error("Speech synthesis failed with reason: {}", result.getReason());
+                        logger.error("Error details: {}", errorDetails);
+                        lease.discard();
+                        throw new IOException("Speech synthesis failed: " + result.getReason());
+                    }
+                }
+            } catch (DeadlineExceededException | IOException e) {
+                throw e;
+            } catch (InterruptedException e) {
+                logger.error("Speech synthesis was interrupted: {}", e.getMessage(), e);
+                lease.discard();
+                Thread.currentThread().interrupt();
+                throw new IOException("Speech synthesis was interrupted", e);
+            } catch (ExecutionException e) {
+                logger.error("Speech synthesis execution failed: {}", e.getMessage(), e);
+                logger.error("Cause: {}", e.getCause() != null ? e.getCause().getMessage() : "Unknown");
+                lease.discard();
+                throw new IOException("Speech synthesis execution failed: " + e.getMessage(), e);
+            } catch (Exception e) {
+                logger.error("Unexpected error during speech synthesis: {}", e.getMessage(), e);
+                lease.discard();
+                throw new IOException("Unexpected error during speech synthesis: " + e.getMessage(), e);
+            } finally {
+                Timer.builder("marchina.tts.synthesis")
+                        .description("Text-to-speech latency including synthesizer checkout, by warm or cold synthesizer")
+                        .tag("synthesizer", lease.isWarm() ? "warm" : "cold")
+                        .tag("outcome", outcome)
+                        .publishPercentiles(0.5, 0.95, 0.99)
+                        .register(meterRegistry)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             }
         }
     }
@@ -0,0 +1,188 @@
+package com.marchina.agent.intent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Multinomial naive Bayes over hashed word unigrams and bigrams.
+ *
+ * Features are hashed into a fixed number of buckets, so the model is a handful of float arrays
+ * regardless of vocabulary and classification is a single pass over the text. Mermaid arrows and
+ * cardinality markers are turned into pseudo-words so pasted diagram code classifies as well as
+ * prose does. Buckets never seen in training are ignored, so text made only of unknown words
+ * falls back to the label priors and scores low. The summed log-likelihood is divided by the
+ * square root of the feature count before the posterior is taken; otherwise long requirement
+ * texts would score near-certain from many weakly informative words.
+ */
+public final class HashedNgramClassifier {
+    private static final int BUCKETS = 1 << 16;
+    private static final float SMOOTHING = 0.1f;
+    private static final String[][] SYMBOLS = {
+            {"-->>", " seqarrow "}, {"->>", " seqarrow "}, {"-->", " flowarrow "}, {"==>", " flowarrow "},
+            {"||--", " ercardinality "}, {"}o--", " ercardinality "}, {"|o--", " ercardinality "},
+            {"--o{", " ercardinality "}, {"--|{", " ercardinality "},
+            {"<|--", " classinherit "}, {"*--", " classcompose "}, {"o--", " classaggregate "}
+    };
+
+    private final List<String> labels;
+    private final float[] logPriors;
+    private final float[][] logLikelihoods;
+    private final BitSet seen;
+
+    /**
+     * A labelled training or evaluation example.
+     */
+    public record Example(String label, String text) {}
+
+    /**
+     * @param label      The most likely label
+     * @param confidence Posterior probability of that label, between 0 and 1
+     */
+    public record Prediction(String label, double confidence) {}
+
+    private HashedNgramClassifier(List<String> labels, float[] logPriors, float[][] logLikelihoods, BitSet seen) {
+        this.labels = labels;
+        this.logPriors = logPriors;
+        this.logLikelihoods = logLikelihoods;
+        this.seen = seen;
+    }
+
+    /**
+     * Trains a classifier from labelled examples.
+     */
+    public static HashedNgramClassifier train(List<Example> examples) {
+        if (examples.isEmpty()) {
+            throw new IllegalArgumentException("Cannot train a classifier without examples");
+        }
+        Map<String, Integer> labelIndex = new LinkedHashMap<>();
+        for (Example example : examples) {
+            labelIndex.putIfAbsent(example.label(), labelIndex.size());
+        }
+        int classes = labelIndex.size();
+        float[][] counts = new float[classes][BUCKETS];
+        float[] totals = new float[classes];
+        int[] documents = new int[classes];
+        BitSet seen = new BitSet(BUCKETS);
+
+        for (Example example : examples) {
+            int c = labelIndex.get(example.label());
+            documents[c]++;
+            for (int feature : features(example.text())) {
+                counts[c][feature]++;
+                totals[c]++;
+                seen.set(feature);
+            }
+        }
+
+        float[] logPriors = new float[classes];
+        for (int c = 0; c < classes; c++) {
+            logPriors[c] = (float) Math.log((double) documents[c] / examples.size());
+            double denominator = totals[c] + SMOOTHING * BUCKETS;
+            for (int f = 0; f < BUCKETS; f++) {
+                counts[c][f] = (float) Math.log((counts[c][f] + SMOOTHING) / denominator);
+            }
+        }
+        return new HashedNgramClassifier(List.copyOf(labelIndex.keySet()), logPriors, counts, seen);
+    }
+
+    /**
+     * Classifies the text.
+     */
+    public Prediction classify(String text) {
+        int[] features = features(text);
+        int known = 0;
+        for (int feature : features) {
+            if (seen.get(feature)) {
+                features[known++] = feature;
+            }
+        }
+        double scale = 1.0 / Math.sqrt(Math.max(1, known));
+
+        int classes = labels.size();
+        double[] scores = new double[classes];
+        for (int c = 0; c < classes; c++) {
+            double likelihood = 0;
+            for (int i = 0; i < known; i++) {
+                likelihood += logLikelihoods[c][features[i]];
+            }
+            scores[c] = logPriors[c] + likelihood * scale;
+        }
+
+        int best = 0;
+        for (int c = 1; c < classes; c++) {
+            if (scores[c] > scores[best]) {
+                best = c;
+            }
+        }
+        double sum = 0;
+        for (int c = 0; c < classes; c++) {
+            sum += Math.exp(scores[c] - scores[best]);
+        }
+        return new Prediction(labels.get(best), 1.0 / sum);
+    }
+
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    /**
+     * Reads tab separated "label&lt;TAB&gt;text" lines; blank lines and lines starting with # are skipped.
+     */
+    public static List<Example> readExamples(InputStream input) throws IOException {
+        List<Example> examples = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                if (tab <= 0) {
+                    throw new IOException("Malformed example line, expected label<TAB>text: " + line);
+                }
+                examples.add(new Example(line.substring(0, tab).trim(), line.substring(tab + 1).trim()));
+            }
+        }
+        return examples;
+    }
+
+    static int[] features(String text) {
+        String normalized = text == null ? "" : text;
+        for (String[] symbol : SYMBOLS) {
+            normalized = normalized.replace(symbol[0], symbol[1]);
+        }
+        String[] words = normalized.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+
+        List<String> tokens = new ArrayList<>(words.length);
+        for (String word : words) {
+            if (!word.isEmpty()) {
+                tokens.add(word);
+            }
+        }
+        int[] features = new int[tokens.size() * 2];
+        int n = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            features[n++] = bucket(tokens.get(i).hashCode());
+            if (i > 0) {
+                features[n++] = bucket(31 * tokens.get(i - 1).hashCode() + tokens.get(i).hashCode() + 0x9e3779b9);
+            }
+        }
+        return n == features.length ? features : Arrays.copyOf(features, n);
+    }
+
+    private static int bucket(int hash) {
+        int mixed = hash * 0x85ebca6b;
+        mixed ^= mixed >>> 15;
+        return mixed & (BUCKETS - 1);
+    }
+}
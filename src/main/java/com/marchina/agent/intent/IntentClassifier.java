@@ -0,0 +1,79 @@
+package com.marchina.agent.intent;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process routing decisions that used to cost an LLM round trip.
+ * One {@link HashedNgramClassifier} per {@link IntentTask} is trained from the bundled examples at
+ * startup. A prediction is returned only when its confidence reaches INTENT_CONFIDENCE_THRESHOLD;
+ * below that the caller falls back to the LLM.
+ */
+@Component
+public class IntentClassifier {
+    private static final Logger logger = LoggerFactory.getLogger(IntentClassifier.class);
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final double threshold;
+    private final Map<IntentTask, HashedNgramClassifier> classifiers = new EnumMap<>(IntentTask.class);
+
+    public IntentClassifier(Dotenv dotenv, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = Boolean.parseBoolean(dotenv.get("INTENT_CLASSIFIER_ENABLED", "true"));
+        this.threshold = Double.parseDouble(dotenv.get("INTENT_CONFIDENCE_THRESHOLD", "0.7"));
+        if (enabled) {
+            long start = System.nanoTime();
+            for (IntentTask task : IntentTask.values()) {
+                classifiers.put(task, task.train());
+            }
+            logger.info("Intent classifiers trained in {} ms, confidence threshold {}",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), threshold);
+        } else {
+            logger.info("Intent classifier disabled, routing decisions use the LLM");
+        }
+    }
+
+    /**
+     * Classifies the text locally.
+     *
+     * @return The prediction if the classifier is enabled and confident enough, otherwise empty
+     */
+    public Optional<HashedNgramClassifier.Prediction> classify(IntentTask task, String text) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        long start = System.nanoTime();
+        HashedNgramClassifier.Prediction prediction = classifiers.get(task).classify(text);
+        Timer.builder("marchina.intent.latency")
+                .description("Local intent classification latency")
+                .tag("task", task.name())
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        boolean confident = prediction.confidence() >= threshold;
+        logger.debug("Intent {} -> {} ({}){}", task, prediction.label(), String.format("%.2f", prediction.confidence()),
+                confident ? "" : ", below threshold");
+        recordDecision(task, confident ? "local" : "llm");
+        return confident ? Optional.of(prediction) : Optional.empty();
+    }
+
+    private void recordDecision(IntentTask task, String source) {
+        Counter.builder("marchina.intent.decisions")
+                .description("Routing decisions by source: local classifier or LLM fallback")
+                .tag("task", task.name())
+                .tag("source", source)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,43 @@
+package com.marchina.agent.intent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Classification tasks answered locally, each trained from a labelled resource.
+ */
+public enum IntentTask {
+    /** Which agent a free-text request is for: ERD, FLOWCHART, SEQUENCE, CLASS or OTHER */
+    AGENT("intent/agent.tsv"),
+    /** What the request wants done: GENERATE, EXPLAIN, VALIDATE or OTHER */
+    ACTION("intent/action.tsv"),
+    /** Best diagram for a set of requirements: ERD, Flowchart, Sequence Diagram or Class Diagram */
+    DIAGRAM_TYPE("intent/diagram-type.tsv");
+
+    private final String resource;
+
+    IntentTask(String resource) {
+        this.resource = resource;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public HashedNgramClassifier train() {
+        return HashedNgramClassifier.train(examples(resource));
+    }
+
+    static List<HashedNgramClassifier.Example> examples(String resource) {
+        try (InputStream input = IntentTask.class.getClassLoader().getResourceAsStream(resource)) {
+            if (input == null) {
+                throw new IllegalStateException("Intent resource not found on classpath: " + resource);
+            }
+            return HashedNgramClassifier.readExamples(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read intent resource " + resource, e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.marchina.agent.mermaid;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deterministic fixes for the mistakes LLMs most often make in Mermaid output.
+ * Runs before any repair prompt so the common cases (markdown fences, a missing or misspelt
+ * header, non-Mermaid cardinality tokens, unquoted labels) never cost another model call.
+ * Lines it does not recognise are left untouched; the result still has to pass the parser.
+ */
+@Component
+public class MermaidAutoFixer {
+
+    private static final String ENTITY = "(\"[^\"]+\"|[\\p{L}_][\\p{L}\\p{N}_-]*)";
+    private static final Pattern ERD_RELATIONSHIP = Pattern.compile(
+            "^(\\s*)" + ENTITY + "\\s*([^\\s.-]{0,3})(--|\\.\\.)([^\\s.-]{0,3})\\s*" + ENTITY + "\\s*(:\\s*(.*))?$");
+    private static final Pattern ERD_LABEL = Pattern.compile("^(\"[^\"]*\"|[\\p{L}\\p{N}_-]+)$");
+    private static final Pattern FLOW_SQUARE = Pattern.compile(
+            "([\\p{L}\\p{N}_]+)\\[(?![\\[(/\\\\\"])([^\"]*?)\\](?=\\s*(?:$|[-=~.<&;|:]))");
+    private static final Pattern FLOW_ROUND = Pattern.compile(
+            "([\\p{L}\\p{N}_]+)\\((?![\\[(\"])([^\"]*?)\\)(?=\\s*(?:$|[-=~.<&;|:]))");
+    private static final Pattern FLOW_RHOMBUS = Pattern.compile(
+            "([\\p{L}\\p{N}_]+)\\{(?![{\"])([^\"]*?)\\}(?=\\s*(?:$|[-=~.<&;|:]))");
+    private static final Pattern STYLING = Pattern.compile("^\\s*(style|classDef|class|linkStyle|click|subgraph|end)\\b.*$");
+
+    // Left-hand cardinality aliases; right-hand tokens are the mirror image
+    private static final Map<String, String> ERD_LEFT = Map.ofEntries(
+            Map.entry("", "||"), Map.entry("1", "||"), Map.entry("|", "||"), Map.entry("||", "||"),
+            Map.entry("*", "}o"), Map.entry("n", "}o"), Map.entry("N", "}o"), Map.entry("m", "}o"), Map.entry("M", "}o"),
+            Map.entry("0", "|o"), Map.entry("?", "|o"), Map.entry("o", "|o"), Map.entry("|o", "|o"), Map.entry("o|", "|o"),
+            Map.entry("}o", "}o"), Map.entry("o{", "}o"), Map.entry("{o", "}o"), Map.entry("0*", "}o"),
+            Map.entry("}|", "}|"), Map.entry("|{", "}|"), Map.entry("{|", "}|"), Map.entry("1*", "}|"), Map.entry("+", "}|"));
+    private static final Map<String, String> ERD_RIGHT = Map.ofEntries(
+            Map.entry("", "||"), Map.entry("1", "||"), Map.entry("|", "||"), Map.entry("||", "||"),
+            Map.entry("*", "o{"), Map.entry("n", "o{"), Map.entry("N", "o{"), Map.entry("m", "o{"), Map.entry("M", "o{"),
+            Map.entry("0", "o|"), Map.entry("?", "o|"), Map.entry("o", "o|"), Map.entry("o|", "o|"), Map.entry("|o", "o|"),
+            Map.entry("o{", "o{"), Map.entry("}o", "o{"), Map.entry("o}", "o{"), Map.entry("0*", "o{"),
+            Map.entry("|{", "|{"), Map.entry("}|", "|{"), Map.entry("|}", "|{"), Map.entry("1*", "|{"), Map.entry("+", "|{"));
+
+    /**
+     * Applies the local fixes for the given diagram type.
+     *
+     * @param mermaidCode The Mermaid source as returned by the LLM
+     * @param type        The diagram type the agent was asked to produce
+     * @return The fixed source; identical to the input when nothing applied
+     */
+    public String fix(String mermaidCode, MermaidDiagramType type) {
+        if (mermaidCode == null) {
+            return null;
+        }
+        String code = mermaidCode;
+        // Double-escaped JSON leaves literal "\n" sequences instead of line breaks
+        if (!code.contains("\n") && code.contains("\\n")) {
+            code = code.replace("\\n", "\n");
+        }
+
+        List<String> lines = new ArrayList<>();
+        for (String line : code.split("\\R", -1)) {
+            if (!line.trim().startsWith("```")) {
+                lines.add(line);
+            }
+        }
+
+        int headerIndex = fixHeader(lines, type);
+        for (int i = headerIndex + 1; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isBlank() || line.trim().startsWith("%%")) {
+                continue;
+            }
+            switch (type) {
+                case ERD -> lines.set(i, fixErRelationship(line));
+                case FLOWCHART -> lines.set(i, fixFlowchartLabels(line));
+                default -> { }
+            }
+        }
+        String fixed = String.join("\n", lines).strip();
+        return fixed.equals(mermaidCode.strip()) ? mermaidCode : fixed;
+    }
+
+    /**
+     * Makes sure the first content line is a header of the requested type.
+     *
+     * @return Index of the header line
+     */
+    private int fixHeader(List<String> lines, MermaidDiagramType type) {
+        int first = 0;
+        while (first < lines.size() && (lines.get(first).isBlank() || lines.get(first).trim().startsWith("%%"))) {
+            first++;
+        }
+        if (first == lines.size()) {
+            lines.add(defaultHeader(type));
+            return lines.size() - 1;
+        }
+
+        String trimmed = lines.get(first).trim();
+        String token = trimmed.split("[\\s;]+", 2)[0];
+        if (MermaidDiagramType.fromHeader(token) != null) {
+            return first;
+        }
+        if (token.equalsIgnoreCase(type.getKeyword()) || (type == MermaidDiagramType.FLOWCHART && token.equalsIgnoreCase("graph"))) {
+            lines.set(first, type.getKeyword() + trimmed.substring(token.length()));
+            return first;
+        }
+        lines.add(first, defaultHeader(type));
+        return first;
+    }
+
+    private String defaultHeader(MermaidDiagramType type) {
+        return type == MermaidDiagramType.FLOWCHART ? "flowchart TD" : type.getKeyword();
+    }
+
+    private String fixErRelationship(String line) {
+        Matcher relationship = ERD_RELATIONSHIP.matcher(line);
+        if (!relationship.matches()) {
+            return line;
+        }
+        String left = ERD_LEFT.getOrDefault(relationship.group(3), relationship.group(3));
+        String right = ERD_RIGHT.getOrDefault(relationship.group(5), relationship.group(5));
+
+        String label = relationship.group(8) == null ? "" : relationship.group(8).trim();
+        if (label.isEmpty()) {
+            label = "\"relates to\"";
+        } else if (!ERD_LABEL.matcher(label).matches()) {
+            label = "\"" + label.replace("\"", "").trim() + "\"";
+        }
+
+        return relationship.group(1) + relationship.group(2) + " " + left + relationship.group(4) + right + " "
+                + relationship.group(6) + " : " + label;
+    }
+
+    private String fixFlowchartLabels(String line) {
+        if (STYLING.matcher(line).matches()) {
+            return line;
+        }
+        String fixed = quoteLabels(line, FLOW_SQUARE, "[", "]");
+        fixed = quoteLabels(fixed, FLOW_ROUND, "(", ")");
+        return quoteLabels(fixed, FLOW_RHOMBUS, "{", "}");
+    }
+
+    /** Wraps labels containing brackets or parentheses in double quotes, which Mermaid requires. */
+    private String quoteLabels(String line, Pattern shape, String open, String close) {
+        Matcher matcher = shape.matcher(line);
+        StringBuilder fixed = new StringBuilder();
+        while (matcher.find()) {
+            String label = matcher.group(2);
+            String replacement = matcher.group();
+            if (label.chars().anyMatch(c -> "[](){}".indexOf(c) >= 0)) {
+                replacement = matcher.group(1) + open + "\"" + label.trim() + "\"" + close;
+            }
+            matcher.appendReplacement(fixed, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(fixed);
+        return fixed.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package com.marchina.agent.mermaid;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Syntax tree produced by {@link MermaidParser}.
+ * Nodes are kept in declaration order and de-duplicated by id.
+ */
+public record MermaidDiagram(
+    MermaidDiagramType type,
+    String direction,        // Flowchart direction (TD, LR, ...), null for other types
+    List<MermaidNode> nodes,
+    List<MermaidEdge> edges
+) {
+
+    static MermaidDiagram of(MermaidDiagramType type, String direction, Collection<MermaidNode> nodes, List<MermaidEdge> edges) {
+        return new MermaidDiagram(type, direction, List.copyOf(nodes), List.copyOf(edges));
+    }
+}
@@ -0,0 +1,37 @@
+package com.marchina.agent.mermaid;
+
+/**
+ * Mermaid diagram types the local parser understands, keyed by their header keyword.
+ */
+public enum MermaidDiagramType {
+    ERD("erDiagram"),
+    FLOWCHART("flowchart"),
+    SEQUENCE("sequenceDiagram"),
+    CLASS("classDiagram");
+
+    private final String keyword;
+
+    MermaidDiagramType(String keyword) {
+        this.keyword = keyword;
+    }
+
+    public String getKeyword() {
+        return keyword;
+    }
+
+    /**
+     * Resolves the diagram type from the first token of a Mermaid header line.
+     *
+     * @param headerToken e.g. "erDiagram", "graph", "flowchart", "classDiagram-v2"
+     * @return The matching type, or null if the header is not supported
+     */
+    public static MermaidDiagramType fromHeader(String headerToken) {
+        return switch (headerToken) {
+            case "erDiagram" -> ERD;
+            case "flowchart", "graph" -> FLOWCHART;
+            case "sequenceDiagram" -> SEQUENCE;
+            case "classDiagram", "classDiagram-v2" -> CLASS;
+            default -> null;
+        };
+    }
+}
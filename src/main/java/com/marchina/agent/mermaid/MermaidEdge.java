@@ -0,0 +1,14 @@
+package com.marchina.agent.mermaid;
+
+/**
+ * A connection in a parsed Mermaid diagram: an ERD relationship, flowchart link,
+ * sequence message or class relation.
+ */
+public record MermaidEdge(
+    String from,  // Source node id
+    String to,    // Target node id
+    String arrow, // Arrow or cardinality token exactly as written, e.g. "-->", "||--o{", "->>"
+    String label, // Edge label or message text, null when absent
+    int line      // Line the edge was declared on
+) {
+}
@@ -0,0 +1,15 @@
+package com.marchina.agent.mermaid;
+
+import java.util.List;
+
+/**
+ * A node in a parsed Mermaid diagram: an ERD entity, flowchart node, sequence participant or class.
+ */
+public record MermaidNode(
+    String id,            // Identifier used to reference the node
+    String label,         // Display label, or the id when no label was given
+    String shape,         // Shape opener for flowcharts ("[", "{", "((" ...), participant kind for sequences, null otherwise
+    List<String> members, // Entity attributes or class members, empty for other node kinds
+    int line              // Line where the node was first declared or referenced
+) {
+}
@@ -0,0 +1,24 @@
+package com.marchina.agent.mermaid;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Outcome of parsing a Mermaid diagram: the syntax tree (possibly partial) and any errors found.
+ */
+public record MermaidParseResult(
+    MermaidDiagram diagram,          // Null only when the header could not be recognised
+    List<MermaidSyntaxError> errors
+) {
+
+    public boolean isValid() {
+        return diagram != null && errors.isEmpty();
+    }
+
+    /**
+     * @return The errors formatted one per line, or an empty string if there are none.
+     */
+    public String describeErrors() {
+        return errors.stream().map(MermaidSyntaxError::toString).collect(Collectors.joining("\n"));
+    }
+}
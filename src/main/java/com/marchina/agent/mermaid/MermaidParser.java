@@ -0,0 +1,873 @@
+package com.marchina.agent.mermaid;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process parser for the subset of Mermaid the diagram agents generate:
+ * erDiagram, flowchart/graph, sequenceDiagram and classDiagram.
+ *
+ * The grammar follows Mermaid's own lexer closely enough to reject the mistakes the LLM
+ * typically makes (bad cardinality tokens, unquoted labels with brackets, unterminated
+ * blocks, reserved words as ids) and reports each one with its line and column.
+ * Parsing is single pass and allocation-light, so validation costs microseconds instead of
+ * an LLM round trip.
+ */
+@Component
+public class MermaidParser {
+
+    private static final String ENTITY = "(\"[^\"]+\"|[\\p{L}_][\\p{L}\\p{N}_-]*)";
+    private static final Pattern ERD_RELATIONSHIP = Pattern.compile(
+            "^" + ENTITY + "\\s*([^\\s.-]{0,2})(--|\\.\\.)([^\\s.-]{0,2})\\s*" + ENTITY + "\\s*(:\\s*(.*))?$");
+    private static final Pattern ERD_ENTITY_BLOCK = Pattern.compile("^" + ENTITY + "\\s*(\\[[^\\]]*\\])?\\s*\\{(.*)$");
+    private static final Pattern ERD_ENTITY = Pattern.compile("^" + ENTITY + "\\s*(\\[[^\\]]*\\])?$");
+    private static final Pattern ERD_ATTRIBUTE = Pattern.compile(
+            "^[\\p{L}_][\\p{L}\\p{N}_\\-\\[\\]\\(\\),]*\\s+\\*?[\\p{L}_][\\p{L}\\p{N}_\\-\\[\\]\\(\\)]*"
+                    + "(\\s+(PK|FK|UK)(\\s*,\\s*(PK|FK|UK))*)?(\\s+\"[^\"]*\")?$");
+    private static final Pattern ERD_LABEL = Pattern.compile("^(\"[^\"]*\"|[\\p{L}\\p{N}_-]+)$");
+    private static final Set<String> ERD_LEFT_CARDINALITIES = Set.of("|o", "||", "}o", "}|");
+    private static final Set<String> ERD_RIGHT_CARDINALITIES = Set.of("o|", "||", "o{", "|{");
+
+    private static final Pattern FLOW_ID = Pattern.compile("[\\p{L}\\p{N}_]+");
+    private static final Pattern FLOW_LINK = Pattern.compile(
+            "(?:[<ox](?=[-=]))?(?:-{2,}>|-{3,}|-{2,}[ox](?=[\\s|])|={2,}>|={3,}|={2,}[ox](?=[\\s|])|-\\.+->?|~{3,})");
+    private static final Pattern FLOW_TEXT_LINK = Pattern.compile(
+            "(<)?(--|==|-\\.)\\s*([^\\s=.-].*?)\\s*(-{2,}[>ox]?|={2,}[>ox]?|\\.+-+>?)");
+    private static final Pattern FLOW_CLASS_SUFFIX = Pattern.compile(":::[\\p{L}\\p{N}_-]+");
+    private static final Set<String> FLOW_DIRECTIONS = Set.of("TB", "TD", "BT", "RL", "LR");
+    private static final String[][] FLOW_SHAPES = {
+            {"(((", ")))"}, {"((", "))"}, {"([", "])"}, {"[[", "]]"}, {"[(", ")]"},
+            {"[/", "/]", "\\]"}, {"[\\", "\\]", "/]"}, {"{{", "}}"},
+            {"[", "]"}, {"(", ")"}, {"{", "}"}, {">", "]"}
+    };
+
+    private static final String ACTOR = "([^+<>:,;\\-]+?|\"[^\"]+\")";
+    private static final Pattern SEQ_PARTICIPANT = Pattern.compile("^(?:create\\s+)?(participant|actor)\\s+(.+?)(?:\\s+as\\s+(.+))?$");
+    private static final Pattern SEQ_MESSAGE = Pattern.compile(
+            "^" + ACTOR + "\\s*(<<-->>|<<->>|-->>|->>|--x|-x|--\\)|-\\)|-->|->)\\s*([+-]?)\\s*" + ACTOR + "\\s*(:(.*))?$");
+    private static final Pattern SEQ_ARROW = Pattern.compile("-{1,2}(>>|>|x|\\))");
+    private static final Pattern SEQ_NOTE = Pattern.compile("^[Nn]ote\\s+(left of|right of|over)\\s+([^:]+):(.*)$");
+    private static final Pattern SEQ_ACTIVATION = Pattern.compile("^(activate|deactivate)\\s+(.+)$");
+    private static final Pattern SEQ_BLOCK = Pattern.compile("^(loop|alt|opt|par|critical|break|rect|box)\\b.*$");
+    private static final Pattern SEQ_BRANCH = Pattern.compile("^(else|and|option)\\b.*$");
+    private static final Pattern SEQ_MISC = Pattern.compile(
+            "^(autonumber|title|accTitle|accDescr|link|links|properties|details|destroy)\\b.*$");
+
+    private static final String CLASS_REF = "([\\p{L}\\p{N}_]+)(~[^~]+~)?";
+    private static final Pattern CLASS_DECL = Pattern.compile(
+            "^class\\s+" + CLASS_REF + "\\s*(\\[\"[^\"]*\"\\])?\\s*(:::\\s*[\\p{L}\\p{N}_-]+)?\\s*(\\{)?\\s*(.*)$");
+    private static final Pattern CLASS_RELATION = Pattern.compile(
+            "^" + CLASS_REF + "\\s*(\"[^\"]*\")?\\s*(<\\||\\*|o|<)?(--|\\.\\.)(\\|>|\\*|o|>)?\\s*(\"[^\"]*\")?\\s*"
+                    + CLASS_REF + "\\s*(:\\s*(.*))?$");
+    private static final Pattern CLASS_MEMBER = Pattern.compile("^([\\p{L}\\p{N}_]+)\\s*:\\s*(.+)$");
+    private static final Pattern CLASS_ANNOTATION = Pattern.compile("^<<[^>]+>>\\s*([\\p{L}\\p{N}_]+)?$");
+    private static final Pattern CLASS_NAMESPACE = Pattern.compile("^namespace\\s+[\\p{L}\\p{N}_.]+\\s*\\{$");
+    private static final Pattern CLASS_MISC = Pattern.compile(
+            "^(note|direction|style|classDef|cssClass|click|link|callback|title|accTitle|accDescr)\\b.*$");
+
+    private static final Pattern STYLING = Pattern.compile("^(style|classDef|class|linkStyle|click|accTitle|accDescr|title)\\b.*$");
+
+    /** A non-blank, non-comment source line with its 1-based number and 0-based indent. */
+    private record SourceLine(int number, int indent, String text) {
+        int column() {
+            return indent + 1;
+        }
+    }
+
+    /** Mutable builder state shared by all grammars. */
+    private static final class ParseState {
+        final List<MermaidSyntaxError> errors = new ArrayList<>();
+        final Map<String, String> labels = new LinkedHashMap<>();
+        final Map<String, String> shapes = new LinkedHashMap<>();
+        final Map<String, Integer> lines = new LinkedHashMap<>();
+        final Map<String, List<String>> members = new LinkedHashMap<>();
+        final List<MermaidEdge> edges = new ArrayList<>();
+
+        void error(int line, int column, String message) {
+            errors.add(new MermaidSyntaxError(line, column, message));
+        }
+
+        void node(String id, String label, String shape, int line) {
+            if (!lines.containsKey(id)) {
+                lines.put(id, line);
+                labels.put(id, label != null ? label : id);
+                shapes.put(id, shape);
+                members.put(id, new ArrayList<>());
+            } else if (label != null) {
+                labels.put(id, label);
+                if (shape != null) {
+                    shapes.put(id, shape);
+                }
+            }
+        }
+
+        void member(String id, String member, int line) {
+            node(id, null, null, line);
+            members.get(id).add(member);
+        }
+
+        MermaidDiagram build(MermaidDiagramType type, String direction) {
+            List<MermaidNode> nodes = new ArrayList<>(lines.size());
+            for (Map.Entry<String, Integer> entry : lines.entrySet()) {
+                String id = entry.getKey();
+                nodes.add(new MermaidNode(id, labels.get(id), shapes.get(id), List.copyOf(members.get(id)), entry.getValue()));
+            }
+            return MermaidDiagram.of(type, direction, nodes, edges);
+        }
+    }
+
+    /**
+     * Parses a Mermaid diagram, detecting its type from the header line.
+     *
+     * @param source Mermaid source code
+     * @return The syntax tree and any syntax errors
+     */
+    public MermaidParseResult parse(String source) {
+        return parse(source, null);
+    }
+
+    /**
+     * Parses a Mermaid diagram and checks that it is of the expected type.
+     *
+     * @param source       Mermaid source code
+     * @param expectedType The type the caller asked for, or null to accept any supported type
+     * @return The syntax tree and any syntax errors
+     */
+    public MermaidParseResult parse(String source, MermaidDiagramType expectedType) {
+        ParseState state = new ParseState();
+        List<SourceLine> lines = toSourceLines(source == null ? "" : source);
+
+        if (lines.isEmpty()) {
+            state.error(1, 1, "Diagram is empty");
+            return new MermaidParseResult(null, state.errors);
+        }
+
+        SourceLine header = lines.get(0);
+        String headerText = header.text();
+        String headerRest = "";
+        int semicolon = headerText.indexOf(';');
+        if (semicolon >= 0) {
+            headerRest = headerText.substring(semicolon + 1).trim();
+            headerText = headerText.substring(0, semicolon).trim();
+        }
+        String[] headerTokens = headerText.split("\\s+");
+        MermaidDiagramType type = MermaidDiagramType.fromHeader(headerTokens[0]);
+
+        if (type == null) {
+            state.error(header.number(), header.column(),
+                    "Missing or unknown diagram header '" + headerTokens[0]
+                            + "'; expected erDiagram, flowchart, graph, sequenceDiagram or classDiagram");
+            return new MermaidParseResult(null, state.errors);
+        }
+        if (expectedType != null && type != expectedType) {
+            state.error(header.number(), header.column(),
+                    "Expected a " + expectedType.getKeyword() + " diagram but found '" + headerTokens[0] + "'");
+        }
+
+        String direction = null;
+        if (type == MermaidDiagramType.FLOWCHART) {
+            direction = headerTokens.length > 1 ? headerTokens[1] : "TB";
+            if (!FLOW_DIRECTIONS.contains(direction)) {
+                state.error(header.number(), header.column() + headerText.indexOf(direction),
+                        "Unknown flowchart direction '" + direction + "'; expected TB, TD, BT, RL or LR");
+            }
+            if (headerTokens.length > 2) {
+                state.error(header.number(), header.column() + headerText.indexOf(headerTokens[2]),
+                        "Unexpected '" + headerTokens[2] + "' after flowchart direction");
+            }
+        } else if (headerTokens.length > 1) {
+            state.error(header.number(), header.column() + headerText.indexOf(headerTokens[1]),
+                    "Unexpected '" + headerTokens[1] + "' after " + type.getKeyword() + " header");
+        }
+
+        List<SourceLine> body = new ArrayList<>(lines.subList(1, lines.size()));
+        if (!headerRest.isEmpty()) {
+            body.add(0, new SourceLine(header.number(), header.indent() + semicolon + 1, headerRest));
+        }
+
+        switch (type) {
+            case ERD -> parseErDiagram(body, state);
+            case FLOWCHART -> parseFlowchart(body, state);
+            case SEQUENCE -> parseSequenceDiagram(body, state);
+            case CLASS -> parseClassDiagram(body, state);
+        }
+
+        if (state.lines.isEmpty() && state.errors.isEmpty()) {
+            state.error(header.number(), header.column(), "Diagram has a header but no content");
+        }
+        return new MermaidParseResult(state.build(type, direction), state.errors);
+    }
+
+    private List<SourceLine> toSourceLines(String source) {
+        String[] raw = source.split("\\R", -1);
+        List<SourceLine> lines = new ArrayList<>(raw.length);
+        boolean inFrontMatter = false;
+        boolean seenContent = false;
+
+        for (int i = 0; i < raw.length; i++) {
+            String line = raw[i];
+            String trimmed = line.trim();
+            if (trimmed.equals("---") && (!seenContent || inFrontMatter)) {
+                inFrontMatter = !inFrontMatter;
+                seenContent = true;
+                continue;
+            }
+            if (inFrontMatter || trimmed.isEmpty() || trimmed.startsWith("%%")) {
+                continue;
+            }
+            seenContent = true;
+            int indent = line.indexOf(trimmed.charAt(0));
+            lines.add(new SourceLine(i + 1, indent, trimmed));
+        }
+        return lines;
+    }
+
+    // ---------------------------------------------------------------- erDiagram
+
+    private void parseErDiagram(List<SourceLine> lines, ParseState state) {
+        String openEntity = null;
+        SourceLine openLine = null;
+
+        for (SourceLine line : lines) {
+            String text = line.text();
+
+            if (openEntity != null) {
+                int close = text.indexOf('}');
+                String attribute = (close >= 0 ? text.substring(0, close) : text).trim();
+                if (!attribute.isEmpty()) {
+                    if (ERD_ATTRIBUTE.matcher(attribute).matches()) {
+                        state.member(openEntity, attribute, line.number());
+                    } else {
+                        state.error(line.number(), line.column(),
+                                "Invalid attribute '" + attribute + "'; expected 'type name [PK|FK|UK] [\"comment\"]'");
+                    }
+                }
+                if (close >= 0) {
+                    if (!text.substring(close + 1).isBlank()) {
+                        state.error(line.number(), line.column() + close + 1, "Unexpected content after '}'");
+                    }
+                    openEntity = null;
+                }
+                continue;
+            }
+
+            if (STYLING.matcher(text).matches() || text.startsWith("direction ")) {
+                continue;
+            }
+
+            Matcher relationship = ERD_RELATIONSHIP.matcher(text);
+            if (relationship.matches()) {
+                String from = unquote(relationship.group(1));
+                String left = relationship.group(2);
+                String right = relationship.group(4);
+                String to = unquote(relationship.group(5));
+                if (!ERD_LEFT_CARDINALITIES.contains(left)) {
+                    state.error(line.number(), line.column() + relationship.start(2),
+                            describeCardinality(left, ERD_RIGHT_CARDINALITIES, "right") + "; expected one of |o, ||, }o, }|");
+                }
+                if (!ERD_RIGHT_CARDINALITIES.contains(right)) {
+                    state.error(line.number(), line.column() + relationship.start(4),
+                            describeCardinality(right, ERD_LEFT_CARDINALITIES, "left") + "; expected one of o|, ||, o{, |{");
+                }
+                String label = relationship.group(7);
+                if (relationship.group(6) == null) {
+                    state.error(line.number(), line.column() + text.length(),
+                            "Relationship is missing a label; expected ': label'");
+                } else if (label == null || label.isBlank()) {
+                    state.error(line.number(), line.column() + relationship.start(6), "Relationship label is empty");
+                } else if (!ERD_LABEL.matcher(label.trim()).matches()) {
+                    state.error(line.number(), line.column() + relationship.start(7),
+                            "Relationship label '" + label.trim() + "' contains spaces or symbols and must be quoted");
+                }
+                state.node(from, null, null, line.number());
+                state.node(to, null, null, line.number());
+                state.edges.add(new MermaidEdge(from, to, left + relationship.group(3) + right,
+                        label == null ? null : unquote(label.trim()), line.number()));
+                continue;
+            }
+
+            Matcher block = ERD_ENTITY_BLOCK.matcher(text);
+            if (block.matches()) {
+                String entity = unquote(block.group(1));
+                state.node(entity, block.group(2) == null ? null : block.group(2).replaceAll("^\\[\"?|\"?]$", ""), null, line.number());
+                String rest = block.group(3).trim();
+                if (rest.isEmpty()) {
+                    openEntity = entity;
+                    openLine = line;
+                } else if (rest.equals("}")) {
+                    // Empty entity body on one line
+                } else {
+                    state.error(line.number(), line.column() + block.start(3),
+                            "Entity attributes must start on the line after '{'");
+                    if (!rest.endsWith("}")) {
+                        openEntity = entity;
+                        openLine = line;
+                    }
+                }
+                continue;
+            }
+
+            Matcher entity = ERD_ENTITY.matcher(text);
+            if (entity.matches()) {
+                state.node(unquote(entity.group(1)), null, null, line.number());
+                continue;
+            }
+
+            if (text.contains("--") || text.contains("..")) {
+                state.error(line.number(), line.column(),
+                        "Invalid relationship '" + text + "'; expected 'ENTITY1 ||--o{ ENTITY2 : label'");
+            } else {
+                state.error(line.number(), line.column(), "Unrecognised erDiagram statement '" + text + "'");
+            }
+        }
+
+        if (openEntity != null) {
+            state.error(openLine.number(), openLine.column(), "Entity '" + openEntity + "' is missing closing '}'");
+        }
+    }
+
+    // ---------------------------------------------------------------- flowchart
+
+    private void parseFlowchart(List<SourceLine> lines, ParseState state) {
+        Deque<SourceLine> subgraphs = new ArrayDeque<>();
+
+        for (SourceLine line : lines) {
+            for (int[] range : splitStatements(line.text())) {
+                String statement = line.text().substring(range[0], range[1]).trim();
+                if (statement.isEmpty()) {
+                    continue;
+                }
+                int column = line.column() + range[0] + leadingWhitespace(line.text().substring(range[0], range[1]));
+                parseFlowchartStatement(statement, line.number(), column, state, subgraphs);
+            }
+        }
+
+        for (SourceLine open : subgraphs) {
+            state.error(open.number(), open.column(), "subgraph is missing a matching 'end'");
+        }
+    }
+
+    private void parseFlowchartStatement(String statement, int line, int column, ParseState state, Deque<SourceLine> subgraphs) {
+        String keyword = statement.split("\\s+", 2)[0];
+
+        if (keyword.equals("subgraph")) {
+            if (statement.equals("subgraph")) {
+                state.error(line, column, "subgraph requires an id or title");
+            }
+            subgraphs.push(new SourceLine(line, column - 1, statement));
+            return;
+        }
+        if (statement.equals("end")) {
+            if (subgraphs.isEmpty()) {
+                state.error(line, column, "'end' without a matching 'subgraph'");
+            } else {
+                subgraphs.pop();
+            }
+            return;
+        }
+        if (keyword.equals("direction")) {
+            String[] parts = statement.split("\\s+");
+            if (parts.length != 2 || !FLOW_DIRECTIONS.contains(parts[1])) {
+                state.error(line, column, "Invalid direction statement '" + statement + "'");
+            }
+            return;
+        }
+        if (STYLING.matcher(statement).matches()) {
+            return;
+        }
+
+        FlowCursor cursor = new FlowCursor(statement, line, column, state);
+        List<String> previous = cursor.nodeGroup();
+        if (previous == null) {
+            return;
+        }
+        while (!cursor.atEnd()) {
+            FlowLink link = cursor.link();
+            if (link == null) {
+                return;
+            }
+            List<String> next = cursor.nodeGroup();
+            if (next == null) {
+                return;
+            }
+            for (String from : previous) {
+                for (String to : next) {
+                    state.edges.add(new MermaidEdge(from, to, link.arrow(), link.label(), line));
+                }
+            }
+            previous = next;
+        }
+    }
+
+    private record FlowLink(String arrow, String label) {
+    }
+
+    /** Character cursor over a single flowchart statement. */
+    private static final class FlowCursor {
+        private final String text;
+        private final int line;
+        private final int column;
+        private final ParseState state;
+        private int pos;
+
+        FlowCursor(String text, int line, int column, ParseState state) {
+            this.text = text;
+            this.line = line;
+            this.column = column;
+            this.state = state;
+        }
+
+        boolean atEnd() {
+            skipWhitespace();
+            return pos >= text.length();
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        void error(String message) {
+            state.error(line, column + pos, message);
+        }
+
+        /** Parses node ('&' node)*; returns null after reporting an error. */
+        List<String> nodeGroup() {
+            List<String> ids = new ArrayList<>();
+            while (true) {
+                String id = node();
+                if (id == null) {
+                    return null;
+                }
+                ids.add(id);
+                skipWhitespace();
+                if (pos < text.length() && text.charAt(pos) == '&') {
+                    pos++;
+                    continue;
+                }
+                return ids;
+            }
+        }
+
+        String node() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                error("Link is missing a target node");
+                return null;
+            }
+            Matcher idMatcher = FLOW_ID.matcher(text).region(pos, text.length());
+            if (!idMatcher.lookingAt()) {
+                error("Expected a node id but found '" + text.substring(pos, Math.min(text.length(), pos + 10)) + "'");
+                return null;
+            }
+            String id = idMatcher.group();
+            if (id.equals("end")) {
+                error("'end' is reserved in flowcharts; use a different node id such as 'End'");
+            }
+            int nodeStart = pos;
+            pos = idMatcher.end();
+
+            String label = null;
+            String shape = null;
+            for (String[] candidate : FLOW_SHAPES) {
+                if (text.startsWith(candidate[0], pos)) {
+                    shape = candidate[0];
+                    pos += candidate[0].length();
+                    label = shapeLabel(candidate);
+                    if (label == null) {
+                        return null;
+                    }
+                    break;
+                }
+            }
+
+            Matcher classSuffix = FLOW_CLASS_SUFFIX.matcher(text).region(pos, text.length());
+            if (classSuffix.lookingAt()) {
+                pos = classSuffix.end();
+            }
+            state.node(id, label, shape, line);
+            if (pos < text.length() && !Character.isWhitespace(text.charAt(pos))
+                    && "&-=.~<ox".indexOf(text.charAt(pos)) < 0) {
+                int saved = pos;
+                pos = nodeStart;
+                error("Unexpected '" + text.charAt(saved) + "' after node '" + id + "'");
+                pos = saved;
+                return null;
+            }
+            return id;
+        }
+
+        /** Reads the label of a shape whose opener has been consumed; returns null on error. */
+        String shapeLabel(String[] shape) {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == '"') {
+                int end = text.indexOf('"', pos + 1);
+                if (end < 0) {
+                    error("Unterminated string in node label");
+                    return null;
+                }
+                String label = text.substring(pos + 1, end);
+                pos = end + 1;
+                skipWhitespace();
+                for (int i = 1; i < shape.length; i++) {
+                    if (text.startsWith(shape[i], pos)) {
+                        pos += shape[i].length();
+                        return label;
+                    }
+                }
+                error("Expected '" + shape[1] + "' after quoted label");
+                return null;
+            }
+
+            int start = pos;
+            while (pos < text.length()) {
+                for (int i = 1; i < shape.length; i++) {
+                    if (text.startsWith(shape[i], pos)) {
+                        String label = text.substring(start, pos).trim();
+                        pos += shape[i].length();
+                        return label;
+                    }
+                }
+                char c = text.charAt(pos);
+                if ("[](){}\"".indexOf(c) >= 0) {
+                    error("Unquoted node label contains '" + c + "'; wrap the label in double quotes");
+                    return null;
+                }
+                pos++;
+            }
+            pos = start;
+            error("Node label is missing closing '" + shape[1] + "'");
+            return null;
+        }
+
+        /** Reads a link with its optional |label|; returns null on error. */
+        FlowLink link() {
+            skipWhitespace();
+            Matcher plain = FLOW_LINK.matcher(text).region(pos, text.length());
+            String arrow;
+            String label = null;
+            if (plain.lookingAt()) {
+                arrow = plain.group();
+                pos = plain.end();
+            } else {
+                Matcher withText = FLOW_TEXT_LINK.matcher(text).region(pos, text.length());
+                if (!withText.lookingAt()) {
+                    error("Expected a link such as '-->' but found '" + text.substring(pos, Math.min(text.length(), pos + 10)) + "'");
+                    return null;
+                }
+                arrow = (withText.group(1) == null ? "" : "<") + withText.group(2) + withText.group(4);
+                label = withText.group(3);
+                pos = withText.end();
+            }
+
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == '|') {
+                int end = text.indexOf('|', pos + 1);
+                if (end < 0) {
+                    error("Link label is missing closing '|'");
+                    return null;
+                }
+                label = text.substring(pos + 1, end).trim();
+                pos = end + 1;
+            }
+            return new FlowLink(arrow, label);
+        }
+    }
+
+    /** Splits a flowchart line on ';' outside quotes and brackets. */
+    private List<int[]> splitStatements(String text) {
+        List<int[]> ranges = new ArrayList<>();
+        int depth = 0;
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && (c == '[' || c == '(' || c == '{')) {
+                depth++;
+            } else if (!quoted && (c == ']' || c == ')' || c == '}')) {
+                depth = Math.max(0, depth - 1);
+            } else if (!quoted && depth == 0 && c == ';') {
+                ranges.add(new int[]{start, i});
+                start = i + 1;
+            }
+        }
+        ranges.add(new int[]{start, text.length()});
+        return ranges;
+    }
+
+    private int leadingWhitespace(String text) {
+        int i = 0;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    // ---------------------------------------------------------------- sequenceDiagram
+
+    private void parseSequenceDiagram(List<SourceLine> lines, ParseState state) {
+        Deque<SourceLine> blocks = new ArrayDeque<>();
+        Map<String, Integer> activations = new LinkedHashMap<>();
+
+        for (SourceLine line : lines) {
+            String text = stripTrailingSemicolon(line.text());
+
+            Matcher participant = SEQ_PARTICIPANT.matcher(text);
+            if (participant.matches()) {
+                String id = unquote(participant.group(2).trim());
+                String alias = participant.group(3);
+                state.node(id, alias == null ? id : alias.trim(), participant.group(1), line.number());
+                continue;
+            }
+
+            Matcher message = SEQ_MESSAGE.matcher(text);
+            if (message.matches()) {
+                String from = unquote(message.group(1).trim());
+                String to = unquote(message.group(4).trim());
+                if (message.group(5) == null) {
+                    state.error(line.number(), line.column() + text.length(), "Message is missing ': text'");
+                }
+                state.node(from, null, null, line.number());
+                state.node(to, null, null, line.number());
+                String activation = message.group(3);
+                if (activation.equals("+")) {
+                    activations.merge(to, 1, Integer::sum);
+                } else if (activation.equals("-")) {
+                    deactivate(from, line, state, activations);
+                }
+                state.edges.add(new MermaidEdge(from, to, message.group(2),
+                        message.group(6) == null ? null : message.group(6).trim(), line.number()));
+                continue;
+            }
+
+            Matcher activationStatement = SEQ_ACTIVATION.matcher(text);
+            if (activationStatement.matches()) {
+                String id = activationStatement.group(2).trim();
+                state.node(id, null, null, line.number());
+                if (activationStatement.group(1).equals("activate")) {
+                    activations.merge(id, 1, Integer::sum);
+                } else {
+                    deactivate(id, line, state, activations);
+                }
+                continue;
+            }
+
+            if (SEQ_NOTE.matcher(text).matches()) {
+                continue;
+            }
+            if (text.toLowerCase().startsWith("note ")) {
+                state.error(line.number(), line.column(),
+                        "Invalid note; expected 'Note left of|right of|over Participant: text'");
+                continue;
+            }
+
+            if (SEQ_BLOCK.matcher(text).matches()) {
+                blocks.push(line);
+                continue;
+            }
+
+            Matcher branch = SEQ_BRANCH.matcher(text);
+            if (branch.matches()) {
+                String expected = switch (branch.group(1)) {
+                    case "else" -> "alt";
+                    case "and" -> "par";
+                    default -> "critical";
+                };
+                if (blocks.isEmpty() || !blocks.peek().text().startsWith(expected)) {
+                    state.error(line.number(), line.column(), "'" + branch.group(1) + "' is only valid inside an '" + expected + "' block");
+                }
+                continue;
+            }
+
+            if (text.equals("end")) {
+                if (blocks.isEmpty()) {
+                    state.error(line.number(), line.column(), "'end' without a matching block (loop, alt, opt, par, ...)");
+                } else {
+                    blocks.pop();
+                }
+                continue;
+            }
+
+            if (SEQ_MISC.matcher(text).matches()) {
+                continue;
+            }
+
+            Matcher arrow = SEQ_ARROW.matcher(text);
+            if (arrow.find()) {
+                state.error(line.number(), line.column() + arrow.start(),
+                        "Invalid message '" + text + "'; expected 'A->>B: text'");
+            } else {
+                state.error(line.number(), line.column(), "Unrecognised sequenceDiagram statement '" + text + "'");
+            }
+        }
+
+        for (SourceLine open : blocks) {
+            state.error(open.number(), open.column(), "'" + open.text().split("\\s+")[0] + "' block is missing 'end'");
+        }
+    }
+
+    private void deactivate(String id, SourceLine line, ParseState state, Map<String, Integer> activations) {
+        int active = activations.getOrDefault(id, 0);
+        if (active <= 0) {
+            state.error(line.number(), line.column(), "Trying to deactivate '" + id + "' which is not active");
+        } else {
+            activations.put(id, active - 1);
+        }
+    }
+
+    // ---------------------------------------------------------------- classDiagram
+
+    private void parseClassDiagram(List<SourceLine> lines, ParseState state) {
+        String openClass = null;
+        SourceLine openLine = null;
+        Deque<SourceLine> namespaces = new ArrayDeque<>();
+
+        for (SourceLine line : lines) {
+            String text = line.text();
+
+            if (openClass != null) {
+                if (text.equals("}")) {
+                    openClass = null;
+                } else if (text.startsWith("<<") && text.endsWith(">>")) {
+                    // Annotation inside the class body
+                } else {
+                    checkGenerics(text, line, state);
+                    state.member(openClass, text, line.number());
+                }
+                continue;
+            }
+
+            Matcher declaration = CLASS_DECL.matcher(text);
+            if (declaration.matches()) {
+                String id = declaration.group(1);
+                String label = declaration.group(3) == null ? null : declaration.group(3).replaceAll("^\\[\"|\"]$", "");
+                state.node(id, label, null, line.number());
+                checkGenerics(declaration.group(2) == null ? "" : declaration.group(2), line, state);
+                String rest = declaration.group(6).trim();
+                if (declaration.group(5) != null) {
+                    if (rest.isEmpty()) {
+                        openClass = id;
+                        openLine = line;
+                    } else if (!rest.equals("}")) {
+                        state.error(line.number(), line.column() + declaration.start(6),
+                                "Class members must start on the line after '{'");
+                        if (!rest.endsWith("}")) {
+                            openClass = id;
+                            openLine = line;
+                        }
+                    }
+                } else if (!rest.isEmpty()) {
+                    state.error(line.number(), line.column() + declaration.start(6),
+                            "Unexpected '" + rest + "' after class declaration");
+                }
+                continue;
+            }
+
+            Matcher relation = CLASS_RELATION.matcher(text);
+            if (relation.matches()) {
+                String from = relation.group(1);
+                String to = relation.group(8);
+                state.node(from, null, null, line.number());
+                state.node(to, null, null, line.number());
+                String arrow = nullToEmpty(relation.group(4)) + relation.group(5) + nullToEmpty(relation.group(6));
+                if (relation.group(10) != null && relation.group(11).isBlank()) {
+                    state.error(line.number(), line.column() + relation.start(10), "Relation label is empty");
+                }
+                state.edges.add(new MermaidEdge(from, to, arrow,
+                        relation.group(11) == null ? null : relation.group(11).trim(), line.number()));
+                continue;
+            }
+
+            Matcher member = CLASS_MEMBER.matcher(text);
+            if (member.matches()) {
+                checkGenerics(member.group(2), line, state);
+                state.member(member.group(1), member.group(2).trim(), line.number());
+                continue;
+            }
+
+            Matcher annotation = CLASS_ANNOTATION.matcher(text);
+            if (annotation.matches()) {
+                if (annotation.group(1) != null) {
+                    state.node(annotation.group(1), null, null, line.number());
+                }
+                continue;
+            }
+
+            if (CLASS_NAMESPACE.matcher(text).matches()) {
+                namespaces.push(line);
+                continue;
+            }
+            if (text.equals("}")) {
+                if (namespaces.isEmpty()) {
+                    state.error(line.number(), line.column(), "Unexpected '}'");
+                } else {
+                    namespaces.pop();
+                }
+                continue;
+            }
+
+            if (CLASS_MISC.matcher(text).matches()) {
+                continue;
+            }
+
+            if (text.contains("--") || text.contains("..")) {
+                state.error(line.number(), line.column(),
+                        "Invalid relation '" + text + "'; expected e.g. 'ClassA <|-- ClassB' or 'ClassA \"1\" --> \"*\" ClassB : label'");
+            } else {
+                state.error(line.number(), line.column(), "Unrecognised classDiagram statement '" + text + "'");
+            }
+        }
+
+        if (openClass != null) {
+            state.error(openLine.number(), openLine.column(), "Class '" + openClass + "' is missing closing '}'");
+        }
+        for (SourceLine open : namespaces) {
+            state.error(open.number(), open.column(), "namespace is missing closing '}'");
+        }
+    }
+
+    private void checkGenerics(String text, SourceLine line, ParseState state) {
+        if (text.chars().filter(c -> c == '~').count() % 2 != 0) {
+            state.error(line.number(), line.column() + text.indexOf('~'), "Unbalanced '~' in generic type");
+        }
+    }
+
+    // ---------------------------------------------------------------- helpers
+
+    private static String describeCardinality(String token, Set<String> otherSide, String otherSideName) {
+        if (token.isEmpty()) {
+            return "Missing cardinality";
+        }
+        if (otherSide.contains(token)) {
+            return "Cardinality '" + token + "' only belongs on the " + otherSideName + " of a relationship";
+        }
+        return "Invalid cardinality '" + token + "'";
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    private static String stripTrailingSemicolon(String text) {
+        return text.endsWith(";") ? text.substring(0, text.length() - 1).trim() : text;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,17 @@
+package com.marchina.agent.mermaid;
+
+/**
+ * A syntax error found by {@link MermaidParser}.
+ * Lines and columns are 1-based and refer to the original Mermaid source.
+ */
+public record MermaidSyntaxError(
+    int line,       // 1-based line number
+    int column,     // 1-based column of the offending token
+    String message  // Human readable description of the problem
+) {
+
+    @Override
+    public String toString() {
+        return "Line " + line + ", column " + column + ": " + message;
+    }
+}
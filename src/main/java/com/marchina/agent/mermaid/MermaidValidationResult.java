@@ -0,0 +1,41 @@
+package com.marchina.agent.mermaid;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Result of validating a generated diagram.
+ * Syntax errors come from the local parser; feedback carries the LLM's explanation when the
+ * optional semantic review rejected an otherwise well-formed diagram.
+ */
+public record MermaidValidationResult(
+    boolean valid,
+    List<MermaidSyntaxError> errors, // Syntax errors with positions, empty when the syntax is valid
+    String feedback                  // Semantic review feedback, null unless the review rejected the diagram
+) {
+
+    public static MermaidValidationResult success() {
+        return new MermaidValidationResult(true, List.of(), null);
+    }
+
+    public static MermaidValidationResult syntaxErrors(List<MermaidSyntaxError> errors) {
+        return new MermaidValidationResult(false, List.copyOf(errors), null);
+    }
+
+    public static MermaidValidationResult rejected(String feedback) {
+        return new MermaidValidationResult(false, List.of(), feedback);
+    }
+
+    /**
+     * @return A human readable summary of why validation failed, or "valid".
+     */
+    public String describe() {
+        if (valid) {
+            return "valid";
+        }
+        if (!errors.isEmpty()) {
+            return errors.stream().map(MermaidSyntaxError::toString).collect(Collectors.joining("\n"));
+        }
+        return feedback;
+    }
+}
@@ -1,7 +1,9 @@
 package com.marchina.config;
 
 import dev.langchain4j.model.chat.ChatLanguageModel;
-import dev.langchain4j.model.azure.AzureOpenAiChatModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import com.marchina.llm.AzureChatModelFactory;
+import com.marchina.llm.ModelSpec;
 import io.github.cdimascio.dotenv.Dotenv;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,34 +23,27 @@ public class AppConfig {
                 .load();
     }
 
+    @Bean
+    public ModelSpec chatModelSpec(Dotenv dotenv) {
+        return new ModelSpec(dotenv.get("AZURE_OPENAI_DEPLOYMENT_ID"), 0.7);
+    }
+
     @Bean
     @Primary
-    public ChatLanguageModel chatLanguageModel(Dotenv dotenv) {
+    public ChatLanguageModel chatLanguageModel(Dotenv dotenv, ModelSpec chatModelSpec, AzureChatModelFactory chatModelFactory) {
         logger.info("Initializing Azure OpenAI Chat Model");
 
-
-        String apiKey = dotenv.get("AZURE_OPENAI_API_KEY");
-        String endpoint = dotenv.get("AZURE_OPENAI_ENDPOINT");
-        String deploymentId = dotenv.get("AZURE_OPENAI_DEPLOYMENT_ID");
-        String apiVersion = dotenv.get("AZURE_OPENAI_API_VERSION");
-
-        if (apiKey == null || endpoint == null || deploymentId == null || apiVersion == null) {
+        if (dotenv.get("AZURE_OPENAI_API_VERSION") == null) {
             String message = "Missing required Azure OpenAI configuration. Please check environment variables or .env file.";
             logger.error(message);
             throw new IllegalStateException(message);
         }
-        
-        try {
-            return AzureOpenAiChatModel.builder()
-                .apiKey(apiKey)
-                .endpoint(endpoint)
-                .deploymentName(deploymentId)
-                .temperature(0.7)
-                .build();
-        } catch (Exception e) {
-            String message = "Failed to initialize Azure OpenAI Chat Model: " + e.getMessage();
-            logger.error(message, e);
-            throw new IllegalStateException(message, e);
-        }
+        return chatModelFactory.create(chatModelSpec);
+    }
+
+    @Bean
+    public StreamingChatLanguageModel streamingChatLanguageModel(ModelSpec chatModelSpec, AzureChatModelFactory chatModelFactory) {
+        logger.info("Initializing Azure OpenAI Streaming Chat Model");
+        return chatModelFactory.createStreaming(chatModelSpec);
     }
-} 
\ No newline at end of file
+}
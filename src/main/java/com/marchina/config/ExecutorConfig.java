@@ -0,0 +1,127 @@
+package com.marchina.config;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executors for work that must not run on servlet request threads.
+ */
+@Configuration
+public class ExecutorConfig {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutorConfig.class);
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor jobExecutor(Dotenv dotenv) {
+        int threads = Integer.parseInt(dotenv.get("JOB_WORKER_THREADS", "4"));
+        int queueCapacity = Integer.parseInt(dotenv.get("JOB_QUEUE_CAPACITY", "100"));
+        logger.info("Initializing job executor with {} threads and queue capacity {}", threads, queueCapacity);
+
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                namedThreads("diagram-job-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Runs the per-diagram agents of a "generate all" request in parallel.
+     * Kept separate from the job executor so job workers waiting on their fan-out can never starve it;
+     * when the queue is full the submitting thread runs the agent itself.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor generationExecutor(Dotenv dotenv) {
+        int threads = Integer.parseInt(dotenv.get("GENERATION_WORKER_THREADS", "8"));
+        int queueCapacity = Integer.parseInt(dotenv.get("GENERATION_QUEUE_CAPACITY", "32"));
+        logger.info("Initializing generation executor with {} threads and queue capacity {}", threads, queueCapacity);
+
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                namedThreads("diagram-gen-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Runs speculative LLM candidates. Has no queue: a candidate that finds no idle thread is skipped
+     * rather than delayed, since a late candidate is of no use.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor speculativeExecutor(Dotenv dotenv) {
+        int threads = Integer.parseInt(dotenv.get("SPECULATIVE_WORKER_THREADS", "16"));
+        logger.info("Initializing speculative executor with {} threads", threads);
+
+        return new ThreadPoolExecutor(
+                0,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                namedThreads("llm-candidate-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Runs LLM calls whose caller has a deadline, so the caller can stop waiting when the budget
+     * runs out. Has no queue: a call that finds no idle thread runs on the caller's thread.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor llmCallExecutor(Dotenv dotenv) {
+        int threads = Integer.parseInt(dotenv.get("LLM_CALL_THREADS", "64"));
+        logger.info("Initializing LLM call executor with {} threads", threads);
+
+        return new ThreadPoolExecutor(
+                0,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                namedThreads("llm-call-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Synthesizes the sentences of spoken replies, several per reply at once. Concurrency towards
+     * Azure Speech is bounded by the synthesizer pool; a full queue fails the sentence rather than
+     * blocking the LLM stream that produced it.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor ttsExecutor(Dotenv dotenv) {
+        int threads = Integer.parseInt(dotenv.get("TTS_PIPELINE_THREADS", "8"));
+        int queueCapacity = Integer.parseInt(dotenv.get("TTS_PIPELINE_QUEUE_CAPACITY", "64"));
+        logger.info("Initializing TTS executor with {} threads and queue capacity {}", threads, queueCapacity);
+
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                namedThreads("tts-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,16 +1,32 @@
 package com.marchina.config;
 
-import org.springframework.context.annotation.Bean;
+import com.marchina.deadline.DeadlineInterceptor;
+import com.marchina.llm.LlmWorkloadInterceptor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
-public class WebConfig {
-    
+public class WebConfig implements WebMvcConfigurer {
+
+    private final DeadlineInterceptor deadlineInterceptor;
+    private final LlmWorkloadInterceptor llmWorkloadInterceptor;
+
+    public WebConfig(DeadlineInterceptor deadlineInterceptor, LlmWorkloadInterceptor llmWorkloadInterceptor) {
+        this.deadlineInterceptor = deadlineInterceptor;
+        this.llmWorkloadInterceptor = llmWorkloadInterceptor;
+    }
+
     @Bean
     public RestTemplate restTemplate() {
         return new RestTemplate();
-} 
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(deadlineInterceptor).addPathPatterns("/api/**");
+        registry.addInterceptor(llmWorkloadInterceptor).addPathPatterns("/api/**");
+    }
 }
@@ -1,5 +1,6 @@
 package com.marchina.config;
 
+import com.marchina.controller.ChatWebSocketController;
 import com.marchina.controller.SpeechWebSocketController;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
@@ -11,14 +12,19 @@ import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry
 public class WebSocketConfig implements WebSocketConfigurer {
     
     private final SpeechWebSocketController speechWebSocketController;
+    private final ChatWebSocketController chatWebSocketController;
     
-    public WebSocketConfig(SpeechWebSocketController speechWebSocketController) {
+    public WebSocketConfig(SpeechWebSocketController speechWebSocketController,
+                           ChatWebSocketController chatWebSocketController) {
         this.speechWebSocketController = speechWebSocketController;
+        this.chatWebSocketController = chatWebSocketController;
     }
     
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(speechWebSocketController, "/api/speech/stream")
                 .setAllowedOrigins("*"); // For development; restrict in production
+        registry.addHandler(chatWebSocketController, "/api/chat/stream")
+                .setAllowedOrigins("*");
     }
 }
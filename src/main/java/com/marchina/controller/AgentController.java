@@ -2,15 +2,23 @@ package com.marchina.controller;
 
 import com.marchina.agent.MainAgent;
 import com.marchina.agent.TTSAgent;
+import com.marchina.agent.mermaid.MermaidDiagramType;
+import com.marchina.deadline.DeadlineExceededException;
 import com.marchina.model.AgentResponse;
+import com.marchina.service.SseTokenStreamHandler;
+import com.marchina.speech.AudioClipStore;
+import com.marchina.speech.AudioMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.Map;
 
@@ -21,23 +29,31 @@ import java.util.Map;
 @RequestMapping("/api/agents")
 public class AgentController {
     private static final Logger logger = LoggerFactory.getLogger(AgentController.class);
+    private static final long EXPLAIN_STREAM_TIMEOUT_MS = 120_000;
     
     private final MainAgent mainAgent;
     private final TTSAgent ttsAgent;
+    private final AudioClipStore audioClipStore;
 
-    public AgentController(MainAgent mainAgent, TTSAgent ttsAgent) {
+    public AgentController(MainAgent mainAgent, TTSAgent ttsAgent, AudioClipStore audioClipStore) {
         this.mainAgent = mainAgent;
         this.ttsAgent = ttsAgent;
+        this.audioClipStore = audioClipStore;
     }
 
     /**
      * Processes a request through the agent system.
      *
      * @param requestBody The request body containing the description
+     * @param audio {@code inline} embeds the spoken message as base64 in {@code speechData}; {@code link}
+     *              returns {@code audioId} and {@code audioUrl} to fetch it from {@code GET /api/audio/{id}};
+     *              {@code deferred} returns the link without waiting for synthesis; {@code none} skips speech
      * @return ResponseEntity containing the result or error
      */
     @PostMapping("/process")
-    public ResponseEntity<AgentResponse> processRequest(@RequestBody Map<String, String> requestBody) {
+    public ResponseEntity<AgentResponse> processRequest(
+            @RequestBody Map<String, String> requestBody,
+            @RequestParam(value = "audio", defaultValue = "inline") String audio) {
         try {
             String description = requestBody.get("description");
             logger.info("Received agent processing request: {}", description);
@@ -56,6 +72,19 @@ public class AgentController {
 
 
             
+            AudioMode audioMode = AudioMode.parse(audio);
+            if (audioMode == AudioMode.NONE) {
+                return ResponseEntity.ok(result);
+            }
+            if (audioMode == AudioMode.LINK || audioMode == AudioMode.DEFERRED) {
+                String audioId = audioMode == AudioMode.DEFERRED
+                        ? ttsAgent.synthesizeDeferred(result.getMessage())
+                        : audioClipStore.put(ttsAgent.synthesize(result.getMessage()));
+                result.setAudioId(audioId);
+                result.setAudioUrl(AudioClipStore.urlFor(audioId));
+                return ResponseEntity.ok(result);
+            }
+
             // Generate speech for the actual response message
             String speechData = ttsAgent.generateSpeech(result.getMessage());
             
@@ -69,9 +98,57 @@ public class AgentController {
             
             return ResponseEntity.ok(responseWithSpeech);
         } catch (Exception e) {
+            if (DeadlineExceededException.in(e).isPresent()) {
+                logger.warn("Agent request ran out of time: {}", e.getMessage());
+                return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                        .body(new AgentResponse(false, "Request did not finish in time, please retry"));
+            }
             logger.error("Error processing request: {}", e.getMessage(), e);
             return ResponseEntity.internalServerError()
                     .body(new AgentResponse(false, "Error processing request: " + e.getMessage()));
         }
     }
+
+    /**
+     * Streams an explanation of a Mermaid diagram token by token as Server-Sent Events.
+     *
+     * @param requestBody "mermaidCode" and optionally "diagramType" (ERD, FLOWCHART, CLASS, SEQUENCE);
+     *                    the type is read from the diagram header when omitted
+     * @return SSE stream of "token" events followed by "done" or "error"
+     */
+    @PostMapping("/explain/stream")
+    public SseEmitter explainStream(@RequestBody Map<String, String> requestBody) {
+        SseTokenStreamHandler handler = new SseTokenStreamHandler(EXPLAIN_STREAM_TIMEOUT_MS);
+        try {
+            String mermaidCode = requestBody.get("mermaidCode");
+            if (mermaidCode == null || mermaidCode.trim().isEmpty()) {
+                handler.onError(new IllegalArgumentException("mermaidCode cannot be empty"));
+                return handler.getEmitter();
+            }
+
+            MermaidDiagramType diagramType = resolveDiagramType(requestBody.get("diagramType"), mermaidCode);
+            if (diagramType == null) {
+                handler.onError(new IllegalArgumentException("Could not determine diagram type"));
+                return handler.getEmitter();
+            }
+
+            mainAgent.explainDiagram(diagramType, mermaidCode, handler);
+        } catch (Exception e) {
+            logger.error("Error streaming explanation: {}", e.getMessage(), e);
+            handler.onError(e);
+        }
+        return handler.getEmitter();
+    }
+
+    private MermaidDiagramType resolveDiagramType(String diagramType, String mermaidCode) {
+        if (diagramType != null && !diagramType.isBlank()) {
+            try {
+                return MermaidDiagramType.valueOf(diagramType.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        String header = mermaidCode.trim().split("\\s+", 2)[0];
+        return MermaidDiagramType.fromHeader(header);
+    }
 }
@@ -0,0 +1,70 @@
+package com.marchina.controller;
+
+import com.marchina.deadline.Deadline;
+import com.marchina.speech.AudioClipStore;
+import io.github.cdimascio.dotenv.Dotenv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Serves synthesized replies as raw audio. The body is written straight from the stored bytes,
+ * and Range requests (used by audio elements to seek and resume) are answered with 206 partial
+ * content by Spring's resource region support. Clips of deferred replies are served once their
+ * background synthesis completes, including when it runs on another pod.
+ */
+@RestController
+@RequestMapping("/api/audio")
+public class AudioController {
+    private static final Logger logger = LoggerFactory.getLogger(AudioController.class);
+
+    private final AudioClipStore audioClipStore;
+    private final long synthesisTimeoutMillis;
+
+    public AudioController(AudioClipStore audioClipStore, Dotenv dotenv) {
+        this.audioClipStore = audioClipStore;
+        this.synthesisTimeoutMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(dotenv.get("SPEECH_TIMEOUT_SECONDS", "30")));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<Resource> getAudio(@PathVariable String id) {
+        Optional<AudioClipStore.Clip> clip = audioClipStore.get(id);
+        if (clip.isEmpty()) {
+            logger.debug("Audio clip {} not found or expired", id);
+            return ResponseEntity.notFound().build();
+        }
+        byte[] audio;
+        try {
+            audio = audioClipStore.await(clip.get(), Deadline.remainingMillis(synthesisTimeoutMillis));
+        } catch (TimeoutException e) {
+            logger.warn("Audio clip {} was not synthesized in time", id);
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).build();
+        } catch (ExecutionException e) {
+            logger.warn("Synthesis of audio clip {} failed: {}", id, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(clip.get().contentType()))
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .cacheControl(CacheControl.maxAge(10, TimeUnit.MINUTES).cachePrivate())
+                .body(new ByteArrayResource(audio));
+    }
+}
@@ -3,6 +3,7 @@ package com.marchina.controller;
 import com.marchina.agent.RequirementExtractorVoice;
 import com.marchina.agent.RequirementExtractorVoice.ConversationState;
 import com.marchina.model.ChatResponse;
+import com.marchina.speech.AudioMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
@@ -36,13 +37,19 @@ public class ChatController {
 
     }
 
+    /**
+     * @param audio {@code inline} embeds the reply's MP3 as base64 in {@code audioData}; {@code link}
+     *              returns {@code audioId} and {@code audioUrl} to fetch it from {@code GET /api/audio/{id}};
+     *              {@code deferred} returns the link without waiting for synthesis; {@code none} skips speech
+     */
     @PostMapping
     public ResponseEntity<ChatResponse> chat(
             @RequestBody Map<String, String> request,
-            @RequestHeader("Authorization") String authHeader) {
+            @RequestHeader("Authorization") String authHeader,
+            @RequestParam(value = "audio", defaultValue = "inline") String audio) {
         try {
             String userMessage = request.get("message");
-            ChatResponse response = requirementExtractor.processMessage(userMessage, authHeader);
+            ChatResponse response = requirementExtractor.processMessage(userMessage, authHeader, AudioMode.parse(audio));
 
             // Get the state for this user
             String token = authHeader.replace("Bearer ", "");
@@ -0,0 +1,188 @@
+package com.marchina.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marchina.agent.RequirementExtractorVoice;
+import com.marchina.agent.RequirementExtractorVoice.ConversationState;
+import com.marchina.config.JwtConfig.JwtService;
+import com.marchina.deadline.Deadline;
+import com.marchina.deadline.RequestDeadlines;
+import com.marchina.llm.LlmPriority;
+import com.marchina.llm.LlmWorkload;
+import com.marchina.model.ChatResponse;
+import com.marchina.speech.AudioClipStore;
+import com.marchina.speech.AudioMode;
+import com.marchina.speech.SpeechChunkListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Voice chat over a WebSocket: the same conversation as {@code POST /api/chat}, but the reply is
+ * streamed back as text deltas and one audio frame per sentence instead of a single response.
+ *
+ * Connect to {@code /api/chat/stream?token=<jwt>} (browsers cannot set headers on a WebSocket) and
+ * send {@code {"message": "..."}}. The server answers with {@code text}, {@code audio} and
+ * {@code audio_error} frames, and ends each turn with a {@code done} or {@code error} frame.
+ * With {@code audio=link} in the query, audio frames carry an {@code audioUrl} instead of base64 audio.
+ */
+@Component
+public class ChatWebSocketController extends TextWebSocketHandler {
+    private static final Logger logger = LoggerFactory.getLogger(ChatWebSocketController.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int SEND_TIME_LIMIT_MILLIS = 10_000;
+    private static final int SEND_BUFFER_SIZE_LIMIT = 4 * 1024 * 1024;
+    private static final String AUTH_HEADER_ATTRIBUTE = "authHeader";
+    private static final String USER_ID_ATTRIBUTE = "userId";
+    private static final String LINK_AUDIO_ATTRIBUTE = "linkAudio";
+
+    private final RequirementExtractorVoice requirementExtractor;
+    private final JwtService jwtService;
+    private final RequestDeadlines requestDeadlines;
+    private final AudioClipStore audioClipStore;
+    // Audio is sent from the TTS threads, so every session is wrapped to serialize its sends
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+
+    public ChatWebSocketController(RequirementExtractorVoice requirementExtractor,
+                                   JwtService jwtService,
+                                   RequestDeadlines requestDeadlines,
+                                   AudioClipStore audioClipStore) {
+        this.requirementExtractor = requirementExtractor;
+        this.jwtService = jwtService;
+        this.requestDeadlines = requestDeadlines;
+        this.audioClipStore = audioClipStore;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        MultiValueMap<String, String> query = session.getUri() == null ? new LinkedMultiValueMap<>()
+                : UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams();
+        String token = query.getFirst("token");
+        session.getAttributes().put(LINK_AUDIO_ATTRIBUTE, AudioMode.parse(query.getFirst("audio")) == AudioMode.LINK);
+        try {
+            Map<String, Object> claims = jwtService.extractAllClaims(token);
+            session.getAttributes().put(USER_ID_ATTRIBUTE, claims.get("userId").toString());
+            session.getAttributes().put(AUTH_HEADER_ATTRIBUTE, "Bearer " + token);
+        } catch (Exception e) {
+            logger.warn("Rejected chat WebSocket {}: {}", session.getId(), e.getMessage());
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Invalid or missing token"));
+            return;
+        }
+        sessions.put(session.getId(),
+                new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT_MILLIS, SEND_BUFFER_SIZE_LIMIT));
+        logger.info("Chat WebSocket connection established: {}", session.getId());
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession rawSession, TextMessage message) throws Exception {
+        WebSocketSession session = sessions.get(rawSession.getId());
+        if (session == null) {
+            return;
+        }
+        String userId = (String) rawSession.getAttributes().get(USER_ID_ATTRIBUTE);
+        String authHeader = (String) rawSession.getAttributes().get(AUTH_HEADER_ATTRIBUTE);
+        boolean linkAudio = Boolean.TRUE.equals(rawSession.getAttributes().get(LINK_AUDIO_ATTRIBUTE));
+
+        String userMessage;
+        try {
+            JsonNode request = objectMapper.readTree(message.getPayload());
+            userMessage = request.path("message").asText("");
+        } catch (IOException e) {
+            send(session, Map.of("type", "error", "message", "Expected a JSON message like {\"message\": \"...\"}"));
+            return;
+        }
+        if (userMessage.isBlank()) {
+            send(session, Map.of("type", "error", "message", "Message is empty"));
+            return;
+        }
+
+        long start = System.nanoTime();
+        // WebSocket messages don't pass the MVC interceptors, so the request deadline and workload are attached here
+        try (Deadline.Scope deadline = requestDeadlines.isEnabled() ? requestDeadlines.forRequest().attach() : () -> { };
+             LlmWorkload.Scope workload = LlmWorkload.forUser(userId, LlmPriority.STANDARD).attach()) {
+            SpeechChunkListener listener = new SpeechChunkListener() {
+                @Override
+                public void onText(String delta) {
+                    send(session, Map.of("type", "text", "delta", delta));
+                }
+
+                @Override
+                public void onAudio(int index, String sentence, byte[] audio) {
+                    Map<String, Object> frame = new HashMap<>();
+                    frame.put("type", "audio");
+                    frame.put("index", index);
+                    frame.put("text", sentence);
+                    if (linkAudio) {
+                        String audioId = audioClipStore.put(audio);
+                        frame.put("audioId", audioId);
+                        frame.put("audioUrl", AudioClipStore.urlFor(audioId));
+                    } else {
+                        frame.put("audio", Base64.getEncoder().encodeToString(audio));
+                    }
+                    frame.put("format", "mp3");
+                    send(session, frame);
+                }
+
+                @Override
+                public void onAudioError(int index, String sentence, Throwable error) {
+                    send(session, Map.of("type", "audio_error", "index", index, "text", sentence));
+                }
+            };
+            ChatResponse response = requirementExtractor.processMessage(userMessage, authHeader, listener);
+
+            Map<String, Object> done = new HashMap<>();
+            done.put("type", "done");
+            done.put("text", response.getResponse());
+            done.put("requirementsGathered", response.getRequirementsGathered());
+            done.put("projectId", response.getProjectId());
+            done.put("elapsedMs", (System.nanoTime() - start) / 1_000_000);
+            send(session, done);
+
+            ConversationState state = requirementExtractor.getUserState(userId);
+            if (state != null && requirementExtractor.isRequirementsGathered(state)) {
+                state.clearConversationHistory();
+                logger.info("Cleared conversation history for user: {}", userId);
+            }
+        } catch (Exception e) {
+            logger.error("Error in chat WebSocket: {}", e.getMessage());
+            send(session, Map.of("type", "error", "message", "Failed to process message"));
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        sessions.remove(session.getId());
+        logger.info("Chat WebSocket connection closed: {}, status: {}", session.getId(), status);
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        logger.error("Chat WebSocket transport error: {}", exception.getMessage());
+        sessions.remove(session.getId());
+    }
+
+    private void send(WebSocketSession session, Map<String, ?> frame) {
+        if (!session.isOpen()) {
+            return;
+        }
+        try {
+            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(frame)));
+        } catch (Exception e) {
+            logger.warn("Failed to send chat frame on {}: {}", session.getId(), e.getMessage());
+        }
+    }
+}
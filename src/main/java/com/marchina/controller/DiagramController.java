@@ -1,7 +1,10 @@
 package com.marchina.controller;
 
 import com.marchina.model.Diagram;
+import com.marchina.model.Job;
 import com.marchina.config.JwtConfig.JwtService;
+import com.marchina.deadline.DeadlineExceededException;
+import com.marchina.llm.LlmCapacityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,12 +12,21 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import com.marchina.agent.MainAgent;
 import com.marchina.model.Project;
 import java.util.Optional;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import com.marchina.service.DiagramJobService;
+import com.marchina.service.IdempotencyService;
+import com.marchina.service.SseProgressListener;
+import com.marchina.agent.GenerationStage;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import java.net.URI;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/projects/{projectId}/diagrams")
@@ -24,12 +36,17 @@ public class DiagramController {
     private final JwtService jwtService;
     private final JdbcTemplate jdbcTemplate;
     private final MainAgent mainAgent;
+    private final DiagramJobService diagramJobService;
+    private final IdempotencyService idempotencyService;
 
     @Autowired
-    public DiagramController(JwtService jwtService, JdbcTemplate jdbcTemplate, MainAgent mainAgent) {
+    public DiagramController(JwtService jwtService, JdbcTemplate jdbcTemplate, MainAgent mainAgent,
+                             DiagramJobService diagramJobService, IdempotencyService idempotencyService) {
         this.jwtService = jwtService;
         this.jdbcTemplate = jdbcTemplate;
         this.mainAgent = mainAgent;
+        this.diagramJobService = diagramJobService;
+        this.idempotencyService = idempotencyService;
         logger.info("DiagramController initialized");
     }
 
@@ -194,11 +211,25 @@ public class DiagramController {
         }
     }
 
+    /**
+     * Creates a diagram. A retry carrying the same Idempotency-Key gets the first response
+     * replayed instead of generating the diagram twice.
+     */
     @PostMapping
     public ResponseEntity<?> createDiagram(
             @PathVariable Long projectId,
             @RequestBody Map<String, String> payload,
-            @RequestHeader("Authorization") String authHeader) {
+            @RequestHeader("Authorization") String authHeader,
+            @RequestParam(value = "async", defaultValue = "false") boolean async,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        Map<String, Object> request = new HashMap<>(payload);
+        request.put("projectId", projectId);
+        request.put("async", async);
+        return idempotencyService.execute(idempotencyKey, idempotencyScope(authHeader), "diagrams.create", request,
+                () -> createDiagram(projectId, payload, authHeader, async));
+    }
+
+    public ResponseEntity<?> createDiagram(Long projectId, Map<String, String> payload, String authHeader, boolean async) {
         try {
             String token = authHeader.replace("Bearer ", "");
             Map<String, Object> claims = jwtService.extractAllClaims(token);
@@ -224,14 +255,17 @@ public class DiagramController {
                 return ResponseEntity.badRequest().body(Map.of("error", "Both generalType and requirement are required"));
             }
 
-            String diagramType;
-            switch (generalType) {
-                case "System Architecture" -> diagramType = "Class Diagram";
-                case "Workflow" -> diagramType = "Flowchart";
-                case "Database Schema" -> diagramType = "ERD";
-                default -> {
-                    return ResponseEntity.badRequest().body(Map.of("error", "Invalid generalType specified"));
-                }
+            String diagramType = resolveDiagramType(generalType);
+            if (diagramType == null) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Invalid generalType specified"));
+            }
+
+            if (async) {
+                Job job = diagramJobService.submitDiagramJob(userId, project, diagramType, requirement);
+                logger.info("Queued {} diagram job {} for project {}", diagramType, job.getId(), projectId);
+                return ResponseEntity.accepted()
+                        .location(URI.create("/api/jobs/" + job.getId()))
+                        .body(Map.of("jobId", job.getId(), "status", job.getStatus()));
             }
 
             logger.info("Requesting creation of {} diagram for project {}", diagramType, projectId);
@@ -247,10 +281,21 @@ public class DiagramController {
                                     .body(Map.of("error", "Failed to create diagram: process completed without result"));
             }
 
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Too many generation jobs in progress, please retry later"));
         } catch (IllegalArgumentException e) {
             logger.warn("Bad request during diagram creation for project {}: {}", projectId, e.getMessage());
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         } catch (RuntimeException e) {
+            Optional<LlmCapacityException> capacity = LlmCapacityException.in(e);
+            if (capacity.isPresent()) {
+                return llmAtCapacity(capacity.get());
+            }
+            Optional<DeadlineExceededException> exceeded = DeadlineExceededException.in(e);
+            if (exceeded.isPresent()) {
+                return deadlineExceeded(exceeded.get());
+            }
             logger.error("Error creating diagram for project {}: {}", projectId, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", "Failed to create diagram: " + e.getMessage()));
@@ -260,4 +305,80 @@ public class DiagramController {
                     .body(Map.of("error", "An unexpected error occurred during diagram creation"));
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * Streams the stages of diagram generation as Server-Sent Events.
+     * Accepts the same payload as {@link #createDiagram}; errors are reported as a FAILED event.
+     */
+    /**
+     * @return The caller's idempotency key namespace, or null if the token is invalid (the request fails anyway)
+     */
+    private String idempotencyScope(String authHeader) {
+        try {
+            Map<String, Object> claims = jwtService.extractAllClaims(authHeader.replace("Bearer ", ""));
+            return "user:" + claims.get("userId");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @PostMapping("/stream")
+    public SseEmitter createDiagramStream(
+            @PathVariable Long projectId,
+            @RequestBody Map<String, String> payload,
+            @RequestHeader("Authorization") String authHeader) {
+        SseProgressListener stream = diagramJobService.openStream();
+        try {
+            String token = authHeader.replace("Bearer ", "");
+            Map<String, Object> claims = jwtService.extractAllClaims(token);
+            Long userId = Long.parseLong(claims.get("userId").toString());
+
+            String projectSql = "SELECT id, user_id, name, description FROM \"Projects\" WHERE id = ? AND user_id = ?";
+            List<Project> projects = jdbcTemplate.query(projectSql, projectRowMapper, projectId, userId);
+            if (projects.isEmpty()) {
+                stream.onProgress(GenerationStage.FAILED, Map.of("error", "Project not found or access denied"));
+                return stream.getEmitter();
+            }
+
+            String requirement = payload.get("requirement");
+            String diagramType = resolveDiagramType(payload.get("generalType"));
+            if (diagramType == null || requirement == null) {
+                stream.onProgress(GenerationStage.FAILED, Map.of("error", "A valid generalType and requirement are required"));
+                return stream.getEmitter();
+            }
+
+            diagramJobService.submitDiagramJob(userId, projects.get(0), diagramType, requirement, stream);
+        } catch (RejectedExecutionException e) {
+            stream.onProgress(GenerationStage.FAILED, Map.of("error", "Too many generation jobs in progress, please retry later"));
+        } catch (Exception e) {
+            logger.error("Error streaming diagram creation for project {}: {}", projectId, e.getMessage(), e);
+            stream.onProgress(GenerationStage.FAILED, Map.of("error", "Failed to create diagram: " + e.getMessage()));
+        }
+        return stream.getEmitter();
+    }
+
+    private String resolveDiagramType(String generalType) {
+        if (generalType == null) {
+            return null;
+        }
+        return switch (generalType) {
+            case "System Architecture" -> "Class Diagram";
+            case "Workflow" -> "Flowchart";
+            case "Database Schema" -> "ERD";
+            default -> null;
+        };
+    }
+
+    private ResponseEntity<?> deadlineExceeded(DeadlineExceededException e) {
+        logger.warn("Request ran out of time: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(Map.of("error", "Generation did not finish in time, please retry or use async=true"));
+    }
+
+    private ResponseEntity<?> llmAtCapacity(LlmCapacityException e) {
+        logger.warn("LLM capacity exhausted: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", "AI service is at capacity, please retry later"));
+    }
+}
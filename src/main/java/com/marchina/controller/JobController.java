@@ -0,0 +1,71 @@
+package com.marchina.controller;
+
+import com.marchina.agent.GenerationStage;
+import com.marchina.config.JwtConfig.JwtService;
+import com.marchina.model.Job;
+import com.marchina.service.DiagramJobService;
+import com.marchina.service.SseProgressListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.Optional;
+
+@RestController
+@RequestMapping("/api/jobs")
+public class JobController {
+    private static final Logger logger = LoggerFactory.getLogger(JobController.class);
+
+    private final JwtService jwtService;
+    private final DiagramJobService diagramJobService;
+
+    @Autowired
+    public JobController(JwtService jwtService, DiagramJobService diagramJobService) {
+        this.jwtService = jwtService;
+        this.diagramJobService = diagramJobService;
+        logger.info("JobController initialized");
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getJob(@PathVariable String id, @RequestHeader("Authorization") String authHeader) {
+        try {
+            String token = authHeader.replace("Bearer ", "");
+            Map<String, Object> claims = jwtService.extractAllClaims(token);
+            Long userId = Long.parseLong(claims.get("userId").toString());
+
+            Optional<Job> job = diagramJobService.getJob(id, userId);
+            if (job.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(job.get());
+        } catch (Exception e) {
+            logger.error("Error getting job {}: {}", id, e.getMessage(), e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Streams a job's stage events as Server-Sent Events, starting with a snapshot of its current state.
+     */
+    @GetMapping("/{id}/events")
+    public SseEmitter streamJob(@PathVariable String id, @RequestHeader("Authorization") String authHeader) {
+        SseProgressListener stream = diagramJobService.openStream();
+        try {
+            String token = authHeader.replace("Bearer ", "");
+            Map<String, Object> claims = jwtService.extractAllClaims(token);
+            Long userId = Long.parseLong(claims.get("userId").toString());
+
+            if (!diagramJobService.attachStream(id, userId, stream)) {
+                stream.onProgress(GenerationStage.FAILED, Map.of("error", "Job not found"));
+            }
+        } catch (Exception e) {
+            logger.error("Error streaming job {}: {}", id, e.getMessage(), e);
+            stream.onProgress(GenerationStage.FAILED, Map.of("error", "Failed to stream job: " + e.getMessage()));
+        }
+        return stream.getEmitter();
+    }
+}
@@ -1,15 +1,23 @@
 package com.marchina.controller;
 
 import com.marchina.agent.RequirementExtractorAgent;
+import com.marchina.deadline.DeadlineExceededException;
+import com.marchina.llm.LlmCapacityException;
+import com.marchina.llm.LlmWorkload;
 import com.marchina.model.RequirementSet;
+import com.marchina.service.IdempotencyService;
+import com.marchina.service.RequirementStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
+import java.util.Optional;
 
 // Need Project model for instantiation
 import com.marchina.model.Project;
@@ -21,19 +29,33 @@ public class MCPController {
     private final JdbcTemplate jdbcTemplate;
     private final RequirementExtractorAgent requirementExtractorAgent;
     private final ProjectController projectController;
+    private final IdempotencyService idempotencyService;
+    private final RequirementStore requirementStore;
 
     @Autowired
     public MCPController(JdbcTemplate jdbcTemplate, 
                         RequirementExtractorAgent requirementExtractorAgent,
-                        ProjectController projectController) {
+                        ProjectController projectController,
+                        IdempotencyService idempotencyService,
+                        RequirementStore requirementStore) {
         this.jdbcTemplate = jdbcTemplate;
         this.requirementExtractorAgent = requirementExtractorAgent;
         this.projectController = projectController;
+        this.idempotencyService = idempotencyService;
+        this.requirementStore = requirementStore;
     }
 
     @PostMapping("/guest/project")
-    public ResponseEntity<?> createGuestProject(@RequestBody Map<String, String> payload) {
-        try {
+    public ResponseEntity<?> createGuestProject(@RequestBody Map<String, String> payload,
+                                                @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        // Guests have no identity of their own, so their keys share one namespace
+        return idempotencyService.execute(idempotencyKey, LlmWorkload.GUEST, "mcp.guest_project", payload,
+                () -> createGuestProject(payload));
+    }
+
+    public ResponseEntity<?> createGuestProject(Map<String, String> payload) {
+        // All guests share one account, so they also share one tenant's share of the LLM
+        try (LlmWorkload.Scope guest = LlmWorkload.current().withTenant(LlmWorkload.GUEST).attach()) {
             // Get the existing guest user
             String getUserSql = """
                 SELECT id, name, email, role 
@@ -66,14 +88,15 @@ public class MCPController {
                 projectDescription
             );
 
-            // Extract detailed requirements using the RENAMED method
+            // Extract the requirements once, split by diagram type
             logger.info("Starting detailed requirement extraction for project: {}", newProjectMap.get("id"));
-            // Use extractDetailedRequirements which returns String
-            String detailedRequirements = requirementExtractorAgent.extractDetailedRequirements(
+            RequirementSet requirementSet = requirementExtractorAgent.extractRequirementSet(
                     projectName,
                     projectDescription
             );
+            String detailedRequirements = requirementSet.toDetailedRequirements();
             logger.info("Detailed requirements extracted for guest project.");
+            requirementStore.save((Long) newProjectMap.get("id"), requirementSet);
 
             // Construct Project object from the map
             Project project = new Project();
@@ -83,8 +106,8 @@ public class MCPController {
             project.setDescription((String) newProjectMap.get("description"));
             
             // Call the appropriate method in ProjectController (which handles diagram generation)
-            // We pass the project object and the extracted detailed requirements string
-            projectController.generateOptimalDiagram(project, detailedRequirements); 
+            // We pass the project object and the structured requirements
+            projectController.generateOptimalDiagram(project, requirementSet);
             logger.info("Completed diagram generation request for guest project: {}", project.getId());
 
             // Return user, project (as map), and the detailed requirements string
@@ -95,9 +118,30 @@ public class MCPController {
             ));
 
         } catch (Exception e) {
+            Optional<LlmCapacityException> capacity = LlmCapacityException.in(e);
+            if (capacity.isPresent()) {
+                return llmAtCapacity(capacity.get());
+            }
+            Optional<DeadlineExceededException> exceeded = DeadlineExceededException.in(e);
+            if (exceeded.isPresent()) {
+                return deadlineExceeded(exceeded.get());
+            }
             logger.error("Error creating guest project: {}", e.getMessage(), e);
             return ResponseEntity.badRequest()
                     .body(Map.of("error", "Failed to create guest project: " + e.getMessage()));
         }
     }
-} 
\ No newline at end of file
+
+    private ResponseEntity<?> deadlineExceeded(DeadlineExceededException e) {
+        logger.warn("Request ran out of time: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(Map.of("error", "Generation did not finish in time, please retry"));
+    }
+
+    private ResponseEntity<?> llmAtCapacity(LlmCapacityException e) {
+        logger.warn("LLM capacity exhausted: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", "AI service is at capacity, please retry later"));
+    }
+}
@@ -1,19 +1,38 @@
 package com.marchina.controller;
 
+import com.marchina.model.Diagram;
+import com.marchina.model.Job;
 import com.marchina.model.Project;
+import com.marchina.model.ProjectRequirements;
+import com.marchina.model.RequirementSet;
+import com.marchina.agent.DiagramTypeSelector;
+import com.marchina.agent.GenerationStage;
 import com.marchina.agent.MainAgent;
+import com.marchina.agent.ProgressListener;
 import com.marchina.agent.RequirementExtractorAgent;
 import com.marchina.config.JwtConfig.JwtService;
-import dev.langchain4j.model.chat.ChatLanguageModel;
+import com.marchina.deadline.DeadlineExceededException;
+import com.marchina.llm.LlmCapacityException;
+import com.marchina.service.DiagramJobService;
+import com.marchina.service.IdempotencyService;
+import com.marchina.service.RequirementStore;
+import com.marchina.service.SseProgressListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import java.net.URI;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/projects")
@@ -24,7 +43,10 @@ public class ProjectController {
     private final RequirementExtractorAgent requirementExtractorAgent;
     private final JwtService jwtService;
     private final JdbcTemplate jdbcTemplate;
-    private final ChatLanguageModel chatModel;
+    private final DiagramTypeSelector diagramTypeSelector;
+    private final DiagramJobService diagramJobService;
+    private final IdempotencyService idempotencyService;
+    private final RequirementStore requirementStore;
 
     @Autowired
     public ProjectController(
@@ -32,12 +54,18 @@ public class ProjectController {
             RequirementExtractorAgent requirementExtractorAgent,
             JwtService jwtService,
             JdbcTemplate jdbcTemplate,
-            ChatLanguageModel chatModel) {
+            DiagramTypeSelector diagramTypeSelector,
+            DiagramJobService diagramJobService,
+            IdempotencyService idempotencyService,
+            RequirementStore requirementStore) {
         this.mainAgent = mainAgent;
         this.requirementExtractorAgent = requirementExtractorAgent;
         this.jwtService = jwtService;
         this.jdbcTemplate = jdbcTemplate;
-        this.chatModel = chatModel;
+        this.diagramTypeSelector = diagramTypeSelector;
+        this.diagramJobService = diagramJobService;
+        this.idempotencyService = idempotencyService;
+        this.requirementStore = requirementStore;
         logger.info("ProjectController initialized");
     }
 
@@ -72,24 +100,34 @@ public class ProjectController {
         }
     }
 
+    public ResponseEntity<?> createProject(Map<String, String> payload, String authHeader) {
+        return createProject(payload, authHeader, false, false);
+    }
+
+    /**
+     * Creates a project. A retry carrying the same Idempotency-Key gets the first response
+     * replayed instead of creating a second project.
+     */
     @PostMapping
     public ResponseEntity<?> createProject(@RequestBody Map<String, String> payload,
-                                         @RequestHeader("Authorization") String authHeader) {
+                                         @RequestHeader("Authorization") String authHeader,
+                                         @RequestParam(value = "async", defaultValue = "false") boolean async,
+                                         @RequestParam(value = "generateAll", defaultValue = "false") boolean generateAll,
+                                         @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        Map<String, Object> request = new HashMap<>(payload);
+        request.put("async", async);
+        request.put("generateAll", generateAll);
+        return idempotencyService.execute(idempotencyKey, idempotencyScope(authHeader), "projects.create", request,
+                () -> createProject(payload, authHeader, async, generateAll));
+    }
+
+    public ResponseEntity<?> createProject(Map<String, String> payload, String authHeader, boolean async, boolean generateAll) {
         try {
             String token = authHeader.replace("Bearer ", "");
             Map<String, Object> claims = jwtService.extractAllClaims(token);
             Long userId = Long.parseLong(claims.get("userId").toString());
             
-            String name = payload.get("name");
-            String description = payload.get("description");
-
-            String sql = """
-                INSERT INTO "Projects" (user_id, name, description)
-                VALUES (?, ?, ?)
-                RETURNING id, user_id, name, description
-            """;
-
-            List<Project> projects = jdbcTemplate.query(sql, projectRowMapper, userId, name, description);
+            List<Project> projects = insertProject(userId, payload);
             
             if (projects.isEmpty()) {
                 return ResponseEntity.badRequest()
@@ -98,29 +136,100 @@ public class ProjectController {
 
             Project createdProject = projects.get(0);
 
-            // Extract detailed requirements as a single string
+            if (async) {
+                Job job = diagramJobService.submitProjectJob(userId, createdProject, generateAll);
+                return ResponseEntity.accepted()
+                        .location(URI.create("/api/jobs/" + job.getId()))
+                        .body(Map.of(
+                            "project", createdProject,
+                            "jobId", job.getId(),
+                            "status", job.getStatus()
+                        ));
+            }
+
+            // Extract the requirements once, split by diagram type
             logger.info("Starting detailed requirement extraction for project: {}", createdProject.getId());
-            String detailedRequirements = requirementExtractorAgent.extractDetailedRequirements(
+            RequirementSet requirementSet = requirementExtractorAgent.extractRequirementSet(
                     createdProject.getName(),
                     createdProject.getDescription()
             );
+            String detailedRequirements = requirementSet.toDetailedRequirements();
             logger.info("Detailed requirements extracted.");
+            requirementStore.save(createdProject.getId(), requirementSet);
+
+            if (generateAll) {
+                List<Diagram> diagrams = generateAllDiagrams(createdProject, requirementSet);
+                return ResponseEntity.ok(Map.of(
+                    "project", createdProject,
+                    "detailedRequirements", detailedRequirements,
+                    "diagrams", diagrams
+                ));
+            }
 
             // Determine and generate the single most optimal diagram
-            generateOptimalDiagram(createdProject, detailedRequirements);
+            generateOptimalDiagram(createdProject, requirementSet);
             logger.info("Completed diagram generation for project: {}", createdProject.getId());
 
             return ResponseEntity.ok(Map.of(
                 "project", createdProject,
                 "detailedRequirements", detailedRequirements
             ));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Too many generation jobs in progress, please retry later"));
         } catch (Exception e) {
+            Optional<LlmCapacityException> capacity = LlmCapacityException.in(e);
+            if (capacity.isPresent()) {
+                return llmAtCapacity(capacity.get());
+            }
+            Optional<DeadlineExceededException> exceeded = DeadlineExceededException.in(e);
+            if (exceeded.isPresent()) {
+                return deadlineExceeded(exceeded.get());
+            }
             logger.error("Error creating project: {}", e.getMessage(), e);
             return ResponseEntity.badRequest()
                     .body(Map.of("error", "Failed to create project: " + e.getMessage()));
         }
     }
 
+    /**
+     * Creates a project and streams the generation stages as Server-Sent Events.
+     * The first event (QUEUED) carries the job id; the last one is COMPLETED with the result or FAILED.
+     */
+    @PostMapping("/stream")
+    public SseEmitter createProjectStream(@RequestBody Map<String, String> payload,
+                                          @RequestHeader("Authorization") String authHeader,
+                                          @RequestParam(value = "generateAll", defaultValue = "false") boolean generateAll) {
+        SseProgressListener stream = diagramJobService.openStream();
+        try {
+            String token = authHeader.replace("Bearer ", "");
+            Map<String, Object> claims = jwtService.extractAllClaims(token);
+            Long userId = Long.parseLong(claims.get("userId").toString());
+
+            List<Project> projects = insertProject(userId, payload);
+            if (projects.isEmpty()) {
+                stream.onProgress(GenerationStage.FAILED, Map.of("error", "Failed to create project"));
+                return stream.getEmitter();
+            }
+
+            diagramJobService.submitProjectJob(userId, projects.get(0), generateAll, stream);
+        } catch (RejectedExecutionException e) {
+            stream.onProgress(GenerationStage.FAILED, Map.of("error", "Too many generation jobs in progress, please retry later"));
+        } catch (Exception e) {
+            logger.error("Error creating project stream: {}", e.getMessage(), e);
+            stream.onProgress(GenerationStage.FAILED, Map.of("error", "Failed to create project: " + e.getMessage()));
+        }
+        return stream.getEmitter();
+    }
+
+    private List<Project> insertProject(Long userId, Map<String, String> payload) {
+        String sql = """
+            INSERT INTO "Projects" (user_id, name, description)
+            VALUES (?, ?, ?)
+            RETURNING id, user_id, name, description
+        """;
+        return jdbcTemplate.query(sql, projectRowMapper, userId, payload.get("name"), payload.get("description"));
+    }
 
     @GetMapping("/{id}")
     public ResponseEntity<?> getProject(@PathVariable Long id, @RequestHeader("Authorization") String authHeader) {
@@ -150,41 +259,187 @@ public class ProjectController {
         }
     }
 
-    public void generateOptimalDiagram(Project project, String detailedRequirements) {
+    /**
+     * Regenerates diagrams from the project's stored requirements, without extracting them again.
+     * Projects created before requirements were stored get them extracted and stored once.
+     *
+     * @param diagramType Diagram type to generate; selected from the requirements when omitted
+     * @param generateAll Generate every diagram type instead of a single one
+     */
+    @PostMapping("/{id}/regenerate")
+    public ResponseEntity<?> regenerateDiagrams(@PathVariable Long id,
+                                                @RequestHeader("Authorization") String authHeader,
+                                                @RequestParam(value = "diagramType", required = false) String diagramType,
+                                                @RequestParam(value = "async", defaultValue = "false") boolean async,
+                                                @RequestParam(value = "generateAll", defaultValue = "false") boolean generateAll) {
         try {
+            String token = authHeader.replace("Bearer ", "");
+            Map<String, Object> claims = jwtService.extractAllClaims(token);
+            Long userId = Long.parseLong(claims.get("userId").toString());
+
+            String projectSql = """
+                SELECT id, user_id, name, description
+                FROM "Projects"
+                WHERE id = ? AND user_id = ?
+            """;
+            List<Project> projects = jdbcTemplate.query(projectSql, projectRowMapper, id, userId);
+            if (projects.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            Project project = projects.get(0);
+
+            if (async) {
+                Job job = diagramJobService.submitProjectJob(userId, project, generateAll, diagramType, ProgressListener.NONE);
+                return ResponseEntity.accepted()
+                        .location(URI.create("/api/jobs/" + job.getId()))
+                        .body(Map.of(
+                            "project", project,
+                            "jobId", job.getId(),
+                            "status", job.getStatus()
+                        ));
+            }
+
+            Optional<ProjectRequirements> stored = requirementStore.latest(id);
+            RequirementSet requirementSet;
+            if (stored.isPresent()) {
+                requirementSet = stored.get().toRequirementSet();
+                logger.info("Regenerating project {} from stored requirements version {}", id, stored.get().getVersion());
+            } else {
+                logger.info("No stored requirements for project {}, extracting them", id);
+                requirementSet = requirementExtractorAgent.extractRequirementSet(
+                        project.getName(),
+                        project.getDescription()
+                );
+                stored = requirementStore.save(id, requirementSet);
+            }
+            String detailedRequirements = requirementSet.toDetailedRequirements();
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("project", project);
+            result.put("detailedRequirements", detailedRequirements);
+            stored.ifPresent(requirements -> {
+                result.put("requirementsVersion", requirements.getVersion());
+                result.put("requirementsHash", requirements.getContentHash());
+            });
+
+            if (generateAll) {
+                result.put("diagrams", generateAllDiagrams(project, requirementSet));
+                return ResponseEntity.ok(result);
+            }
             if (detailedRequirements == null || detailedRequirements.trim().isEmpty()) {
-                 logger.warn("Skipping diagram generation for project {} due to empty detailed requirements.", project.getId());
-                return;
+                logger.warn("Skipping diagram generation for project {} due to empty detailed requirements.", id);
+                return ResponseEntity.ok(result);
             }
 
-            // Determine the optimal diagram type using LLM
-            String analysisPrompt = String.format("""
-                Analyze these detailed project requirements and determine the single most appropriate diagram type to visualize them.
-                Available types: ERD, Flowchart, Sequence Diagram, Class Diagram.
-                Consider the focus of the requirements (data structure, process flow, interactions, object structure).
-                
-                Requirements:
-                %s
-                
-                Respond ONLY with the name of the single most appropriate diagram type (e.g., Flowchart, ERD, Sequence Diagram, Class Diagram).
-                """, detailedRequirements);
+            String type = diagramType != null ? diagramType : diagramTypeSelector.selectDiagramType(detailedRequirements);
+            result.put("diagramType", type);
+            mainAgent.processRequest(project, type, requirementSet, ProgressListener.NONE)
+                    .ifPresent(diagram -> result.put("diagram", diagram));
+            return ResponseEntity.ok(result);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Too many generation jobs in progress, please retry later"));
+        } catch (Exception e) {
+            Optional<LlmCapacityException> capacity = LlmCapacityException.in(e);
+            if (capacity.isPresent()) {
+                return llmAtCapacity(capacity.get());
+            }
+            Optional<DeadlineExceededException> exceeded = DeadlineExceededException.in(e);
+            if (exceeded.isPresent()) {
+                return deadlineExceeded(exceeded.get());
+            }
+            logger.error("Error regenerating diagrams for project {}: {}", id, e.getMessage(), e);
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Failed to regenerate diagrams: " + e.getMessage()));
+        }
+    }
+
+    public void generateOptimalDiagram(Project project, String detailedRequirements) {
+        generateOptimalDiagram(project, RequirementSet.unstructured(detailedRequirements));
+    }
 
-            String optimalDiagramType = chatModel.generate(analysisPrompt).trim();
-            // Basic validation/fallback - might need more robust handling
-            List<String> validTypes = List.of("ERD", "Flowchart", "Sequence Diagram", "Class Diagram");
-            if (!validTypes.contains(optimalDiagramType)) {
-                 logger.warn("LLM returned invalid diagram type '{}'. Defaulting to Flowchart.", optimalDiagramType);
-                 optimalDiagramType = "Flowchart"; // Fallback to Flowchart
+    /**
+     * Selects the diagram type from all requirements and prompts its agent with only that type's slice.
+     */
+    public void generateOptimalDiagram(Project project, RequirementSet requirementSet) {
+        try {
+            String detailedRequirements = requirementSet.toDetailedRequirements();
+            if (detailedRequirements.trim().isEmpty()) {
+                 logger.warn("Skipping diagram generation for project {} due to empty detailed requirements.", project.getId());
+                return;
             }
 
+            // Determine the optimal diagram type
+            String optimalDiagramType = diagramTypeSelector.selectDiagramType(detailedRequirements);
+
             logger.info("Determined optimal diagram type for project {}: {}", project.getId(), optimalDiagramType);
             
             // Call MainAgent to generate the determined optimal diagram type
-            mainAgent.processRequest(project, optimalDiagramType, detailedRequirements); 
+            mainAgent.processRequest(project, optimalDiagramType, requirementSet, ProgressListener.NONE);
 
         } catch (Exception e) {
+            Optional<LlmCapacityException> capacity = LlmCapacityException.in(e);
+            if (capacity.isPresent()) {
+                throw capacity.get();
+            }
+            Optional<DeadlineExceededException> exceeded = DeadlineExceededException.in(e);
+            if (exceeded.isPresent()) {
+                throw exceeded.get();
+            }
             logger.error("Error determining or generating optimal diagram for project {}: {}", project.getId(), e.getMessage(), e);
             // Consider re-throwing depending on desired behavior
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * Generates every diagram type for the project in parallel, prompting each agent with only its slice of the requirements.
+     *
+     * @return The saved diagrams, or an empty list if generation failed or there were no requirements
+     * @throws LlmCapacityException If the LLM limiter turned the calls away, so the caller can answer 503
+     */
+    public List<Diagram> generateAllDiagrams(Project project, RequirementSet requirementSet) {
+        try {
+            if (requirementSet.toDetailedRequirements().trim().isEmpty()) {
+                logger.warn("Skipping diagram generation for project {} due to empty detailed requirements.", project.getId());
+                return List.of();
+            }
+            return mainAgent.generateAllDiagrams(project, requirementSet, ProgressListener.NONE);
+        } catch (Exception e) {
+            Optional<LlmCapacityException> capacity = LlmCapacityException.in(e);
+            if (capacity.isPresent()) {
+                throw capacity.get();
+            }
+            Optional<DeadlineExceededException> exceeded = DeadlineExceededException.in(e);
+            if (exceeded.isPresent()) {
+                throw exceeded.get();
+            }
+            logger.error("Error generating all diagrams for project {}: {}", project.getId(), e.getMessage(), e);
+            return List.of();
+        }
+    }
+
+    /**
+     * @return The caller's idempotency key namespace, or null if the token is invalid (the request fails anyway)
+     */
+    private String idempotencyScope(String authHeader) {
+        try {
+            Map<String, Object> claims = jwtService.extractAllClaims(authHeader.replace("Bearer ", ""));
+            return "user:" + claims.get("userId");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private ResponseEntity<?> deadlineExceeded(DeadlineExceededException e) {
+        logger.warn("Request ran out of time: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(Map.of("error", "Generation did not finish in time, please retry or use async=true"));
+    }
+
+    private ResponseEntity<?> llmAtCapacity(LlmCapacityException e) {
+        logger.warn("LLM capacity exhausted: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", "AI service is at capacity, please retry later"));
+    }
+}
@@ -0,0 +1,177 @@
+package com.marchina.deadline;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The time budget of an HTTP request or background job.
+ *
+ * A deadline is attached to the thread serving the request and travels with work handed to the
+ * generation and speculative executors via {@link #propagate}. Downstream calls (LLM, speech,
+ * JDBC) use {@link #remainingMillis(long)} as their timeout, and retry loops call
+ * {@link #checkCurrent(String)} before each attempt so no work starts once the budget is spent.
+ * Code running without an attached deadline behaves as before.
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final String scope;
+    private final long expiresAtNanos;
+    private final Consumer<DeadlineExceededException> onExceeded;
+    private final AtomicBoolean exceeded = new AtomicBoolean();
+
+    /**
+     * Restores the previously attached deadline when closed.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    Deadline(String scope, Duration budget, Consumer<DeadlineExceededException> onExceeded) {
+        this.scope = scope;
+        this.expiresAtNanos = System.nanoTime() + budget.toNanos();
+        this.onExceeded = onExceeded;
+    }
+
+    /**
+     * @param scope  What the budget belongs to, e.g. "request" or "job"; used in messages and metrics
+     * @param budget Time from now until the deadline
+     */
+    public static Deadline after(String scope, Duration budget) {
+        return new Deadline(scope, budget, e -> { });
+    }
+
+    /**
+     * @return The deadline attached to the current thread, if any
+     */
+    public static Optional<Deadline> current() {
+        return Optional.ofNullable(CURRENT.get());
+    }
+
+    /**
+     * Throws if the current thread's deadline has passed; does nothing without a deadline.
+     *
+     * @param operation The work about to start, e.g. "erd.attempt"
+     */
+    public static void checkCurrent(String operation) {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null) {
+            deadline.check(operation);
+        }
+    }
+
+    /**
+     * @return The smaller of the fallback and the current deadline's remaining budget
+     */
+    public static long remainingMillis(long fallbackMillis) {
+        Deadline deadline = CURRENT.get();
+        return deadline == null ? fallbackMillis : Math.min(fallbackMillis, deadline.remainingMillis());
+    }
+
+    /**
+     * Makes this the current thread's deadline until the returned scope is closed.
+     */
+    public Scope attach() {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Runs the current thread without a deadline until the returned scope is closed, for
+     * bookkeeping that must still succeed once the budget is spent.
+     */
+    public static Scope detach() {
+        Deadline previous = CURRENT.get();
+        CURRENT.remove();
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps a task so it runs under the deadline current at submission time.
+     */
+    public static Runnable propagate(Runnable task) {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return task;
+        }
+        return () -> {
+            try (Scope ignored = deadline.attach()) {
+                task.run();
+            }
+        };
+    }
+
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return task;
+        }
+        return () -> {
+            try (Scope ignored = deadline.attach()) {
+                return task.call();
+            }
+        };
+    }
+
+    public static <T> Supplier<T> propagate(Supplier<T> task) {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return task;
+        }
+        return () -> {
+            try (Scope ignored = deadline.attach()) {
+                return task.get();
+            }
+        };
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return System.nanoTime() - expiresAtNanos >= 0;
+    }
+
+    /**
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public void check(String operation) {
+        if (isExpired()) {
+            throw exceeded(operation);
+        }
+    }
+
+    /**
+     * Builds the exception for work abandoned at this deadline. The first call also reports it
+     * to the deadline's owner, so each abandoned request or job is counted once.
+     */
+    public DeadlineExceededException exceeded(String operation) {
+        DeadlineExceededException e = new DeadlineExceededException(scope, operation);
+        if (exceeded.compareAndSet(false, true)) {
+            onExceeded.accept(e);
+        }
+        return e;
+    }
+}
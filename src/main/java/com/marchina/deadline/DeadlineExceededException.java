@@ -0,0 +1,45 @@
+package com.marchina.deadline;
+
+import java.util.Optional;
+
+/**
+ * Thrown when work is abandoned because the request or job it belongs to ran out of time.
+ * Controllers answer 504 instead of a generic error.
+ */
+public class DeadlineExceededException extends RuntimeException {
+    private final String scope;
+    private final String operation;
+
+    public DeadlineExceededException(String scope, String operation) {
+        super("Deadline of " + scope + " exceeded before " + operation);
+        this.scope = scope;
+        this.operation = operation;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    /**
+     * @return The work that was about to start or was cut off, e.g. "erd.attempt" or "llm.erd"
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Finds a deadline failure anywhere in the cause chain; agents and executors wrap exceptions
+     * before they reach the controllers.
+     */
+    public static Optional<DeadlineExceededException> in(Throwable error) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof DeadlineExceededException exceeded) {
+                return Optional.of(exceeded);
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,46 @@
+package com.marchina.deadline;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+/**
+ * Attaches a request deadline to the servlet thread for the duration of each controller call.
+ * Streaming endpoints hand their work to the job executor, which applies the job budget instead.
+ */
+@Component
+public class DeadlineInterceptor implements AsyncHandlerInterceptor {
+    private static final String SCOPE_ATTRIBUTE = DeadlineInterceptor.class.getName() + ".scope";
+
+    private final RequestDeadlines requestDeadlines;
+
+    public DeadlineInterceptor(RequestDeadlines requestDeadlines) {
+        this.requestDeadlines = requestDeadlines;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (requestDeadlines.isEnabled()) {
+            request.setAttribute(SCOPE_ATTRIBUTE, requestDeadlines.forRequest().attach());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        detach(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        detach(request);
+    }
+
+    private void detach(HttpServletRequest request) {
+        if (request.getAttribute(SCOPE_ATTRIBUTE) instanceof Deadline.Scope scope) {
+            request.removeAttribute(SCOPE_ATTRIBUTE);
+            scope.close();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.marchina.deadline;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * JdbcTemplate that gives every statement the remaining budget of the current deadline as its
+ * query timeout, and refuses to start statements once the deadline has passed.
+ */
+public class DeadlineJdbcTemplate extends JdbcTemplate {
+
+    public DeadlineJdbcTemplate(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    @Override
+    protected void applyStatementSettings(Statement stmt) throws SQLException {
+        super.applyStatementSettings(stmt);
+        Deadline deadline = Deadline.current().orElse(null);
+        if (deadline == null) {
+            return;
+        }
+        deadline.check("jdbc");
+        int remainingSeconds = (int) Math.max(1, (deadline.remainingMillis() + 999) / 1000);
+        int configured = stmt.getQueryTimeout();
+        stmt.setQueryTimeout(configured > 0 ? Math.min(configured, remainingSeconds) : remainingSeconds);
+    }
+}
@@ -0,0 +1,64 @@
+package com.marchina.deadline;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Creates the deadlines for HTTP requests and background jobs and counts the work abandoned
+ * when they expire.
+ *
+ * Synchronous requests get REQUEST_TIMEOUT_SECONDS, jobs get JOB_TIMEOUT_SECONDS. The job budget
+ * defaults to less than JOB_STALE_MINUTES so a job gives up before recovery considers it stale.
+ */
+@Component
+public class RequestDeadlines {
+    private static final Logger logger = LoggerFactory.getLogger(RequestDeadlines.class);
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Duration requestTimeout;
+    private final Duration jobTimeout;
+
+    public RequestDeadlines(Dotenv dotenv, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = Boolean.parseBoolean(dotenv.get("DEADLINES_ENABLED", "true"));
+        this.requestTimeout = Duration.ofSeconds(Long.parseLong(dotenv.get("REQUEST_TIMEOUT_SECONDS", "120")));
+        this.jobTimeout = Duration.ofSeconds(Long.parseLong(dotenv.get("JOB_TIMEOUT_SECONDS", "480")));
+        logger.info("Deadlines enabled: {}, request timeout: {} s, job timeout: {} s",
+                enabled, requestTimeout.toSeconds(), jobTimeout.toSeconds());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return A deadline for a synchronous HTTP request, starting now
+     */
+    public Deadline forRequest() {
+        return new Deadline("request", requestTimeout, this::recordExceeded);
+    }
+
+    /**
+     * @return A deadline for a background job, starting when the worker picks it up
+     */
+    public Deadline forJob() {
+        return new Deadline("job", jobTimeout, this::recordExceeded);
+    }
+
+    private void recordExceeded(DeadlineExceededException e) {
+        logger.warn("{}", e.getMessage());
+        Counter.builder("marchina.deadline.exceeded")
+                .description("Requests and jobs whose remaining work was abandoned at the deadline")
+                .tag("scope", e.getScope())
+                .tag("operation", e.getOperation())
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,130 @@
+package com.marchina.llm;
+
+import dev.langchain4j.model.azure.AzureOpenAiChatModel;
+import dev.langchain4j.model.azure.AzureOpenAiStreamingChatModel;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import io.github.cdimascio.dotenv.Dotenv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Builds Azure OpenAI chat models for a {@link ModelSpec}.
+ * All models share the endpoint and key from the environment; the deployment, temperature,
+ * completion token cap and timeout come from the spec.
+ */
+@Component
+public class AzureChatModelFactory {
+    private static final Logger logger = LoggerFactory.getLogger(AzureChatModelFactory.class);
+
+    private final String apiKey;
+    private final String endpoint;
+    private final String fallbackApiKey;
+    private final String fallbackEndpoint;
+    private final String fallbackDeployment;
+    private final boolean ownRetries;
+
+    public AzureChatModelFactory(Dotenv dotenv) {
+        this.apiKey = dotenv.get("AZURE_OPENAI_API_KEY");
+        this.endpoint = dotenv.get("AZURE_OPENAI_ENDPOINT");
+        this.fallbackEndpoint = dotenv.get("AZURE_OPENAI_FALLBACK_ENDPOINT");
+        this.fallbackApiKey = dotenv.get("AZURE_OPENAI_FALLBACK_API_KEY", apiKey);
+        this.fallbackDeployment = dotenv.get("AZURE_OPENAI_FALLBACK_DEPLOYMENT_ID");
+        this.ownRetries = Boolean.parseBoolean(dotenv.get("LLM_RETRY_ENABLED", "true"));
+    }
+
+    public ChatLanguageModel create(ModelSpec spec) {
+        requireConfiguration(spec);
+        return build(spec, endpoint, apiKey, spec.deploymentName());
+    }
+
+    /**
+     * @return true if a second deployment is configured for hedging and failover
+     */
+    public boolean hasFallback() {
+        return fallbackEndpoint != null && !fallbackEndpoint.isBlank();
+    }
+
+    /**
+     * Builds a chat model for the spec on the fallback deployment (AZURE_OPENAI_FALLBACK_ENDPOINT).
+     * The deployment defaults to the spec's own, for a fallback region hosting the same deployment names.
+     */
+    public ChatLanguageModel createFallback(ModelSpec spec) {
+        if (!hasFallback()) {
+            throw new IllegalStateException("No fallback Azure OpenAI deployment configured");
+        }
+        requireConfiguration(spec);
+        return build(spec, fallbackEndpoint, fallbackApiKey,
+                fallbackDeployment != null ? fallbackDeployment : spec.deploymentName());
+    }
+
+    /**
+     * @return A name identifying the fallback deployment a spec is served by, for breakers and logs
+     */
+    public String fallbackDeploymentName(ModelSpec spec) {
+        return fallbackEndpoint + "/" + (fallbackDeployment != null ? fallbackDeployment : spec.deploymentName());
+    }
+
+    /**
+     * @return A name identifying the primary deployment a spec is served by
+     */
+    public String deploymentName(ModelSpec spec) {
+        return endpoint + "/" + spec.deploymentName();
+    }
+
+    private ChatLanguageModel build(ModelSpec spec, String endpoint, String apiKey, String deploymentName) {
+        try {
+            AzureOpenAiChatModel.Builder builder = AzureOpenAiChatModel.builder()
+                .apiKey(apiKey)
+                .endpoint(endpoint)
+                .deploymentName(deploymentName)
+                .temperature(spec.temperature());
+            if (spec.maxTokens() != null) {
+                builder.maxTokens(spec.maxTokens());
+            }
+            if (spec.timeout() != null) {
+                builder.timeout(spec.timeout());
+            }
+            if (ownRetries) {
+                // RetryingChatLanguageModel retries through the rate limiter; SDK retries would bypass it
+                builder.maxRetries(0);
+            }
+            return builder.build();
+        } catch (Exception e) {
+            String message = "Failed to initialize Azure OpenAI Chat Model: " + e.getMessage();
+            logger.error(message, e);
+            throw new IllegalStateException(message, e);
+        }
+    }
+
+    public StreamingChatLanguageModel createStreaming(ModelSpec spec) {
+        requireConfiguration(spec);
+        try {
+            AzureOpenAiStreamingChatModel.Builder builder = AzureOpenAiStreamingChatModel.builder()
+                .apiKey(apiKey)
+                .endpoint(endpoint)
+                .deploymentName(spec.deploymentName())
+                .temperature(spec.temperature());
+            if (spec.maxTokens() != null) {
+                builder.maxTokens(spec.maxTokens());
+            }
+            if (spec.timeout() != null) {
+                builder.timeout(spec.timeout());
+            }
+            return builder.build();
+        } catch (Exception e) {
+            String message = "Failed to initialize Azure OpenAI Streaming Chat Model: " + e.getMessage();
+            logger.error(message, e);
+            throw new IllegalStateException(message, e);
+        }
+    }
+
+    private void requireConfiguration(ModelSpec spec) {
+        if (apiKey == null || endpoint == null || spec.deploymentName() == null) {
+            String message = "Missing required Azure OpenAI configuration. Please check environment variables or .env file.";
+            logger.error(message);
+            throw new IllegalStateException(message);
+        }
+    }
+}
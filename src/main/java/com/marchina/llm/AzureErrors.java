@@ -0,0 +1,156 @@
+package com.marchina.llm;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
+import com.marchina.deadline.DeadlineExceededException;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Classifies errors raised by the Azure OpenAI client.
+ */
+public final class AzureErrors {
+    // Used only when no HTTP response is attached; a bare "429" also shows up in ids, counts and limiter messages
+    private static final Pattern THROTTLED_MESSAGE = Pattern.compile("\\b429\\s+Too Many Requests\\b", Pattern.CASE_INSENSITIVE);
+
+    private AzureErrors() {
+    }
+
+    /**
+     * @return true if the error (or one of its causes) is an HTTP 429 from Azure OpenAI. Without an
+     *         attached response only a "429 Too Many Requests" status line in a message counts, and
+     *         never for errors the limiter raised itself
+     */
+    public static boolean isThrottled(Throwable error) {
+        HttpResponse response = response(error);
+        if (response != null) {
+            return response.getStatusCode() == 429;
+        }
+        if (hasCause(error, LlmCapacityException.class)) {
+            return false;
+        }
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            String message = current.getMessage();
+            if (message != null && THROTTLED_MESSAGE.matcher(message).find()) {
+                return true;
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the error says the deployment itself is unhealthy (throttled, 408/5xx, or
+     *         the call never got an HTTP answer because of an I/O error or timeout), as opposed to a
+     *         problem with this particular request
+     */
+    public static boolean isDeploymentFailure(Throwable error) {
+        HttpResponse response = response(error);
+        if (response != null) {
+            int status = response.getStatusCode();
+            return status == 408 || status == 429 || status >= 500;
+        }
+        if (isThrottled(error)) {
+            return true;
+        }
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof IOException || current instanceof TimeoutException) {
+                return true;
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Classifies a failed call for the retry policy. An expired deadline or a cancellation is
+     * permanent whatever else the error carries. So are errors the limiter raised itself, such as a
+     * queue timeout: they carry no HTTP response and the caller already waited. A 429 that the
+     * limiter rethrew as {@link LlmCapacityException} still has Azure's response attached and is
+     * classified by its status.
+     */
+    public static LlmErrorKind classify(Throwable error) {
+        if (hasCause(error, DeadlineExceededException.class) || hasCause(error, CancellationException.class)) {
+            return LlmErrorKind.PERMANENT;
+        }
+        HttpResponse response = response(error);
+        if (response != null) {
+            int status = response.getStatusCode();
+            if (status == 429 || status == 503) {
+                return LlmErrorKind.THROTTLED;
+            }
+            return status == 408 || status >= 500 ? LlmErrorKind.TRANSIENT : LlmErrorKind.PERMANENT;
+        }
+        if (hasCause(error, LlmCapacityException.class)) {
+            return LlmErrorKind.PERMANENT;
+        }
+        if (isThrottled(error)) {
+            return LlmErrorKind.THROTTLED;
+        }
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof IOException || current instanceof TimeoutException) {
+                return LlmErrorKind.TRANSIENT;
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return LlmErrorKind.PERMANENT;
+    }
+
+    /**
+     * Reads the server's back-off hint from retry-after-ms or Retry-After (seconds).
+     *
+     * @return The hint in milliseconds, or -1 if the response carried none
+     */
+    public static long retryAfterMillis(Throwable error) {
+        HttpResponse response = response(error);
+        if (response == null) {
+            return -1;
+        }
+        try {
+            String millis = response.getHeaderValue("retry-after-ms");
+            if (millis != null) {
+                return (long) Double.parseDouble(millis.trim());
+            }
+            String seconds = response.getHeaderValue("Retry-After");
+            if (seconds != null) {
+                return (long) (Double.parseDouble(seconds.trim()) * 1000);
+            }
+        } catch (NumberFormatException e) {
+            // HTTP-date form is not used by Azure OpenAI; treat as no hint
+        }
+        return -1;
+    }
+
+    private static boolean hasCause(Throwable error, Class<? extends Throwable> type) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (type.isInstance(current)) {
+                return true;
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private static HttpResponse response(Throwable error) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof HttpResponseException httpError && httpError.getResponse() != null) {
+                return httpError.getResponse();
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return null;
+    }
+}
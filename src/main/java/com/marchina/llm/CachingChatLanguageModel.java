@@ -0,0 +1,42 @@
+package com.marchina.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Chat model decorator that serves repeated prompts from {@link LlmResponseCache}.
+ * One instance exists per agent so hits and misses are attributed to the caller.
+ */
+public class CachingChatLanguageModel extends ForwardingChatLanguageModel {
+    private final LlmResponseCache cache;
+    private final ModelSpec spec;
+    private final String agent;
+
+    public CachingChatLanguageModel(ChatLanguageModel delegate, LlmResponseCache cache, ModelSpec spec, String agent) {
+        super(delegate);
+        this.cache = cache;
+        this.spec = spec;
+        this.agent = agent;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        String key = PromptKey.of(spec, messages);
+
+        Optional<String> cached = cache.get(agent, key);
+        if (cached.isPresent()) {
+            return Response.from(AiMessage.from(cached.get()));
+        }
+
+        Response<AiMessage> response = delegate.generate(messages);
+        if (response != null && response.content() != null) {
+            cache.put(agent, key, response.content().text());
+        }
+        return response;
+    }
+}
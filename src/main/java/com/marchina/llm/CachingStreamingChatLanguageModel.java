@@ -0,0 +1,75 @@
+package com.marchina.llm;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Streaming counterpart of {@link CachingChatLanguageModel}.
+ * A cached response is replayed as a single token; a completed stream is written back to the cache,
+ * so streaming and blocking calls for the same prompt share entries.
+ */
+public class CachingStreamingChatLanguageModel implements StreamingChatLanguageModel {
+    private final StreamingChatLanguageModel delegate;
+    private final LlmResponseCache cache;
+    private final ModelSpec spec;
+    private final String agent;
+
+    public CachingStreamingChatLanguageModel(StreamingChatLanguageModel delegate, LlmResponseCache cache,
+                                             ModelSpec spec, String agent) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.spec = spec;
+        this.agent = agent;
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        String key = PromptKey.of(spec, messages);
+
+        Optional<String> cached = cache.get(agent, key);
+        if (cached.isPresent()) {
+            handler.onNext(cached.get());
+            handler.onComplete(Response.from(AiMessage.from(cached.get())));
+            return;
+        }
+
+        delegate.generate(messages, new StreamingResponseHandler<>() {
+            @Override
+            public void onNext(String token) {
+                handler.onNext(token);
+            }
+
+            @Override
+            public void onComplete(Response<AiMessage> response) {
+                if (response != null && response.content() != null) {
+                    cache.put(agent, key, response.content().text());
+                }
+                handler.onComplete(response);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                handler.onError(error);
+            }
+        });
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications,
+                         StreamingResponseHandler<AiMessage> handler) {
+        delegate.generate(messages, toolSpecifications, handler);
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, ToolSpecification toolSpecification,
+                         StreamingResponseHandler<AiMessage> handler) {
+        delegate.generate(messages, toolSpecification, handler);
+    }
+}
@@ -0,0 +1,197 @@
+package com.marchina.llm;
+
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Hands out the chat model each agent should use.
+ * Agents ask for their model by name and {@link ModelTask} so per-agent behaviour (caching opt-out,
+ * metrics tags) and per-task deployments can be configured without touching the agents themselves.
+ */
+@Component
+public class ChatModelProvider {
+    private static final Logger logger = LoggerFactory.getLogger(ChatModelProvider.class);
+
+    private final ModelRegistry modelRegistry;
+    private final LlmResponseCache responseCache;
+    private final LlmRequestCoalescer requestCoalescer;
+    private final LlmRateLimiter rateLimiter;
+    private final HedgingPolicy hedgingPolicy;
+    private final LlmRetryPolicy retryPolicy;
+    private final ThreadPoolExecutor llmCallExecutor;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, ModelTask> agentTasks = new ConcurrentHashMap<>();
+    private final Map<String, ChatLanguageModel> agentModels = new ConcurrentHashMap<>();
+    private final Map<String, StreamingChatLanguageModel> streamingAgentModels = new ConcurrentHashMap<>();
+
+    public ChatModelProvider(ModelRegistry modelRegistry,
+                             LlmResponseCache responseCache,
+                             LlmRequestCoalescer requestCoalescer,
+                             LlmRateLimiter rateLimiter,
+                             HedgingPolicy hedgingPolicy,
+                             LlmRetryPolicy retryPolicy,
+                             @Qualifier("llmCallExecutor") ThreadPoolExecutor llmCallExecutor,
+                             MeterRegistry meterRegistry) {
+        this.modelRegistry = modelRegistry;
+        this.responseCache = responseCache;
+        this.requestCoalescer = requestCoalescer;
+        this.rateLimiter = rateLimiter;
+        this.hedgingPolicy = hedgingPolicy;
+        this.retryPolicy = retryPolicy;
+        this.llmCallExecutor = llmCallExecutor;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Returns the chat model for the given agent, using the task it was first registered with
+     * or {@link ModelTask#GENERATION}.
+     *
+     * @param agent Short agent name, e.g. "erd" or "validator"
+     */
+    public ChatLanguageModel forAgent(String agent) {
+        return forAgent(agent, agentTasks.getOrDefault(agent, ModelTask.GENERATION));
+    }
+
+    /**
+     * Returns the chat model for the given agent, served by the deployment configured for the task.
+     * An agent keeps the task it was first registered with.
+     *
+     * @param agent Short agent name, e.g. "erd" or "validator"
+     * @param task  The kind of work the agent uses the model for
+     * @return The model, wrapped with hedging, deadline enforcement, rate limiting, transport retries, request coalescing and a response cache unless disabled
+     */
+    public ChatLanguageModel forAgent(String agent, ModelTask task) {
+        ModelTask registered = agentTasks.computeIfAbsent(agent, name -> task);
+        if (registered != task) {
+            logger.warn("Agent '{}' is registered for {} tasks, ignoring request for {}", agent, registered, task);
+        }
+        return agentModels.computeIfAbsent(agent, name -> {
+            ModelSpec spec = modelRegistry.spec(registered);
+            ChatLanguageModel model = rateLimited(hedged(spec, name), name);
+            if (requestCoalescer.isEnabled()) {
+                model = new CoalescingChatLanguageModel(model, requestCoalescer, spec, name, true);
+            }
+            if (responseCache.isEnabledFor(name)) {
+                logger.info("Response caching enabled for agent '{}' ({} model)", name, registered);
+                model = new CachingChatLanguageModel(model, responseCache, spec, name);
+            } else {
+                logger.info("Response caching disabled for agent '{}' ({} model)", name, registered);
+            }
+            return model;
+        });
+    }
+
+    /**
+     * Returns the token-streaming chat model the agent uses for explanations.
+     */
+    public StreamingChatLanguageModel streamingForAgent(String agent) {
+        return streamingForAgent(agent, ModelTask.EXPLANATION);
+    }
+
+    /**
+     * Returns the token-streaming chat model for the given agent and task.
+     * Shares cache entries with {@link #forAgent(String, ModelTask)} when both resolve to the same spec.
+     */
+    public StreamingChatLanguageModel streamingForAgent(String agent, ModelTask task) {
+        return streamingAgentModels.computeIfAbsent(agent, name -> {
+            ModelSpec spec = modelRegistry.spec(task);
+            StreamingChatLanguageModel streamingModel = modelRegistry.streamingModel(spec);
+            StreamingChatLanguageModel model = rateLimiter.isEnabled()
+                    ? new RateLimitedStreamingChatLanguageModel(streamingModel, rateLimiter, name)
+                    : streamingModel;
+            if (responseCache.isEnabledFor(name)) {
+                return new CachingStreamingChatLanguageModel(model, responseCache, spec, name);
+            }
+            return model;
+        });
+    }
+
+    /**
+     * Returns an uncached model for the agent's deployment at a specific temperature.
+     * Used for speculative candidates, whose responses must only be cached once validated.
+     */
+    public ChatLanguageModel forAgent(String agent, double temperature) {
+        return uncached(specFor(agent).withTemperature(temperature), agent);
+    }
+
+    /**
+     * Returns the agent's model without the response cache. Used by agents whose output is only
+     * usable once it passes validation; they look up and store responses through
+     * {@link #cachedResponse}, {@link #cacheResponse} and {@link #evictResponse} themselves.
+     */
+    public ChatLanguageModel uncachedForAgent(String agent) {
+        return uncached(specFor(agent), agent);
+    }
+
+    private ChatLanguageModel uncached(ModelSpec spec, String agent) {
+        ChatLanguageModel model = rateLimited(hedged(spec, agent), agent);
+        if (requestCoalescer.isEnabled()) {
+            return new CoalescingChatLanguageModel(model, requestCoalescer, spec, agent, false);
+        }
+        return model;
+    }
+
+    private ModelSpec specFor(String agent) {
+        return modelRegistry.spec(agentTasks.getOrDefault(agent, ModelTask.GENERATION));
+    }
+
+    private ChatLanguageModel hedged(ModelSpec spec, String agent) {
+        ChatLanguageModel model = modelRegistry.chatModel(spec);
+        if (!hedgingPolicy.isEnabled()) {
+            return model;
+        }
+        Optional<ChatLanguageModel> fallback = modelRegistry.fallbackChatModel(spec);
+        if (fallback.isEmpty()) {
+            logger.warn("LLM hedging is enabled but no fallback deployment is configured, agent '{}' is not hedged", agent);
+            return model;
+        }
+        return hedgingPolicy.hedged(model, modelRegistry.deploymentName(spec),
+                fallback.get(), modelRegistry.fallbackDeploymentName(spec), agent);
+    }
+
+    private ChatLanguageModel rateLimited(ChatLanguageModel model, String agent) {
+        DeadlineChatLanguageModel bounded = new DeadlineChatLanguageModel(model, llmCallExecutor, meterRegistry, agent);
+        ChatLanguageModel limited = rateLimiter.isEnabled() ? new RateLimitedChatLanguageModel(bounded, rateLimiter, agent) : bounded;
+        return retryPolicy.isEnabled() ? new RetryingChatLanguageModel(limited, retryPolicy, agent) : limited;
+    }
+
+    /**
+     * @return The cached response the agent's default model would return for this prompt, if any
+     */
+    public Optional<String> cachedResponse(String agent, String prompt) {
+        if (!responseCache.isEnabledFor(agent)) {
+            return Optional.empty();
+        }
+        return responseCache.get(agent, PromptKey.of(specFor(agent), List.of(UserMessage.from(prompt))));
+    }
+
+    /**
+     * Stores a response as if the agent's default model had produced it for this prompt.
+     */
+    public void cacheResponse(String agent, String prompt, String response) {
+        if (responseCache.isEnabledFor(agent)) {
+            responseCache.put(agent, PromptKey.of(specFor(agent), List.of(UserMessage.from(prompt))), response);
+        }
+    }
+
+    /**
+     * Drops a cached response for this prompt, e.g. one that no longer passes validation.
+     */
+    public void evictResponse(String agent, String prompt) {
+        if (responseCache.isEnabledFor(agent)) {
+            responseCache.evict(agent, PromptKey.of(specFor(agent), List.of(UserMessage.from(prompt))));
+        }
+    }
+}
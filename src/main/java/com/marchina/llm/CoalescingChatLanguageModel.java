@@ -0,0 +1,34 @@
+package com.marchina.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+
+/**
+ * Chat model decorator that shares one in-flight call between concurrent identical prompts
+ * through {@link LlmRequestCoalescer}. Only models created with joinCompleted also return results
+ * that finished within the coalescer's join window.
+ */
+public class CoalescingChatLanguageModel extends ForwardingChatLanguageModel {
+    private final LlmRequestCoalescer coalescer;
+    private final ModelSpec spec;
+    private final String agent;
+    private final boolean joinCompleted;
+
+    public CoalescingChatLanguageModel(ChatLanguageModel delegate, LlmRequestCoalescer coalescer, ModelSpec spec,
+                                       String agent, boolean joinCompleted) {
+        super(delegate);
+        this.coalescer = coalescer;
+        this.spec = spec;
+        this.agent = agent;
+        this.joinCompleted = joinCompleted;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return coalescer.execute(agent, PromptKey.of(spec, messages), joinCompleted, () -> delegate.generate(messages));
+    }
+}
@@ -0,0 +1,127 @@
+package com.marchina.llm;
+
+import com.marchina.deadline.Deadline;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Chat model decorator that bounds each call by the caller's {@link Deadline}.
+ *
+ * The Azure client only has a fixed per-model timeout, so when a deadline is attached the call
+ * runs on the LLM call executor and the caller waits at most the remaining budget. Calls without
+ * a deadline, or that find no free call thread, run inline.
+ *
+ * A call abandoned at the deadline keeps running on its call thread until Azure answers. Callers
+ * that hold something for the duration of the call, like a rate limiter permit, pass a listener
+ * that is told when the call has really finished.
+ */
+public class DeadlineChatLanguageModel extends ForwardingChatLanguageModel {
+    private final ThreadPoolExecutor executor;
+    private final MeterRegistry meterRegistry;
+    private final String agent;
+
+    public DeadlineChatLanguageModel(ChatLanguageModel delegate, ThreadPoolExecutor executor,
+                                     MeterRegistry meterRegistry, String agent) {
+        super(delegate);
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+        this.agent = agent;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return generate(messages, (response, error) -> { });
+    }
+
+    /**
+     * Same as {@link #generate(List)}, and calls onFinished exactly once with the response or the
+     * failure when the underlying call ends. For a call abandoned at the deadline that happens after
+     * this method has thrown, on the call thread.
+     */
+    public Response<AiMessage> generate(List<ChatMessage> messages, BiConsumer<Response<AiMessage>, Throwable> onFinished) {
+        Deadline deadline = Deadline.current().orElse(null);
+        if (deadline == null) {
+            return call(messages, onFinished);
+        }
+        String operation = "llm." + agent;
+        try {
+            deadline.check(operation);
+        } catch (RuntimeException e) {
+            onFinished.accept(null, e);
+            throw e;
+        }
+
+        // Claimed by whichever comes first: the call thread, or the caller giving up before it started
+        AtomicBoolean claimed = new AtomicBoolean();
+        Future<Response<AiMessage>> call;
+        try {
+            call = executor.submit(() -> claimed.compareAndSet(false, true) ? call(messages, onFinished) : null);
+        } catch (RejectedExecutionException e) {
+            return call(messages, onFinished);
+        }
+        try {
+            return call.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            cancel(call, "deadline");
+            RuntimeException exceeded = deadline.exceeded(operation);
+            if (claimed.compareAndSet(false, true)) {
+                onFinished.accept(null, exceeded);
+            }
+            throw exceeded;
+        } catch (InterruptedException e) {
+            // e.g. a speculative candidate that lost; not the request's deadline
+            Thread.currentThread().interrupt();
+            cancel(call, "interrupted");
+            CancellationException cancelled = new CancellationException("LLM call for " + agent + " was interrupted");
+            if (claimed.compareAndSet(false, true)) {
+                onFinished.accept(null, cancelled);
+            }
+            throw cancelled;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException("LLM call failed", e.getCause());
+        }
+    }
+
+    private Response<AiMessage> call(List<ChatMessage> messages, BiConsumer<Response<AiMessage>, Throwable> onFinished) {
+        Response<AiMessage> response;
+        try {
+            response = delegate.generate(messages);
+        } catch (Throwable e) {
+            onFinished.accept(null, e);
+            throw e;
+        }
+        onFinished.accept(response, null);
+        return response;
+    }
+
+    private void cancel(Future<?> call, String reason) {
+        call.cancel(true);
+        Counter.builder("marchina.llm.cancelled")
+                .description("In-flight LLM calls abandoned before they returned")
+                .tag("agent", agent)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,105 @@
+package com.marchina.llm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes an Azure OpenAI deployment out of rotation after consecutive failures.
+ *
+ * CLOSED admits every call. After LLM_BREAKER_FAILURE_THRESHOLD consecutive deployment failures
+ * (see {@link AzureErrors#isDeploymentFailure}) it turns OPEN and rejects calls for
+ * LLM_BREAKER_OPEN_SECONDS, then HALF_OPEN admits a single probe: its success closes the
+ * breaker again, its failure re-opens it.
+ */
+public class DeploymentCircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(DeploymentCircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String deployment;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean probeInFlight;
+
+    public DeploymentCircuitBreaker(String deployment, int failureThreshold, long openMillis) {
+        this.deployment = deployment;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * @return true if a call may be sent; the caller must then report exactly one of
+     *         {@link #onSuccess}, {@link #onFailure} or {@link #release}
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAtNanos < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                logger.info("Circuit for deployment {} half-open, sending a probe", deployment);
+                probeInFlight = true;
+                return true;
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        if (state != State.CLOSED) {
+            logger.info("Circuit for deployment {} closed", deployment);
+            state = State.CLOSED;
+        }
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            logger.warn("Circuit for deployment {} opened after {} consecutive failures", deployment, consecutiveFailures);
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Reports a call that ended without saying anything about the deployment's health, e.g. a
+     * cancelled hedge or a request the service rejected as invalid.
+     */
+    public synchronized void release() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return Milliseconds until an open circuit admits a probe, 0 if it admits calls now
+     */
+    public synchronized long retryAfterMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openNanos - (System.nanoTime() - openedAtNanos)));
+    }
+
+    public String getDeployment() {
+        return deployment;
+    }
+}
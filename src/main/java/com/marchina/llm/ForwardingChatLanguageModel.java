@@ -0,0 +1,36 @@
+package com.marchina.llm;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+
+/**
+ * Base class for {@link ChatLanguageModel} decorators.
+ * Forwards every call to the delegate; subclasses override the plain message variant.
+ */
+public abstract class ForwardingChatLanguageModel implements ChatLanguageModel {
+    protected final ChatLanguageModel delegate;
+
+    protected ForwardingChatLanguageModel(ChatLanguageModel delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return delegate.generate(messages);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return delegate.generate(messages, toolSpecifications);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return delegate.generate(messages, toolSpecification);
+    }
+}
@@ -0,0 +1,184 @@
+package com.marchina.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat model decorator that sends each call to the primary deployment and, if it has not answered
+ * by the agent's recent p90 (LLM_HEDGE_PERCENTILE) latency, sends a duplicate to the fallback
+ * deployment and returns whichever answers first; the other call is cancelled.
+ *
+ * The same fallback serves as failover: a call that fails with a deployment error is retried on
+ * the other deployment once, and while a deployment's circuit is open its calls go straight to
+ * the other one. Hedges are limited by {@link HedgingPolicy}'s budget so a slow region cannot
+ * double the traffic.
+ */
+public class HedgingChatLanguageModel extends ForwardingChatLanguageModel {
+
+    /**
+     * One deployment a call can be sent to.
+     */
+    public record Route(String name, ChatLanguageModel model, DeploymentCircuitBreaker breaker) {}
+
+    private record Call(Route route, long startNanos) {}
+
+    private final HedgingPolicy policy;
+    private final Route primary;
+    private final Route fallback;
+    private final String agent;
+    private final LatencyTracker latencies;
+
+    /**
+     * @param latencies Recent latencies of the agent's calls on the primary deployment, shared with
+     *                  every other model created for the same agent and deployment
+     */
+    public HedgingChatLanguageModel(HedgingPolicy policy, Route primary, Route fallback, String agent,
+                                    LatencyTracker latencies) {
+        super(primary.model());
+        this.policy = policy;
+        this.primary = primary;
+        this.fallback = fallback;
+        this.agent = agent;
+        this.latencies = latencies;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        policy.onCall();
+        Route first;
+        Route standby;
+        if (primary.breaker().tryAcquire()) {
+            first = primary;
+            standby = fallback;
+        } else if (fallback.breaker().tryAcquire()) {
+            first = fallback;
+            standby = null;
+            policy.record(agent, "circuit_open_failover");
+        } else {
+            throw new LlmCapacityException("All Azure OpenAI deployments are unavailable (circuits open)",
+                    Math.min(primary.breaker().retryAfterMillis(), fallback.breaker().retryAfterMillis()));
+        }
+
+        ExecutorCompletionService<Response<AiMessage>> race = new ExecutorCompletionService<>(policy.getExecutor());
+        Map<Future<Response<AiMessage>>, Call> pending = new HashMap<>(4);
+        Call firstCall;
+        try {
+            firstCall = start(race, pending, first, messages);
+        } catch (RejectedExecutionException e) {
+            // No spare thread to race on, call the deployment directly
+            return inline(first, messages);
+        }
+
+        boolean standbyUsed = standby == null;
+        RuntimeException failure = null;
+        try {
+            while (!pending.isEmpty()) {
+                Future<Response<AiMessage>> done;
+                if (!standbyUsed) {
+                    long delay = Math.max(policy.getMinDelayMillis(),
+                            latencies.percentile(policy.getPercentile(), policy.getInitialDelayMillis()));
+                    done = race.poll(Math.max(0, delay - elapsedMillis(firstCall)), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        standbyUsed = true;
+                        if (policy.tryHedge() && standby.breaker().tryAcquire()) {
+                            startOrRelease(race, pending, standby, messages, "hedged");
+                        } else {
+                            policy.record(agent, "hedge_skipped");
+                        }
+                        continue;
+                    }
+                } else {
+                    done = race.take();
+                }
+
+                Call call = pending.remove(done);
+                try {
+                    Response<AiMessage> response = done.get();
+                    call.route().breaker().onSuccess();
+                    latencies.record(elapsedMillis(call));
+                    if (call != firstCall) {
+                        policy.record(agent, "won_by_" + call.route().name());
+                    }
+                    return response;
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof RuntimeException runtime ? runtime : new IllegalStateException(e.getCause());
+                    boolean deploymentFailure = AzureErrors.isDeploymentFailure(failure);
+                    if (deploymentFailure) {
+                        call.route().breaker().onFailure();
+                    } else {
+                        call.route().breaker().release();
+                    }
+                    if (pending.isEmpty() && !standbyUsed && deploymentFailure) {
+                        standbyUsed = true;
+                        if (standby.breaker().tryAcquire()) {
+                            startOrRelease(race, pending, standby, messages, "failover");
+                        }
+                    }
+                }
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for LLM response for " + agent);
+        } finally {
+            pending.forEach((future, call) -> {
+                future.cancel(true);
+                call.route().breaker().release();
+                if (call == firstCall) {
+                    // The slow call still says something about the tail; leaving it out would bias the delay low
+                    latencies.record(elapsedMillis(call));
+                }
+            });
+        }
+    }
+
+    private Call start(ExecutorCompletionService<Response<AiMessage>> race,
+                       Map<Future<Response<AiMessage>>, Call> pending, Route route, List<ChatMessage> messages) {
+        Call call = new Call(route, System.nanoTime());
+        pending.put(race.submit(() -> route.model().generate(messages)), call);
+        return call;
+    }
+
+    private void startOrRelease(ExecutorCompletionService<Response<AiMessage>> race,
+                                Map<Future<Response<AiMessage>>, Call> pending, Route route,
+                                List<ChatMessage> messages, String outcome) {
+        try {
+            start(race, pending, route, messages);
+            policy.record(agent, outcome);
+        } catch (RejectedExecutionException e) {
+            route.breaker().release();
+            policy.record(agent, outcome + "_rejected");
+        }
+    }
+
+    private Response<AiMessage> inline(Route route, List<ChatMessage> messages) {
+        try {
+            Response<AiMessage> response = route.model().generate(messages);
+            route.breaker().onSuccess();
+            return response;
+        } catch (RuntimeException e) {
+            if (AzureErrors.isDeploymentFailure(e)) {
+                route.breaker().onFailure();
+            } else {
+                route.breaker().release();
+            }
+            throw e;
+        }
+    }
+
+    private static long elapsedMillis(Call call) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.startNanos());
+    }
+}
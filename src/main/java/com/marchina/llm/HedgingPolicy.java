@@ -0,0 +1,146 @@
+package com.marchina.llm;
+
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Settings, circuit breakers and hedge budget shared by every {@link HedgingChatLanguageModel}.
+ *
+ * Hedging needs a second deployment, normally in another region (AZURE_OPENAI_FALLBACK_ENDPOINT),
+ * and is off unless LLM_HEDGE_ENABLED is set. Each hedge spends one unit of a budget that every
+ * call refills by LLM_HEDGE_BUDGET_RATIO, so hedges stay a bounded share of the traffic even when
+ * a whole deployment slows down. Breakers are kept per deployment and shared by all agents.
+ * Latency history is kept per agent and primary deployment, so models created per call (e.g. one
+ * per speculative candidate) still hedge at the agent's observed percentile.
+ */
+@Component
+public class HedgingPolicy {
+    private static final Logger logger = LoggerFactory.getLogger(HedgingPolicy.class);
+    private static final double MAX_BUDGET = 10;
+
+    private final ThreadPoolExecutor executor;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final double percentile;
+    private final long initialDelayMillis;
+    private final long minDelayMillis;
+    private final int latencyWindow;
+    private final double budgetRatio;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Map<String, DeploymentCircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    private double budget = MAX_BUDGET;
+
+    @Autowired
+    public HedgingPolicy(Dotenv dotenv,
+                         @Qualifier("llmCallExecutor") ThreadPoolExecutor executor,
+                         MeterRegistry meterRegistry) {
+        this(executor, meterRegistry,
+                Boolean.parseBoolean(dotenv.get("LLM_HEDGE_ENABLED", "false")),
+                Double.parseDouble(dotenv.get("LLM_HEDGE_PERCENTILE", "0.9")),
+                Long.parseLong(dotenv.get("LLM_HEDGE_INITIAL_DELAY_MS", "15000")),
+                Long.parseLong(dotenv.get("LLM_HEDGE_MIN_DELAY_MS", "500")),
+                Integer.parseInt(dotenv.get("LLM_HEDGE_LATENCY_WINDOW", "200")),
+                Double.parseDouble(dotenv.get("LLM_HEDGE_BUDGET_RATIO", "0.1")),
+                Integer.parseInt(dotenv.get("LLM_BREAKER_FAILURE_THRESHOLD", "5")),
+                Long.parseLong(dotenv.get("LLM_BREAKER_OPEN_SECONDS", "30")) * 1000);
+    }
+
+    HedgingPolicy(ThreadPoolExecutor executor, MeterRegistry meterRegistry, boolean enabled, double percentile,
+                  long initialDelayMillis, long minDelayMillis, int latencyWindow, double budgetRatio,
+                  int failureThreshold, long openMillis) {
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.initialDelayMillis = initialDelayMillis;
+        this.minDelayMillis = minDelayMillis;
+        this.latencyWindow = latencyWindow;
+        this.budgetRatio = budgetRatio;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        logger.info("LLM hedging enabled: {}, percentile: {}, min delay: {} ms, budget ratio: {}, breaker: {} failures / {} s",
+                enabled, percentile, minDelayMillis, budgetRatio, failureThreshold, openMillis / 1000);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Wraps a primary and fallback model for the same spec in a hedging model.
+     *
+     * @param primaryDeployment  Name identifying the primary deployment, used for its circuit breaker
+     * @param fallbackDeployment Name identifying the fallback deployment
+     */
+    public ChatLanguageModel hedged(ChatLanguageModel primary, String primaryDeployment,
+                                    ChatLanguageModel fallback, String fallbackDeployment, String agent) {
+        return new HedgingChatLanguageModel(this,
+                new HedgingChatLanguageModel.Route("primary", primary, breaker(primaryDeployment)),
+                new HedgingChatLanguageModel.Route("fallback", fallback, breaker(fallbackDeployment)),
+                agent, latencies(agent, primaryDeployment));
+    }
+
+    public DeploymentCircuitBreaker breaker(String deployment) {
+        return breakers.computeIfAbsent(deployment, name -> {
+            DeploymentCircuitBreaker breaker = new DeploymentCircuitBreaker(name, failureThreshold, openMillis);
+            meterRegistry.gauge("marchina.llm.breaker.open", Tags.of("deployment", name),
+                    breaker, b -> b.getState() == DeploymentCircuitBreaker.State.CLOSED ? 0 : 1);
+            return breaker;
+        });
+    }
+
+    LatencyTracker latencies(String agent, String deployment) {
+        return latencies.computeIfAbsent(agent + "|" + deployment, key -> new LatencyTracker(latencyWindow));
+    }
+
+    synchronized void onCall() {
+        budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+    }
+
+    synchronized boolean tryHedge() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    void record(String agent, String outcome) {
+        Counter.builder("marchina.llm.hedge")
+                .description("Hedged and failed-over LLM calls by outcome")
+                .tag("agent", agent)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    double getPercentile() {
+        return percentile;
+    }
+
+    long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    long getMinDelayMillis() {
+        return minDelayMillis;
+    }
+}
@@ -0,0 +1,43 @@
+package com.marchina.llm;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent call latencies and answers percentile queries over them, so the hedge
+ * delay follows the deployment's current behaviour rather than a fixed guess.
+ */
+public class LatencyTracker {
+    private static final int MIN_SAMPLES = 20;
+
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    public LatencyTracker(int window) {
+        this.samples = new long[window];
+    }
+
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * @param percentile Between 0 and 1, e.g. 0.9
+     * @param fallback   Returned until enough samples have been recorded
+     * @return The latency in milliseconds below which that share of recent calls finished
+     */
+    public long percentile(double percentile, long fallback) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < MIN_SAMPLES) {
+                return fallback;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.min(sorted.length - 1, Math.max(0, index))];
+    }
+}
@@ -0,0 +1,49 @@
+package com.marchina.llm;
+
+import java.util.Optional;
+
+/**
+ * Thrown when an LLM call cannot be admitted: the limiter queue is full, the caller's wait
+ * deadline passed, or Azure OpenAI answered 429.
+ * Carries a retry hint so controllers can answer 503 with Retry-After instead of a generic error.
+ */
+public class LlmCapacityException extends RuntimeException {
+    private final long retryAfterMillis;
+
+    public LlmCapacityException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public LlmCapacityException(String message, long retryAfterMillis, Throwable cause) {
+        super(message, cause);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return Seconds for a Retry-After header, at least 1
+     */
+    public long getRetryAfterSeconds() {
+        return Math.max(1, (retryAfterMillis + 999) / 1000);
+    }
+
+    /**
+     * Finds a capacity failure anywhere in the cause chain; agents wrap exceptions before they
+     * reach the controllers.
+     */
+    public static Optional<LlmCapacityException> in(Throwable error) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof LlmCapacityException capacity) {
+                return Optional.of(capacity);
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return Optional.empty();
+    }
+}
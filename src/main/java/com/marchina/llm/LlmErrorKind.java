@@ -0,0 +1,20 @@
+package com.marchina.llm;
+
+/**
+ * How a failed LLM call should be treated by the transport-level retry policy.
+ */
+public enum LlmErrorKind {
+    /**
+     * Azure OpenAI answered 429 or 503: retry no sooner than its Retry-After hint.
+     */
+    THROTTLED,
+    /**
+     * The call failed for reasons unrelated to the request (408, other 5xx, I/O error or timeout):
+     * retry after a backoff.
+     */
+    TRANSIENT,
+    /**
+     * Retrying would fail the same way (4xx, content filter, cancelled or out of time).
+     */
+    PERMANENT
+}
@@ -0,0 +1,37 @@
+package com.marchina.llm;
+
+/**
+ * Scheduling class of an LLM call. Waiting calls are admitted in weighted fair order, so a class
+ * with a higher weight gets a proportionally larger share of the slots without starving the rest.
+ */
+public enum LlmPriority {
+    /**
+     * A user is waiting on the other end, e.g. a voice chat turn.
+     */
+    INTERACTIVE(8),
+    /**
+     * Synchronous API requests.
+     */
+    STANDARD(4),
+    /**
+     * Background generation jobs.
+     */
+    BACKGROUND(1);
+
+    private final double defaultWeight;
+
+    LlmPriority(double defaultWeight) {
+        this.defaultWeight = defaultWeight;
+    }
+
+    public double getDefaultWeight() {
+        return defaultWeight;
+    }
+
+    /**
+     * @return The environment variable overriding this class's weight, e.g. LLM_PRIORITY_WEIGHT_INTERACTIVE
+     */
+    public String weightKey() {
+        return "LLM_PRIORITY_WEIGHT_" + name();
+    }
+}
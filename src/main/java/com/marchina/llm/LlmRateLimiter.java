@@ -0,0 +1,347 @@
+package com.marchina.llm;
+
+import com.marchina.deadline.Deadline;
+import dev.langchain4j.data.message.ChatMessage;
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for calls to the Azure OpenAI deployment, shared by every agent.
+ *
+ * Two limits apply. A token bucket refilled at LLM_TOKENS_PER_MINUTE keeps the estimated spend
+ * under the deployment quota. An AIMD concurrency limit grows by roughly one slot per round of
+ * successful calls, and shrinks multiplicatively when Azure answers 429 or latency exceeds
+ * LLM_LATENCY_BACKOFF_MS. A 429 carrying Retry-After also pauses admissions until it expires.
+ * Callers that cannot be admitted wait in a bounded queue until their deadline, after which they
+ * fail with {@link LlmCapacityException} instead of piling more load onto a throttled endpoint.
+ *
+ * The queue is served in weighted fair order rather than first come, first served. Every caller's
+ * {@link LlmWorkload} names a tenant (the JWT user) and a {@link LlmPriority}; each tenant and
+ * class forms a flow whose share of the admitted tokens is proportional to the class weight times
+ * the tenant weight (LLM_TENANT_WEIGHTS, e.g. guest:0.5). A tenant also never holds more than
+ * LLM_TENANT_MAX_IN_FLIGHT slots, so one heavy user cannot take every slot while others wait.
+ */
+@Component
+public class LlmRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(LlmRateLimiter.class);
+    private static final double THROTTLE_BACKOFF = 0.5;
+    private static final double LATENCY_BACKOFF = 0.9;
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long DEFAULT_THROTTLE_PAUSE_MILLIS = 1_000;
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final double tokensPerMinute;
+    private final double tokensPerNano;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueued;
+    private final long queueTimeoutMillis;
+    private final long latencyBackoffNanos;
+    private final int expectedCompletionTokens;
+    private final int tenantMaxInFlight;
+    private final Map<LlmPriority, Double> priorityWeights = new EnumMap<>(LlmPriority.class);
+    private final Map<String, Double> tenantWeights = new HashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+    private volatile double limit;
+    private volatile int inFlight;
+    private volatile int waiting;
+    private volatile double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private long pausedUntilNanos;
+    private long lastDecreaseNanos;
+
+    // Fair queuing state, guarded by lock
+    private final List<Waiter> queue = new ArrayList<>();
+    private final Map<String, Double> flowFinishTags = new HashMap<>();
+    private final Map<String, Integer> tenantInFlight = new HashMap<>();
+    private double virtualTime;
+
+    /**
+     * An admitted call; must be passed back to {@link #release} exactly once.
+     */
+    public record Permit(String agent, String tenant, LlmPriority priority, int estimatedTokens, long startNanos) {}
+
+    /**
+     * A queued caller. Waiters are admitted in order of their virtual finish tag: the flow's
+     * previous finish tag (or the current virtual time, if the flow was idle) plus cost / weight.
+     */
+    private record Waiter(String tenant, LlmPriority priority, double startTag, double finishTag) {}
+
+    public LlmRateLimiter(Dotenv dotenv, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = Boolean.parseBoolean(dotenv.get("LLM_LIMITER_ENABLED", "true"));
+        this.tokensPerMinute = Double.parseDouble(dotenv.get("LLM_TOKENS_PER_MINUTE", "60000"));
+        this.tokensPerNano = tokensPerMinute / TimeUnit.MINUTES.toNanos(1);
+        this.minLimit = Integer.parseInt(dotenv.get("LLM_MIN_CONCURRENCY", "2"));
+        this.maxLimit = Integer.parseInt(dotenv.get("LLM_MAX_CONCURRENCY", "32"));
+        this.limit = Math.min(maxLimit, Math.max(minLimit, Integer.parseInt(dotenv.get("LLM_INITIAL_CONCURRENCY", "8"))));
+        this.maxQueued = Integer.parseInt(dotenv.get("LLM_MAX_QUEUED", "200"));
+        this.queueTimeoutMillis = Long.parseLong(dotenv.get("LLM_QUEUE_TIMEOUT_MS", "30000"));
+        this.latencyBackoffNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(dotenv.get("LLM_LATENCY_BACKOFF_MS", "30000")));
+        this.expectedCompletionTokens = Integer.parseInt(dotenv.get("LLM_EXPECTED_COMPLETION_TOKENS", "800"));
+        this.tokens = tokensPerMinute;
+        this.tenantMaxInFlight = Integer.parseInt(dotenv.get("LLM_TENANT_MAX_IN_FLIGHT", "6"));
+        for (LlmPriority priority : LlmPriority.values()) {
+            priorityWeights.put(priority, Double.parseDouble(dotenv.get(priority.weightKey(),
+                    String.valueOf(priority.getDefaultWeight()))));
+        }
+        for (String entry : dotenv.get("LLM_TENANT_WEIGHTS", LlmWorkload.GUEST + ":0.5").split(",")) {
+            int separator = entry.lastIndexOf(':');
+            if (separator > 0) {
+                tenantWeights.put(entry.substring(0, separator).trim(), Double.parseDouble(entry.substring(separator + 1).trim()));
+            }
+        }
+
+        meterRegistry.gauge("marchina.llm.limiter.limit", this, limiter -> limiter.limit);
+        meterRegistry.gauge("marchina.llm.limiter.inflight", this, limiter -> limiter.inFlight);
+        meterRegistry.gauge("marchina.llm.limiter.queue", this, limiter -> limiter.waiting);
+        meterRegistry.gauge("marchina.llm.limiter.tokens.available", this, limiter -> limiter.tokens);
+        logger.info("LLM limiter enabled: {}, tokens/min: {}, concurrency: {} ({}-{}), max queued: {}, queue timeout: {} ms",
+                enabled, tokensPerMinute, limit, minLimit, maxLimit, maxQueued, queueTimeoutMillis);
+        logger.info("LLM fair queuing: class weights {}, tenant weights {}, max in flight per tenant: {}",
+                priorityWeights, tenantWeights, tenantMaxInFlight);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Rough token estimate for a prompt: about four characters per token plus the expected completion.
+     */
+    public int estimateTokens(List<ChatMessage> messages) {
+        long characters = 0;
+        for (ChatMessage message : messages) {
+            characters += message.text() == null ? 0 : message.text().length();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, characters / 4 + expectedCompletionTokens);
+    }
+
+    /**
+     * Waits for a concurrency slot and token budget using the default queue timeout, or the
+     * caller's remaining deadline if that is shorter.
+     *
+     * @throws com.marchina.deadline.DeadlineExceededException if the deadline passes while queued
+     */
+    public Permit acquire(String agent, int estimatedTokens) {
+        Deadline deadline = Deadline.current().orElse(null);
+        if (deadline == null || deadline.remainingMillis() >= queueTimeoutMillis) {
+            return acquire(agent, estimatedTokens, queueTimeoutMillis);
+        }
+        deadline.check("llm.queue");
+        try {
+            return acquire(agent, estimatedTokens, deadline.remainingMillis());
+        } catch (LlmCapacityException e) {
+            if (deadline.isExpired()) {
+                throw deadline.exceeded("llm.queue");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a concurrency slot and token budget, behind callers of the current
+     * {@link LlmWorkload} that are due earlier in the fair order.
+     *
+     * @param agent           Agent name, used for metrics
+     * @param estimatedTokens Tokens to reserve; reconciled with actual usage on release
+     * @param timeoutMillis   Longest the caller is willing to wait
+     * @return The permit to release once the call finishes
+     * @throws LlmCapacityException if the queue is full or the deadline passes first
+     */
+    public Permit acquire(String agent, int estimatedTokens, long timeoutMillis) {
+        int cost = (int) Math.min(estimatedTokens, tokensPerMinute);
+        LlmWorkload workload = LlmWorkload.current();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+
+        lock.lock();
+        try {
+            if (waiting >= maxQueued) {
+                reject(agent, "queue_full");
+                throw new LlmCapacityException("LLM request queue is full (" + maxQueued + " waiting)", estimatedWaitMillis(cost));
+            }
+            Waiter waiter = enqueue(workload, cost);
+            waiting++;
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    refill(now);
+
+                    long waitNanos;
+                    if (nextEligible() != waiter) {
+                        waitNanos = deadline - now; // Woken when the head of the queue changes
+                    } else if (now < pausedUntilNanos) {
+                        waitNanos = pausedUntilNanos - now;
+                    } else if (inFlight >= (int) limit) {
+                        waitNanos = deadline - now; // Woken by release
+                    } else if (tokens < cost) {
+                        waitNanos = (long) Math.ceil((cost - tokens) / tokensPerNano);
+                    } else {
+                        inFlight++;
+                        tokens -= cost;
+                        tenantInFlight.merge(waiter.tenant(), 1, Integer::sum);
+                        virtualTime = Math.max(virtualTime, waiter.startTag());
+                        break;
+                    }
+
+                    long remaining = deadline - now;
+                    if (remaining <= 0) {
+                        reject(agent, "timeout");
+                        throw new LlmCapacityException("Timed out after " + TimeUnit.NANOSECONDS.toMillis(now - start)
+                                + " ms waiting for LLM capacity", estimatedWaitMillis(cost));
+                    }
+                    available.awaitNanos(Math.min(waitNanos, remaining));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LlmCapacityException("Interrupted while waiting for LLM capacity", 0, e);
+            } finally {
+                waiting--;
+                queue.remove(waiter);
+                available.signalAll(); // The next waiter may now be at the head
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        long admitted = System.nanoTime();
+        Timer.builder("marchina.llm.limiter.wait")
+                .description("Time spent waiting for LLM admission, by agent and priority class")
+                .tag("agent", agent)
+                .tag("class", workload.getPriority().name().toLowerCase())
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry)
+                .record(admitted - start, TimeUnit.NANOSECONDS);
+        return new Permit(agent, workload.getTenant(), workload.getPriority(), cost, admitted);
+    }
+
+    /**
+     * Returns the permit's slot and adjusts the concurrency limit from the call's outcome.
+     *
+     * @param permit       The permit from {@link #acquire}
+     * @param actualTokens Tokens the call really used, or -1 if unknown
+     * @param error        The failure, or null if the call succeeded
+     */
+    public void release(Permit permit, int actualTokens, Throwable error) {
+        long now = System.nanoTime();
+        long latency = now - permit.startNanos();
+        boolean throttled = error != null && AzureErrors.isThrottled(error);
+
+        lock.lock();
+        try {
+            inFlight--;
+            tenantInFlight.computeIfPresent(permit.tenant(), (tenant, count) -> count > 1 ? count - 1 : null);
+            refill(now);
+            if (actualTokens >= 0) {
+                tokens = Math.min(tokensPerMinute, tokens + permit.estimatedTokens() - actualTokens);
+            } else if (throttled) {
+                // The request was rejected before doing any work
+                tokens = Math.min(tokensPerMinute, tokens + permit.estimatedTokens());
+            }
+
+            if (throttled) {
+                long retryAfter = AzureErrors.retryAfterMillis(error);
+                pausedUntilNanos = Math.max(pausedUntilNanos,
+                        now + TimeUnit.MILLISECONDS.toNanos(retryAfter > 0 ? retryAfter : DEFAULT_THROTTLE_PAUSE_MILLIS));
+                decrease(now, THROTTLE_BACKOFF, "429 from Azure OpenAI");
+                Counter.builder("marchina.llm.limiter.throttled")
+                        .description("Calls rejected by Azure OpenAI with 429")
+                        .tag("agent", permit.agent())
+                        .register(meterRegistry)
+                        .increment();
+            } else if (latency > latencyBackoffNanos) {
+                decrease(now, LATENCY_BACKOFF, "latency " + TimeUnit.NANOSECONDS.toMillis(latency) + " ms");
+            } else if (error == null && limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a waiter for the workload's flow with its fair queuing tags; called with the lock held.
+     */
+    private Waiter enqueue(LlmWorkload workload, int cost) {
+        String flow = workload.getTenant() + "/" + workload.getPriority();
+        double weight = priorityWeights.get(workload.getPriority())
+                * tenantWeights.getOrDefault(workload.getTenant(), 1.0);
+        double startTag = Math.max(virtualTime, flowFinishTags.getOrDefault(flow, 0.0));
+        double finishTag = startTag + Math.max(1, cost) / Math.max(weight, 0.001);
+        if (flowFinishTags.size() > 1_000) {
+            // Flows that fell behind the virtual clock would start from it anyway
+            flowFinishTags.values().removeIf(tag -> tag <= virtualTime);
+        }
+        flowFinishTags.put(flow, finishTag);
+        Waiter waiter = new Waiter(workload.getTenant(), workload.getPriority(), startTag, finishTag);
+        queue.add(waiter);
+        return waiter;
+    }
+
+    /**
+     * @return The queued waiter with the earliest finish tag whose tenant is under its in-flight
+     *         cap, or null; called with the lock held
+     */
+    private Waiter nextEligible() {
+        Waiter next = null;
+        for (Waiter waiter : queue) {
+            if (tenantInFlight.getOrDefault(waiter.tenant(), 0) >= tenantMaxInFlight) {
+                continue;
+            }
+            if (next == null || waiter.finishTag() < next.finishTag()) {
+                next = waiter;
+            }
+        }
+        return next;
+    }
+
+    private void decrease(long now, double factor, String reason) {
+        // One decrease per cooldown, so a burst of failures from the same overload counts once
+        if (now - lastDecreaseNanos < DECREASE_COOLDOWN_NANOS) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        double previous = limit;
+        limit = Math.max(minLimit, limit * factor);
+        logger.warn("LLM concurrency limit {} -> {} ({})", String.format("%.1f", previous), String.format("%.1f", limit), reason);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(tokensPerMinute, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+
+    private long estimatedWaitMillis(int cost) {
+        double deficit = Math.max(0, cost - tokens);
+        long pause = Math.max(0, pausedUntilNanos - System.nanoTime());
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(pause, (long) (deficit / tokensPerNano)) + TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private void reject(String agent, String reason) {
+        Counter.builder("marchina.llm.limiter.rejected")
+                .description("LLM calls rejected by the limiter (queue_full, timeout)")
+                .tag("agent", agent)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+}
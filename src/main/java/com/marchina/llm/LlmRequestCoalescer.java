@@ -0,0 +1,146 @@
+package com.marchina.llm;
+
+import com.marchina.deadline.Deadline;
+import com.marchina.deadline.DeadlineExceededException;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.output.Response;
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight coalescing of identical LLM prompts.
+ * The first caller for a {@link PromptKey} runs the request; concurrent callers with the same key
+ * wait for and share its result. The entry is removed once the leader finishes, so a retry always
+ * reaches the model. Callers that opt in can also join a result completed within
+ * LLM_COALESCE_WINDOW_MS (default off) to absorb double-submits.
+ */
+@Component
+public class LlmRequestCoalescer {
+    private static final Logger logger = LoggerFactory.getLogger(LlmRequestCoalescer.class);
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final long joinWindowMillis;
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    private static final class InFlight {
+        final CompletableFuture<Response<AiMessage>> future = new CompletableFuture<>();
+        volatile long completedAt;
+
+        boolean isCompleted() {
+            return completedAt != 0;
+        }
+
+        boolean isExpired(long now, long joinWindowMillis) {
+            return isCompleted() && now - completedAt > joinWindowMillis;
+        }
+    }
+
+    public LlmRequestCoalescer(Dotenv dotenv, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = Boolean.parseBoolean(dotenv.get("LLM_COALESCE_ENABLED", "true"));
+        this.joinWindowMillis = Long.parseLong(dotenv.get("LLM_COALESCE_WINDOW_MS", "0"));
+        meterRegistry.gaugeMapSize("marchina.llm.coalesce.inflight", Tags.empty(), inFlight);
+        logger.info("LLM request coalescing enabled: {}, join window: {} ms", enabled, joinWindowMillis);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs the request unless an identical one is in flight, in which case its result is returned
+     * instead. Failures are propagated to every waiting caller and are never shared with later callers.
+     *
+     * @param joinCompleted Whether a result completed within the join window may be returned too.
+     *                      Must be false for callers that retry until the response passes validation,
+     *                      or every retry would get the rejected response back.
+     */
+    public Response<AiMessage> execute(String agent, String key, boolean joinCompleted, Supplier<Response<AiMessage>> request) {
+        while (true) {
+            InFlight mine = new InFlight();
+            InFlight existing = inFlight.putIfAbsent(key, mine);
+
+            if (existing == null) {
+                recordRequest(agent, "leader");
+                return lead(key, mine, joinCompleted, request);
+            }
+
+            if (joinCompleted ? existing.isExpired(System.currentTimeMillis(), joinWindowMillis) : existing.isCompleted()) {
+                inFlight.remove(key, existing);
+                continue;
+            }
+
+            recordRequest(agent, "joined");
+            logger.debug("Agent {} joined in-flight LLM request {}", agent, key);
+            Deadline deadline = Deadline.current().orElse(null);
+            try {
+                return deadline == null
+                        ? existing.future.join()
+                        : existing.future.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+            } catch (CompletionException | ExecutionException e) {
+                if (e.getCause() instanceof DeadlineExceededException) {
+                    continue; // The leader ran out of its own budget, not ours
+                }
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw new CompletionException(e.getCause());
+            } catch (TimeoutException e) {
+                throw deadline.exceeded("llm.coalesced");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for in-flight LLM request");
+            }
+        }
+    }
+
+    private Response<AiMessage> lead(String key, InFlight mine, boolean joinCompleted, Supplier<Response<AiMessage>> request) {
+        Response<AiMessage> response;
+        try {
+            response = request.get();
+        } catch (Throwable e) {
+            // Errors too: joiners wait on this future and would otherwise block forever
+            inFlight.remove(key, mine);
+            mine.future.completeExceptionally(e);
+            throw e;
+        }
+
+        mine.completedAt = System.currentTimeMillis();
+        mine.future.complete(response);
+        if (!joinCompleted || joinWindowMillis <= 0) {
+            inFlight.remove(key, mine);
+        } else {
+            long now = System.currentTimeMillis();
+            inFlight.values().removeIf(entry -> entry.isExpired(now, joinWindowMillis));
+        }
+        return response;
+    }
+
+    private void recordRequest(String agent, String outcome) {
+        Counter.builder("marchina.llm.coalesce.requests")
+                .description("LLM calls that led a request or joined an identical in-flight one")
+                .tag("agent", agent)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,225 @@
+package com.marchina.llm;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Two-tier cache for LLM responses keyed by {@link PromptKey}.
+ * The first tier is a bounded in-memory LRU with a TTL; the second tier is a Postgres table
+ * that survives restarts and is shared between pods.
+ */
+@Component
+public class LlmResponseCache {
+    private static final Logger logger = LoggerFactory.getLogger(LlmResponseCache.class);
+    private static final int PURGE_EVERY_N_WRITES = 200;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private final boolean enabled;
+    private final boolean databaseEnabled;
+    private final int maxEntries;
+    private final Duration memoryTtl;
+    private final Duration databaseTtl;
+    private final Set<String> disabledAgents;
+    private final AtomicLong writes = new AtomicLong();
+
+    private final Map<String, CacheEntry> memory;
+
+    private record CacheEntry(String response, Instant expiresAt) {
+        boolean isExpired() {
+            return Instant.now().isAfter(expiresAt);
+        }
+    }
+
+    public LlmResponseCache(JdbcTemplate jdbcTemplate, Dotenv dotenv, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+
+        this.enabled = Boolean.parseBoolean(dotenv.get("LLM_CACHE_ENABLED", "true"));
+        this.databaseEnabled = Boolean.parseBoolean(dotenv.get("LLM_CACHE_DB_ENABLED", "true"));
+        this.maxEntries = Integer.parseInt(dotenv.get("LLM_CACHE_MAX_ENTRIES", "500"));
+        this.memoryTtl = Duration.ofMinutes(Long.parseLong(dotenv.get("LLM_CACHE_TTL_MINUTES", "60")));
+        this.databaseTtl = Duration.ofHours(Long.parseLong(dotenv.get("LLM_CACHE_DB_TTL_HOURS", "168")));
+        this.disabledAgents = Arrays.stream(dotenv.get("LLM_CACHE_DISABLED_AGENTS", "voice").split(","))
+                .map(String::trim)
+                .filter(agent -> !agent.isEmpty())
+                .map(String::toLowerCase)
+                .collect(Collectors.toSet());
+
+        // Access-ordered map gives us LRU eviction once maxEntries is exceeded
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > maxEntries) {
+                    recordEviction("size");
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        meterRegistry.gauge("marchina.llm.cache.size", memory, map -> {
+            synchronized (map) {
+                return map.size();
+            }
+        });
+
+        logger.info("LLM response cache enabled: {}, database tier: {}, max entries: {}, memory TTL: {}, disabled agents: {}",
+                enabled, databaseEnabled, maxEntries, memoryTtl, disabledAgents);
+
+        if (enabled && databaseEnabled) {
+            initializeTable();
+        }
+    }
+
+    private void initializeTable() {
+        try {
+            String sql = """
+                CREATE TABLE IF NOT EXISTS "LlmResponseCache" (
+                    cache_key VARCHAR(64) PRIMARY KEY,
+                    agent VARCHAR(64) NOT NULL,
+                    response TEXT NOT NULL,
+                    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+                    expires_at TIMESTAMP NOT NULL
+                )
+            """;
+            jdbcTemplate.execute(sql);
+        } catch (Exception e) {
+            logger.error("Failed to initialize LLM response cache table: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param agent The agent name as passed to {@link ChatModelProvider#forAgent(String)}
+     * @return true if responses for this agent should be cached
+     */
+    public boolean isEnabledFor(String agent) {
+        return enabled && !disabledAgents.contains(agent.toLowerCase());
+    }
+
+    /**
+     * Looks up a response, checking the memory tier first and then Postgres.
+     * A database hit is promoted into the memory tier.
+     */
+    public Optional<String> get(String agent, String key) {
+        synchronized (memory) {
+            CacheEntry entry = memory.get(key);
+            if (entry != null) {
+                if (!entry.isExpired()) {
+                    recordRequest(agent, "memory");
+                    return Optional.of(entry.response());
+                }
+                memory.remove(key);
+                recordEviction("expired");
+            }
+        }
+
+        if (databaseEnabled) {
+            try {
+                String sql = """
+                    SELECT response FROM "LlmResponseCache"
+                    WHERE cache_key = ? AND expires_at > NOW()
+                """;
+                List<String> rows = jdbcTemplate.queryForList(sql, String.class, key);
+                if (!rows.isEmpty()) {
+                    String response = rows.get(0);
+                    putInMemory(key, response);
+                    recordRequest(agent, "database");
+                    return Optional.of(response);
+                }
+            } catch (Exception e) {
+                logger.warn("LLM cache database lookup failed for agent {}: {}", agent, e.getMessage());
+            }
+        }
+
+        recordRequest(agent, "miss");
+        return Optional.empty();
+    }
+
+    /**
+     * Stores a response in both tiers. Database failures are logged and otherwise ignored.
+     */
+    public void put(String agent, String key, String response) {
+        if (response == null || response.isBlank()) {
+            return;
+        }
+        putInMemory(key, response);
+
+        if (databaseEnabled) {
+            try {
+                String sql = """
+                    INSERT INTO "LlmResponseCache" (cache_key, agent, response, expires_at)
+                    VALUES (?, ?, ?, ?)
+                    ON CONFLICT (cache_key) DO UPDATE
+                    SET response = EXCLUDED.response, expires_at = EXCLUDED.expires_at
+                """;
+                jdbcTemplate.update(sql, key, agent, response, Timestamp.from(Instant.now().plus(databaseTtl)));
+
+                if (writes.incrementAndGet() % PURGE_EVERY_N_WRITES == 0) {
+                    int purged = jdbcTemplate.update("DELETE FROM \"LlmResponseCache\" WHERE expires_at < NOW()");
+                    logger.debug("Purged {} expired rows from LLM response cache", purged);
+                }
+            } catch (Exception e) {
+                logger.warn("LLM cache database write failed for agent {}: {}", agent, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Removes a response from both tiers. Database failures are logged and otherwise ignored.
+     */
+    public void evict(String agent, String key) {
+        synchronized (memory) {
+            memory.remove(key);
+        }
+        recordEviction("invalid");
+
+        if (databaseEnabled) {
+            try {
+                jdbcTemplate.update("DELETE FROM \"LlmResponseCache\" WHERE cache_key = ?", key);
+            } catch (Exception e) {
+                logger.warn("LLM cache database delete failed for agent {}: {}", agent, e.getMessage());
+            }
+        }
+    }
+
+    private void putInMemory(String key, String response) {
+        synchronized (memory) {
+            memory.put(key, new CacheEntry(response, Instant.now().plus(memoryTtl)));
+        }
+    }
+
+    private void recordRequest(String agent, String tier) {
+        Counter.builder("marchina.llm.cache.requests")
+                .description("LLM response cache lookups by tier (memory, database or miss)")
+                .tag("agent", agent)
+                .tag("tier", tier)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private void recordEviction(String reason) {
+        Counter.builder("marchina.llm.cache.evictions")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+}
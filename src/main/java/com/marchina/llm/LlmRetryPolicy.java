@@ -0,0 +1,93 @@
+package com.marchina.llm;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Transport-level retry settings and the retry budget shared by every {@link RetryingChatLanguageModel}.
+ *
+ * Throttled and transient failures (see {@link AzureErrors#classify}) are retried up to
+ * LLM_RETRY_MAX_ATTEMPTS calls in total, waiting with decorrelated jitter between
+ * LLM_RETRY_BASE_DELAY_MS and LLM_RETRY_MAX_DELAY_MS, and never less than the Retry-After Azure
+ * asked for. Each retry spends one unit of a global budget that every call refills by
+ * LLM_RETRY_BUDGET_RATIO, so an outage cannot multiply the load on the deployment.
+ *
+ * These retries are counted in marchina.llm.retry, apart from the agents' validation retries.
+ */
+@Component
+public class LlmRetryPolicy {
+    private static final Logger logger = LoggerFactory.getLogger(LlmRetryPolicy.class);
+    private static final double MAX_BUDGET = 10;
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double budgetRatio;
+    private double budget = MAX_BUDGET;
+
+    public LlmRetryPolicy(Dotenv dotenv, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = Boolean.parseBoolean(dotenv.get("LLM_RETRY_ENABLED", "true"));
+        this.maxAttempts = Math.max(1, Integer.parseInt(dotenv.get("LLM_RETRY_MAX_ATTEMPTS", "4")));
+        this.baseDelayMillis = Math.max(1, Long.parseLong(dotenv.get("LLM_RETRY_BASE_DELAY_MS", "500")));
+        this.maxDelayMillis = Math.max(baseDelayMillis, Long.parseLong(dotenv.get("LLM_RETRY_MAX_DELAY_MS", "20000")));
+        this.budgetRatio = Double.parseDouble(dotenv.get("LLM_RETRY_BUDGET_RATIO", "0.1"));
+        logger.info("LLM retries enabled: {}, max attempts: {}, delay: {}-{} ms, budget ratio: {}",
+                enabled, maxAttempts, baseDelayMillis, maxDelayMillis, budgetRatio);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Delay before the next attempt: decorrelated jitter, i.e. uniform between the base delay and
+     * three times the previous delay (or the base delay), capped; a Retry-After hint is honoured with a little jitter
+     * on top so throttled callers do not all come back at the same instant.
+     *
+     * @param previousDelayMillis Delay before the previous attempt, 0 for the first retry
+     * @param retryAfterMillis    Azure's hint, or -1 if the response carried none
+     */
+    long nextDelay(long previousDelayMillis, long retryAfterMillis) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (retryAfterMillis > 0) {
+            return retryAfterMillis + random.nextLong(baseDelayMillis);
+        }
+        long upper = Math.min(maxDelayMillis, Math.max(baseDelayMillis, previousDelayMillis) * 3);
+        return random.nextLong(baseDelayMillis, upper + 1);
+    }
+
+    synchronized void onCall() {
+        budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+    }
+
+    synchronized boolean tryRetry() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    void record(String agent, LlmErrorKind kind, String outcome) {
+        Counter.builder("marchina.llm.retry")
+                .description("Transport-level LLM retries by error kind and outcome (retried, exhausted, budget, deadline)")
+                .tag("agent", agent)
+                .tag("kind", kind.name().toLowerCase())
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
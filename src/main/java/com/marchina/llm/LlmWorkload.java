@@ -0,0 +1,121 @@
+package com.marchina.llm;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Who an LLM call is made for (the tenant) and its {@link LlmPriority}, used by
+ * {@link LlmRateLimiter} to share the deployment fairly between users.
+ *
+ * Like a deadline, the workload is attached to the thread serving a request or job and travels
+ * with work handed to other executors via {@link #propagate}. Calls made without one are
+ * scheduled as the "system" tenant at {@link LlmPriority#STANDARD}.
+ */
+public final class LlmWorkload {
+    private static final ThreadLocal<LlmWorkload> CURRENT = new ThreadLocal<>();
+    private static final LlmWorkload DEFAULT = new LlmWorkload("system", LlmPriority.STANDARD);
+
+    /**
+     * Tenant of the shared guest account, whose projects are created without signing in.
+     */
+    public static final String GUEST = "guest";
+    public static final String ANONYMOUS = "anonymous";
+
+    private final String tenant;
+    private final LlmPriority priority;
+
+    /**
+     * Restores the previously attached workload when closed.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private LlmWorkload(String tenant, LlmPriority priority) {
+        this.tenant = tenant;
+        this.priority = priority;
+    }
+
+    public static LlmWorkload of(String tenant, LlmPriority priority) {
+        return new LlmWorkload(tenant, priority);
+    }
+
+    /**
+     * @param userId The JWT userId claim or Users.id
+     */
+    public static LlmWorkload forUser(Object userId, LlmPriority priority) {
+        return new LlmWorkload(userId == null ? ANONYMOUS : "user:" + userId, priority);
+    }
+
+    /**
+     * @return The workload attached to the current thread, or the system default
+     */
+    public static LlmWorkload current() {
+        LlmWorkload workload = CURRENT.get();
+        return workload != null ? workload : DEFAULT;
+    }
+
+    public LlmWorkload withPriority(LlmPriority priority) {
+        return new LlmWorkload(tenant, priority);
+    }
+
+    public LlmWorkload withTenant(String tenant) {
+        return new LlmWorkload(tenant, priority);
+    }
+
+    /**
+     * Attaches this workload to the current thread until the returned scope is closed.
+     */
+    public Scope attach() {
+        LlmWorkload previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps a task so it runs under the caller's workload on whichever thread executes it.
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        LlmWorkload workload = CURRENT.get();
+        if (workload == null) {
+            return task;
+        }
+        return () -> {
+            try (Scope ignored = workload.attach()) {
+                return task.call();
+            }
+        };
+    }
+
+    public static <T> Supplier<T> propagate(Supplier<T> task) {
+        LlmWorkload workload = CURRENT.get();
+        if (workload == null) {
+            return task;
+        }
+        return () -> {
+            try (Scope ignored = workload.attach()) {
+                return task.get();
+            }
+        };
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public LlmPriority getPriority() {
+        return priority;
+    }
+
+    @Override
+    public String toString() {
+        return tenant + "/" + priority;
+    }
+}
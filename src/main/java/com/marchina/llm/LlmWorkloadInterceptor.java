@@ -0,0 +1,61 @@
+package com.marchina.llm;
+
+import com.marchina.config.JwtConfig.JwtService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.util.Map;
+
+/**
+ * Attaches an {@link LlmWorkload} for the caller's JWT userId to the servlet thread, so LLM calls
+ * made while serving the request are scheduled as that user's. Requests without a valid token
+ * share the anonymous tenant.
+ */
+@Component
+public class LlmWorkloadInterceptor implements AsyncHandlerInterceptor {
+    private static final String SCOPE_ATTRIBUTE = LlmWorkloadInterceptor.class.getName() + ".scope";
+
+    private final JwtService jwtService;
+
+    public LlmWorkloadInterceptor(JwtService jwtService) {
+        this.jwtService = jwtService;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        LlmWorkload workload = LlmWorkload.forUser(userId(request.getHeader("Authorization")), LlmPriority.STANDARD);
+        request.setAttribute(SCOPE_ATTRIBUTE, workload.attach());
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        detach(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        detach(request);
+    }
+
+    private Object userId(String authHeader) {
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return null;
+        }
+        try {
+            Map<String, Object> claims = jwtService.extractAllClaims(authHeader.replace("Bearer ", ""));
+            return claims.get("userId");
+        } catch (Exception e) {
+            return null; // The controller rejects the token; it only matters here for scheduling
+        }
+    }
+
+    private void detach(HttpServletRequest request) {
+        if (request.getAttribute(SCOPE_ATTRIBUTE) instanceof LlmWorkload.Scope scope) {
+            request.removeAttribute(SCOPE_ATTRIBUTE);
+            scope.close();
+        }
+    }
+}
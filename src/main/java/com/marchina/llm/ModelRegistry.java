@@ -0,0 +1,118 @@
+package com.marchina.llm;
+
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import io.github.cdimascio.dotenv.Dotenv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the deployment and sampling settings for each {@link ModelTask} and builds the
+ * underlying Azure OpenAI models.
+ *
+ * Each task reads MODEL_&lt;TASK&gt;_DEPLOYMENT (default AZURE_OPENAI_DEPLOYMENT_ID),
+ * MODEL_&lt;TASK&gt;_TEMPERATURE, MODEL_&lt;TASK&gt;_MAX_TOKENS and MODEL_&lt;TASK&gt;_TIMEOUT_SECONDS;
+ * a max tokens or timeout of 0 means no limit. Tasks that resolve to the same spec share one
+ * client, and the default spec reuses the application's chat model beans.
+ */
+@Component
+public class ModelRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(ModelRegistry.class);
+
+    private final ModelSpec defaultSpec;
+    private final AzureChatModelFactory chatModelFactory;
+    private final Map<ModelTask, ModelSpec> specs = new EnumMap<>(ModelTask.class);
+    private final Map<ModelSpec, ChatLanguageModel> chatModels = new ConcurrentHashMap<>();
+    private final Map<ModelSpec, ChatLanguageModel> fallbackChatModels = new ConcurrentHashMap<>();
+    private final Map<ModelSpec, StreamingChatLanguageModel> streamingModels = new ConcurrentHashMap<>();
+
+    public ModelRegistry(Dotenv dotenv,
+                         ModelSpec chatModelSpec,
+                         ChatLanguageModel chatModel,
+                         StreamingChatLanguageModel streamingChatModel,
+                         AzureChatModelFactory chatModelFactory) {
+        this.defaultSpec = chatModelSpec;
+        this.chatModelFactory = chatModelFactory;
+        chatModels.put(chatModelSpec, chatModel);
+        streamingModels.put(chatModelSpec, streamingChatModel);
+
+        for (ModelTask task : ModelTask.values()) {
+            ModelSpec spec = resolve(dotenv, task);
+            specs.put(task, spec);
+            logger.info("Model for {} tasks: deployment {}, temperature {}, max tokens {}, timeout {}",
+                    task, spec.deploymentName(), spec.temperature(),
+                    spec.maxTokens() == null ? "default" : spec.maxTokens(),
+                    spec.timeout() == null ? "default" : spec.timeout().toSeconds() + " s");
+        }
+    }
+
+    private ModelSpec resolve(Dotenv dotenv, ModelTask task) {
+        String prefix = task.configPrefix();
+        String deployment = dotenv.get(prefix + "DEPLOYMENT", defaultSpec.deploymentName());
+        double temperature = Double.parseDouble(dotenv.get(prefix + "TEMPERATURE",
+                String.valueOf(task.getDefaultTemperature())));
+        Integer maxTokens = positiveOrNull(dotenv.get(prefix + "MAX_TOKENS",
+                String.valueOf(task.getDefaultMaxTokens())));
+        Integer timeoutSeconds = positiveOrNull(dotenv.get(prefix + "TIMEOUT_SECONDS",
+                String.valueOf(task.getDefaultTimeoutSeconds())));
+        return new ModelSpec(deployment, temperature, maxTokens,
+                timeoutSeconds == null ? null : Duration.ofSeconds(timeoutSeconds));
+    }
+
+    private static Integer positiveOrNull(String value) {
+        if (value == null || value.isBlank() || value.equals("null")) {
+            return null;
+        }
+        int parsed = Integer.parseInt(value.trim());
+        return parsed > 0 ? parsed : null;
+    }
+
+    /**
+     * @return The deployment and sampling settings configured for the task
+     */
+    public ModelSpec spec(ModelTask task) {
+        return specs.get(task);
+    }
+
+    /**
+     * @return The raw, undecorated chat model for the spec, built on first use
+     */
+    public ChatLanguageModel chatModel(ModelSpec spec) {
+        return chatModels.computeIfAbsent(spec, chatModelFactory::create);
+    }
+
+    /**
+     * @return The raw chat model for the spec on the fallback deployment, if one is configured
+     */
+    public Optional<ChatLanguageModel> fallbackChatModel(ModelSpec spec) {
+        if (!chatModelFactory.hasFallback()) {
+            return Optional.empty();
+        }
+        return Optional.of(fallbackChatModels.computeIfAbsent(spec, chatModelFactory::createFallback));
+    }
+
+    /**
+     * @return Names identifying the primary and fallback deployments serving the spec
+     */
+    public String deploymentName(ModelSpec spec) {
+        return chatModelFactory.deploymentName(spec);
+    }
+
+    public String fallbackDeploymentName(ModelSpec spec) {
+        return chatModelFactory.fallbackDeploymentName(spec);
+    }
+
+    /**
+     * @return The raw, undecorated streaming chat model for the spec, built on first use
+     */
+    public StreamingChatLanguageModel streamingModel(ModelSpec spec) {
+        return streamingModels.computeIfAbsent(spec, chatModelFactory::createStreaming);
+    }
+}
@@ -0,0 +1,37 @@
+package com.marchina.llm;
+
+import java.time.Duration;
+
+/**
+ * Describes the Azure OpenAI deployment and sampling settings behind a chat model.
+ * Used to keep cache keys and metrics distinct per deployment/temperature.
+ */
+public record ModelSpec(
+    String deploymentName, // Azure OpenAI deployment id
+    double temperature,    // Sampling temperature the model was built with
+    Integer maxTokens,     // Completion token cap, or null for the deployment default
+    Duration timeout       // Request timeout, or null for the client default
+) {
+
+    public ModelSpec(String deploymentName, double temperature) {
+        this(deploymentName, temperature, null, null);
+    }
+
+    /**
+     * @return The same deployment and limits at another temperature
+     */
+    public ModelSpec withTemperature(double temperature) {
+        return new ModelSpec(deploymentName, temperature, maxTokens, timeout);
+    }
+
+    /**
+     * The timeout only bounds how long we wait, so it does not change what the model returns
+     * and is left out; a token cap can truncate the response and is included.
+     *
+     * @return A stable string identifying this deployment/temperature pair.
+     */
+    public String fingerprint() {
+        String fingerprint = deploymentName + "@" + temperature;
+        return maxTokens == null ? fingerprint : fingerprint + "/" + maxTokens;
+    }
+}
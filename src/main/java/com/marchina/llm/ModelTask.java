@@ -0,0 +1,53 @@
+package com.marchina.llm;
+
+/**
+ * The kinds of work agents ask the LLM to do, each of which can be served by its own deployment.
+ *
+ * Short, latency-sensitive tasks (routing, naming, validation) default to deterministic sampling
+ * and a small completion budget; generation keeps the original deployment settings. Every default
+ * can be overridden with MODEL_&lt;TASK&gt;_DEPLOYMENT, _TEMPERATURE, _MAX_TOKENS and
+ * _TIMEOUT_SECONDS, see {@link ModelRegistry}.
+ */
+public enum ModelTask {
+    /** One-word decisions such as which agent or diagram type to use. */
+    ROUTING(0.0, 32, 15),
+    /** Short names extracted from free text, e.g. a project name. */
+    NAMING(0.3, 64, 15),
+    /** Reviews that answer 'valid' or a short list of problems. */
+    VALIDATION(0.0, 512, 30),
+    /** Diagrams, requirements and repairs; unbounded output on the default deployment. */
+    GENERATION(0.7, null, null),
+    /** Prose explanations of a generated diagram. */
+    EXPLANATION(0.5, 1500, 60),
+    /** Conversational replies in the voice assistant. */
+    CONVERSATION(0.7, 1000, 30);
+
+    private final double defaultTemperature;
+    private final Integer defaultMaxTokens;
+    private final Integer defaultTimeoutSeconds;
+
+    ModelTask(double defaultTemperature, Integer defaultMaxTokens, Integer defaultTimeoutSeconds) {
+        this.defaultTemperature = defaultTemperature;
+        this.defaultMaxTokens = defaultMaxTokens;
+        this.defaultTimeoutSeconds = defaultTimeoutSeconds;
+    }
+
+    /**
+     * @return The prefix of this task's environment variables, e.g. "MODEL_ROUTING_"
+     */
+    public String configPrefix() {
+        return "MODEL_" + name() + "_";
+    }
+
+    public double getDefaultTemperature() {
+        return defaultTemperature;
+    }
+
+    public Integer getDefaultMaxTokens() {
+        return defaultMaxTokens;
+    }
+
+    public Integer getDefaultTimeoutSeconds() {
+        return defaultTimeoutSeconds;
+    }
+}
@@ -0,0 +1,43 @@
+package com.marchina.llm;
+
+import dev.langchain4j.data.message.ChatMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Content-addressed keys for LLM prompts.
+ * The key covers the deployment, temperature and every message, so two prompts share a key
+ * only when the model would see exactly the same request.
+ */
+public final class PromptKey {
+
+    private PromptKey() {
+    }
+
+    /**
+     * Computes the SHA-256 key for a prompt sent to the given model.
+     *
+     * @param spec     The deployment/temperature the prompt is sent to
+     * @param messages The chat messages making up the prompt
+     * @return Hex encoded SHA-256 digest
+     */
+    public static String of(ModelSpec spec, List<ChatMessage> messages) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(spec.fingerprint().getBytes(StandardCharsets.UTF_8));
+            for (ChatMessage message : messages) {
+                digest.update((byte) 0);
+                digest.update(message.type().name().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(message.text().getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.marchina.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+
+/**
+ * Chat model decorator that admits each call through the shared {@link LlmRateLimiter} and
+ * reports its outcome back, so the limiter can adapt to 429s and latency.
+ * A 429 from Azure OpenAI surfaces as {@link LlmCapacityException} rather than a generic failure.
+ *
+ * The permit is held until the Azure call itself ends, not until the caller stops waiting, so calls
+ * abandoned at their deadline still count against the concurrency limit while they run.
+ */
+public class RateLimitedChatLanguageModel extends ForwardingChatLanguageModel {
+    private final DeadlineChatLanguageModel bounded;
+    private final LlmRateLimiter limiter;
+    private final String agent;
+
+    public RateLimitedChatLanguageModel(DeadlineChatLanguageModel delegate, LlmRateLimiter limiter, String agent) {
+        super(delegate);
+        this.bounded = delegate;
+        this.limiter = limiter;
+        this.agent = agent;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        LlmRateLimiter.Permit permit = limiter.acquire(agent, limiter.estimateTokens(messages));
+        try {
+            return bounded.generate(messages, (response, error) ->
+                    limiter.release(permit, error == null ? totalTokens(response) : -1, error));
+        } catch (RuntimeException e) {
+            throw throttledOr(e);
+        }
+    }
+
+    static int totalTokens(Response<AiMessage> response) {
+        if (response == null || response.tokenUsage() == null || response.tokenUsage().totalTokenCount() == null) {
+            return -1;
+        }
+        return response.tokenUsage().totalTokenCount();
+    }
+
+    static RuntimeException throttledOr(RuntimeException error) {
+        if (error instanceof LlmCapacityException || !AzureErrors.isThrottled(error)) {
+            return error;
+        }
+        long retryAfter = AzureErrors.retryAfterMillis(error);
+        return new LlmCapacityException("Azure OpenAI rate limit exceeded", retryAfter > 0 ? retryAfter : 1000, error);
+    }
+}
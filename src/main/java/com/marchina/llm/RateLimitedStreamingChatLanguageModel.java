@@ -0,0 +1,76 @@
+package com.marchina.llm;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streaming counterpart of {@link RateLimitedChatLanguageModel}.
+ * The permit is held until the stream completes or fails, since the call occupies the
+ * deployment for its whole duration.
+ */
+public class RateLimitedStreamingChatLanguageModel implements StreamingChatLanguageModel {
+    private final StreamingChatLanguageModel delegate;
+    private final LlmRateLimiter limiter;
+    private final String agent;
+
+    public RateLimitedStreamingChatLanguageModel(StreamingChatLanguageModel delegate, LlmRateLimiter limiter, String agent) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.agent = agent;
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        LlmRateLimiter.Permit permit = limiter.acquire(agent, limiter.estimateTokens(messages));
+        AtomicBoolean released = new AtomicBoolean();
+        try {
+            delegate.generate(messages, new StreamingResponseHandler<>() {
+                @Override
+                public void onNext(String token) {
+                    handler.onNext(token);
+                }
+
+                @Override
+                public void onComplete(Response<AiMessage> response) {
+                    if (released.compareAndSet(false, true)) {
+                        limiter.release(permit, RateLimitedChatLanguageModel.totalTokens(response), null);
+                    }
+                    handler.onComplete(response);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    if (released.compareAndSet(false, true)) {
+                        limiter.release(permit, -1, error);
+                    }
+                    handler.onError(error instanceof RuntimeException runtime
+                            ? RateLimitedChatLanguageModel.throttledOr(runtime) : error);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (released.compareAndSet(false, true)) {
+                limiter.release(permit, -1, e);
+            }
+            throw RateLimitedChatLanguageModel.throttledOr(e);
+        }
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications,
+                         StreamingResponseHandler<AiMessage> handler) {
+        delegate.generate(messages, toolSpecifications, handler);
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, ToolSpecification toolSpecification,
+                         StreamingResponseHandler<AiMessage> handler) {
+        delegate.generate(messages, toolSpecification, handler);
+    }
+}
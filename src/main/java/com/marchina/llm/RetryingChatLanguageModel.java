@@ -0,0 +1,72 @@
+package com.marchina.llm;
+
+import com.marchina.deadline.Deadline;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Chat model decorator that retries throttled and transient failures under the shared
+ * {@link LlmRetryPolicy}. Sits above the rate limiter, so every retry is admitted again and the
+ * limiter sees each 429. A retry is skipped when its wait would outlast the caller's deadline.
+ */
+public class RetryingChatLanguageModel extends ForwardingChatLanguageModel {
+    private static final Logger logger = LoggerFactory.getLogger(RetryingChatLanguageModel.class);
+
+    private final LlmRetryPolicy policy;
+    private final String agent;
+
+    public RetryingChatLanguageModel(ChatLanguageModel delegate, LlmRetryPolicy policy, String agent) {
+        super(delegate);
+        this.policy = policy;
+        this.agent = agent;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        policy.onCall();
+        long delay = 0;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return delegate.generate(messages);
+            } catch (RuntimeException e) {
+                LlmErrorKind kind = AzureErrors.classify(e);
+                if (kind == LlmErrorKind.PERMANENT) {
+                    throw e;
+                }
+                if (attempt >= policy.getMaxAttempts()) {
+                    policy.record(agent, kind, "exhausted");
+                    throw e;
+                }
+                delay = policy.nextDelay(delay, AzureErrors.retryAfterMillis(e));
+                if (delay >= Deadline.remainingMillis(Long.MAX_VALUE)) {
+                    policy.record(agent, kind, "deadline");
+                    throw e;
+                }
+                if (!policy.tryRetry()) {
+                    policy.record(agent, kind, "budget");
+                    throw e;
+                }
+                policy.record(agent, kind, "retried");
+                logger.warn("LLM call for agent '{}' failed ({}, attempt {} of {}), retrying in {} ms: {}",
+                        agent, kind, attempt, policy.getMaxAttempts(), delay, e.getMessage());
+                pause(delay);
+            }
+        }
+    }
+
+    private void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting to retry LLM call for " + agent);
+        }
+    }
+}
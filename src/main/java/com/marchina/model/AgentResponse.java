@@ -5,6 +5,8 @@ public class AgentResponse {
     private String message;
     private String result;
     private String speechData;
+    private String audioId;
+    private String audioUrl;
 
     public AgentResponse(boolean success, String message) {
         this.success = success;
@@ -59,4 +61,26 @@ public class AgentResponse {
     public void setSpeechData(String speechData) {
         this.speechData = speechData;
     }
+
+    /**
+     * @return Id of the spoken message when it is delivered by link instead of inline, otherwise null
+     */
+    public String getAudioId() {
+        return audioId;
+    }
+
+    public void setAudioId(String audioId) {
+        this.audioId = audioId;
+    }
+
+    /**
+     * @return Path to fetch the spoken message from when it is delivered by link, otherwise null
+     */
+    public String getAudioUrl() {
+        return audioUrl;
+    }
+
+    public void setAudioUrl(String audioUrl) {
+        this.audioUrl = audioUrl;
+    }
 }
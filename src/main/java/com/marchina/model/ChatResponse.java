@@ -3,6 +3,8 @@ package com.marchina.model;
 public class ChatResponse {
     private String response;
     private String audioData;
+    private String audioId;
+    private String audioUrl;
     private Boolean requirementsGathered;
     private final Long projectId;
 
@@ -32,6 +34,28 @@ public class ChatResponse {
         this.audioData = audioData;
     }
 
+    /**
+     * @return Id of the reply's audio when it is delivered by link instead of inline, otherwise null
+     */
+    public String getAudioId() {
+        return audioId;
+    }
+
+    public void setAudioId(String audioId) {
+        this.audioId = audioId;
+    }
+
+    /**
+     * @return Path to fetch the reply's audio from when it is delivered by link, otherwise null
+     */
+    public String getAudioUrl() {
+        return audioUrl;
+    }
+
+    public void setAudioUrl(String audioUrl) {
+        this.audioUrl = audioUrl;
+    }
+
     public Boolean getRequirementsGathered() {
         return requirementsGathered;
     }
@@ -0,0 +1,77 @@
+package com.marchina.model;
+
+/**
+ * One stored version of a project's extracted detailed requirements.
+ */
+public class ProjectRequirements {
+    private Long projectId;
+    private int version;
+    private String requirements;
+    private String contentHash;
+    private RequirementSet requirementSet;
+    private long createdAt;
+
+    public ProjectRequirements() {
+    }
+
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    public void setProjectId(Long projectId) {
+        this.projectId = projectId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public String getRequirements() {
+        return requirements;
+    }
+
+    public void setRequirements(String requirements) {
+        this.requirements = requirements;
+    }
+
+    /**
+     * @return Hex SHA-256 of the requirements text
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return The requirements split by diagram type, or null for versions stored as free text only
+     */
+    public RequirementSet getRequirementSet() {
+        return requirementSet;
+    }
+
+    public void setRequirementSet(RequirementSet requirementSet) {
+        this.requirementSet = requirementSet;
+    }
+
+    /**
+     * @return The structured requirements, or the free text wrapped as an unstructured set
+     */
+    public RequirementSet toRequirementSet() {
+        return requirementSet != null ? requirementSet : RequirementSet.unstructured(requirements);
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+}
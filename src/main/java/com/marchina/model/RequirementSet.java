@@ -1,6 +1,13 @@
 package com.marchina.model;
 
+import java.util.Locale;
+
+/**
+ * Project requirements split by diagram type, so each agent is prompted with the shared overview
+ * plus its own slice instead of the whole text.
+ */
 public class RequirementSet {
+    private String overview;
     private String erdRequirements;
     private String flowchartRequirements;
     private String sequenceDiagramRequirements;
@@ -9,6 +16,69 @@ public class RequirementSet {
     public RequirementSet() {
     }
 
+    /**
+     * @return A set holding free-text requirements as its overview, so every diagram type gets the full text
+     */
+    public static RequirementSet unstructured(String requirements) {
+        RequirementSet requirementSet = new RequirementSet();
+        requirementSet.setOverview(requirements);
+        return requirementSet;
+    }
+
+    /**
+     * Requirements for one diagram type: the overview followed by that type's slice. Falls back to
+     * all requirements when the type is unknown or its slice is empty.
+     *
+     * @param diagramType A diagram type as accepted by MainAgent (ERD, Flowchart, Sequence Diagram, Class Diagram)
+     */
+    public String forDiagramType(String diagramType) {
+        String slice = switch (diagramType == null ? "" : diagramType.toLowerCase(Locale.ROOT)) {
+            case "erd", "entity relationship diagram" -> erdRequirements;
+            case "flowchart", "flow chart" -> flowchartRequirements;
+            case "sequence diagram" -> sequenceDiagramRequirements;
+            case "class diagram" -> classDiagramRequirements;
+            default -> null;
+        };
+        if (isBlank(slice)) {
+            return toDetailedRequirements();
+        }
+        return isBlank(overview) ? slice.strip() : overview.strip() + "\n\n" + slice.strip();
+    }
+
+    /**
+     * @return All requirements as one text, with a heading per diagram type
+     */
+    public String toDetailedRequirements() {
+        StringBuilder text = new StringBuilder(isBlank(overview) ? "" : overview.strip());
+        appendSection(text, "Data entities and relationships", erdRequirements);
+        appendSection(text, "Process flows", flowchartRequirements);
+        appendSection(text, "Interactions", sequenceDiagramRequirements);
+        appendSection(text, "Classes and components", classDiagramRequirements);
+        return text.toString();
+    }
+
+    private static void appendSection(StringBuilder text, String heading, String section) {
+        if (isBlank(section)) {
+            return;
+        }
+        if (text.length() > 0) {
+            text.append("\n\n");
+        }
+        text.append(heading).append(":\n").append(section.strip());
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    public String getOverview() {
+        return overview;
+    }
+
+    public void setOverview(String overview) {
+        this.overview = overview;
+    }
+
     public String getErdRequirements() {
         return erdRequirements;
     }
@@ -40,4 +110,4 @@ public class RequirementSet {
     public void setClassDiagramRequirements(String classDiagramRequirements) {
         this.classDiagramRequirements = classDiagramRequirements;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,481 @@
+package com.marchina.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marchina.agent.DiagramTypeSelector;
+import com.marchina.agent.GenerationStage;
+import com.marchina.agent.MainAgent;
+import com.marchina.agent.ProgressListener;
+import com.marchina.agent.RequirementExtractorAgent;
+import com.marchina.deadline.Deadline;
+import com.marchina.deadline.RequestDeadlines;
+import com.marchina.llm.LlmPriority;
+import com.marchina.llm.LlmWorkload;
+import com.marchina.model.Diagram;
+import com.marchina.model.Job;
+import com.marchina.model.Project;
+import com.marchina.model.ProjectRequirements;
+import com.marchina.model.RequirementSet;
+import io.github.cdimascio.dotenv.Dotenv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs project and diagram generation as background jobs.
+ *
+ * Jobs are persisted in the "Jobs" table before they are queued, executed on the bounded
+ * job executor and report their stage/progress as they go. Jobs left QUEUED or stuck
+ * RUNNING by a pod that died are picked up again by the recovery sweep.
+ *
+ * Stage events can be streamed to clients through {@link SseProgressListener} subscribers.
+ * Subscribers are held in memory, so live events are only delivered by the pod running the job;
+ * clients attached elsewhere receive the persisted snapshot.
+ */
+@Service
+public class DiagramJobService {
+    private static final Logger logger = LoggerFactory.getLogger(DiagramJobService.class);
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final ThreadPoolExecutor jobExecutor;
+    private final MainAgent mainAgent;
+    private final RequirementExtractorAgent requirementExtractorAgent;
+    private final DiagramTypeSelector diagramTypeSelector;
+    private final RequestDeadlines requestDeadlines;
+    private final RequirementStore requirementStore;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final long staleAfterMinutes;
+    private final long streamTimeoutMillis;
+    private final Map<String, List<ProgressListener>> subscribers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService recoveryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "diagram-job-recovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RowMapper<Job> jobRowMapper = (rs, rowNum) -> {
+        Job job = new Job();
+        job.setId(rs.getString("id"));
+        job.setUserId(rs.getLong("user_id"));
+        job.setType(rs.getString("type"));
+        job.setStatus(Job.Status.valueOf(rs.getString("status")));
+        job.setStage(rs.getString("stage"));
+        job.setProgress(rs.getInt("progress"));
+        job.setError(rs.getString("error"));
+        job.setCreatedAt(rs.getTimestamp("created_at").getTime());
+        job.setUpdatedAt(rs.getTimestamp("updated_at").getTime());
+        String result = rs.getString("result");
+        if (result != null) {
+            try {
+                job.setResult(objectMapper.readTree(result));
+            } catch (Exception e) {
+                job.setResult(result);
+            }
+        }
+        return job;
+    };
+
+    private final RowMapper<Project> projectRowMapper = (rs, rowNum) -> {
+        Project project = new Project();
+        project.setId(rs.getLong("id"));
+        project.setUserId(rs.getLong("user_id"));
+        project.setName(rs.getString("name"));
+        project.setDescription(rs.getString("description"));
+        return project;
+    };
+
+    public DiagramJobService(JdbcTemplate jdbcTemplate,
+                             ObjectMapper objectMapper,
+                             @Qualifier("jobExecutor") ThreadPoolExecutor jobExecutor,
+                             MainAgent mainAgent,
+                             RequirementExtractorAgent requirementExtractorAgent,
+                             DiagramTypeSelector diagramTypeSelector,
+                             RequestDeadlines requestDeadlines,
+                             RequirementStore requirementStore,
+                             Dotenv dotenv) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.jobExecutor = jobExecutor;
+        this.mainAgent = mainAgent;
+        this.requirementExtractorAgent = requirementExtractorAgent;
+        this.diagramTypeSelector = diagramTypeSelector;
+        this.requestDeadlines = requestDeadlines;
+        this.requirementStore = requirementStore;
+        this.staleAfterMinutes = Long.parseLong(dotenv.get("JOB_STALE_MINUTES", "10"));
+        this.streamTimeoutMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(dotenv.get("JOB_STREAM_TIMEOUT_SECONDS", "300")));
+        initializeTable();
+        logger.info("DiagramJobService initialized (instance {})", instanceId);
+    }
+
+    private void initializeTable() {
+        try {
+            jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS "Jobs" (
+                    id VARCHAR(36) PRIMARY KEY,
+                    user_id BIGINT NOT NULL,
+                    type VARCHAR(32) NOT NULL,
+                    status VARCHAR(16) NOT NULL,
+                    stage VARCHAR(64),
+                    progress INT NOT NULL DEFAULT 0,
+                    payload TEXT NOT NULL,
+                    result TEXT,
+                    error TEXT,
+                    owner VARCHAR(36),
+                    attempts INT NOT NULL DEFAULT 0,
+                    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+                    updated_at TIMESTAMP NOT NULL DEFAULT NOW()
+                )
+            """);
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS jobs_status_updated_idx ON \"Jobs\" (status, updated_at)");
+        } catch (Exception e) {
+            logger.error("Failed to initialize Jobs table: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Queues requirement extraction and diagram generation for a newly created project. If the
+     * project already has stored requirements (a regeneration, or a job re-run after recovery)
+     * they are used instead of extracting them again.
+     *
+     * @param generateAll Generate all diagram types in parallel instead of the single optimal one
+     * @throws RejectedExecutionException if the job queue is full
+     */
+    public Job submitProjectJob(Long userId, Project project, boolean generateAll) {
+        return submitProjectJob(userId, project, generateAll, ProgressListener.NONE);
+    }
+
+    /**
+     * Same as {@link #submitProjectJob(Long, Project, boolean)} with a listener that receives every
+     * stage event, starting with QUEUED.
+     */
+    public Job submitProjectJob(Long userId, Project project, boolean generateAll, ProgressListener subscriber) {
+        return submitProjectJob(userId, project, generateAll, null, subscriber);
+    }
+
+    /**
+     * Same as {@link #submitProjectJob(Long, Project, boolean, ProgressListener)}, generating the given
+     * diagram type instead of selecting one when it is not null and generateAll is false.
+     */
+    public Job submitProjectJob(Long userId, Project project, boolean generateAll, String diagramType,
+                                ProgressListener subscriber) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("projectId", project.getId());
+        payload.put("generateAll", generateAll);
+        if (diagramType != null) {
+            payload.put("diagramType", diagramType);
+        }
+        return submit(userId, Job.Type.PROJECT, payload, subscriber);
+    }
+
+    /**
+     * Queues generation of a diagram of the given type for an existing project.
+     *
+     * @throws RejectedExecutionException if the job queue is full
+     */
+    public Job submitDiagramJob(Long userId, Project project, String diagramType, String requirement) {
+        return submitDiagramJob(userId, project, diagramType, requirement, ProgressListener.NONE);
+    }
+
+    public Job submitDiagramJob(Long userId, Project project, String diagramType, String requirement,
+                                ProgressListener subscriber) {
+        return submit(userId, Job.Type.DIAGRAM, Map.of(
+                "projectId", project.getId(),
+                "diagramType", diagramType,
+                "requirement", requirement), subscriber);
+    }
+
+    /**
+     * @return A new progress stream using the configured JOB_STREAM_TIMEOUT_SECONDS.
+     */
+    public SseProgressListener openStream() {
+        return new SseProgressListener(streamTimeoutMillis);
+    }
+
+    /**
+     * Attaches a stream to an existing job. The stream first receives a snapshot of the job and then
+     * live stage events if the job is running on this instance.
+     *
+     * @return false if the job does not exist or belongs to another user
+     */
+    public boolean attachStream(String jobId, Long userId, SseProgressListener stream) {
+        // Subscribe before reading the snapshot so a job finishing in between is not missed
+        subscribe(jobId, stream);
+        Optional<Job> job = getJob(jobId, userId);
+        if (job.isEmpty()) {
+            unsubscribe(jobId, stream);
+            return false;
+        }
+        stream.sendSnapshot(job.get());
+        if (stream.isClosed()) {
+            unsubscribe(jobId, stream);
+        }
+        return true;
+    }
+
+    /**
+     * @return The job if it exists and belongs to the user.
+     */
+    public Optional<Job> getJob(String jobId, Long userId) {
+        String sql = """
+            SELECT id, user_id, type, status, stage, progress, result, error, created_at, updated_at
+            FROM "Jobs" WHERE id = ? AND user_id = ?
+        """;
+        return jdbcTemplate.query(sql, jobRowMapper, jobId, userId).stream().findFirst();
+    }
+
+    private void subscribe(String jobId, ProgressListener subscriber) {
+        subscribers.computeIfAbsent(jobId, id -> new CopyOnWriteArrayList<>()).add(subscriber);
+    }
+
+    private void unsubscribe(String jobId, ProgressListener subscriber) {
+        subscribers.computeIfPresent(jobId, (id, list) -> {
+            list.remove(subscriber);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    private Job submit(Long userId, Job.Type type, Map<String, Object> payload, ProgressListener subscriber) {
+        String jobId = UUID.randomUUID().toString();
+        try {
+            jdbcTemplate.update("""
+                INSERT INTO "Jobs" (id, user_id, type, status, stage, payload)
+                VALUES (?, ?, ?, ?, ?, ?)
+            """, jobId, userId, type.name(), Job.Status.QUEUED.name(), GenerationStage.QUEUED.name(), objectMapper.writeValueAsString(payload));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to persist job: " + e.getMessage(), e);
+        }
+
+        if (subscriber != ProgressListener.NONE) {
+            subscribe(jobId, subscriber);
+            subscriber.onProgress(GenerationStage.QUEUED, Map.of("jobId", jobId, "type", type.name()));
+        }
+
+        try {
+            jobExecutor.execute(() -> run(jobId));
+        } catch (RejectedExecutionException e) {
+            subscribers.remove(jobId);
+            logger.warn("Job queue full, rejecting job {}", jobId);
+            markFailed(jobId, "Job queue is full, please retry later");
+            throw e;
+        }
+
+        logger.info("Queued {} job {} for user {}", type, jobId, userId);
+        return getJob(jobId, userId).orElseThrow();
+    }
+
+    private void run(String jobId) {
+        int claimed = jdbcTemplate.update("""
+            UPDATE "Jobs"
+            SET status = ?, owner = ?, attempts = attempts + 1, updated_at = NOW()
+            WHERE id = ? AND status = ?
+        """, Job.Status.RUNNING.name(), instanceId, jobId, Job.Status.QUEUED.name());
+        if (claimed == 0) {
+            logger.debug("Job {} already claimed or finished, skipping", jobId);
+            return;
+        }
+
+        ProgressListener progress = progressListenerFor(jobId);
+        try {
+            Map<String, Object> job = jdbcTemplate.queryForMap("SELECT type, payload FROM \"Jobs\" WHERE id = ?", jobId);
+            @SuppressWarnings("unchecked")
+            Map<String, Object> payload = objectMapper.readValue((String) job.get("payload"), Map.class);
+            Project project = loadProject(((Number) payload.get("projectId")).longValue());
+
+            // Only the generation runs under the job deadline; the bookkeeping below must still succeed once it expires
+            Map<String, Object> result;
+            try (Deadline.Scope ignored = attachJobDeadline();
+                 LlmWorkload.Scope background = LlmWorkload.forUser(project.getUserId(), LlmPriority.BACKGROUND).attach()) {
+                result = switch (Job.Type.valueOf((String) job.get("type"))) {
+                    case PROJECT -> runProjectJob(project, Boolean.TRUE.equals(payload.get("generateAll")),
+                            (String) payload.get("diagramType"), progress);
+                    case DIAGRAM -> runDiagramJob(project, (String) payload.get("diagramType"), (String) payload.get("requirement"), progress);
+                };
+            }
+
+            jdbcTemplate.update("""
+                UPDATE "Jobs"
+                SET status = ?, stage = ?, progress = 100, result = ?, updated_at = NOW()
+                WHERE id = ?
+            """, Job.Status.COMPLETED.name(), GenerationStage.COMPLETED.name(), objectMapper.writeValueAsString(result), jobId);
+            logger.info("Job {} completed", jobId);
+            publish(jobId, GenerationStage.COMPLETED, Map.of("jobId", jobId, "result", result));
+
+        } catch (Exception e) {
+            logger.error("Job {} failed: {}", jobId, e.getMessage(), e);
+            markFailed(jobId, e.getMessage());
+            publish(jobId, GenerationStage.FAILED, Map.of("jobId", jobId, "error", String.valueOf(e.getMessage())));
+        } finally {
+            subscribers.remove(jobId);
+        }
+    }
+
+    private Deadline.Scope attachJobDeadline() {
+        return requestDeadlines.isEnabled() ? requestDeadlines.forJob().attach() : () -> { };
+    }
+
+    /**
+     * Persists each stage on the job row and forwards it to the job's subscribers.
+     */
+    private ProgressListener progressListenerFor(String jobId) {
+        return (stage, details) -> {
+            try {
+                jdbcTemplate.update("UPDATE \"Jobs\" SET stage = ?, progress = GREATEST(progress, ?), updated_at = NOW() WHERE id = ?",
+                        stage.name(), stage.getProgress(), jobId);
+            } catch (Exception e) {
+                logger.warn("Failed to record stage {} for job {}: {}", stage, jobId, e.getMessage());
+            }
+            publish(jobId, stage, details);
+        };
+    }
+
+    private void publish(String jobId, GenerationStage stage, Map<String, Object> details) {
+        List<ProgressListener> listeners = subscribers.get(jobId);
+        if (listeners == null) {
+            return;
+        }
+        for (ProgressListener listener : listeners) {
+            try {
+                listener.onProgress(stage, details);
+            } catch (Exception e) {
+                logger.warn("Progress subscriber for job {} failed: {}", jobId, e.getMessage());
+            }
+        }
+    }
+
+    private Map<String, Object> runProjectJob(Project project, boolean generateAll, String requestedDiagramType,
+                                              ProgressListener progress) {
+        Optional<ProjectRequirements> stored = requirementStore.latest(project.getId());
+        RequirementSet requirementSet;
+        if (stored.isPresent()) {
+            requirementSet = stored.get().toRequirementSet();
+        } else {
+            progress.onProgress(GenerationStage.EXTRACTING_REQUIREMENTS);
+            requirementSet = requirementExtractorAgent.extractRequirementSet(
+                    project.getName(),
+                    project.getDescription()
+            );
+            stored = requirementStore.save(project.getId(), requirementSet);
+        }
+        String detailedRequirements = requirementSet.toDetailedRequirements();
+        progress.onProgress(GenerationStage.REQUIREMENTS_EXTRACTED,
+                Map.of("length", detailedRequirements == null ? 0 : detailedRequirements.length()));
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("project", project);
+        result.put("detailedRequirements", detailedRequirements);
+        stored.ifPresent(requirements -> result.put("requirementsVersion", requirements.getVersion()));
+
+        if (detailedRequirements == null || detailedRequirements.trim().isEmpty()) {
+            logger.warn("Skipping diagram generation for project {} due to empty detailed requirements.", project.getId());
+            return result;
+        }
+
+        if (generateAll) {
+            result.put("diagrams", mainAgent.generateAllDiagrams(project, requirementSet, progress));
+            return result;
+        }
+
+        String diagramType = requestedDiagramType;
+        if (diagramType == null) {
+            progress.onProgress(GenerationStage.SELECTING_DIAGRAM_TYPE);
+            diagramType = diagramTypeSelector.selectDiagramType(detailedRequirements);
+        }
+        result.put("diagramType", diagramType);
+        progress.onProgress(GenerationStage.DIAGRAM_TYPE_SELECTED, Map.of("diagramType", diagramType));
+
+        mainAgent.processRequest(project, diagramType, requirementSet, progress)
+                .ifPresent(diagram -> result.put("diagram", diagram));
+        return result;
+    }
+
+    private Map<String, Object> runDiagramJob(Project project, String diagramType, String requirement,
+                                              ProgressListener progress) {
+        Optional<Diagram> diagram = mainAgent.processRequest(project, diagramType, requirement, progress);
+        if (diagram.isEmpty()) {
+            throw new RuntimeException("Diagram generation completed without result");
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("diagram", diagram.get());
+        return result;
+    }
+
+    private Project loadProject(Long projectId) {
+        String sql = "SELECT id, user_id, name, description FROM \"Projects\" WHERE id = ?";
+        List<Project> projects = jdbcTemplate.query(sql, projectRowMapper, projectId);
+        if (projects.isEmpty()) {
+            throw new IllegalStateException("Project " + projectId + " no longer exists");
+        }
+        return projects.get(0);
+    }
+
+    private void markFailed(String jobId, String error) {
+        try {
+            jdbcTemplate.update("UPDATE \"Jobs\" SET status = ?, stage = ?, error = ?, updated_at = NOW() WHERE id = ?",
+                    Job.Status.FAILED.name(), GenerationStage.FAILED.name(), error, jobId);
+        } catch (Exception e) {
+            logger.error("Failed to mark job {} as failed: {}", jobId, e.getMessage(), e);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startRecovery() {
+        recoveryScheduler.scheduleWithFixedDelay(this::recoverJobs, 0, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Re-queues jobs whose worker disappeared (RUNNING with no progress for JOB_STALE_MINUTES)
+     * and resubmits queued jobs that are not in this instance's executor.
+     */
+    void recoverJobs() {
+        try {
+            int failed = jdbcTemplate.update("""
+                UPDATE "Jobs" SET status = ?, stage = ?, error = ?, updated_at = NOW()
+                WHERE status = ? AND attempts >= ? AND updated_at < NOW() - make_interval(mins => ?)
+            """, Job.Status.FAILED.name(), GenerationStage.FAILED.name(), "Job abandoned after " + MAX_ATTEMPTS + " attempts",
+                    Job.Status.RUNNING.name(), MAX_ATTEMPTS, (int) staleAfterMinutes);
+
+            int requeued = jdbcTemplate.update("""
+                UPDATE "Jobs" SET status = ?, owner = NULL, updated_at = NOW()
+                WHERE status = ? AND updated_at < NOW() - make_interval(mins => ?)
+            """, Job.Status.QUEUED.name(), Job.Status.RUNNING.name(), (int) staleAfterMinutes);
+
+            List<String> queued = jdbcTemplate.queryForList("""
+                SELECT id FROM "Jobs"
+                WHERE status = ? AND (owner IS NULL OR owner <> ?) AND updated_at < NOW() - INTERVAL '30 seconds'
+                ORDER BY created_at
+            """, String.class, Job.Status.QUEUED.name(), instanceId);
+
+            for (String jobId : queued) {
+                jdbcTemplate.update("UPDATE \"Jobs\" SET owner = ? WHERE id = ?", instanceId, jobId);
+                jobExecutor.execute(() -> run(jobId));
+            }
+
+            if (failed + requeued + queued.size() > 0) {
+                logger.info("Job recovery: {} abandoned, {} re-queued, {} resubmitted", failed, requeued, queued.size());
+            }
+        } catch (RejectedExecutionException e) {
+            logger.warn("Job queue full during recovery, remaining jobs will be retried on the next sweep");
+        } catch (Exception e) {
+            logger.error("Job recovery failed: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.marchina.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marchina.deadline.Deadline;
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates retried POSTs that carry an Idempotency-Key header.
+ *
+ * The first request with a key claims it in the "IdempotencyKeys" table and runs; a successful
+ * (2xx) response is stored there and in a local cache and replayed, with Idempotent-Replayed:
+ * true, to later requests with the same key. A duplicate that arrives while the first is still
+ * running waits for its result: on the same pod it attaches to the in-flight call, elsewhere it
+ * polls the table. Failed responses are not stored, so the client can retry them.
+ *
+ * Keys are scoped per user, expire after IDEMPOTENCY_TTL_HOURS, and a key reused with a different
+ * request body is rejected with 422.
+ *
+ * Only the action runs under the request deadline. Claiming, storing and releasing a key must
+ * succeed even when the action used up the budget, otherwise the key stays claimed (409 until
+ * it goes stale) or a completed action is run again after the stale takeover.
+ */
+@Service
+public class IdempotencyService {
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final long POLL_MILLIS = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final long ttlHours;
+    private final long staleMinutes;
+    private final long waitMillis;
+    private final int maxCachedResponses;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Cached> completed;
+    private final ScheduledExecutorService purgeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "idempotency-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A call running on this pod that duplicates can attach to.
+     */
+    private record InFlight(String requestHash, CompletableFuture<ResponseEntity<?>> response) {}
+
+    /**
+     * A stored response, or a claim that has not completed yet (status null).
+     */
+    private record Entry(String requestHash, Integer status, String body, String location) {
+        boolean isCompleted() {
+            return status != null;
+        }
+    }
+
+    private record Cached(Entry entry, long expiresAtMillis) {}
+
+    public IdempotencyService(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper, MeterRegistry meterRegistry, Dotenv dotenv) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.enabled = Boolean.parseBoolean(dotenv.get("IDEMPOTENCY_ENABLED", "true"));
+        this.ttlHours = Long.parseLong(dotenv.get("IDEMPOTENCY_TTL_HOURS", "24"));
+        this.staleMinutes = Long.parseLong(dotenv.get("IDEMPOTENCY_STALE_MINUTES", "5"));
+        this.waitMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(dotenv.get("IDEMPOTENCY_WAIT_SECONDS", "120")));
+        this.maxCachedResponses = Integer.parseInt(dotenv.get("IDEMPOTENCY_CACHE_MAX_ENTRIES", "1000"));
+        this.completed = Collections.synchronizedMap(new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > maxCachedResponses;
+            }
+        });
+        if (enabled) {
+            initializeTable();
+        }
+        logger.info("Idempotency keys enabled: {}, TTL: {} h, duplicate wait: {} s", enabled, ttlHours, waitMillis / 1000);
+    }
+
+    private void initializeTable() {
+        try {
+            jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS "IdempotencyKeys" (
+                    scope VARCHAR(64) NOT NULL,
+                    idempotency_key VARCHAR(255) NOT NULL,
+                    endpoint VARCHAR(64) NOT NULL,
+                    request_hash VARCHAR(64) NOT NULL,
+                    owner VARCHAR(36),
+                    response_status INT,
+                    response_body TEXT,
+                    location TEXT,
+                    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+                    updated_at TIMESTAMP NOT NULL DEFAULT NOW(),
+                    PRIMARY KEY (scope, idempotency_key)
+                )
+            """);
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idempotency_keys_created_idx ON \"IdempotencyKeys\" (created_at)");
+        } catch (Exception e) {
+            logger.error("Failed to initialize IdempotencyKeys table: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs the action once per key, replaying its response to duplicates.
+     *
+     * @param key      The Idempotency-Key header; without one the action simply runs
+     * @param scope    Whose key it is, e.g. "user:42" or "guest"; null runs the action without deduplication
+     * @param endpoint Short endpoint name, e.g. "projects.create"; part of the request fingerprint and metrics
+     * @param request  The request body and parameters; a duplicate must carry the same
+     * @param action   Produces the response for the first request
+     */
+    public ResponseEntity<?> execute(String key, String scope, String endpoint, Map<String, ?> request,
+                                     Supplier<ResponseEntity<?>> action) {
+        if (!enabled || key == null || key.isBlank() || scope == null) {
+            return action.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            return ResponseEntity.badRequest().body(Map.of("error", HEADER + " must be at most " + MAX_KEY_LENGTH + " characters"));
+        }
+        String requestHash = hash(endpoint, request);
+        String cacheKey = scope + "\n" + key;
+
+        Cached cached = completed.get(cacheKey);
+        if (cached != null && cached.expiresAtMillis() > System.currentTimeMillis()) {
+            return replay(cached.entry(), requestHash, endpoint);
+        }
+
+        InFlight mine = new InFlight(requestHash, new CompletableFuture<>());
+        InFlight running = inFlight.putIfAbsent(cacheKey, mine);
+        if (running != null) {
+            return attach(running, requestHash, endpoint);
+        }
+        Deadline deadline = Deadline.current().orElse(null);
+        try (Deadline.Scope detached = Deadline.detach()) {
+            ResponseEntity<?> response = claimOrWait(scope, key, cacheKey, endpoint, requestHash, deadline, action);
+            mine.response().complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            mine.response().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(cacheKey, mine);
+        }
+    }
+
+    private ResponseEntity<?> claimOrWait(String scope, String key, String cacheKey, String endpoint, String requestHash,
+                                          Deadline deadline, Supplier<ResponseEntity<?>> action) {
+        long waitUntil = System.currentTimeMillis() + (deadline == null ? waitMillis : Math.min(waitMillis, deadline.remainingMillis()));
+        while (true) {
+            Entry entry = claim(scope, key, endpoint, requestHash);
+            if (entry == null) {
+                record(endpoint, "executed");
+                return run(scope, key, cacheKey, requestHash, deadline, action);
+            }
+            if (entry.isCompleted() && entry.requestHash().equals(requestHash)) {
+                completed.put(cacheKey, new Cached(entry, System.currentTimeMillis() + TimeUnit.HOURS.toMillis(ttlHours)));
+            }
+            if (!entry.requestHash().equals(requestHash) || entry.isCompleted()) {
+                return replay(entry, requestHash, endpoint);
+            }
+            // Claimed by another pod that is still working on it
+            if (System.currentTimeMillis() + POLL_MILLIS > waitUntil) {
+                return stillInProgress(endpoint);
+            }
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return stillInProgress(endpoint);
+            }
+        }
+    }
+
+    /**
+     * Claims the key for this pod.
+     *
+     * @return null if the claim succeeded, otherwise the existing entry
+     */
+    private Entry claim(String scope, String key, String endpoint, String requestHash) {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            int inserted = jdbcTemplate.update("""
+                INSERT INTO "IdempotencyKeys" (scope, idempotency_key, endpoint, request_hash, owner)
+                VALUES (?, ?, ?, ?, ?)
+                ON CONFLICT (scope, idempotency_key) DO NOTHING
+            """, scope, key, endpoint, requestHash, instanceId);
+            if (inserted == 1) {
+                return null;
+            }
+
+            // Expired keys may be reused, and a claim whose pod died without answering is taken over
+            int expired = jdbcTemplate.update("""
+                DELETE FROM "IdempotencyKeys"
+                WHERE scope = ? AND idempotency_key = ? AND created_at < NOW() - make_interval(hours => ?)
+            """, scope, key, (int) ttlHours);
+            if (expired > 0) {
+                continue;
+            }
+            int takenOver = jdbcTemplate.update("""
+                UPDATE "IdempotencyKeys"
+                SET owner = ?, updated_at = NOW()
+                WHERE scope = ? AND idempotency_key = ? AND request_hash = ? AND response_status IS NULL
+                  AND updated_at < NOW() - make_interval(mins => ?)
+            """, instanceId, scope, key, requestHash, (int) staleMinutes);
+            if (takenOver == 1) {
+                logger.warn("Taking over stale idempotency key {} for {}", key, scope);
+                return null;
+            }
+
+            List<Entry> entries = jdbcTemplate.query("""
+                SELECT request_hash, response_status, response_body, location
+                FROM "IdempotencyKeys" WHERE scope = ? AND idempotency_key = ?
+            """, (rs, rowNum) -> new Entry(rs.getString("request_hash"), (Integer) rs.getObject("response_status"),
+                    rs.getString("response_body"), rs.getString("location")), scope, key);
+            if (!entries.isEmpty()) {
+                return entries.get(0);
+            }
+            // Released between our insert and select; try again
+        }
+        throw new IllegalStateException("Could not claim idempotency key " + key);
+    }
+
+    private ResponseEntity<?> run(String scope, String key, String cacheKey, String requestHash,
+                                  Deadline deadline, Supplier<ResponseEntity<?>> action) {
+        ResponseEntity<?> response;
+        try (Deadline.Scope ignored = deadline != null ? deadline.attach() : () -> { }) {
+            response = action.get();
+        } catch (RuntimeException e) {
+            release(scope, key);
+            throw e;
+        }
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            release(scope, key); // Let the client retry
+            return response;
+        }
+        try {
+            String body = response.getBody() == null ? null : objectMapper.writeValueAsString(response.getBody());
+            URI location = response.getHeaders().getLocation();
+            Entry entry = new Entry(requestHash, response.getStatusCode().value(), body, location == null ? null : location.toString());
+            jdbcTemplate.update("""
+                UPDATE "IdempotencyKeys"
+                SET response_status = ?, response_body = ?, location = ?, updated_at = NOW()
+                WHERE scope = ? AND idempotency_key = ? AND owner = ?
+            """, entry.status(), entry.body(), entry.location(), scope, key, instanceId);
+            completed.put(cacheKey, new Cached(entry, System.currentTimeMillis() + TimeUnit.HOURS.toMillis(ttlHours)));
+        } catch (Exception e) {
+            logger.error("Failed to store response for idempotency key {}: {}", key, e.getMessage(), e);
+            release(scope, key);
+        }
+        return response;
+    }
+
+    private ResponseEntity<?> attach(InFlight running, String requestHash, String endpoint) {
+        if (!running.requestHash().equals(requestHash)) {
+            return mismatch(endpoint);
+        }
+        record(endpoint, "attached");
+        try {
+            ResponseEntity<?> response = running.response().get(Deadline.remainingMillis(waitMillis), TimeUnit.MILLISECONDS);
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                return response;
+            }
+            return ResponseEntity.status(response.getStatusCode())
+                    .headers(response.getHeaders())
+                    .header(REPLAYED_HEADER, "true")
+                    .body(response.getBody());
+        } catch (TimeoutException e) {
+            return stillInProgress(endpoint);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return stillInProgress(endpoint);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private ResponseEntity<?> replay(Entry entry, String requestHash, String endpoint) {
+        if (!entry.requestHash().equals(requestHash)) {
+            return mismatch(endpoint);
+        }
+        record(endpoint, "replayed");
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(entry.status()).header(REPLAYED_HEADER, "true");
+        if (entry.location() != null) {
+            builder.location(URI.create(entry.location()));
+        }
+        if (entry.body() == null) {
+            return builder.build();
+        }
+        try {
+            return builder.body(objectMapper.readValue(entry.body(), JsonNode.class));
+        } catch (Exception e) {
+            return builder.body(entry.body());
+        }
+    }
+
+    private ResponseEntity<?> mismatch(String endpoint) {
+        record(endpoint, "mismatch");
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                .body(Map.of("error", HEADER + " was already used for a different request"));
+    }
+
+    private ResponseEntity<?> stillInProgress(String endpoint) {
+        record(endpoint, "in_progress");
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .body(Map.of("error", "A request with this " + HEADER + " is still in progress, please retry later"));
+    }
+
+    private void release(String scope, String key) {
+        try {
+            jdbcTemplate.update("DELETE FROM \"IdempotencyKeys\" WHERE scope = ? AND idempotency_key = ? AND owner = ?",
+                    scope, key, instanceId);
+        } catch (Exception e) {
+            logger.error("Failed to release idempotency key {}: {}", key, e.getMessage(), e);
+        }
+    }
+
+    private String hash(String endpoint, Map<String, ?> request) {
+        try {
+            String canonical = endpoint + "\n" + objectMapper.writeValueAsString(new TreeMap<>(request));
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(canonical.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("Failed to fingerprint request", e);
+        }
+    }
+
+    private void record(String endpoint, String outcome) {
+        Counter.builder("marchina.idempotency.requests")
+                .description("Requests carrying an Idempotency-Key, by outcome (executed, replayed, attached, in_progress, mismatch)")
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startPurge() {
+        if (enabled) {
+            purgeScheduler.scheduleWithFixedDelay(this::purgeExpired, 1, 60, TimeUnit.MINUTES);
+        }
+    }
+
+    private void purgeExpired() {
+        try {
+            int purged = jdbcTemplate.update("DELETE FROM \"IdempotencyKeys\" WHERE created_at < NOW() - make_interval(hours => ?)",
+                    (int) ttlHours);
+            if (purged > 0) {
+                logger.info("Purged {} expired idempotency keys", purged);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to purge idempotency keys: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.marchina.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marchina.model.ProjectRequirements;
+import com.marchina.model.RequirementSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * Keeps the detailed requirements extracted for each project, so diagrams can be regenerated
+ * without another extraction call.
+ *
+ * Every distinct text gets the next version number in "ProjectRequirements"; saving the same text
+ * again returns the latest version unchanged. The SHA-256 of the text identifies it cheaply, e.g.
+ * to tell whether two generations worked from the same requirements.
+ *
+ * Requirements extracted per diagram type are stored alongside as a JSON {@link RequirementSet},
+ * with the text being its {@link RequirementSet#toDetailedRequirements() flattened form}.
+ */
+@Service
+public class RequirementStore {
+    private static final Logger logger = LoggerFactory.getLogger(RequirementStore.class);
+    private static final int MAX_SAVE_ATTEMPTS = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    private final RowMapper<ProjectRequirements> requirementsRowMapper = (rs, rowNum) -> {
+        ProjectRequirements requirements = new ProjectRequirements();
+        requirements.setProjectId(rs.getLong("project_id"));
+        requirements.setVersion(rs.getInt("version"));
+        requirements.setRequirements(rs.getString("requirements"));
+        requirements.setContentHash(rs.getString("content_hash"));
+        requirements.setCreatedAt(rs.getTimestamp("created_at").getTime());
+        String requirementSet = rs.getString("requirement_set");
+        if (requirementSet != null) {
+            try {
+                requirements.setRequirementSet(objectMapper.readValue(requirementSet, RequirementSet.class));
+            } catch (Exception e) {
+                logger.warn("Ignoring unreadable requirement set of project {}: {}", requirements.getProjectId(), e.getMessage());
+            }
+        }
+        return requirements;
+    };
+
+    public RequirementStore(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        initializeTable();
+        logger.info("RequirementStore initialized");
+    }
+
+    private void initializeTable() {
+        try {
+            jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS "ProjectRequirements" (
+                    project_id BIGINT NOT NULL,
+                    version INT NOT NULL,
+                    requirements TEXT NOT NULL,
+                    content_hash CHAR(64) NOT NULL,
+                    requirement_set TEXT,
+                    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+                    PRIMARY KEY (project_id, version)
+                )
+            """);
+            jdbcTemplate.execute("ALTER TABLE \"ProjectRequirements\" ADD COLUMN IF NOT EXISTS requirement_set TEXT");
+        } catch (Exception e) {
+            logger.error("Failed to initialize ProjectRequirements table: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stores the requirements as the project's newest version, unless they equal the latest one.
+     * A failure to store is logged and not thrown, so it never fails the generation that produced them.
+     *
+     * @return The stored version, or empty if the requirements are blank or could not be stored
+     */
+    public Optional<ProjectRequirements> save(Long projectId, String requirements) {
+        return save(projectId, requirements, null);
+    }
+
+    /**
+     * Same as {@link #save(Long, String)} for structured requirements, keeping the set with its flattened text.
+     */
+    public Optional<ProjectRequirements> save(Long projectId, RequirementSet requirementSet) {
+        return save(projectId, requirementSet.toDetailedRequirements(), requirementSet);
+    }
+
+    private Optional<ProjectRequirements> save(Long projectId, String requirements, RequirementSet requirementSet) {
+        if (requirements == null || requirements.isBlank()) {
+            return Optional.empty();
+        }
+        try {
+            String requirementSetJson = requirementSet == null ? null : objectMapper.writeValueAsString(requirementSet);
+            return Optional.of(saveVersion(projectId, requirements, requirementSetJson, hash(requirements)));
+        } catch (Exception e) {
+            logger.error("Failed to store requirements for project {}: {}", projectId, e.getMessage(), e);
+            return Optional.empty();
+        }
+    }
+
+    private ProjectRequirements saveVersion(Long projectId, String requirements, String requirementSetJson,
+                                            String contentHash) {
+        for (int attempt = 1; ; attempt++) {
+            Optional<ProjectRequirements> latest = latest(projectId);
+            if (latest.isPresent() && latest.get().getContentHash().equals(contentHash)) {
+                return latest.get();
+            }
+            try {
+                ProjectRequirements inserted = jdbcTemplate.query("""
+                    INSERT INTO "ProjectRequirements" (project_id, version, requirements, content_hash, requirement_set)
+                    SELECT ?, COALESCE(MAX(version), 0) + 1, ?, ?, ?
+                    FROM "ProjectRequirements" WHERE project_id = ?
+                    RETURNING project_id, version, requirements, content_hash, requirement_set, created_at
+                """, requirementsRowMapper, projectId, requirements, contentHash, requirementSetJson, projectId).get(0);
+                logger.info("Stored requirements version {} for project {}", inserted.getVersion(), projectId);
+                return inserted;
+            } catch (DuplicateKeyException e) {
+                // Another request saved a version in between; compare against that one
+                if (attempt >= MAX_SAVE_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The newest stored requirements of the project, if any were ever extracted
+     */
+    public Optional<ProjectRequirements> latest(Long projectId) {
+        String sql = """
+            SELECT project_id, version, requirements, content_hash, requirement_set, created_at
+            FROM "ProjectRequirements"
+            WHERE project_id = ?
+            ORDER BY version DESC
+            LIMIT 1
+        """;
+        return jdbcTemplate.query(sql, requirementsRowMapper, projectId).stream().findFirst();
+    }
+
+    static String hash(String requirements) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(requirements.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.marchina.service;
+
+import com.marchina.agent.GenerationStage;
+import com.marchina.agent.ProgressListener;
+import com.marchina.model.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Forwards generation stage events to a Server-Sent Events stream.
+ * Every event carries the overall progress, the time since the stream was opened and the time
+ * spent since the previous event, so per-stage timing is visible on the client.
+ * The stream is completed once a terminal stage (COMPLETED or FAILED) has been sent.
+ */
+public class SseProgressListener implements ProgressListener {
+    private static final Logger logger = LoggerFactory.getLogger(SseProgressListener.class);
+
+    private final SseEmitter emitter;
+    private final long startedAt = System.currentTimeMillis();
+    private long lastEventAt = startedAt;
+    private boolean closed;
+
+    public SseProgressListener(long timeoutMillis) {
+        this.emitter = new SseEmitter(timeoutMillis);
+        this.emitter.onCompletion(this::close);
+        this.emitter.onTimeout(this::close);
+        this.emitter.onError(e -> close());
+    }
+
+    public SseEmitter getEmitter() {
+        return emitter;
+    }
+
+    @Override
+    public synchronized void onProgress(GenerationStage stage, Map<String, Object> details) {
+        if (closed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, Object> data = new LinkedHashMap<>(details);
+        data.put("stage", stage.name());
+        data.put("progress", stage.getProgress());
+        data.put("elapsedMs", now - startedAt);
+        data.put("stageMs", now - lastEventAt);
+        lastEventAt = now;
+
+        send(stage.name(), data);
+        if (stage.isTerminal()) {
+            complete();
+        }
+    }
+
+    /**
+     * Sends the current state of a job, used when a client attaches to a job that is already running.
+     * Completes the stream straight away if the job has finished.
+     */
+    public synchronized void sendSnapshot(Job job) {
+        if (closed) {
+            return;
+        }
+        send("snapshot", job);
+        if (job.getStatus() == Job.Status.COMPLETED || job.getStatus() == Job.Status.FAILED) {
+            complete();
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void send(String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException | IllegalStateException e) {
+            // Client went away; the job keeps running and can still be polled
+            logger.debug("Dropping progress stream: {}", e.getMessage());
+            closed = true;
+        }
+    }
+
+    private void complete() {
+        closed = true;
+        emitter.complete();
+    }
+
+    private synchronized void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,82 @@
+package com.marchina.service;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.output.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes model tokens to a Server-Sent Events stream as they arrive.
+ * Emits a "token" event per chunk, then "done" with the full text and timing, or "error".
+ */
+public class SseTokenStreamHandler implements StreamingResponseHandler<AiMessage> {
+    private static final Logger logger = LoggerFactory.getLogger(SseTokenStreamHandler.class);
+
+    private final SseEmitter emitter;
+    private final long startedAt = System.currentTimeMillis();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long firstTokenAt;
+
+    public SseTokenStreamHandler(long timeoutMillis) {
+        this.emitter = new SseEmitter(timeoutMillis);
+        this.emitter.onCompletion(() -> closed.set(true));
+        this.emitter.onTimeout(() -> closed.set(true));
+        this.emitter.onError(e -> closed.set(true));
+    }
+
+    public SseEmitter getEmitter() {
+        return emitter;
+    }
+
+    @Override
+    public void onNext(String token) {
+        if (firstTokenAt == 0) {
+            firstTokenAt = System.currentTimeMillis();
+        }
+        // Wrapped in JSON because SSE strips a leading space from plain data lines
+        send("token", Map.of("token", token));
+    }
+
+    @Override
+    public void onComplete(Response<AiMessage> response) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("text", response != null && response.content() != null ? response.content().text() : "");
+        data.put("firstTokenMs", firstTokenAt == 0 ? null : firstTokenAt - startedAt);
+        data.put("elapsedMs", System.currentTimeMillis() - startedAt);
+        send("done", data);
+        complete();
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        logger.error("Token stream failed: {}", error.getMessage(), error);
+        send("error", Map.of("error", String.valueOf(error.getMessage())));
+        complete();
+    }
+
+    private void send(String name, Object data) {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException | IllegalStateException e) {
+            // Client went away; the remaining tokens are dropped
+            logger.debug("Dropping token stream: {}", e.getMessage());
+            closed.set(true);
+        }
+    }
+
+    private void complete() {
+        if (closed.compareAndSet(false, true)) {
+            emitter.complete();
+        }
+    }
+}
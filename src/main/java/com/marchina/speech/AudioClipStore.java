@@ -0,0 +1,265 @@
+package com.marchina.speech;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds synthesized replies for a short while so responses can link to their audio
+ * ({@code /api/audio/{id}}) instead of embedding it as base64. Ids are random UUIDs and work as
+ * capability links: an audio element cannot send an Authorization header. A clip can be stored
+ * while it is still being synthesized; fetching it then waits for the synthesis.
+ *
+ * Clips are also written to a Postgres table, so the link works whichever pod the client's next
+ * request lands on; a pod fetching a clip another pod is still synthesizing polls the table until
+ * it is ready. With {@code TTS_AUDIO_CLIP_DB_ENABLED=false} clips only live in the memory of the
+ * pod that made them, and {@code /api/audio} must be routed to that pod (sticky sessions).
+ */
+@Component
+public class AudioClipStore {
+    private static final Logger logger = LoggerFactory.getLogger(AudioClipStore.class);
+    public static final String URL_PREFIX = "/api/audio/";
+    public static final String MP3_CONTENT_TYPE = "audio/mpeg";
+    private static final long POLL_INTERVAL_MILLIS = 250;
+    private static final int PURGE_EVERY_N_WRITES = 200;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final boolean databaseEnabled;
+    private final int maxEntries;
+    private final Duration ttl;
+    private final Map<String, Clip> clips;
+    private final AtomicLong writes = new AtomicLong();
+
+    /**
+     * @param remote True if another pod is still synthesizing the clip; {@link #await} then polls
+     *               the database instead of waiting on {@code audio}
+     */
+    public record Clip(String id, CompletableFuture<byte[]> audio, String contentType, Instant expiresAt, boolean remote) {
+        boolean isExpired() {
+            return Instant.now().isAfter(expiresAt);
+        }
+    }
+
+    public AudioClipStore(JdbcTemplate jdbcTemplate, Dotenv dotenv, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.databaseEnabled = Boolean.parseBoolean(dotenv.get("TTS_AUDIO_CLIP_DB_ENABLED", "true"));
+        this.maxEntries = Integer.parseInt(dotenv.get("TTS_AUDIO_CLIP_MAX_ENTRIES", "500"));
+        this.ttl = Duration.ofMinutes(Long.parseLong(dotenv.get("TTS_AUDIO_CLIP_TTL_MINUTES", "10")));
+
+        // Insertion-ordered: clips are fetched once or twice right after the reply, so the oldest goes first
+        this.clips = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Clip> eldest) {
+                return size() > maxEntries || eldest.getValue().isExpired();
+            }
+        };
+
+        meterRegistry.gauge("marchina.tts.audio_clips.size", clips, map -> {
+            synchronized (map) {
+                return map.size();
+            }
+        });
+        logger.info("Audio clip store: max {} clips, kept for {}, database tier: {}", maxEntries, ttl, databaseEnabled);
+
+        if (databaseEnabled) {
+            initializeTable();
+        }
+    }
+
+    private void initializeTable() {
+        try {
+            String sql = """
+                CREATE TABLE IF NOT EXISTS "AudioClip" (
+                    id VARCHAR(36) PRIMARY KEY,
+                    content_type VARCHAR(64) NOT NULL,
+                    audio BYTEA,
+                    failed BOOLEAN NOT NULL DEFAULT FALSE,
+                    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+                    expires_at TIMESTAMP NOT NULL
+                )
+            """;
+            jdbcTemplate.execute(sql);
+        } catch (Exception e) {
+            logger.error("Failed to initialize audio clip table: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stores an MP3 clip.
+     *
+     * @return The clip id
+     */
+    public String put(byte[] audio) {
+        return put(audio, MP3_CONTENT_TYPE);
+    }
+
+    public String put(byte[] audio, String contentType) {
+        return putPending(CompletableFuture.completedFuture(audio), contentType);
+    }
+
+    /**
+     * Stores an MP3 clip that is still being synthesized.
+     *
+     * @return The clip id
+     */
+    public String putPending(CompletableFuture<byte[]> audio) {
+        return putPending(audio, MP3_CONTENT_TYPE);
+    }
+
+    public String putPending(CompletableFuture<byte[]> audio, String contentType) {
+        String id = UUID.randomUUID().toString();
+        Clip clip = new Clip(id, audio, contentType, Instant.now().plus(ttl), false);
+        synchronized (clips) {
+            clips.put(id, clip);
+        }
+        if (databaseEnabled) {
+            persist(clip);
+        }
+        return id;
+    }
+
+    /**
+     * Looks up a clip, checking this pod's memory first and then the database.
+     */
+    public Optional<Clip> get(String id) {
+        synchronized (clips) {
+            Clip clip = clips.get(id);
+            if (clip != null) {
+                if (!clip.isExpired()) {
+                    recordRequest("memory");
+                    return Optional.of(clip);
+                }
+                clips.remove(id);
+            }
+        }
+
+        Optional<Clip> stored = databaseEnabled ? load(id) : Optional.empty();
+        stored.filter(clip -> !clip.remote()).ifPresent(clip -> {
+            synchronized (clips) {
+                clips.put(id, clip);
+            }
+        });
+        recordRequest(stored.isPresent() ? "database" : "miss");
+        return stored;
+    }
+
+    /**
+     * Waits for a clip's audio. A clip another pod is still synthesizing is polled from the database.
+     *
+     * @throws TimeoutException   If the audio was not ready in time
+     * @throws ExecutionException If synthesis failed, or the clip expired while waiting
+     */
+    public byte[] await(Clip clip, long timeoutMillis) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Clip current = clip;
+        while (current.remote()) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                throw new TimeoutException("Audio clip " + clip.id() + " is still being synthesized");
+            }
+            Thread.sleep(Math.min(POLL_INTERVAL_MILLIS, remaining));
+            current = load(clip.id()).orElseThrow(() ->
+                    new ExecutionException(new NoSuchElementException("Audio clip " + clip.id() + " expired")));
+        }
+        return current.audio().get(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the clip to the database, right away if its audio is ready and otherwise as a pending
+     * row that is filled in when synthesis completes. Failures are logged and otherwise ignored;
+     * the clip is then only available from this pod.
+     */
+    private void persist(Clip clip) {
+        CompletableFuture<byte[]> audio = clip.audio();
+        boolean ready = audio.isDone() && !audio.isCompletedExceptionally();
+        try {
+            if (ready) {
+                jdbcTemplate.update("INSERT INTO \"AudioClip\" (id, content_type, audio, expires_at) VALUES (?, ?, ?, ?)",
+                        clip.id(), clip.contentType(), audio.join(), Timestamp.from(clip.expiresAt()));
+            } else {
+                jdbcTemplate.update("INSERT INTO \"AudioClip\" (id, content_type, expires_at) VALUES (?, ?, ?)",
+                        clip.id(), clip.contentType(), Timestamp.from(clip.expiresAt()));
+            }
+            if (writes.incrementAndGet() % PURGE_EVERY_N_WRITES == 0) {
+                int purged = jdbcTemplate.update("DELETE FROM \"AudioClip\" WHERE expires_at < NOW()");
+                logger.debug("Purged {} expired audio clips", purged);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to store audio clip {} in the database: {}", clip.id(), e.getMessage());
+            return;
+        }
+        if (!ready) {
+            audio.whenComplete((bytes, error) -> complete(clip.id(), bytes, error));
+        }
+    }
+
+    private void complete(String id, byte[] audio, Throwable error) {
+        try {
+            if (error == null) {
+                jdbcTemplate.update("UPDATE \"AudioClip\" SET audio = ? WHERE id = ?", audio, id);
+            } else {
+                jdbcTemplate.update("UPDATE \"AudioClip\" SET failed = TRUE WHERE id = ?", id);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to update audio clip {} in the database: {}", id, e.getMessage());
+        }
+    }
+
+    private Optional<Clip> load(String id) {
+        try {
+            String sql = """
+                SELECT content_type, audio, failed, expires_at FROM "AudioClip"
+                WHERE id = ? AND expires_at > NOW()
+            """;
+            List<Clip> rows = jdbcTemplate.query(sql, (rs, rowNum) -> {
+                byte[] audio = rs.getBytes("audio");
+                boolean failed = rs.getBoolean("failed");
+                CompletableFuture<byte[]> future = audio != null ? CompletableFuture.completedFuture(audio)
+                        : failed ? CompletableFuture.failedFuture(new IllegalStateException("Synthesis failed on another instance"))
+                        : new CompletableFuture<>();
+                return new Clip(id, future, rs.getString("content_type"), rs.getTimestamp("expires_at").toInstant(),
+                        audio == null && !failed);
+            }, id);
+            return rows.stream().findFirst();
+        } catch (Exception e) {
+            logger.warn("Audio clip database lookup failed for {}: {}", id, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return The path clients fetch the clip from
+     */
+    public static String urlFor(String id) {
+        return URL_PREFIX + id;
+    }
+
+    private void recordRequest(String tier) {
+        Counter.builder("marchina.tts.audio_clips.requests")
+                .description("Audio clip lookups by tier (memory, database or miss)")
+                .tag("tier", tier)
+                .register(meterRegistry)
+                .increment();
+    }
+}
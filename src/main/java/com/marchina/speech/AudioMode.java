@@ -0,0 +1,31 @@
+package com.marchina.speech;
+
+import java.util.Locale;
+
+/**
+ * How a response delivers the spoken version of its text, chosen by the client with {@code ?audio=}.
+ */
+public enum AudioMode {
+    /** No speech is synthesized; for text-only clients. */
+    NONE,
+    /** The audio is synthesized before responding and embedded as base64. */
+    INLINE,
+    /** The audio is synthesized before responding and linked from {@code /api/audio/{id}}. */
+    LINK,
+    /** The response is sent right away with a link; synthesis runs in the background and the link waits for it. */
+    DEFERRED;
+
+    /**
+     * @return The mode for a request parameter value, {@link #INLINE} when absent or unknown
+     */
+    public static AudioMode parse(String value) {
+        if (value == null || value.isBlank()) {
+            return INLINE;
+        }
+        try {
+            return valueOf(value.strip().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return INLINE;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.marchina.speech;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts streamed text into sentences that can be synthesized on their own.
+ *
+ * A sentence ends at '.', '!' or '?' followed by whitespace, or at a line break. Sentences shorter
+ * than the minimum length are joined with the next one, which avoids a separate synthesis for
+ * fragments like "Great!" or "e.g." and keeps the prosody natural. Text running past the maximum
+ * length without an ending is cut at the last comma, or the last space.
+ */
+public class SentenceSplitter {
+    private final int minLength;
+    private final int maxLength;
+    private final StringBuilder buffer = new StringBuilder();
+
+    public SentenceSplitter(int minLength, int maxLength) {
+        this.minLength = minLength;
+        this.maxLength = Math.max(minLength + 1, maxLength);
+    }
+
+    /**
+     * Adds streamed text.
+     *
+     * @return The sentences completed by this text, in order; usually none or one
+     */
+    public List<String> append(String text) {
+        buffer.append(text);
+        List<String> sentences = new ArrayList<>();
+        int end;
+        while ((end = sentenceEnd()) > 0) {
+            String sentence = buffer.substring(0, end).strip();
+            buffer.delete(0, end);
+            if (!sentence.isEmpty()) {
+                sentences.add(sentence);
+            }
+        }
+        return sentences;
+    }
+
+    /**
+     * @return Whatever text is left once the stream is complete, or an empty string
+     */
+    public String flush() {
+        String rest = buffer.toString().strip();
+        buffer.setLength(0);
+        return rest;
+    }
+
+    /**
+     * @return The length of the first sentence in the buffer that is long enough, or -1 if there is none yet
+     */
+    private int sentenceEnd() {
+        // The character after a terminator must be seen, so the last one is never an ending yet
+        for (int i = 0; i < buffer.length() - 1; i++) {
+            char c = buffer.charAt(i);
+            boolean ends = c == '\n'
+                    || ((c == '.' || c == '!' || c == '?') && Character.isWhitespace(buffer.charAt(i + 1)));
+            if (ends && i + 1 >= minLength) {
+                return i + 1;
+            }
+        }
+        if (buffer.length() > maxLength) {
+            int cut = buffer.lastIndexOf(", ", maxLength);
+            if (cut < minLength) {
+                cut = buffer.lastIndexOf(" ", maxLength);
+            }
+            return cut >= minLength ? cut + 1 : maxLength;
+        }
+        return -1;
+    }
+}
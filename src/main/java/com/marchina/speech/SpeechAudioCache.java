@@ -0,0 +1,279 @@
+package com.marchina.speech;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Two-tier cache for synthesized speech keyed by normalized text, voice and output format.
+ * The first tier is a bounded in-memory LRU; the second tier is a directory of audio files that
+ * survives restarts. Only short texts are cached: canned replies and sentences that recur, not
+ * whole generated answers.
+ */
+@Component
+public class SpeechAudioCache {
+    private static final Logger logger = LoggerFactory.getLogger(SpeechAudioCache.class);
+    private static final String FILE_SUFFIX = ".audio";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final int maxTextLength;
+    private final Path directory;
+    private final long maxDiskBytes;
+    private final AtomicLong diskBytes = new AtomicLong();
+    // Guards the exists-then-move in put, so two writers of the same key count its bytes once
+    private final Object diskWriteLock = new Object();
+
+    private final Map<String, byte[]> memory;
+
+    public SpeechAudioCache(Dotenv dotenv, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = Boolean.parseBoolean(dotenv.get("TTS_CACHE_ENABLED", "true"));
+        this.maxEntries = Integer.parseInt(dotenv.get("TTS_CACHE_MAX_ENTRIES", "256"));
+        this.maxTextLength = Integer.parseInt(dotenv.get("TTS_CACHE_MAX_TEXT_CHARS", "300"));
+        this.maxDiskBytes = Long.parseLong(dotenv.get("TTS_CACHE_DISK_MAX_MB", "256")) * 1024 * 1024;
+        String dir = dotenv.get("TTS_CACHE_DIR", Path.of(System.getProperty("java.io.tmpdir"), "marchina-tts-cache").toString());
+
+        // Access-ordered map gives us LRU eviction once maxEntries is exceeded
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                if (size() > maxEntries) {
+                    recordEviction("memory");
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        meterRegistry.gauge("marchina.tts.cache.size", memory, map -> {
+            synchronized (map) {
+                return map.size();
+            }
+        });
+        meterRegistry.gauge("marchina.tts.cache.disk.bytes", diskBytes);
+
+        this.directory = enabled && !dir.isBlank() ? initializeDirectory(Path.of(dir)) : null;
+        logger.info("TTS audio cache enabled: {}, max entries: {}, disk tier: {}", enabled, maxEntries, directory);
+    }
+
+    private Path initializeDirectory(Path dir) {
+        try {
+            Files.createDirectories(dir);
+            // Left behind by writes interrupted by a crash or restart
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(file -> file.toString().endsWith(TEMP_SUFFIX)).forEach(SpeechAudioCache::deleteQuietly);
+            }
+            try (Stream<Path> files = Files.list(dir)) {
+                diskBytes.set(files.filter(file -> file.toString().endsWith(FILE_SUFFIX))
+                        .mapToLong(SpeechAudioCache::sizeOf)
+                        .sum());
+            }
+            return dir;
+        } catch (IOException e) {
+            logger.error("Failed to initialize TTS cache directory {}, disk tier disabled: {}", dir, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if audio for this text is worth caching
+     */
+    public boolean isCacheable(String text) {
+        return enabled && text != null && !text.isBlank() && normalize(text).length() <= maxTextLength;
+    }
+
+    /**
+     * Looks up audio, checking the memory tier first and then the disk tier.
+     * A disk hit is promoted into the memory tier.
+     */
+    public Optional<byte[]> get(SpeechSynthesizerPool.Key key, String text) {
+        if (!isCacheable(text)) {
+            return Optional.empty();
+        }
+        String cacheKey = cacheKey(key, text);
+        synchronized (memory) {
+            byte[] audio = memory.get(cacheKey);
+            if (audio != null) {
+                recordRequest("memory");
+                return Optional.of(audio);
+            }
+        }
+
+        if (directory != null) {
+            Path file = directory.resolve(cacheKey + FILE_SUFFIX);
+            try {
+                // Clips are a few KB and end up on the heap anyway, so a plain read beats mapping the file
+                byte[] audio = Files.readAllBytes(file);
+                if (audio.length > 0) {
+                    // Keeps recently used files out of the way of the oldest-first pruning
+                    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                    putInMemory(cacheKey, audio);
+                    recordRequest("disk");
+                    return Optional.of(audio);
+                }
+            } catch (NoSuchFileException e) {
+                // Not cached on disk
+            } catch (IOException e) {
+                logger.warn("TTS cache disk read failed for {}: {}", file.getFileName(), e.getMessage());
+            }
+        }
+
+        recordRequest("miss");
+        return Optional.empty();
+    }
+
+    /**
+     * Stores audio in both tiers. Disk failures are logged and otherwise ignored.
+     */
+    public void put(SpeechSynthesizerPool.Key key, String text, byte[] audio) {
+        if (!isCacheable(text) || audio == null || audio.length == 0) {
+            return;
+        }
+        String cacheKey = cacheKey(key, text);
+        putInMemory(cacheKey, audio);
+
+        if (directory != null) {
+            Path file = directory.resolve(cacheKey + FILE_SUFFIX);
+            if (Files.exists(file)) {
+                return;
+            }
+            Path temp = null;
+            try {
+                // Written under a temporary name and moved, so readers never see a half-written file
+                temp = Files.createTempFile(directory, cacheKey, TEMP_SUFFIX);
+                Files.write(temp, audio);
+                synchronized (diskWriteLock) {
+                    if (Files.exists(file)) {
+                        return;
+                    }
+                    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+                }
+                if (diskBytes.addAndGet(audio.length) > maxDiskBytes) {
+                    prune();
+                }
+            } catch (IOException e) {
+                logger.warn("TTS cache disk write failed for {}: {}", file.getFileName(), e.getMessage());
+            } finally {
+                if (temp != null) {
+                    deleteQuietly(temp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the disk tier is back under 90% of its limit.
+     */
+    private synchronized void prune() {
+        if (diskBytes.get() <= maxDiskBytes) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> oldestFirst = files.filter(file -> file.toString().endsWith(FILE_SUFFIX))
+                    .sorted(Comparator.comparingLong(SpeechAudioCache::lastModified))
+                    .toList();
+            for (Path file : oldestFirst) {
+                if (diskBytes.get() <= maxDiskBytes * 9 / 10) {
+                    break;
+                }
+                long size = sizeOf(file);
+                if (Files.deleteIfExists(file)) {
+                    diskBytes.addAndGet(-size);
+                    recordEviction("disk");
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("TTS cache disk pruning failed: {}", e.getMessage());
+        }
+    }
+
+    private void putInMemory(String cacheKey, byte[] audio) {
+        synchronized (memory) {
+            memory.put(cacheKey, audio);
+        }
+    }
+
+    /**
+     * Collapses whitespace so texts differing only in spacing or surrounding blanks share an entry.
+     */
+    static String normalize(String text) {
+        return text.strip().replaceAll("\\s+", " ");
+    }
+
+    static String cacheKey(SpeechSynthesizerPool.Key key, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(key.voice().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(key.format().name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(normalize(text).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.debug("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void recordRequest(String tier) {
+        Counter.builder("marchina.tts.cache.requests")
+                .description("TTS audio cache lookups by tier (memory, disk or miss)")
+                .tag("tier", tier)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private void recordEviction(String tier) {
+        Counter.builder("marchina.tts.cache.evictions")
+                .tag("tier", tier)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,26 @@
+package com.marchina.speech;
+
+/**
+ * Receives a spoken reply piece by piece: the text as it is produced, and the audio of each
+ * sentence once it is synthesized. Text and audio arrive on different threads; audio calls come
+ * one at a time and in sentence order.
+ */
+public interface SpeechChunkListener {
+
+    /**
+     * Text of the reply as it streams in, before it is spoken.
+     */
+    default void onText(String delta) {
+    }
+
+    /**
+     * Audio of the sentence at the given position of the reply.
+     */
+    void onAudio(int index, String sentence, byte[] audio);
+
+    /**
+     * The sentence at the given position could not be synthesized; later sentences still follow.
+     */
+    default void onAudioError(int index, String sentence, Throwable error) {
+    }
+}
@@ -0,0 +1,167 @@
+package com.marchina.speech;
+
+import com.marchina.agent.TTSAgent;
+import com.marchina.deadline.Deadline;
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Speaks a reply while it is still being written.
+ *
+ * Text appended to a {@link Stream} is cut into sentences ({@link SentenceSplitter}); each sentence
+ * is synthesized on the TTS executor as soon as it is complete, several at once, and its audio is
+ * handed to the listener in sentence order. The first audio is therefore ready after the first
+ * sentence has been written and synthesized, instead of after the whole reply.
+ */
+@Component
+public class SpeechPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(SpeechPipeline.class);
+
+    private final TTSAgent ttsAgent;
+    private final ThreadPoolExecutor ttsExecutor;
+    private final MeterRegistry meterRegistry;
+    private final int minSentenceLength;
+    private final int maxSentenceLength;
+
+    public SpeechPipeline(TTSAgent ttsAgent,
+                          @Qualifier("ttsExecutor") ThreadPoolExecutor ttsExecutor,
+                          MeterRegistry meterRegistry,
+                          Dotenv dotenv) {
+        this.ttsAgent = ttsAgent;
+        this.ttsExecutor = ttsExecutor;
+        this.meterRegistry = meterRegistry;
+        this.minSentenceLength = Integer.parseInt(dotenv.get("TTS_MIN_SENTENCE_CHARS", "20"));
+        this.maxSentenceLength = Integer.parseInt(dotenv.get("TTS_MAX_SENTENCE_CHARS", "300"));
+    }
+
+    /**
+     * Starts a spoken reply. Synthesis runs under the deadline current on the calling thread.
+     */
+    public Stream open(SpeechChunkListener listener) {
+        return new Stream(listener, Deadline.current().orElse(null));
+    }
+
+    /**
+     * One reply being spoken. Append its text as it arrives, then call {@link #finish()}.
+     */
+    public final class Stream {
+        private final SpeechChunkListener listener;
+        private final Deadline deadline;
+        private final SentenceSplitter splitter = new SentenceSplitter(minSentenceLength, maxSentenceLength);
+        private final long startNanos = System.nanoTime();
+        private CompletableFuture<Void> delivered = CompletableFuture.completedFuture(null);
+        private int sentences;
+        private volatile long firstAudioNanos;
+        private volatile boolean aborted;
+
+        private Stream(SpeechChunkListener listener, Deadline deadline) {
+            this.listener = listener;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Passes the text on to the listener and starts synthesizing every sentence it completes.
+         */
+        public synchronized void append(String text) {
+            if (aborted || text == null || text.isEmpty()) {
+                return;
+            }
+            listener.onText(text);
+            splitter.append(text).forEach(this::speak);
+        }
+
+        /**
+         * Synthesizes the remaining text.
+         *
+         * @return A future completing once the audio of every sentence has been delivered (or has failed)
+         */
+        public synchronized CompletableFuture<Void> finish() {
+            String rest = splitter.flush();
+            if (!aborted && !rest.isEmpty()) {
+                speak(rest);
+            }
+            return delivered;
+        }
+
+        /**
+         * Stops delivering audio, e.g. because the client went away. Sentences already being synthesized still finish.
+         */
+        public void abort() {
+            aborted = true;
+        }
+
+        /**
+         * @return Milliseconds from opening the stream to the first delivered audio, or -1 if none was delivered
+         */
+        public long getFirstAudioMillis() {
+            return firstAudioNanos == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstAudioNanos - startNanos);
+        }
+
+        public synchronized int getSentences() {
+            return sentences;
+        }
+
+        private void speak(String sentence) {
+            int index = sentences++;
+            CompletableFuture<byte[]> audio = synthesizeAsync(sentence);
+            // Chained on the previous delivery, so audio goes out in order even if synthesis finishes out of order
+            delivered = delivered.thenCompose(ignored -> audio.<Void>handle((bytes, error) -> {
+                deliver(index, sentence, bytes, error);
+                return null;
+            }));
+        }
+
+        private CompletableFuture<byte[]> synthesizeAsync(String sentence) {
+            Supplier<byte[]> task = () -> {
+                try (Deadline.Scope ignored = deadline != null ? deadline.attach() : () -> { }) {
+                    return ttsAgent.synthesize(sentence);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            try {
+                return CompletableFuture.supplyAsync(task, ttsExecutor);
+            } catch (RejectedExecutionException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        private void deliver(int index, String sentence, byte[] audio, Throwable error) {
+            if (aborted) {
+                return;
+            }
+            try {
+                if (error != null) {
+                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                    logger.warn("Speech synthesis failed for sentence {}: {}", index, cause.getMessage());
+                    listener.onAudioError(index, sentence, cause);
+                    return;
+                }
+                if (firstAudioNanos == 0) {
+                    firstAudioNanos = System.nanoTime();
+                    Timer.builder("marchina.tts.pipeline.first_audio")
+                            .description("Time from the start of a spoken reply to its first audio chunk")
+                            .publishPercentiles(0.5, 0.95, 0.99)
+                            .register(meterRegistry)
+                            .record(firstAudioNanos - startNanos, TimeUnit.NANOSECONDS);
+                }
+                listener.onAudio(index, sentence, audio);
+            } catch (Exception e) {
+                logger.warn("Speech listener failed for sentence {}: {}", index, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.marchina.speech;
+
+import com.marchina.deadline.Deadline;
+import com.microsoft.cognitiveservices.speech.Connection;
+import com.microsoft.cognitiveservices.speech.SpeechConfig;
+import com.microsoft.cognitiveservices.speech.SpeechSynthesisOutputFormat;
+import com.microsoft.cognitiveservices.speech.SpeechSynthesizer;
+import com.microsoft.cognitiveservices.speech.audio.AudioConfig;
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived Azure Speech synthesizers, pooled per voice and output format.
+ *
+ * Creating a SpeechConfig and SpeechSynthesizer allocates native handles, and the first call on a
+ * synthesizer also opens the websocket to the service. Pooled synthesizers keep that connection
+ * open between utterances. Each pool holds at most TTS_POOL_MAX_SIZE synthesizers, one caller per
+ * synthesizer at a time; callers beyond that wait up to TTS_POOL_ACQUIRE_TIMEOUT_MS (or the request
+ * deadline). Synthesizers that fail are discarded, idle ones beyond TTS_POOL_MIN_IDLE are closed after
+ * TTS_POOL_IDLE_SECONDS and all are replaced after TTS_POOL_MAX_LIFETIME_MINUTES. The default voice
+ * is warmed up with TTS_POOL_MIN_IDLE pre-connected synthesizers at startup.
+ */
+@Component
+public class SpeechSynthesizerPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SpeechSynthesizerPool.class);
+    public static final String DEFAULT_VOICE = "en-US-JennyNeural";
+    public static final SpeechSynthesisOutputFormat DEFAULT_FORMAT = SpeechSynthesisOutputFormat.Audio16Khz32KBitRateMonoMp3;
+
+    /**
+     * Synthesizers are only interchangeable for the same voice and output format.
+     */
+    public record Key(String voice, SpeechSynthesisOutputFormat format) {}
+
+    private final MeterRegistry meterRegistry;
+    private final String speechKey;
+    private final String speechRegion;
+    private final Key defaultKey;
+    private final int maxSize;
+    private final int minIdle;
+    private final long idleNanos;
+    private final long maxLifetimeNanos;
+    private final long acquireTimeoutMillis;
+    private final Map<Key, Pool> pools = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tts-pool-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed;
+
+    public SpeechSynthesizerPool(Dotenv dotenv, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.speechKey = dotenv.get("AZURE_SPEECH_KEY");
+        this.speechRegion = dotenv.get("AZURE_SPEECH_REGION");
+        this.defaultKey = new Key(dotenv.get("TTS_VOICE", DEFAULT_VOICE), DEFAULT_FORMAT);
+        this.maxSize = Math.max(1, Integer.parseInt(dotenv.get("TTS_POOL_MAX_SIZE", "4")));
+        this.minIdle = Math.min(maxSize, Math.max(0, Integer.parseInt(dotenv.get("TTS_POOL_MIN_IDLE", "1"))));
+        this.idleNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(dotenv.get("TTS_POOL_IDLE_SECONDS", "300")));
+        this.maxLifetimeNanos = TimeUnit.MINUTES.toNanos(Long.parseLong(dotenv.get("TTS_POOL_MAX_LIFETIME_MINUTES", "30")));
+        this.acquireTimeoutMillis = Long.parseLong(dotenv.get("TTS_POOL_ACQUIRE_TIMEOUT_MS", "5000"));
+
+        if (speechKey == null || speechRegion == null) {
+            String message = "Missing required Azure Speech configuration. Please check your .env file.";
+            logger.error(message);
+            throw new IllegalStateException(message);
+        }
+        logger.info("Speech synthesizer pool: max {} per voice, {} kept warm, idle timeout {} s",
+                maxSize, minIdle, TimeUnit.NANOSECONDS.toSeconds(idleNanos));
+    }
+
+    /**
+     * @return The voice and format used when callers do not ask for another one
+     */
+    public Key getDefaultKey() {
+        return defaultKey;
+    }
+
+    /**
+     * Opens the warm synthesizers and starts the idle/lifetime maintenance.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        maintenanceScheduler.execute(() -> pool(defaultKey).topUp());
+        maintenanceScheduler.scheduleWithFixedDelay(this::maintain, 30, 30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Borrows a synthesizer for the default voice and format.
+     *
+     * @see #acquire(Key)
+     */
+    public Lease acquire() throws IOException {
+        return acquire(defaultKey);
+    }
+
+    /**
+     * Borrows a synthesizer, creating one if the pool has room and none is idle. Close the lease to
+     * return it; call {@link Lease#discard()} first if the synthesizer failed.
+     *
+     * @throws IOException if no synthesizer became free within TTS_POOL_ACQUIRE_TIMEOUT_MS
+     * @throws com.marchina.deadline.DeadlineExceededException if the request deadline passed while waiting
+     */
+    public Lease acquire(Key key) throws IOException {
+        if (closed) {
+            throw new IOException("Speech synthesizer pool is closed");
+        }
+        return pool(key).acquire();
+    }
+
+    private Pool pool(Key key) {
+        return pools.computeIfAbsent(key, Pool::new);
+    }
+
+    void maintain() {
+        for (Pool pool : pools.values()) {
+            try {
+                pool.evict();
+                pool.topUp();
+            } catch (Exception e) {
+                logger.warn("Speech synthesizer pool maintenance for {} failed: {}", pool.key.voice(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        maintenanceScheduler.shutdownNow();
+        pools.values().forEach(Pool::closeIdle);
+    }
+
+    /**
+     * A borrowed synthesizer. Not thread safe: one utterance at a time.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Pool pool;
+        private final PooledSynthesizer pooled;
+        private final boolean warm;
+        private boolean discarded;
+        private boolean returned;
+
+        private Lease(Pool pool, PooledSynthesizer pooled, boolean warm) {
+            this.pool = pool;
+            this.pooled = pooled;
+            this.warm = warm;
+        }
+
+        public SpeechSynthesizer synthesizer() {
+            return pooled.synthesizer;
+        }
+
+        /**
+         * @return true if the synthesizer was reused with its connection already open
+         */
+        public boolean isWarm() {
+            return warm;
+        }
+
+        /**
+         * Marks the synthesizer as broken (failed or timed-out synthesis); it is closed instead of returned.
+         */
+        public void discard() {
+            discarded = true;
+        }
+
+        @Override
+        public void close() {
+            if (!returned) {
+                returned = true;
+                pool.release(pooled, discarded);
+            }
+        }
+    }
+
+    private static final class PooledSynthesizer {
+        private final SpeechConfig config;
+        private final SpeechSynthesizer synthesizer;
+        private final Connection connection;
+        private final long createdNanos = System.nanoTime();
+        private long lastReturnedNanos = createdNanos;
+        private volatile boolean connected;
+
+        private PooledSynthesizer(SpeechConfig config, SpeechSynthesizer synthesizer, Connection connection) {
+            this.config = config;
+            this.synthesizer = synthesizer;
+            this.connection = connection;
+            connection.connected.addEventListener((sender, event) -> connected = true);
+            connection.disconnected.addEventListener((sender, event) -> connected = false);
+        }
+
+        private void close() {
+            try {
+                connection.close();
+                synthesizer.close();
+                config.close();
+            } catch (Exception e) {
+                logger.debug("Error closing speech synthesizer: {}", e.getMessage());
+            }
+        }
+    }
+
+    private final class Pool {
+        private final Key key;
+        private final Semaphore permits = new Semaphore(maxSize, true);
+        private final Deque<PooledSynthesizer> idle = new ArrayDeque<>();
+        private int open;
+        private final Timer waitTimer;
+
+        private Pool(Key key) {
+            this.key = key;
+            this.waitTimer = Timer.builder("marchina.tts.pool.wait")
+                    .description("Time spent waiting for a free speech synthesizer")
+                    .tag("voice", key.voice())
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry);
+            Gauge.builder("marchina.tts.pool.synthesizers", this, pool -> pool.idleCount())
+                    .description("Pooled speech synthesizers by state")
+                    .tag("voice", key.voice())
+                    .tag("state", "idle")
+                    .register(meterRegistry);
+            Gauge.builder("marchina.tts.pool.synthesizers", this, pool -> pool.inUseCount())
+                    .description("Pooled speech synthesizers by state")
+                    .tag("voice", key.voice())
+                    .tag("state", "in_use")
+                    .register(meterRegistry);
+        }
+
+        private Lease acquire() throws IOException {
+            long start = System.nanoTime();
+            long maxWait = Deadline.remainingMillis(acquireTimeoutMillis);
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a speech synthesizer", e);
+            }
+            waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (!acquired) {
+                record("timeout");
+                Deadline.checkCurrent("tts");
+                throw new IOException("No speech synthesizer became available within " + maxWait + " ms");
+            }
+
+            PooledSynthesizer pooled;
+            synchronized (this) {
+                // Most recently used first: its connection is the likeliest to still be open
+                pooled = idle.pollFirst();
+                if (pooled == null) {
+                    open++;
+                }
+            }
+            if (pooled != null) {
+                record("hit");
+                return new Lease(this, pooled, pooled.connected);
+            }
+            try {
+                pooled = create(false);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    open--;
+                }
+                permits.release();
+                throw new IOException("Failed to create speech synthesizer: " + e.getMessage(), e);
+            }
+            record("miss");
+            return new Lease(this, pooled, false);
+        }
+
+        private void release(PooledSynthesizer pooled, boolean discard) {
+            try {
+                boolean expired = System.nanoTime() - pooled.createdNanos > maxLifetimeNanos;
+                if (discard || expired || closed) {
+                    if (discard) {
+                        evicted("unhealthy");
+                    } else if (expired) {
+                        evicted("lifetime");
+                    }
+                    synchronized (this) {
+                        open--;
+                    }
+                    pooled.close();
+                    return;
+                }
+                synchronized (this) {
+                    pooled.lastReturnedNanos = System.nanoTime();
+                    idle.offerFirst(pooled);
+                }
+            } finally {
+                permits.release();
+            }
+        }
+
+        /**
+         * Closes synthesizers idle for longer than TTS_POOL_IDLE_SECONDS (keeping TTS_POOL_MIN_IDLE of them)
+         * or older than TTS_POOL_MAX_LIFETIME_MINUTES. The least recently used are at the tail.
+         */
+        private void evict() {
+            List<PooledSynthesizer> closing = new ArrayList<>();
+            long now = System.nanoTime();
+            synchronized (this) {
+                Iterator<PooledSynthesizer> oldestFirst = idle.descendingIterator();
+                while (oldestFirst.hasNext()) {
+                    PooledSynthesizer pooled = oldestFirst.next();
+                    if (now - pooled.createdNanos > maxLifetimeNanos) {
+                        evicted("lifetime");
+                    } else if (idle.size() > minIdle && now - pooled.lastReturnedNanos > idleNanos) {
+                        evicted("idle");
+                    } else {
+                        continue;
+                    }
+                    oldestFirst.remove();
+                    open--;
+                    closing.add(pooled);
+                }
+            }
+            closing.forEach(PooledSynthesizer::close);
+        }
+
+        /**
+         * Opens pre-connected synthesizers until TTS_POOL_MIN_IDLE are idle, within the pool's size limit.
+         */
+        private void topUp() {
+            while (!closed) {
+                synchronized (this) {
+                    if (idle.size() >= minIdle || open >= maxSize) {
+                        return;
+                    }
+                    open++;
+                }
+                try {
+                    PooledSynthesizer pooled = create(true);
+                    synchronized (this) {
+                        idle.offerLast(pooled);
+                    }
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        open--;
+                    }
+                    logger.warn("Failed to warm up speech synthesizer for {}: {}", key.voice(), e.getMessage());
+                    return;
+                }
+            }
+        }
+
+        private PooledSynthesizer create(boolean preConnect) {
+            SpeechConfig config = SpeechConfig.fromSubscription(speechKey, speechRegion);
+            config.setSpeechSynthesisVoiceName(key.voice());
+            config.setSpeechSynthesisOutputFormat(key.format());
+            // No audio output device: the audio is only returned in the result
+            SpeechSynthesizer synthesizer = new SpeechSynthesizer(config, (AudioConfig) null);
+            PooledSynthesizer pooled = new PooledSynthesizer(config, synthesizer, Connection.fromSpeechSynthesizer(synthesizer));
+            if (preConnect) {
+                pooled.connection.openConnection(true);
+            }
+            logger.debug("Created speech synthesizer for {} ({})", key.voice(), preConnect ? "pre-connected" : "on demand");
+            return pooled;
+        }
+
+        private synchronized void closeIdle() {
+            idle.forEach(PooledSynthesizer::close);
+            open -= idle.size();
+            idle.clear();
+        }
+
+        private synchronized int idleCount() {
+            return idle.size();
+        }
+
+        private synchronized int inUseCount() {
+            return open - idle.size();
+        }
+
+        private void record(String outcome) {
+            Counter.builder("marchina.tts.pool.acquire")
+                    .description("Speech synthesizer checkouts: hit (reused), miss (created) or timeout")
+                    .tag("voice", key.voice())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .increment();
+        }
+
+        private void evicted(String reason) {
+            Counter.builder("marchina.tts.pool.evicted")
+                    .description("Speech synthesizers closed by the pool, by reason (idle, lifetime, unhealthy)")
+                    .tag("voice", key.voice())
+                    .tag("reason", reason)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.marchina;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.annotation.AnnotationConfigUtils;
+import org.springframework.context.annotation.ClassPathBeanDefinitionScanner;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.ConfigurationClassPostProcessor;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Loads the application's bean definitions the way startup does, without connecting to Postgres,
+ * Azure OpenAI or Azure Speech, and checks every component can be wired.
+ */
+class MarchinaApplicationTests {
+    private static final String ROOT_PACKAGE = "com.marchina";
+
+    @Test
+    void componentScanCoversEveryComponent() {
+        Set<String> scanned = new TreeSet<>();
+        for (String basePackage : scannedPackages()) {
+            componentsIn(basePackage).forEach(scanned::add);
+        }
+
+        Set<String> missing = new TreeSet<>(componentsIn(ROOT_PACKAGE));
+        missing.removeAll(scanned);
+
+        assertEquals(Set.of(), missing, "Components outside MarchinaApplication's @ComponentScan");
+    }
+
+    @Test
+    void contextLoadsWithEveryDependencyDefined() throws ClassNotFoundException {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        AnnotationConfigUtils.registerAnnotationConfigProcessors(beanFactory);
+        new ClassPathBeanDefinitionScanner(beanFactory).scan(scannedPackages());
+        new ConfigurationClassPostProcessor().postProcessBeanDefinitionRegistry(beanFactory);
+
+        List<String> unsatisfied = new ArrayList<>();
+        for (String name : beanFactory.getBeanDefinitionNames()) {
+            String className = beanFactory.getBeanDefinition(name).getBeanClassName();
+            if (className == null || !className.startsWith(ROOT_PACKAGE + ".")) {
+                continue;
+            }
+            for (Class<?> dependency : dependencies(Class.forName(className))) {
+                if (dependency.getName().startsWith(ROOT_PACKAGE + ".")
+                        && beanFactory.getBeanNamesForType(dependency, true, false).length == 0) {
+                    unsatisfied.add(className + " -> " + dependency.getName());
+                }
+            }
+        }
+
+        assertEquals(List.of(), unsatisfied, "Dependencies with no bean definition");
+    }
+
+    private static String[] scannedPackages() {
+        return MarchinaApplication.class.getAnnotation(ComponentScan.class).basePackages();
+    }
+
+    private static List<String> componentsIn(String basePackage) {
+        return new ClassPathScanningCandidateComponentProvider(true).findCandidateComponents(basePackage).stream()
+                .map(BeanDefinition::getBeanClassName)
+                .toList();
+    }
+
+    private static List<Class<?>> dependencies(Class<?> type) {
+        Constructor<?> constructor = Arrays.stream(type.getDeclaredConstructors())
+                .filter(candidate -> candidate.isAnnotationPresent(Autowired.class))
+                .findFirst()
+                .orElseGet(() -> BeanUtils.getResolvableConstructor(type));
+        List<Class<?>> dependencies = new ArrayList<>(Arrays.asList(constructor.getParameterTypes()));
+        for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (field.isAnnotationPresent(Autowired.class)) {
+                    dependencies.add(field.getType());
+                }
+            }
+        }
+        return dependencies;
+    }
+}
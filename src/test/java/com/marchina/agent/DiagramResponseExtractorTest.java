@@ -0,0 +1,96 @@
+package com.marchina.agent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marchina.model.DiagramGenerationResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the extractor over the recorded responses in resources/diagram-responses. Each
+ * {@code <case>.txt} is a raw model answer and {@code <case>.expected} holds the diagram name on
+ * its first line followed by the Mermaid code.
+ */
+class DiagramResponseExtractorTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DiagramResponseExtractor extractor = new DiagramResponseExtractor(new ObjectMapper(), meterRegistry);
+
+    @Test
+    void strictJsonIsNotCountedAsRecovered() throws IOException {
+        assertExtracted("strict", null);
+        assertNull(meterRegistry.find("marchina.diagram.response.recovered").counter());
+    }
+
+    @Test
+    void fencedJson() throws IOException {
+        assertExtracted("fenced", "embedded");
+    }
+
+    @Test
+    void jsonWrappedInProseWithBraces() throws IOException {
+        assertExtracted("prose-wrapped", "embedded");
+    }
+
+    @Test
+    void rawLineBreaksInsideTheDiagramString() throws IOException {
+        assertExtracted("raw-newline", "escapes");
+    }
+
+    @Test
+    void mermaidBackslashesThatAreNotJsonEscapes() throws IOException {
+        assertExtracted("escaped-pipe", "escapes");
+    }
+
+    @Test
+    void unescapedQuotesInNodeLabels() throws IOException {
+        assertExtracted("unescaped-quotes", "fields");
+    }
+
+    @Test
+    void answerWithoutJsonFails() throws IOException {
+        DiagramGenerationResult result = extractor.extract("flowchart", read("no-json.txt"));
+
+        assertFalse(result.success());
+        assertNotNull(result.errorMessage());
+        assertEquals(1.0, meterRegistry.get("marchina.diagram.response.unparseable").counter().count());
+    }
+
+    @Test
+    void blankAnswerFails() {
+        assertFalse(extractor.extract("flowchart", "  \n").success());
+        assertFalse(extractor.extract("flowchart", null).success());
+    }
+
+    private void assertExtracted(String name, String expectedMethod) throws IOException {
+        String expected = read(name + ".expected");
+        int firstLineEnd = expected.indexOf('\n');
+
+        DiagramGenerationResult result = extractor.extract("flowchart", read(name + ".txt"));
+
+        assertTrue(result.success(), () -> name + ": " + result.errorMessage());
+        assertEquals(expected.substring(0, firstLineEnd).strip(), result.name());
+        assertEquals(expected.substring(firstLineEnd + 1).strip(), result.diagramCode());
+        if (expectedMethod != null) {
+            Counter recovered = meterRegistry.find("marchina.diagram.response.recovered").tag("method", expectedMethod).counter();
+            assertNotNull(recovered, () -> name + " was not recovered via " + expectedMethod);
+            assertEquals(1.0, recovered.count());
+        }
+    }
+
+    private String read(String file) throws IOException {
+        try (InputStream input = getClass().getClassLoader().getResourceAsStream("diagram-responses/" + file)) {
+            assertNotNull(input, "Missing test resource diagram-responses/" + file);
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.marchina.agent.intent;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedNgramClassifierTest {
+    private static final double MIN_ACCURACY = 0.8;
+    private static final List<HashedNgramClassifier.Example> EXAMPLES = List.of(
+            new HashedNgramClassifier.Example("ERD", "Create an ERD for an online store with customers and orders"),
+            new HashedNgramClassifier.Example("ERD", "Design the database tables and relationships for a library"),
+            new HashedNgramClassifier.Example("ERD", "Entity relationship diagram of students and courses"),
+            new HashedNgramClassifier.Example("SEQUENCE", "Show the sequence of calls when a user logs in"),
+            new HashedNgramClassifier.Example("SEQUENCE", "Sequence diagram of the checkout request and response"),
+            new HashedNgramClassifier.Example("SEQUENCE", "Which messages do the client and server exchange during payment"));
+
+    @Test
+    void classifiesByTheClosestExamples() {
+        HashedNgramClassifier classifier = HashedNgramClassifier.train(EXAMPLES);
+
+        assertEquals(List.of("ERD", "SEQUENCE"), classifier.getLabels());
+        assertEquals("ERD", classifier.classify("database tables for a hospital with patients and doctors").label());
+        assertEquals("SEQUENCE", classifier.classify("sequence of messages between the client and server").label());
+    }
+
+    @Test
+    void confidenceIsAProbability() {
+        HashedNgramClassifier classifier = HashedNgramClassifier.train(EXAMPLES);
+
+        HashedNgramClassifier.Prediction clear = classifier.classify("entity relationship diagram for a library database");
+        HashedNgramClassifier.Prediction unknown = classifier.classify("zebra quantum banana");
+
+        assertTrue(clear.confidence() > 0.5 && clear.confidence() <= 1.0);
+        assertTrue(unknown.confidence() > 0 && unknown.confidence() <= 1.0);
+        assertTrue(clear.confidence() > unknown.confidence());
+    }
+
+    @Test
+    void mermaidArrowsAreFeatures() {
+        HashedNgramClassifier classifier = HashedNgramClassifier.train(List.of(
+                new HashedNgramClassifier.Example("ERD", "CUSTOMER ||--o{ ORDER : places"),
+                new HashedNgramClassifier.Example("SEQUENCE", "Alice ->> Bob : hello")));
+
+        assertEquals("ERD", classifier.classify("PRODUCT ||--o{ LINE_ITEM").label());
+        assertEquals("SEQUENCE", classifier.classify("Client ->> Server").label());
+    }
+
+    @Test
+    void trainingWithoutExamplesFails() {
+        assertThrows(IllegalArgumentException.class, () -> HashedNgramClassifier.train(List.of()));
+    }
+
+    @Test
+    void readsTabSeparatedExamplesSkippingCommentsAndBlankLines() throws IOException {
+        String tsv = "# comment\n\nERD\tdatabase for a shop\nOTHER\thello there\n";
+
+        List<HashedNgramClassifier.Example> examples = HashedNgramClassifier.readExamples(stream(tsv));
+
+        assertEquals(List.of(new HashedNgramClassifier.Example("ERD", "database for a shop"),
+                new HashedNgramClassifier.Example("OTHER", "hello there")), examples);
+    }
+
+    @Test
+    void rejectsLinesWithoutALabel() {
+        assertThrows(IOException.class, () -> HashedNgramClassifier.readExamples(stream("no label here\n")));
+    }
+
+    @Test
+    void shippedClassifiersAreAccurateOnTheHeldOutExamples() {
+        for (IntentTask task : IntentTask.values()) {
+            HashedNgramClassifier classifier = task.train();
+            List<HashedNgramClassifier.Example> heldOut = IntentTask.examples(task.getResource().replace("intent/", "intent/eval/"));
+
+            long correct = heldOut.stream()
+                    .filter(example -> classifier.classify(example.text()).label().equals(example.label()))
+                    .count();
+            double accuracy = (double) correct / heldOut.size();
+            assertTrue(accuracy >= MIN_ACCURACY, () -> task + " accuracy " + accuracy + " is below " + MIN_ACCURACY);
+        }
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
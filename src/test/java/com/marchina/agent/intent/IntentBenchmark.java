@@ -0,0 +1,77 @@
+package com.marchina.agent.intent;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Offline accuracy and latency check of the intent classifiers against the held-out examples in
+ * src/test/resources/intent/eval. Has no Spring dependencies, so it runs straight from the compiled classes:
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/test-classes:target/classes com.marchina.agent.intent.IntentBenchmark [threshold]
+ * </pre>
+ *
+ * For each task it prints overall accuracy, the share of requests answered locally at the given
+ * confidence threshold (the rest would fall back to the LLM), accuracy of those local answers and
+ * the p50/p99 classification latency.
+ */
+public final class IntentBenchmark {
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int TIMED_ROUNDS = 50;
+
+    private IntentBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        double threshold = args.length > 0 ? Double.parseDouble(args[0]) : 0.7;
+        System.out.printf("%-13s %6s %9s %9s %9s %9s %9s%n",
+                "task", "n", "accuracy", "local", "local acc", "p50 us", "p99 us");
+
+        for (IntentTask task : IntentTask.values()) {
+            HashedNgramClassifier classifier = task.train();
+            List<HashedNgramClassifier.Example> examples = IntentTask.examples(task.getResource().replace("intent/", "intent/eval/"));
+
+            int correct = 0;
+            int local = 0;
+            int localCorrect = 0;
+            for (HashedNgramClassifier.Example example : examples) {
+                HashedNgramClassifier.Prediction prediction = classifier.classify(example.text());
+                boolean right = prediction.label().equals(example.label());
+                correct += right ? 1 : 0;
+                if (prediction.confidence() >= threshold) {
+                    local++;
+                    localCorrect += right ? 1 : 0;
+                }
+                if (!right) {
+                    System.out.printf("  miss %-13s expected %-17s got %-17s (%.2f) %s%n", task, example.label(),
+                            prediction.label(), prediction.confidence(), example.text());
+                }
+            }
+
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                for (HashedNgramClassifier.Example example : examples) {
+                    classifier.classify(example.text());
+                }
+            }
+            long[] latencies = new long[TIMED_ROUNDS * examples.size()];
+            int n = 0;
+            for (int i = 0; i < TIMED_ROUNDS; i++) {
+                for (HashedNgramClassifier.Example example : examples) {
+                    long start = System.nanoTime();
+                    classifier.classify(example.text());
+                    latencies[n++] = System.nanoTime() - start;
+                }
+            }
+            Arrays.sort(latencies);
+
+            System.out.printf("%-13s %6d %8.1f%% %8.1f%% %8.1f%% %9.1f %9.1f%n", task, examples.size(),
+                    percent(correct, examples.size()), percent(local, examples.size()), percent(localCorrect, local),
+                    latencies[latencies.length / 2] / 1000.0, latencies[(int) (latencies.length * 0.99)] / 1000.0);
+        }
+    }
+
+    private static double percent(int part, int total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+}
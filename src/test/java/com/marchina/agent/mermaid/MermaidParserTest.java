@@ -0,0 +1,179 @@
+package com.marchina.agent.mermaid;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MermaidParserTest {
+    private final MermaidParser parser = new MermaidParser();
+
+    @Test
+    void parsesFlowchartNodesAndLinks() {
+        MermaidParseResult result = parser.parse("""
+                flowchart TD
+                    A[Start] --> B{Ok?}
+                    B -->|Yes| C[Done]
+                    B -- no --> A
+                """);
+
+        assertTrue(result.isValid(), result.describeErrors());
+        assertEquals(MermaidDiagramType.FLOWCHART, result.diagram().type());
+        assertEquals("TD", result.diagram().direction());
+        List<MermaidEdge> edges = result.diagram().edges();
+        assertEquals(3, edges.size());
+        assertEquals(new MermaidEdge("A", "B", "-->", null, 2), edges.get(0));
+        assertEquals("Yes", edges.get(1).label());
+        assertEquals("no", edges.get(2).label());
+        assertEquals("A", edges.get(2).to());
+    }
+
+    @Test
+    void parsesFlowchartLinkStyles() {
+        MermaidParseResult result = parser.parse("""
+                flowchart LR
+                    A -->B
+                    C---D
+                    E-.->F
+                    G==>H
+                    I -- text --- J
+                """);
+
+        assertTrue(result.isValid(), result.describeErrors());
+        assertEquals(List.of("-->", "---", "-.->", "==>", "-----"),
+                result.diagram().edges().stream().map(MermaidEdge::arrow).toList());
+    }
+
+    @Test
+    void parsesTextLinksWithOrWithoutSpacesAroundTheText() {
+        MermaidParseResult result = parser.parse("""
+                flowchart TD
+                    A -- spaced --> B
+                    A --tight--> C
+                    B ==thick==> C
+                    C -.dotted.-> D
+                    D --> A
+                """);
+
+        assertTrue(result.isValid(), result.describeErrors());
+        List<MermaidEdge> edges = result.diagram().edges();
+        assertEquals(new MermaidEdge("A", "C", "---->", "tight", 3), edges.get(1));
+        assertEquals(Arrays.asList("spaced", "tight", "thick", "dotted", null),
+                edges.stream().map(MermaidEdge::label).toList());
+    }
+
+    @Test
+    void reportsUnquotedLabelWithBracketsAtItsPosition() {
+        MermaidParseResult result = parser.parse("""
+                flowchart LR
+                    A[Open (beta)] --> B
+                """);
+
+        assertFalse(result.isValid());
+        MermaidSyntaxError error = result.errors().get(0);
+        assertEquals(2, error.line());
+        assertEquals(12, error.column());
+        assertTrue(error.message().contains("double quotes"), error.message());
+    }
+
+    @Test
+    void parsesErdRelationshipsAndEntityBlocks() {
+        MermaidParseResult result = parser.parse("""
+                erDiagram
+                    CUSTOMER ||--o{ ORDER : places
+                    CUSTOMER {
+                        string name PK
+                    }
+                """);
+
+        assertTrue(result.isValid(), result.describeErrors());
+        assertEquals(new MermaidEdge("CUSTOMER", "ORDER", "||--o{", "places", 2), result.diagram().edges().get(0));
+    }
+
+    @Test
+    void rejectsInvalidErdCardinality() {
+        MermaidParseResult result = parser.parse("""
+                erDiagram
+                    CUSTOMER ||--<{ ORDER : places
+                """);
+
+        assertFalse(result.isValid());
+        assertTrue(result.describeErrors().contains("Invalid cardinality '<{'"), result.describeErrors());
+    }
+
+    @Test
+    void rejectsErdCardinalitiesOnTheWrongSide() {
+        MermaidParseResult leftOnRight = parser.parse("""
+                erDiagram
+                    CUSTOMER o{--|| ORDER : places
+                """);
+        MermaidParseResult rightOnLeft = parser.parse("""
+                erDiagram
+                    CUSTOMER |{--o| ORDER : places
+                """);
+
+        assertFalse(leftOnRight.isValid());
+        assertTrue(leftOnRight.describeErrors().contains("Cardinality 'o{' only belongs on the right"), leftOnRight.describeErrors());
+        assertFalse(leftOnRight.describeErrors().contains("Cardinality '||'"), leftOnRight.describeErrors());
+        assertFalse(rightOnLeft.isValid());
+        assertTrue(rightOnLeft.describeErrors().contains("Cardinality '|{' only belongs on the right"), rightOnLeft.describeErrors());
+        assertTrue(parser.parse("""
+                erDiagram
+                    CUSTOMER ||--}o ORDER : places
+                """).describeErrors().contains("Cardinality '}o' only belongs on the left"));
+        assertTrue(parser.parse("""
+                erDiagram
+                    CUSTOMER }|--|| ORDER : places
+                """).isValid());
+    }
+
+    @Test
+    void parsesSequenceMessages() {
+        MermaidParseResult result = parser.parse("""
+                sequenceDiagram
+                    participant U as User
+                    U->>S: Hi
+                    S-->>U: Hello
+                """);
+
+        assertTrue(result.isValid(), result.describeErrors());
+        assertEquals(List.of(new MermaidEdge("U", "S", "->>", "Hi", 3), new MermaidEdge("S", "U", "-->>", "Hello", 4)),
+                result.diagram().edges());
+    }
+
+    @Test
+    void parsesClassMembersAndRelations() {
+        MermaidParseResult result = parser.parse("""
+                classDiagram
+                    class Animal {
+                        +String name
+                        +eat() void
+                    }
+                    Animal <|-- Dog
+                """);
+
+        assertTrue(result.isValid(), result.describeErrors());
+        assertEquals(new MermaidEdge("Animal", "Dog", "<|--", null, 6), result.diagram().edges().get(0));
+    }
+
+    @Test
+    void rejectsUnexpectedDiagramType() {
+        MermaidParseResult result = parser.parse("flowchart TD\n    A --> B", MermaidDiagramType.ERD);
+
+        assertFalse(result.isValid());
+        assertTrue(result.describeErrors().contains("Expected a erDiagram diagram"), result.describeErrors());
+    }
+
+    @Test
+    void rejectsEmptyDiagram() {
+        MermaidParseResult result = parser.parse("");
+
+        assertFalse(result.isValid());
+        assertNull(result.diagram());
+    }
+}
@@ -0,0 +1,78 @@
+package com.marchina.llm;
+
+import com.marchina.deadline.Deadline;
+import com.marchina.deadline.DeadlineExceededException;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadlineChatLanguageModelTest {
+    private static final List<ChatMessage> PROMPT = List.of(UserMessage.from("Generate an ERD for a library"));
+
+    private final ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(0, 4, 10, TimeUnit.SECONDS, new SynchronousQueue<>());
+
+    @Test
+    void abandonedCallReportsWhenTheDeploymentAnswers() throws Exception {
+        AtomicBoolean answered = new AtomicBoolean();
+        // Like an HTTP call that ignores the interrupt from cancellation
+        ChatLanguageModel slow = new ForwardingChatLanguageModel(null) {
+            @Override
+            public Response<AiMessage> generate(List<ChatMessage> messages) {
+                while (!answered.get()) {
+                    Thread.onSpinWait();
+                }
+                return Response.from(AiMessage.from("Late reply"));
+            }
+        };
+        DeadlineChatLanguageModel model = new DeadlineChatLanguageModel(slow, executor, new SimpleMeterRegistry(), "test");
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicReference<Response<AiMessage>> reported = new AtomicReference<>();
+
+        try (Deadline.Scope ignored = Deadline.after("test", Duration.ofMillis(50)).attach()) {
+            assertThrows(DeadlineExceededException.class, () -> model.generate(PROMPT, (response, error) -> {
+                reported.set(response);
+                finished.countDown();
+            }));
+            assertEquals(1L, finished.getCount(), "the call is still running after the caller gave up");
+        } finally {
+            answered.set(true);
+        }
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals("Late reply", reported.get().content().text());
+    }
+
+    @Test
+    void callWithoutDeadlineReportsBeforeReturning() {
+        StandInChatLanguageModel standIn = new StandInChatLanguageModel("primary", 1, 0, 0, 0.0);
+        DeadlineChatLanguageModel model = new DeadlineChatLanguageModel(standIn, executor, new SimpleMeterRegistry(), "test");
+        AtomicReference<Response<AiMessage>> reported = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Response<AiMessage> response = model.generate(PROMPT, (result, error) -> {
+            reported.set(result);
+            failure.set(error);
+        });
+
+        assertEquals(response, reported.get());
+        assertNull(failure.get());
+    }
+}
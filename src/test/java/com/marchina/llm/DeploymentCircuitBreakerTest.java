@@ -0,0 +1,90 @@
+package com.marchina.llm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeploymentCircuitBreakerTest {
+    private static final long OPEN_MILLIS = 50;
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        DeploymentCircuitBreaker breaker = new DeploymentCircuitBreaker("primary", 3, 30_000);
+
+        fail(breaker, 2);
+        assertEquals(DeploymentCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+
+        assertEquals(DeploymentCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertTrue(breaker.retryAfterMillis() > 0);
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        DeploymentCircuitBreaker breaker = new DeploymentCircuitBreaker("primary", 3, 30_000);
+
+        fail(breaker, 2);
+        breaker.tryAcquire();
+        breaker.onSuccess();
+        fail(breaker, 2);
+
+        assertEquals(DeploymentCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.retryAfterMillis());
+    }
+
+    @Test
+    void halfOpenAdmitsOneProbeThatClosesOnSuccess() throws InterruptedException {
+        DeploymentCircuitBreaker breaker = open();
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(DeploymentCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onSuccess();
+        assertEquals(DeploymentCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void failedProbeReopens() throws InterruptedException {
+        DeploymentCircuitBreaker breaker = open();
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+
+        assertEquals(DeploymentCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void releasedProbeLetsAnotherOneThrough() throws InterruptedException {
+        DeploymentCircuitBreaker breaker = open();
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.release();
+
+        assertEquals(DeploymentCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    private static DeploymentCircuitBreaker open() {
+        DeploymentCircuitBreaker breaker = new DeploymentCircuitBreaker("primary", 1, OPEN_MILLIS);
+        fail(breaker, 1);
+        assertEquals(DeploymentCircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static void fail(DeploymentCircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.marchina.llm;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local check of hedging and failover against two {@link StandInChatLanguageModel} deployments
+ * with injected latency, no Azure access needed. Needs the compile classpath (langchain4j, Micrometer):
+ *
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) com.marchina.llm.HedgingBenchmark [calls] [budgetRatio]
+ * </pre>
+ *
+ * The latency scenario compares p50/p90/p99 of the primary alone with the hedged pair, where
+ * both deployments answer in ~20 ms but one call in twenty takes an extra 400 ms. The failover
+ * scenario fails every primary call for the middle third of the run and prints errors, failovers
+ * and how many calls still reached the primary while its circuit was open.
+ */
+public final class HedgingBenchmark {
+    private static final int CLIENTS = 8;
+    private static final List<ChatMessage> PROMPT = List.of(UserMessage.from("Generate an ERD for a library"));
+
+    private HedgingBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        double budgetRatio = args.length > 1 ? Double.parseDouble(args[1]) : 0.1;
+        ThreadPoolExecutor callExecutor = new ThreadPoolExecutor(0, 64, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            System.out.printf("%-10s %7s %7s %7s %7s %8s %8s %8s%n",
+                    "scenario", "calls", "errors", "p50 ms", "p90 ms", "p99 ms", "primary", "fallback");
+
+            StandInChatLanguageModel alone = new StandInChatLanguageModel("primary", 20, 0.05, 400, 0);
+            print("unhedged", run(alone, calls, clients, null), alone, null);
+
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            HedgingPolicy policy = policy(callExecutor, registry, budgetRatio);
+            StandInChatLanguageModel primary = new StandInChatLanguageModel("primary", 20, 0.05, 400, 0);
+            StandInChatLanguageModel fallback = new StandInChatLanguageModel("fallback", 20, 0.05, 400, 0);
+            ChatLanguageModel hedged = policy.hedged(primary, "primary", fallback, "fallback", "benchmark");
+            print("hedged", run(hedged, calls, clients, null), primary, fallback);
+            printOutcomes(registry);
+
+            registry = new SimpleMeterRegistry();
+            policy = policy(callExecutor, registry, budgetRatio);
+            StandInChatLanguageModel failing = new StandInChatLanguageModel("primary", 20, 0, 0, 0);
+            StandInChatLanguageModel standby = new StandInChatLanguageModel("fallback", 20, 0, 0, 0);
+            ChatLanguageModel failover = policy.hedged(failing, "primary", standby, "fallback", "benchmark");
+            AtomicInteger primaryCallsWhileFailing = new AtomicInteger();
+            Result result = run(failover, calls, clients, n -> {
+                if (n == calls / 3) {
+                    primaryCallsWhileFailing.set(-failing.getCalls());
+                    failing.setFailureRate(1);
+                } else if (n == 2 * calls / 3) {
+                    primaryCallsWhileFailing.addAndGet(failing.getCalls());
+                    failing.setFailureRate(0);
+                }
+            });
+            print("failover", result, failing, standby);
+            printOutcomes(registry);
+            System.out.printf("  primary calls while failing: %d of %d, breaker now %s%n",
+                    primaryCallsWhileFailing.get(), calls / 3, policy.breaker("primary").getState());
+        } finally {
+            clients.shutdownNow();
+            callExecutor.shutdownNow();
+        }
+    }
+
+    private static HedgingPolicy policy(ThreadPoolExecutor executor, SimpleMeterRegistry registry, double budgetRatio) {
+        return new HedgingPolicy(executor, registry, true, 0.9, 100, 5, 200, budgetRatio, 5, 200);
+    }
+
+    private record Result(long[] latencies, int errors) {}
+
+    private interface Progress {
+        void before(int call);
+    }
+
+    private static Result run(ChatLanguageModel model, int calls, ExecutorService clients, Progress progress)
+            throws Exception {
+        long[] latencies = new long[calls];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            workers.add(clients.submit(() -> {
+                int n;
+                while ((n = next.getAndIncrement()) < calls) {
+                    if (progress != null) {
+                        progress.before(n);
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        model.generate(PROMPT);
+                    } catch (RuntimeException e) {
+                        errors.incrementAndGet();
+                    }
+                    latencies[n] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        Arrays.sort(latencies);
+        return new Result(latencies, errors.get());
+    }
+
+    private static void print(String scenario, Result result, StandInChatLanguageModel primary,
+                              StandInChatLanguageModel fallback) {
+        long[] sorted = result.latencies();
+        System.out.printf("%-10s %7d %7d %7d %7d %8d %8d %8s%n", scenario, sorted.length, result.errors(),
+                sorted[sorted.length / 2], sorted[(int) (sorted.length * 0.9)], sorted[(int) (sorted.length * 0.99)],
+                primary.getCalls(), fallback == null ? "-" : String.valueOf(fallback.getCalls()));
+    }
+
+    private static void printOutcomes(SimpleMeterRegistry registry) {
+        for (Counter counter : registry.find("marchina.llm.hedge").counters()) {
+            System.out.printf("  %-24s %6.0f%n", counter.getId().getTag("outcome"), counter.count());
+        }
+    }
+}
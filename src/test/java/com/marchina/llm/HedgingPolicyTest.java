@@ -0,0 +1,88 @@
+package com.marchina.llm;
+
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgingPolicyTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void hedgesAreLimitedByTheBudget() {
+        HedgingPolicy policy = policy(0.5, 5);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.tryHedge(), "hedge " + i + " should fit the initial budget");
+        }
+        assertFalse(policy.tryHedge());
+
+        policy.onCall();
+        assertFalse(policy.tryHedge());
+        policy.onCall();
+        assertTrue(policy.tryHedge());
+        assertFalse(policy.tryHedge());
+    }
+
+    @Test
+    void breakersAreSharedPerDeployment() {
+        HedgingPolicy policy = policy(0.1, 2);
+
+        DeploymentCircuitBreaker primary = policy.breaker("eastus/gpt-4o");
+        assertSame(primary, policy.breaker("eastus/gpt-4o"));
+        assertNotSame(primary, policy.breaker("westus/gpt-4o"));
+
+        for (int i = 0; i < 2; i++) {
+            primary.tryAcquire();
+            primary.onFailure();
+        }
+        assertEquals(DeploymentCircuitBreaker.State.OPEN, policy.breaker("eastus/gpt-4o").getState());
+        assertEquals(1.0, meterRegistry.get("marchina.llm.breaker.open").tag("deployment", "eastus/gpt-4o").gauge().value());
+    }
+
+    @Test
+    void failedPrimaryCallFailsOverToTheFallback() {
+        HedgingPolicy policy = policy(0.1, 2);
+        StandInChatLanguageModel primary = new StandInChatLanguageModel("primary", 1, 0, 0, 1.0);
+        StandInChatLanguageModel fallback = new StandInChatLanguageModel("fallback", 1, 0, 0, 0.0);
+        ChatLanguageModel hedged = policy.hedged(primary, "primary", fallback, "fallback", "test");
+
+        assertEquals("Reply from fallback", hedged.generate("Generate an ERD for a library"));
+        assertEquals("Reply from fallback", hedged.generate("Generate an ERD for a library"));
+        assertEquals(DeploymentCircuitBreaker.State.OPEN, policy.breaker("primary").getState());
+
+        assertEquals("Reply from fallback", hedged.generate("Generate an ERD for a library"));
+        assertEquals(2, primary.getCalls(), "calls should skip the primary while its circuit is open");
+        assertEquals(3, fallback.getCalls());
+    }
+
+    @Test
+    void latencyHistoryIsSharedByModelsForTheSameAgentAndDeployment() {
+        HedgingPolicy policy = policy(0.1, 2);
+        StandInChatLanguageModel primary = new StandInChatLanguageModel("primary", 1, 0, 0, 0.0);
+        StandInChatLanguageModel fallback = new StandInChatLanguageModel("fallback", 1, 0, 0, 0.0);
+
+        for (int i = 0; i < 20; i++) {
+            // A new model per call, as the speculative candidates get
+            policy.hedged(primary, "primary", fallback, "fallback", "erd").generate("Generate an ERD for a library");
+        }
+
+        assertTrue(policy.latencies("erd", "primary").percentile(0.9, -1) >= 0);
+        assertEquals(-1, policy.latencies("flowchart", "primary").percentile(0.9, -1));
+        assertEquals(-1, policy.latencies("erd", "fallback").percentile(0.9, -1));
+    }
+
+    private HedgingPolicy policy(double budgetRatio, int failureThreshold) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 4, 10, TimeUnit.SECONDS, new SynchronousQueue<>());
+        return new HedgingPolicy(executor, meterRegistry, true, 0.9, 10_000, 500, 50, budgetRatio, failureThreshold, 30_000);
+    }
+}
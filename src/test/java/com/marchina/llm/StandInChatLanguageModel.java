@@ -0,0 +1,72 @@
+package com.marchina.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for an Azure OpenAI deployment with injected latency and failures, for exercising
+ * hedging and failover without network access (see {@link HedgingBenchmark}).
+ *
+ * Each call sleeps the base latency give or take a quarter, plus the slow-tail delay with the
+ * given probability, then either fails with an I/O error (a deployment failure to the circuit
+ * breakers) or returns a canned reply naming the stand-in. Failures can be switched on and off while calls are running.
+ */
+public class StandInChatLanguageModel implements ChatLanguageModel {
+    private final String name;
+    private final long baseLatencyMillis;
+    private final double slowProbability;
+    private final long slowLatencyMillis;
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile double failureRate;
+
+    public StandInChatLanguageModel(String name, long baseLatencyMillis, double slowProbability,
+                                    long slowLatencyMillis, double failureRate) {
+        this.name = name;
+        this.baseLatencyMillis = baseLatencyMillis;
+        this.slowProbability = slowProbability;
+        this.slowLatencyMillis = slowLatencyMillis;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        calls.incrementAndGet();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latency = (long) (baseLatencyMillis * (0.75 + 0.5 * random.nextDouble()))
+                + (random.nextDouble() < slowProbability ? slowLatencyMillis : 0);
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Stand-in " + name + " call cancelled");
+        }
+        if (random.nextDouble() < failureRate) {
+            throw new UncheckedIOException(new IOException("Stand-in " + name + " connection reset"));
+        }
+        return Response.from(AiMessage.from("Reply from " + name));
+    }
+
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @return The number of calls received, including cancelled and failed ones
+     */
+    public int getCalls() {
+        return calls.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,67 @@
+package com.marchina.speech;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SentenceSplitterTest {
+
+    @Test
+    void emitsSentencesAsTheirEndingArrives() {
+        SentenceSplitter splitter = new SentenceSplitter(1, 300);
+
+        assertEquals(List.of("Hello there."), splitter.append("Hello there. How are"));
+        assertEquals(List.of("How are you?"), splitter.append(" you? Fine"));
+        assertEquals("Fine", splitter.flush());
+        assertEquals("", splitter.flush());
+    }
+
+    @Test
+    void terminatorAtTheEndOfTheBufferWaitsForTheNextCharacter() {
+        SentenceSplitter splitter = new SentenceSplitter(1, 300);
+
+        assertEquals(List.of(), splitter.append("Done."));
+        assertEquals(List.of("Done."), splitter.append(" Next"));
+    }
+
+    @Test
+    void periodInsideANumberDoesNotEndTheSentence() {
+        SentenceSplitter splitter = new SentenceSplitter(1, 300);
+
+        assertEquals(List.of("Version 3.5 is out."), splitter.append("Version 3.5 is out. "));
+    }
+
+    @Test
+    void lineBreakEndsASentence() {
+        SentenceSplitter splitter = new SentenceSplitter(1, 300);
+
+        assertEquals(List.of("- Customers"), splitter.append("- Customers\n- Orders\n"));
+        assertEquals(List.of("- Orders"), splitter.append("- Products"));
+        assertEquals("- Products", splitter.flush());
+    }
+
+    @Test
+    void shortSentencesAreJoinedWithTheNextOne() {
+        SentenceSplitter splitter = new SentenceSplitter(10, 300);
+
+        assertEquals(List.of("Great! Let me draw that."), splitter.append("Great! Let me draw that. "));
+    }
+
+    @Test
+    void longTextWithoutAnEndingIsCutAtTheLastComma() {
+        SentenceSplitter splitter = new SentenceSplitter(5, 20);
+
+        assertEquals(List.of("alpha beta,"), splitter.append("alpha beta, gamma delta epsilon"));
+        assertEquals("gamma delta epsilon", splitter.flush());
+    }
+
+    @Test
+    void longTextWithoutACommaIsCutAtTheLastSpace() {
+        SentenceSplitter splitter = new SentenceSplitter(5, 20);
+
+        assertEquals(List.of("alpha beta gamma"), splitter.append("alpha beta gamma delta"));
+        assertEquals("delta", splitter.flush());
+    }
+}